@@ -36,4 +36,19 @@ public interface MassList {
     @Nonnull
     public DataPoint[] getDataPoints();
 
+    /**
+     * @return Number of detected masses
+     */
+    public int getNumberOfDataPoints();
+
+    /**
+     * Copies m/z and intensity values of all detected masses into the given
+     * arrays, which must have room for at least getNumberOfDataPoints()
+     * values. See Spectrum.getDataPoints(double[], double[]).
+     * 
+     * @return Number of data points copied into the arrays
+     */
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]);
+
 }
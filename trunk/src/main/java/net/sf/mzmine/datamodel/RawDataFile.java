@@ -23,7 +23,6 @@ import java.util.ArrayList;
 
 import javax.annotation.Nonnull;
 
-import veritomyxSaaS.VeritomyxSaaS;
 import net.sf.mzmine.datamodel.impl.RemoteJob;
 import net.sf.mzmine.util.Range;
 
@@ -82,6 +81,22 @@ public interface RawDataFile {
     @Nonnull
     public int[] getScanNumbers(int msLevel, @Nonnull Range rtRange);
 
+    /**
+     * Returns sorted array of all scan numbers in given MS level and retention
+     * time range, whose precursor m/z is within given m/z range
+     * 
+     * @param msLevel
+     *            MS level
+     * @param rtRange
+     *            Retention time range
+     * @param precursorMZRange
+     *            Precursor m/z range
+     * @return Sorted array of scan numbers, never returns null
+     */
+    @Nonnull
+    public int[] getScanNumbers(int msLevel, @Nonnull Range rtRange,
+	    @Nonnull Range precursorMZRange);
+
     /**
      * 
      * @param scan
@@ -107,7 +122,7 @@ public interface RawDataFile {
 
     public double getDataMaxTotalIonCurrent(int msLevel);
 
-    public void addJob(String name, RawDataFile raw, String targetName, VeritomyxSaaS vtmx);
+    public void addJob(String name, RawDataFile raw, String targetName);
     public void removeJob(String name);
     public ArrayList<RemoteJob> getJobs();
 
@@ -77,6 +77,21 @@ public interface Spectrum {
     @Nonnull
     public DataPoint[] getDataPoints();
 
+    /**
+     * Copies m/z and intensity values of all data points, sorted in m/z order,
+     * into the given arrays. Unlike getDataPoints(), this method does not
+     * create any DataPoint objects, so modules processing many scans should
+     * prefer it and reuse the arrays between calls. Both arrays must have room
+     * for at least getNumberOfDataPoints() values.
+     * 
+     * This method may need to read data from disk, therefore it may be quite
+     * slow.
+     * 
+     * @return Number of data points copied into the arrays
+     */
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]);
+
     /**
      * Returns data points in given m/z range, sorted in m/z order.
      * 
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.mzmine.datamodel.Feature;
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Immutable index of the rows of one peak list. Rows are sorted by their
+ * average m/z and, separately, by their average retention time. A range query
+ * finds the rows inside the m/z range or inside the retention time range by
+ * binary search, whichever holds fewer rows, and only tests those for the
+ * other range. The peaks of each raw data file are indexed by the m/z of the
+ * peak when they are first queried. The index also maps each peak to its row.
+ *
+ * All query results are returned in the order of the peak list rows, as they
+ * would be by a linear pass over the rows. SimplePeakList drops the index
+ * whenever a row is added or removed, or the average values of a row change.
+ */
+class PeakListIndex {
+
+	private final PeakListRow rows[];
+	private final SortedPositions rowPositions, rowPositionsByRT;
+
+	// Position of the first row containing each peak
+	private final HashMap<Feature, Integer> peakRows;
+
+	// Indexes of peaks of each raw data file, built on first use
+	private final ConcurrentHashMap<RawDataFile, PeakIndex> peakIndexes = new ConcurrentHashMap<RawDataFile, PeakIndex>();
+
+	/**
+	 * Peaks of one raw data file
+	 */
+	private static class PeakIndex {
+		Feature peaks[];
+		SortedPositions positions;
+	}
+
+	/**
+	 * Positions of items in the peak list, sorted by one value (the key, e.g.
+	 * m/z) and holding another value (e.g. retention time) for filtering
+	 */
+	private static class SortedPositions {
+
+		final double keys[];
+		final double values[];
+		final int positions[];
+
+		SortedPositions(final double key[], double value[]) {
+
+			final int size = key.length;
+			Integer order[] = new Integer[size];
+			for (int i = 0; i < size; i++)
+				order[i] = i;
+
+			// Stable sort, items with equal keys keep the peak list order
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					return Double.compare(key[i1], key[i2]);
+				}
+			});
+
+			keys = new double[size];
+			values = new double[size];
+			positions = new int[size];
+			for (int i = 0; i < size; i++) {
+				positions[i] = order[i];
+				keys[i] = key[order[i]];
+				values[i] = value[order[i]];
+			}
+		}
+
+		/**
+		 * @return Number of items with key within given range
+		 */
+		int count(Range keyRange) {
+			return Math.max(0, upperBound(keys, keyRange.getMax())
+					- lowerBound(keys, keyRange.getMin()));
+		}
+
+		/**
+		 * @return Sorted positions of the items within given ranges
+		 */
+		int[] find(Range keyRange, Range valueRange) {
+
+			final int from = lowerBound(keys, keyRange.getMin());
+			final int to = upperBound(keys, keyRange.getMax());
+			if (from >= to)
+				return new int[0];
+
+			int result[] = new int[to - from];
+			int count = 0;
+			for (int i = from; i < to; i++) {
+				if (valueRange.contains(values[i]) && keyRange.contains(keys[i]))
+					result[count++] = positions[i];
+			}
+
+			result = Arrays.copyOf(result, count);
+			Arrays.sort(result);
+			return result;
+		}
+
+	}
+
+	PeakListIndex(List<PeakListRow> peakListRows) {
+
+		rows = peakListRows.toArray(new PeakListRow[0]);
+
+		double mz[] = new double[rows.length];
+		double rt[] = new double[rows.length];
+		peakRows = new HashMap<Feature, Integer>();
+		for (int i = 0; i < rows.length; i++) {
+			mz[i] = rows[i].getAverageMZ();
+			rt[i] = rows[i].getAverageRT();
+			for (Feature peak : rows[i].getPeaks()) {
+				if (!peakRows.containsKey(peak))
+					peakRows.put(peak, i);
+			}
+		}
+		rowPositions = new SortedPositions(mz, rt);
+		rowPositionsByRT = new SortedPositions(rt, mz);
+
+	}
+
+	/**
+	 * @return Rows with average m/z and retention time within given ranges
+	 */
+	PeakListRow[] getRows(Range rtRange, Range mzRange) {
+		int positions[];
+		if (rowPositions.count(mzRange) <= rowPositionsByRT.count(rtRange))
+			positions = rowPositions.find(mzRange, rtRange);
+		else
+			positions = rowPositionsByRT.find(rtRange, mzRange);
+		PeakListRow result[] = new PeakListRow[positions.length];
+		for (int i = 0; i < positions.length; i++)
+			result[i] = rows[positions[i]];
+		return result;
+	}
+
+	/**
+	 * @return Peaks of given raw data file with m/z and retention time within
+	 *         given ranges
+	 */
+	Feature[] getPeaks(RawDataFile file, Range rtRange, Range mzRange) {
+
+		PeakIndex peakIndex = peakIndexes.get(file);
+		if (peakIndex == null) {
+			peakIndex = buildPeakIndex(file);
+			peakIndexes.put(file, peakIndex);
+		}
+
+		int positions[] = peakIndex.positions.find(mzRange, rtRange);
+		Feature result[] = new Feature[positions.length];
+		for (int i = 0; i < positions.length; i++)
+			result[i] = peakIndex.peaks[positions[i]];
+		return result;
+	}
+
+	private PeakIndex buildPeakIndex(RawDataFile file) {
+
+		Feature peaks[] = new Feature[rows.length];
+		int count = 0;
+		for (PeakListRow row : rows) {
+			Feature peak = row.getPeak(file);
+			if (peak != null)
+				peaks[count++] = peak;
+		}
+
+		PeakIndex peakIndex = new PeakIndex();
+		peakIndex.peaks = Arrays.copyOf(peaks, count);
+
+		double mz[] = new double[count];
+		double rt[] = new double[count];
+		for (int i = 0; i < count; i++) {
+			mz[i] = peakIndex.peaks[i].getMZ();
+			rt[i] = peakIndex.peaks[i].getRT();
+		}
+		peakIndex.positions = new SortedPositions(mz, rt);
+
+		return peakIndex;
+	}
+
+	/**
+	 * @return Position of the row containing given peak, or -1
+	 */
+	int getPeakRowNum(Feature peak) {
+		Integer position = peakRows.get(peak);
+		if (position == null)
+			return -1;
+		return position;
+	}
+
+	/**
+	 * @return Row containing given peak, or null
+	 */
+	PeakListRow getPeakRow(Feature peak) {
+		Integer position = peakRows.get(peak);
+		if (position == null)
+			return null;
+		return rows[position];
+	}
+
+	/**
+	 * @return index of the first value >= key, or values.length
+	 */
+	private static int lowerBound(double values[], double key) {
+		int low = 0, high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return index of the first value > key, or values.length
+	 */
+	private static int upperBound(double values[], double key) {
+		int low = 0, high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] <= key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+}
@@ -22,28 +22,93 @@ package net.sf.mzmine.datamodel.impl;
 import veritomyxSaaS.VeritomyxSaaS;
 import net.sf.mzmine.datamodel.RemoteJobInfo;
 import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.desktop.preferences.MZminePreferences;
+import net.sf.mzmine.main.MZmineCore;
 
 /**
  * This defines a Veritomyx job
+ * 
+ * The status of the job is polled by RemoteJobMonitor, getStatus() returns
+ * the last polled status. The job has its own connection to the server, as
+ * the connection of the task which started the job is not thread safe.
  */
 public class RemoteJob implements RemoteJobInfo
 {
 	private String        jobID;
 	private RawDataFile   rawDataFile;
 	private String        targetName;
-	private VeritomyxSaaS vtmx;
+	private VeritomyxSaaS vtmx;			// used only by refreshStatus()
+	private volatile int  status;
 	
-	public RemoteJob(String name, RawDataFile raw, String target, VeritomyxSaaS vtmxConn)
+	public RemoteJob(String name, RawDataFile raw, String target)
 	{
 		jobID       = name;
 		rawDataFile = raw;
 		targetName  = target;
-		vtmx        = vtmxConn;
+		vtmx        = null;
+		status      = VeritomyxSaaS.W_UNDEFINED;
 	}
 
     public String      getName()        { return jobID; }
     public String      toString()       { return jobID; }
     public RawDataFile getRawDataFile() { return rawDataFile; }
     public String      getTargetName()  { return targetName; }
-    public int         getStatus()      { return (vtmx != null) ? vtmx.getPageStatus() : VeritomyxSaaS.W_UNDEFINED; }
-}
\ No newline at end of file
+    public int         getStatus()      { return status; }
+
+    /**
+     * Return a short description of the last polled status
+     * 
+     * @return
+     */
+    public String getStatusText()
+    {
+    	switch (status)
+    	{
+    	case VeritomyxSaaS.W_UNDEFINED: return "Unknown";
+    	case VeritomyxSaaS.W_INFO:      return "Launched";
+    	case VeritomyxSaaS.W_RUNNING:   return "Running";
+    	case VeritomyxSaaS.W_DONE:      return "Done";
+    	case VeritomyxSaaS.W_DELETED:   return "Deleted";
+    	case VeritomyxSaaS.W_EXCEPTION: return "Server not available";
+    	default:                        return "Error " + status;
+    	}
+    }
+
+    /**
+     * Get the current status of the job from the server and cache it
+     * 
+     * @return
+     */
+    synchronized int refreshStatus()
+    {
+    	status = requestStatus();
+    	return status;
+    }
+
+    /**
+     * Request the current status of the job from the server.
+     * The job is connected on the first request, using the account in preferences.
+     * 
+     * @return
+     */
+    int requestStatus()
+    {
+    	if (vtmx == null)
+    	{
+    		MZminePreferences preferences = MZmineCore.getConfiguration().getPreferences();
+    		String  server   = preferences.getParameter(MZminePreferences.vtmxServer).getValue();
+    		String  username = preferences.getParameter(MZminePreferences.vtmxUsername).getValue();
+    		String  password = preferences.getParameter(MZminePreferences.vtmxPassword).getValue();
+    		Integer aid      = preferences.getParameter(MZminePreferences.vtmxAccount).getValue();
+    		if ((username == null) || username.isEmpty() || (password == null) || password.isEmpty() || (aid == null))
+    			return status;		// no account yet, try again later
+
+    		VeritomyxSaaS conn = new VeritomyxSaaS(MZmineCore.VtmxDebug, server);
+    		int result = conn.init(username, password, aid, jobID, 0);
+    		if (conn.getJobID() != null)
+    			vtmx = conn;
+    		return result;
+    	}
+    	return vtmx.getPageStatus();
+    }
+}
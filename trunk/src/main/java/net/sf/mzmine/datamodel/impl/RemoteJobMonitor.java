@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013-2014 Veritomyx
+ *
+ * This file is part of MZminePI.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import net.sf.mzmine.main.MZmineCore;
+import veritomyxSaaS.VeritomyxSaaS;
+
+/**
+ * Polls the status of all remote jobs in the background.
+ *
+ * Jobs are polled by a small pool of threads, so the status requests of all
+ * jobs share a few connections instead of each blocking a worker thread. The
+ * last status of each job is cached in the RemoteJob, so getStatus() never
+ * waits for the server. A job is polled as soon as it is added, then again
+ * after POLL_INTERVAL, and the interval doubles (up to MAX_POLL_INTERVAL) each
+ * time the status has not changed. Polling stops when the job is done or
+ * deleted.
+ */
+public class RemoteJobMonitor
+{
+	private static final int  NUM_OF_THREADS    = 2;
+	private static final long POLL_INTERVAL     = 30 * 1000;	// milliseconds
+	private static final long MAX_POLL_INTERVAL = 600 * 1000;	// milliseconds
+
+	private static RemoteJobMonitor myInstance;
+
+	private final Logger                                logger = Logger.getLogger(this.getClass().getName());
+	private final ScheduledThreadPoolExecutor           scheduler;
+	private final ConcurrentHashMap<RemoteJob, JobPoll> polls = new ConcurrentHashMap<RemoteJob, JobPoll>();
+	private final long                                  pollInterval, maxPollInterval;
+
+	/**
+	 * Polling state of one job
+	 */
+	private class JobPoll implements Runnable
+	{
+		final RemoteJob             job;
+		long                        interval = pollInterval;
+		volatile ScheduledFuture<?> future;
+
+		JobPoll(RemoteJob job) { this.job = job; }
+
+		public void run()
+		{
+			// the job was removed while waiting
+			if (polls.get(job) != this)
+				return;
+
+			int previous = job.getStatus();
+			int status;
+			try {
+				status = job.refreshStatus();
+			} catch (Exception e) {
+				logger.warning("Cannot get status of job " + job.getName() + ": " + e.toString());
+				status = previous;
+			}
+
+			if (status != previous)
+			{
+				interval = pollInterval;
+				notifyJobChanged(job);
+			}
+			else
+				interval = Math.min(interval * 2, maxPollInterval);
+
+			if ((status == VeritomyxSaaS.W_DONE) || (status == VeritomyxSaaS.W_DELETED))
+			{
+				logger.info("Job " + job.getName() + " finished remotely, status " + status);
+				polls.remove(job, this);
+				return;
+			}
+
+			if (polls.get(job) == this)
+				future = scheduler.schedule(this, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private RemoteJobMonitor()
+	{
+		this(POLL_INTERVAL, MAX_POLL_INTERVAL);
+	}
+
+	/**
+	 * Create a monitor with the given polling intervals, in milliseconds
+	 *
+	 * @param pollInterval
+	 * @param maxPollInterval
+	 */
+	RemoteJobMonitor(long pollInterval, long maxPollInterval)
+	{
+		this.pollInterval    = pollInterval;
+		this.maxPollInterval = maxPollInterval;
+		scheduler = new ScheduledThreadPoolExecutor(NUM_OF_THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Remote job monitor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public static synchronized RemoteJobMonitor getInstance()
+	{
+		if (myInstance == null)
+			myInstance = new RemoteJobMonitor();
+		return myInstance;
+	}
+
+	/**
+	 * Start polling the status of the given job. The job is polled
+	 * immediately, so its status is known before the project is saved, and
+	 * pending jobs loaded from a project file are resumed at once.
+	 *
+	 * @param job
+	 */
+	public void addJob(RemoteJob job)
+	{
+		JobPoll poll = new JobPoll(job);
+		if (polls.putIfAbsent(job, poll) != null)
+			return;
+		poll.future = scheduler.schedule(poll, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop polling the status of the given job
+	 *
+	 * @param job
+	 */
+	public void removeJob(RemoteJob job)
+	{
+		JobPoll poll = polls.remove(job);
+		if ((poll != null) && (poll.future != null))
+			poll.future.cancel(false);
+	}
+
+	/**
+	 * Called by a polling thread when the status of the job has changed
+	 *
+	 * @param job
+	 */
+	void notifyJobChanged(final RemoteJob job)
+	{
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				MZmineCore.getCurrentProject().notifyObjectChanged(job, false);
+			}
+		});
+	}
+
+}
@@ -53,6 +53,12 @@ public class SimpleIsotopePattern implements IsotopePattern {
 	return dataPoints;
     }
 
+    @Override
+    public int getDataPoints(@Nonnull double mzValues[],
+	    @Nonnull double intensityValues[]) {
+	return ScanUtils.copyDataPoints(dataPoints, mzValues, intensityValues);
+    }
+
     @Override
 	public int getNumberOfDataPoints() {
 	return dataPoints.length;
@@ -49,6 +49,13 @@ public class SimplePeakList implements PeakList {
 	private String dateCreated;
 	private Range mzRange, rtRange;
 
+	// Index of the rows, built on first query and dropped on any change
+	private PeakListIndex index;
+
+	// Number of rows which do not report their changes, such rows can only be
+	// searched linearly
+	private int untrackedRows = 0;
+
 	public static DateFormat dateFormat = new SimpleDateFormat(
 			"yyyy/MM/dd HH:mm:ss");
 
@@ -160,6 +167,11 @@ public class SimplePeakList implements PeakList {
 
 	public PeakListRow[] getRowsInsideScanAndMZRange(Range rtRange,
 			Range mzRange) {
+
+		PeakListIndex index = getIndex();
+		if (index != null)
+			return index.getRows(rtRange, mzRange);
+
 		Vector<PeakListRow> rowsInside = new Vector<PeakListRow>();
 
 		for (PeakListRow row : peakListRows) {
@@ -171,6 +183,24 @@ public class SimplePeakList implements PeakList {
 		return rowsInside.toArray(new PeakListRow[0]);
 	}
 
+	/**
+	 * Returns the index of the rows, or null if some rows cannot be indexed
+	 */
+	private synchronized PeakListIndex getIndex() {
+		if (untrackedRows > 0)
+			return null;
+		if (index == null)
+			index = new PeakListIndex(peakListRows);
+		return index;
+	}
+
+	/**
+	 * Called by a row of this peak list when its peaks have changed
+	 */
+	synchronized void rowChanged(PeakListRow row) {
+		index = null;
+	}
+
 	public void addRow(PeakListRow row) {
 		List<RawDataFile> myFiles = Arrays.asList(this.getRawDataFiles());
 		for (RawDataFile testFile : row.getRawDataFiles()) {
@@ -179,6 +209,13 @@ public class SimplePeakList implements PeakList {
 						+ " is not in this peak list"));
 		}
 		peakListRows.add(row);
+		synchronized (this) {
+			index = null;
+			if (row instanceof SimplePeakListRow)
+				((SimplePeakListRow) row).addPeakList(this);
+			else
+				untrackedRows++;
+		}
 		if (row.getDataPointMaxIntensity() > maxDataPointIntensity) {
 			maxDataPointIntensity = row.getDataPointMaxIntensity();
 		}
@@ -222,6 +259,11 @@ public class SimplePeakList implements PeakList {
 	 */
 	public Feature[] getPeaksInsideScanAndMZRange(RawDataFile file,
 			Range rtRange, Range mzRange) {
+
+		PeakListIndex index = getIndex();
+		if (index != null)
+			return index.getPeaks(file, rtRange, mzRange);
+
 		Vector<Feature> peaksInside = new Vector<Feature>();
 
 		Feature[] peaks = getPeaks(file);
@@ -237,7 +279,15 @@ public class SimplePeakList implements PeakList {
 	 * @see net.sf.mzmine.datamodel.PeakList#removeRow(net.sf.mzmine.datamodel.PeakListRow)
 	 */
 	public void removeRow(PeakListRow row) {
-		peakListRows.remove(row);
+		boolean removed = peakListRows.remove(row);
+		synchronized (this) {
+			index = null;
+			if (row instanceof SimplePeakListRow) {
+				if (!peakListRows.contains(row))
+					((SimplePeakListRow) row).removePeakList(this);
+			} else if (removed)
+				untrackedRows--;
+		}
 
 		// We have to update the project tree model
 		MZmineProjectImpl project = (MZmineProjectImpl) MZmineCore
@@ -278,6 +328,10 @@ public class SimplePeakList implements PeakList {
 	 */
 	public int getPeakRowNum(Feature peak) {
 
+		PeakListIndex index = getIndex();
+		if (index != null)
+			return index.getPeakRowNum(peak);
+
 		PeakListRow rows[] = getRows();
 
 		for (int i = 0; i < rows.length; i++) {
@@ -300,6 +354,11 @@ public class SimplePeakList implements PeakList {
 	}
 
 	public PeakListRow getPeakRow(Feature peak) {
+
+		PeakListIndex index = getIndex();
+		if (index != null)
+			return index.getPeakRow(peak);
+
 		PeakListRow rows[] = getRows();
 
 		for (int i = 0; i < rows.length; i++) {
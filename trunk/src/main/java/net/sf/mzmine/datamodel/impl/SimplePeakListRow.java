@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Vector;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.sf.mzmine.datamodel.Feature;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -53,6 +54,12 @@ public class SimplePeakListRow implements PeakListRow {
 	 */
 	private double averageRT, averageMZ, averageHeight, averageArea;
 
+	/**
+	 * Peak lists containing this row, they are notified when the peaks of this
+	 * row change
+	 */
+	private final CopyOnWriteArrayList<SimplePeakList> peakLists = new CopyOnWriteArrayList<SimplePeakList>();
+
 	public SimplePeakListRow(int myID) {
 		this.myID = myID;
 		peaks = new Hashtable<RawDataFile, Feature>();
@@ -137,6 +144,17 @@ public class SimplePeakListRow implements PeakListRow {
 		averageMZ = mzSum / peaks.size();
 		averageHeight = heightSum / peaks.size();
 		averageArea = areaSum / peaks.size();
+
+		for (SimplePeakList peakList : peakLists)
+			peakList.rowChanged(this);
+	}
+
+	void addPeakList(SimplePeakList peakList) {
+		peakLists.addIfAbsent(peakList);
+	}
+
+	void removePeakList(SimplePeakList peakList) {
+		peakLists.remove(peakList);
 	}
 
 	/**
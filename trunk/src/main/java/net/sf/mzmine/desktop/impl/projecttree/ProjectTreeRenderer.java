@@ -92,6 +92,8 @@ class ProjectTreeRenderer extends DefaultTreeCellRenderer {
 		}
 
 		if (embeddedObject instanceof RemoteJob) {
+			RemoteJob job = (RemoteJob) embeddedObject;
+			label.setText(job.getName() + " (" + job.getStatusText() + ")");
 			label.setFont(smallerFont);
 			label.setIcon(cloudIcon);
 		}
@@ -24,9 +24,12 @@ import java.text.DecimalFormat;
 import org.w3c.dom.Element;
 
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.projectmethods.projectsave.DataPointsCompression;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
+import net.sf.mzmine.parameters.parametertypes.ComboParameter;
 import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.OptionalModuleParameter;
 import net.sf.mzmine.parameters.parametertypes.PasswordParameter;
@@ -49,6 +52,21 @@ public class MZminePreferences extends SimpleParameterSet {
 
     public static final NumOfThreadsParameter numOfThreads = new NumOfThreadsParameter();
 
+    public static final IntegerParameter numOfReadersPerDisk = new IntegerParameter(
+	    "Concurrent file readers per disk",
+	    "Maximum number of raw data files read at the same time from one disk when importing",
+	    2, 1, null);
+
+    public static final BooleanParameter compressTemporaryFiles = new BooleanParameter(
+	    "Compress temporary files",
+	    "Store the data points of new raw data files compressed in the temporary files, which saves disk space and memory but takes more processor time",
+	    false);
+
+    public static final ComboParameter<DataPointsCompression> dataPointsCompression = new ComboParameter<DataPointsCompression>(
+	    "Compression of saved data points",
+	    "Compression of the data points of raw data files in saved projects. Without compression, projects are saved fastest but take the most space",
+	    DataPointsCompression.values(), DataPointsCompression.FAST);
+
     public static final OptionalModuleParameter proxySettings = new OptionalModuleParameter(
 	    "Use proxy", "Use proxy for internet connection?",
 	    new ProxySettings());
@@ -71,7 +89,7 @@ public class MZminePreferences extends SimpleParameterSet {
 
     public MZminePreferences() {
 	super(new Parameter[] { mzFormat, rtFormat, intensityFormat,
-		numOfThreads, proxySettings, windowState, vtmxServer, vtmxUsername, vtmxPassword, vtmxAccount });
+		numOfThreads, numOfReadersPerDisk, compressTemporaryFiles, dataPointsCompression, proxySettings, windowState, vtmxServer, vtmxUsername, vtmxPassword, vtmxAccount });
     }
 
     public ExitCode showSetupDialog() {
@@ -90,6 +108,47 @@ public class MZminePreferences extends SimpleParameterSet {
 	return retVal;
     }
 
+    /**
+     * Returns the number of threads to use, which is the number of processors
+     * if set to automatic
+     */
+    public int getNumOfThreads() {
+	NumOfThreadsParameter parameter = getParameter(numOfThreads);
+	if (parameter.isAutomatic() || (parameter.getValue() == null))
+	    return Runtime.getRuntime().availableProcessors();
+	return Math.max(1, parameter.getValue());
+    }
+
+    /**
+     * Returns the maximum number of files read at the same time from one disk
+     */
+    public int getNumOfReadersPerDisk() {
+	Integer value = getParameter(numOfReadersPerDisk).getValue();
+	if (value == null)
+	    return 2;
+	return Math.max(1, value);
+    }
+
+    /**
+     * Returns true if the data points of new raw data files should be stored
+     * compressed
+     */
+    public boolean isCompressTemporaryFiles() {
+	Boolean value = getParameter(compressTemporaryFiles).getValue();
+	return (value != null) && value;
+    }
+
+    /**
+     * Returns the compression of the data points in saved projects
+     */
+    public DataPointsCompression getDataPointsCompression() {
+	DataPointsCompression value = getParameter(dataPointsCompression)
+		.getValue();
+	if (value == null)
+	    return DataPointsCompression.FAST;
+	return value;
+    }
+
     public void loadValuesFromXML(Element xmlElement) {
 	super.loadValuesFromXML(xmlElement);
 	updateSystemProxySettings();
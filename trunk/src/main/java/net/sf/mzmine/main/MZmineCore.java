@@ -285,6 +285,9 @@ public final class MZmineCore
 
 	public static RawDataFileWriter createNewFile(String name)
 			throws IOException {
-		return new RawDataFileImpl(name);
+		RawDataFileImpl newFile = new RawDataFileImpl(name);
+		newFile.setCompressDataPoints(configuration.getPreferences()
+				.isCompressTemporaryFiles());
+		return newFile;
 	}
 }
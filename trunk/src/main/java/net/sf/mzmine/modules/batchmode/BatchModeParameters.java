@@ -21,6 +21,7 @@ package net.sf.mzmine.modules.batchmode;
 
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.PeakListsParameter;
 import net.sf.mzmine.parameters.parametertypes.RawDataFilesParameter;
 
@@ -33,8 +34,13 @@ public class BatchModeParameters extends SimpleParameterSet {
 
     public static final BatchQueueParameter batchQueue = new BatchQueueParameter();
 
+    public static final BooleanParameter streaming = new BooleanParameter(
+	    "Streaming execution",
+	    "If checked, consecutive per-file steps are run for each raw data file or peak list as soon as the previous step has finished for that file, without waiting for the other files",
+	    false);
+
     public BatchModeParameters() {
-	super(new Parameter[] { dataFiles, peakLists, batchQueue });
+	super(new Parameter[] { dataFiles, peakLists, batchQueue, streaming });
     }
 
 }
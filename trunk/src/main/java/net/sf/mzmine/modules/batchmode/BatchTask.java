@@ -21,12 +21,17 @@ package net.sf.mzmine.modules.batchmode;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.PeakList;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.modules.MZmineModuleCategory;
 import net.sf.mzmine.modules.MZmineProcessingModule;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.parameters.Parameter;
@@ -35,6 +40,8 @@ import net.sf.mzmine.parameters.parametertypes.PeakListsParameter;
 import net.sf.mzmine.parameters.parametertypes.RawDataFilesParameter;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskEvent;
+import net.sf.mzmine.taskcontrol.TaskListener;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExitCode;
 
@@ -52,6 +59,44 @@ public class BatchTask extends AbstractTask {
     private RawDataFile dataFiles[];
     private PeakList peakLists[];
 
+    private boolean streaming;
+
+    /**
+     * Categories of modules which process each raw data file or peak list
+     * separately. In streaming mode, consecutive steps of these categories
+     * are run as a pipeline for each file.
+     */
+    private static final MZmineModuleCategory PIPELINED_CATEGORIES[] = {
+	    MZmineModuleCategory.RAWDATAFILTERING,
+	    MZmineModuleCategory.PEAKPICKING,
+	    MZmineModuleCategory.PEAKLISTPICKING,
+	    MZmineModuleCategory.ISOTOPES,
+	    MZmineModuleCategory.PEAKLISTFILTERING };
+
+    /**
+     * Sequence of pipelined steps processing one raw data file or peak list
+     */
+    private static class Pipeline {
+	RawDataFile dataFiles[];
+	PeakList peakLists[];
+	PeakList initialPeakLists[];
+	int nextStep;
+	int runningTasks;
+    }
+
+    // Tasks which reached a final state, filled by the task listener
+    private final LinkedBlockingQueue<Task> completedTasks = new LinkedBlockingQueue<Task>();
+
+    private final TaskListener completionListener = new TaskListener() {
+	public void statusChanged(TaskEvent e) {
+	    TaskStatus status = e.getStatus();
+	    if ((status == TaskStatus.FINISHED)
+		    || (status == TaskStatus.ERROR)
+		    || (status == TaskStatus.CANCELED))
+		completedTasks.add(e.getSource());
+	}
+    };
+
     BatchTask(ParameterSet parameters) {
 	this.queue = parameters.getParameter(BatchModeParameters.batchQueue)
 		.getValue();
@@ -59,6 +104,9 @@ public class BatchTask extends AbstractTask {
 		.getValue();
 	this.peakLists = parameters.getParameter(BatchModeParameters.peakLists)
 		.getValue();
+	Boolean streamingValue = parameters.getParameter(
+		BatchModeParameters.streaming).getValue();
+	this.streaming = (streamingValue != null) && streamingValue;
 	totalSteps = queue.size();
     }
 
@@ -67,16 +115,24 @@ public class BatchTask extends AbstractTask {
 	setStatus(TaskStatus.PROCESSING);
 	logger.info("Starting a batch of " + totalSteps + " steps");
 
-	for (int i = 0; i < totalSteps; i++) {
-
-	    processQueueStep(i);
-	    processedSteps++;
-
-	    // If we are canceled or ran into error, stop here
+	if (streaming) {
+	    processQueueStreaming();
 	    if (isCanceled() || (getStatus() == TaskStatus.ERROR)) {
 		return;
 	    }
+	} else {
+
+	    for (int i = 0; i < totalSteps; i++) {
+
+		processQueueStep(i);
+		processedSteps++;
+
+		// If we are canceled or ran into error, stop here
+		if (isCanceled() || (getStatus() == TaskStatus.ERROR)) {
+		    return;
+		}
 
+	    }
 	}
 
 	logger.info("Finished a batch of " + totalSteps + " steps");
@@ -134,65 +190,557 @@ public class BatchTask extends AbstractTask {
 	MZmineCore.getTaskController().addTasks(
 		currentStepTasks.toArray(new Task[0]));
 
-	while (!allTasksFinished) {
+	// Let the step tasks use the place of this worker while we wait
+	MZmineCore.getTaskController().beginWaiting();
+	try {
+	    while (!allTasksFinished) {
+
+		// If we canceled the batch, cancel all running tasks
+		if (isCanceled()) {
+		    for (Task stepTask : currentStepTasks)
+			stepTask.cancel();
+		    return;
+		}
+
+		// First set to true, then check all tasks
+		allTasksFinished = true;
+
+		for (Task stepTask : currentStepTasks) {
+
+		    TaskStatus stepStatus = stepTask.getStatus();
+
+		    // If any of them is not finished, keep checking
+		    if (stepStatus != TaskStatus.FINISHED)
+			allTasksFinished = false;
+
+		    // If there was an error, we have to stop the whole batch
+		    if (stepStatus == TaskStatus.ERROR) {
+			setStatus(TaskStatus.ERROR);
+			errorMessage = stepTask.getErrorMessage();
+			return;
+		    }
+
+		    // If user canceled any of the tasks, we have to cancel the
+		    // whole batch
+		    if (stepStatus == TaskStatus.CANCELED) {
+			setStatus(TaskStatus.CANCELED);
+			for (Task t : currentStepTasks)
+			    t.cancel();
+			return;
+		    }
+
+		}
+
+		// Wait 1s before checking the tasks again
+		if (!allTasksFinished) {
+		    synchronized (this) {
+			try {
+			    this.wait(1000);
+			} catch (InterruptedException e) {
+			    // ignore
+			}
+		    }
+		}
+
+	    }
+	} finally {
+	    MZmineCore.getTaskController().endWaiting();
+	}
+
+	// Now all tasks are finished. We have to check if project was modified.
+	// If any raw data files or peak lists were added, we continue batch
+	// processing on those.
+
+	Vector<RawDataFile> newDataFiles = new Vector<RawDataFile>();
+	Vector<PeakList> newPeakLists = new Vector<PeakList>();
+
+	for (Task stepTask : currentStepTasks) {
+	    Object createdObjects[] = stepTask.getCreatedObjects();
+	    if (createdObjects == null)
+		continue;
+	    for (Object createdObject : createdObjects) {
+		if (createdObject instanceof RawDataFile)
+		    newDataFiles.add((RawDataFile) createdObject);
+		if (createdObject instanceof PeakList)
+		    newPeakLists.add((PeakList) createdObject);
+	    }
+	}
+
+	if (newDataFiles.size() > 0)
+	    dataFiles = newDataFiles.toArray(new RawDataFile[0]);
+	if (newPeakLists.size() > 0)
+	    peakLists = newPeakLists.toArray(new PeakList[0]);
+
+    }
+
+    /**
+     * Returns true if given step processes each raw data file or peak list
+     * separately
+     */
+    private boolean isPipelined(int stepNumber) {
+	MZmineModuleCategory category = queue.get(stepNumber).getModule()
+		.getModuleCategory();
+	return Arrays.asList(PIPELINED_CATEGORIES).contains(category);
+    }
+
+    /**
+     * Processes the queue in streaming mode. The queue is split into segments,
+     * each made of one step which processes all files together (the head,
+     * missing for a queue starting with pipelined steps) followed by a run of
+     * pipelined steps. The objects created by each task of the head start a
+     * pipeline as soon as the task finishes.
+     */
+    private void processQueueStreaming() {
+
+	int stepNumber = 0;
+	while (stepNumber < totalSteps) {
+
+	    int headStep = -1;
+	    if (!isPipelined(stepNumber)) {
+		headStep = stepNumber;
+		stepNumber++;
+	    }
+
+	    int firstPipelinedStep = stepNumber;
+	    while ((stepNumber < totalSteps) && isPipelined(stepNumber))
+		stepNumber++;
+
+	    processSegment(headStep, firstPipelinedStep, stepNumber);
+
+	    // If we are canceled or ran into error, stop here
+	    if (isCanceled() || (getStatus() == TaskStatus.ERROR))
+		return;
+
+	    processedSteps = stepNumber;
+
+	}
+
+    }
+
+    /**
+     * Runs the head step (if headStep >= 0) and pipelines of steps
+     * firstPipelinedStep to endStep - 1. Returns when all of them are
+     * finished, or when the batch was canceled or failed.
+     */
+    private void processSegment(int headStep, int firstPipelinedStep,
+	    int endStep) {
+
+	// Pipelines in the order of their creation, so the results do not
+	// depend on the order in which the tasks finish
+	List<Pipeline> pipelines = new ArrayList<Pipeline>();
+	HashMap<Task, Pipeline> taskPipelines = new HashMap<Task, Pipeline>();
+	List<Task> headTasks = new ArrayList<Task>();
+	List<Task> runningTasks = new ArrayList<Task>();
+	int runningHeadTasks = 0;
+
+	if (headStep >= 0) {
+	    ParameterSet stepParameters = createStepParameters(headStep,
+		    dataFiles, peakLists);
+	    if (stepParameters == null)
+		return;
+	    if (!startStep(headStep, stepParameters, headTasks))
+		return;
+	    runningTasks.addAll(headTasks);
+	    runningHeadTasks = headTasks.size();
+	}
 
-	    // If we canceled the batch, cancel all running tasks
-	    if (isCanceled()) {
-		for (Task stepTask : currentStepTasks)
-		    stepTask.cancel();
+	// Without any head tasks, each raw data file (with its peak lists) or
+	// each peak list, if there are no raw data files, starts a pipeline
+	if (headTasks.isEmpty()) {
+	    if (dataFiles.length > 0) {
+		for (RawDataFile dataFile : dataFiles)
+		    pipelines.add(createPipeline(firstPipelinedStep,
+			    new RawDataFile[] { dataFile }, getPeakLists(dataFile)));
+	    } else {
+		for (PeakList peakList : peakLists)
+		    pipelines.add(createPipeline(firstPipelinedStep,
+			    peakList.getRawDataFiles(), new PeakList[] { peakList }));
+	    }
+
+	    // If the files cannot be split into pipelines, process the segment
+	    // step by step on all files
+	    if (!canStartPipelines(pipelines, firstPipelinedStep, endStep)) {
+		logger.info("Processing steps " + (firstPipelinedStep + 1)
+			+ " to " + endStep + " step by step");
+		for (int i = firstPipelinedStep; i < endStep; i++) {
+		    processQueueStep(i);
+		    if (isCanceled() || (getStatus() == TaskStatus.ERROR))
+			return;
+		    processedSteps++;
+		}
 		return;
 	    }
 
-	    // First set to true, then check all tasks
-	    allTasksFinished = true;
+	    for (Pipeline pipeline : pipelines) {
+		if (!advancePipeline(pipeline, endStep, taskPipelines,
+			runningTasks))
+		    return;
+	    }
+	}
+
+	// Pipelines started by each head task, used to keep the pipelines in
+	// the order of the head tasks
+	HashMap<Task, Pipeline[]> headPipelines = new HashMap<Task, Pipeline[]>();
+
+	// Let the pipelined tasks use the place of this worker while we wait
+	MZmineCore.getTaskController().beginWaiting();
+	try {
+	    while (!runningTasks.isEmpty()) {
+
+		Task task;
+		try {
+		    task = completedTasks.take();
+		} catch (InterruptedException e) {
+		    setStatus(TaskStatus.ERROR);
+		    errorMessage = "Batch processing was interrupted";
+		    for (Task t : runningTasks)
+			t.cancel();
+		    return;
+		}
 
-	    for (Task stepTask : currentStepTasks) {
+		// If we canceled the batch, cancel all running tasks
+		if (isCanceled()) {
+		    for (Task t : runningTasks)
+			t.cancel();
+		    return;
+		}
 
-		TaskStatus stepStatus = stepTask.getStatus();
+		// Ignore repeated events
+		if (!runningTasks.remove(task))
+		    continue;
 
-		// If any of them is not finished, keep checking
-		if (stepStatus != TaskStatus.FINISHED)
-		    allTasksFinished = false;
+		TaskStatus stepStatus = task.getStatus();
 
 		// If there was an error, we have to stop the whole batch
 		if (stepStatus == TaskStatus.ERROR) {
 		    setStatus(TaskStatus.ERROR);
-		    errorMessage = stepTask.getErrorMessage();
+		    errorMessage = task.getErrorMessage();
+		    for (Task t : runningTasks)
+			t.cancel();
 		    return;
 		}
 
-		// If user canceled any of the tasks, we have to cancel the
-		// whole batch
+		// If user canceled any of the tasks, we have to cancel the whole
+		// batch
 		if (stepStatus == TaskStatus.CANCELED) {
 		    setStatus(TaskStatus.CANCELED);
-		    for (Task t : currentStepTasks)
+		    for (Task t : runningTasks)
 			t.cancel();
 		    return;
 		}
 
-	    }
+		Pipeline pipeline = taskPipelines.remove(task);
+
+		if (pipeline == null) {
+
+		    // A head task has finished, start a pipeline for each of its
+		    // created objects
+		    runningHeadTasks--;
+		    List<Pipeline> newPipelines = new ArrayList<Pipeline>();
+		    Object createdObjects[] = task.getCreatedObjects();
+		    if (createdObjects != null) {
+			for (Object createdObject : createdObjects) {
+			    if (createdObject instanceof RawDataFile) {
+				RawDataFile dataFile = (RawDataFile) createdObject;
+				newPipelines.add(createPipeline(firstPipelinedStep,
+					new RawDataFile[] { dataFile },
+					getPeakLists(dataFile)));
+			    }
+			    if (createdObject instanceof PeakList) {
+				PeakList peakList = (PeakList) createdObject;
+				newPipelines.add(createPipeline(firstPipelinedStep,
+					peakList.getRawDataFiles(),
+					new PeakList[] { peakList }));
+			    }
+			}
+		    }
+		    headPipelines.put(task, newPipelines.toArray(new Pipeline[0]));
+		    for (Pipeline newPipeline : newPipelines) {
+			if (!advancePipeline(newPipeline, endStep, taskPipelines,
+				runningTasks))
+			    return;
+		    }
+
+		    // If the head did not create anything, the pipelined steps
+		    // work on the current files
+		    if ((runningHeadTasks == 0) && (firstPipelinedStep < endStep)) {
+			boolean anyCreated = false;
+			for (Pipeline headPipeline[] : headPipelines.values())
+			    anyCreated |= (headPipeline.length > 0);
+			if (!anyCreated) {
+			    updateCreatedObjects(headTasks);
+			    headTasks.clear();
+			    processSegment(-1, firstPipelinedStep, endStep);
+			    return;
+			}
+		    }
 
-	    // Wait 1s before checking the tasks again
-	    if (!allTasksFinished) {
-		synchronized (this) {
-		    try {
-			this.wait(1000);
-		    } catch (InterruptedException e) {
-			// ignore
+		} else {
+
+		    // A pipelined task has finished, update the files of the
+		    // pipeline and start its next step when all its tasks are done
+		    Object createdObjects[] = task.getCreatedObjects();
+		    if (createdObjects != null)
+			updatePipeline(pipeline, createdObjects);
+		    pipeline.runningTasks--;
+		    if (pipeline.runningTasks == 0) {
+			if (!advancePipeline(pipeline, endStep, taskPipelines,
+				runningTasks))
+			    return;
 		    }
+
 		}
+
 	    }
+	} finally {
+	    MZmineCore.getTaskController().endWaiting();
+	}
 
+	// All tasks are finished, collect the results
+	if (!headTasks.isEmpty()) {
+	    updateCreatedObjects(headTasks);
+	    pipelines.clear();
+	    for (Task headTask : headTasks)
+		pipelines.addAll(Arrays.asList(headPipelines.get(headTask)));
 	}
 
-	// Now all tasks are finished. We have to check if project was modified.
-	// If any raw data files or peak lists were added, we continue batch
-	// processing on those.
+	if (firstPipelinedStep < endStep) {
+	    Vector<RawDataFile> newDataFiles = new Vector<RawDataFile>();
+	    Vector<PeakList> newPeakLists = new Vector<PeakList>();
+	    HashSet<PeakList> pipelinedPeakLists = new HashSet<PeakList>();
+	    for (Pipeline pipeline : pipelines) {
+		newDataFiles.addAll(Arrays.asList(pipeline.dataFiles));
+		newPeakLists.addAll(Arrays.asList(pipeline.peakLists));
+		pipelinedPeakLists.addAll(Arrays.asList(pipeline.initialPeakLists));
+	    }
+
+	    // Peak lists which no pipeline started with, e.g. aligned peak
+	    // lists of several raw data files, are kept like in step by step
+	    // mode
+	    for (PeakList peakList : peakLists) {
+		if (!pipelinedPeakLists.contains(peakList))
+		    newPeakLists.add(peakList);
+	    }
+	    if (newDataFiles.size() > 0)
+		dataFiles = newDataFiles.toArray(new RawDataFile[0]);
+	    if (newPeakLists.size() > 0)
+		peakLists = newPeakLists.toArray(new PeakList[0]);
+	}
+
+    }
+
+    private Pipeline createPipeline(int firstStep, RawDataFile pipelineDataFiles[],
+	    PeakList pipelinePeakLists[]) {
+	Pipeline pipeline = new Pipeline();
+	pipeline.nextStep = firstStep;
+	pipeline.dataFiles = pipelineDataFiles;
+	pipeline.peakLists = pipelinePeakLists;
+	pipeline.initialPeakLists = pipelinePeakLists;
+	return pipeline;
+    }
+
+    /**
+     * Returns the current peak lists made from given raw data file only
+     */
+    private PeakList[] getPeakLists(RawDataFile dataFile) {
+	Vector<PeakList> filePeakLists = new Vector<PeakList>();
+	for (PeakList peakList : peakLists) {
+	    RawDataFile peakListDataFiles[] = peakList.getRawDataFiles();
+	    if ((peakListDataFiles.length == 1)
+		    && (peakListDataFiles[0] == dataFile))
+		filePeakLists.add(peakList);
+	}
+	return filePeakLists.toArray(new PeakList[0]);
+    }
+
+    /**
+     * Returns true if the pipelines process the same files as the steps
+     * firstStep to endStep - 1 would process in step by step mode. This is
+     * not the case if one of the steps processes peak lists before new ones
+     * are picked, and some peak list belongs to several raw data files, as
+     * it would not be processed or would be processed several times, or if
+     * the files of a pipeline are not valid for its first step.
+     */
+    private boolean canStartPipelines(List<Pipeline> pipelines,
+	    int firstStep, int endStep) {
+
+	for (int i = firstStep; i < endStep; i++) {
+	    MZmineProcessingStep<MZmineProcessingModule> step = queue.get(i);
+	    if (step.getModule().getModuleCategory() == MZmineModuleCategory.PEAKPICKING)
+		break;
+	    boolean processesPeakLists = false;
+	    for (Parameter<?> p : step.getParameterSet().getParameters())
+		processesPeakLists |= (p instanceof PeakListsParameter);
+	    if (!processesPeakLists)
+		continue;
+	    int pipelinedPeakLists = 0;
+	    for (Pipeline pipeline : pipelines)
+		pipelinedPeakLists += pipeline.peakLists.length;
+	    if (pipelinedPeakLists != peakLists.length)
+		return false;
+	    break;
+	}
+
+	for (Pipeline pipeline : pipelines) {
+	    ParameterSet stepParameters = setStepFiles(firstStep,
+		    pipeline.dataFiles, pipeline.peakLists);
+	    if (!stepParameters
+		    .checkAllParameterValues(new ArrayList<String>()))
+		return false;
+	}
 
+	return true;
+    }
+
+    /**
+     * Replaces the files of the pipeline by the newly created ones
+     */
+    private void updatePipeline(Pipeline pipeline, Object createdObjects[]) {
 	Vector<RawDataFile> newDataFiles = new Vector<RawDataFile>();
 	Vector<PeakList> newPeakLists = new Vector<PeakList>();
+	for (Object createdObject : createdObjects) {
+	    if (createdObject instanceof RawDataFile)
+		newDataFiles.add((RawDataFile) createdObject);
+	    if (createdObject instanceof PeakList)
+		newPeakLists.add((PeakList) createdObject);
+	}
+	if (newDataFiles.size() > 0)
+	    pipeline.dataFiles = newDataFiles.toArray(new RawDataFile[0]);
+	if (newPeakLists.size() > 0)
+	    pipeline.peakLists = newPeakLists.toArray(new PeakList[0]);
+    }
 
-	for (Task stepTask : currentStepTasks) {
+    /**
+     * Starts the next steps of the pipeline, until one of them produces some
+     * tasks or the pipeline reaches endStep
+     * 
+     * @return false if the batch failed
+     */
+    private boolean advancePipeline(Pipeline pipeline, int endStep,
+	    HashMap<Task, Pipeline> taskPipelines, List<Task> runningTasks) {
+
+	while (pipeline.nextStep < endStep) {
+
+	    int stepNumber = pipeline.nextStep++;
+	    ParameterSet stepParameters = createStepParameters(stepNumber,
+		    pipeline.dataFiles, pipeline.peakLists);
+	    if (stepParameters == null)
+		return false;
+
+	    List<Task> stepTasks = new ArrayList<Task>();
+	    if (!startStep(stepNumber, stepParameters, stepTasks))
+		return false;
+
+	    if (!stepTasks.isEmpty()) {
+		for (Task stepTask : stepTasks)
+		    taskPipelines.put(stepTask, pipeline);
+		pipeline.runningTasks = stepTasks.size();
+		runningTasks.addAll(stepTasks);
+		return true;
+	    }
+
+	}
+
+	return true;
+    }
+
+    /**
+     * Returns a copy of the parameters of given step, set to process given
+     * files, or null if the parameters are not valid
+     */
+    private ParameterSet createStepParameters(int stepNumber,
+	    RawDataFile stepDataFiles[], PeakList stepPeakLists[]) {
+
+	ParameterSet stepParameters = setStepFiles(stepNumber, stepDataFiles,
+		stepPeakLists);
+
+	// Check if the parameter settings are valid
+	ArrayList<String> messages = new ArrayList<String>();
+	if (!stepParameters.checkAllParameterValues(messages)) {
+	    setStatus(TaskStatus.ERROR);
+	    errorMessage = "Invalid parameter settings for module "
+		    + queue.get(stepNumber).getModule() + ": "
+		    + Arrays.toString(messages.toArray());
+	    return null;
+	}
+
+	return stepParameters;
+    }
+
+    /**
+     * Returns a copy of the parameters of given step, set to process given
+     * files
+     */
+    private ParameterSet setStepFiles(int stepNumber,
+	    RawDataFile stepDataFiles[], PeakList stepPeakLists[]) {
+
+	ParameterSet stepParameters = queue.get(stepNumber).getParameterSet()
+		.cloneParameter();
+
+	for (Parameter<?> p : stepParameters.getParameters()) {
+	    if (p instanceof RawDataFilesParameter) {
+		RawDataFilesParameter rdp = (RawDataFilesParameter) p;
+		rdp.setValue(stepDataFiles);
+	    }
+	    if (p instanceof PeakListsParameter) {
+		PeakListsParameter plp = (PeakListsParameter) p;
+		plp.setValue(stepPeakLists);
+	    }
+	}
+
+	return stepParameters;
+    }
+
+    /**
+     * Runs the module of given step and submits its tasks to the task
+     * controller. The tasks report their completion to completionListener.
+     * 
+     * @return false if the module could not be started
+     */
+    private boolean startStep(int stepNumber, ParameterSet stepParameters,
+	    List<Task> stepTasks) {
+
+	MZmineProcessingModule method = queue.get(stepNumber).getModule();
+
+	ArrayList<Task> newTasks = new ArrayList<Task>();
+	ExitCode exitCode = method.runModule(stepParameters, newTasks);
+
+	if (exitCode != ExitCode.OK) {
+	    setStatus(TaskStatus.ERROR);
+	    errorMessage = "Could not start batch step " + method.getName();
+	    return false;
+	}
+
+	if (newTasks.isEmpty())
+	    return true;
+
+	for (Task newTask : newTasks)
+	    newTask.addTaskListener(completionListener);
+
+	// Tasks which finished before we started listening
+	for (Task newTask : newTasks) {
+	    TaskStatus status = newTask.getStatus();
+	    if ((status == TaskStatus.FINISHED) || (status == TaskStatus.ERROR)
+		    || (status == TaskStatus.CANCELED))
+		completedTasks.add(newTask);
+	}
+
+	MZmineCore.getTaskController().addTasks(newTasks.toArray(new Task[0]));
+	stepTasks.addAll(newTasks);
+
+	return true;
+    }
+
+    /**
+     * Replaces the current raw data files and peak lists by those created by
+     * given tasks, as processQueueStep() does after each step
+     */
+    private void updateCreatedObjects(List<Task> tasks) {
+
+	Vector<RawDataFile> newDataFiles = new Vector<RawDataFile>();
+	Vector<PeakList> newPeakLists = new Vector<PeakList>();
+
+	for (Task stepTask : tasks) {
 	    Object createdObjects[] = stepTask.getCreatedObjects();
 	    if (createdObjects == null)
 		continue;
@@ -211,6 +759,16 @@ public class BatchTask extends AbstractTask {
 
     }
 
+    /**
+     * Cancels the batch, and wakes up the batch thread if it is waiting for
+     * tasks to finish
+     */
+    @Override
+    public void cancel() {
+	super.cancel();
+	completedTasks.add(this);
+    }
+
     public double getFinishedPercentage() {
 	if (totalSteps == 0)
 	    return 0;
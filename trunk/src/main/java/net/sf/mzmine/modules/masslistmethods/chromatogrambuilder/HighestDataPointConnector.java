@@ -22,7 +22,9 @@ package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
@@ -42,6 +44,32 @@ public class HighestDataPointConnector {
 	// Mapping of last data point m/z --> chromatogram
 	private Set<Chromatogram> buildingChromatograms;
 
+	/**
+	 * Entry of the m/z index of building chromatograms. Entries are sorted by
+	 * the m/z of the last data point of the chromatogram, then by the position
+	 * of the chromatogram in buildingChromatograms, so that ties are resolved
+	 * in the same order as when iterating buildingChromatograms.
+	 */
+	private static class IndexEntry implements Comparable<IndexEntry> {
+
+		final double mz;
+		final int order;
+		final Chromatogram chromatogram;
+
+		IndexEntry(double mz, int order, Chromatogram chromatogram) {
+			this.mz = mz;
+			this.order = order;
+			this.chromatogram = chromatogram;
+		}
+
+		public int compareTo(IndexEntry entry) {
+			int result = Double.compare(mz, entry.mz);
+			if (result != 0)
+				return result;
+			return (order < entry.order) ? -1 : ((order == entry.order) ? 0 : 1);
+		}
+	}
+
 	public HighestDataPointConnector(double minimumTimeSpan,
 			double minimumHeight, MZTolerance mzTolerance) {
 
@@ -66,22 +94,56 @@ public class HighestDataPointConnector {
 		// Set of already connected chromatograms in each iteration
 		Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
 
-		// TODO: these two nested cycles should be optimized for speed
+		// Index the building chromatograms by the m/z of their last data
+		// point, so we only need to test the chromatograms in the tolerance
+		// window of each m/z peak
+		NavigableSet<IndexEntry> mzIndex = new TreeSet<IndexEntry>();
+		IndexEntry entries[] = new IndexEntry[buildingChromatograms.size()];
+		int order = 0;
+		for (Chromatogram chrom : buildingChromatograms) {
+			entries[order] = new IndexEntry(chrom.getLastMzPeak().getMZ(),
+					order, chrom);
+			mzIndex.add(entries[order]);
+			order++;
+		}
+
 		for (DataPoint mzPeak : mzValues) {
 
 			// Search for best chromatogram, which has highest last data point
 			Chromatogram bestChromatogram = null;
-
-			for (Chromatogram testChrom : buildingChromatograms) {
-
+			int bestOrder = -1;
+
+			// The tolerance range is calculated from the m/z of the
+			// chromatogram, so the search window must cover every m/z whose
+			// tolerance range may contain this m/z peak
+			final double mz = mzPeak.getMZ();
+			final double absTolerance = mzTolerance.getMzTolerance();
+			final double relTolerance = mzTolerance.getPpmTolerance() / 1E6;
+			final double slack = 4 * Math.ulp(mz);
+			final double searchMin = mz
+					- Math.max(absTolerance, mz * relTolerance) - slack;
+			final double searchMax = (relTolerance < 1 ? Math.max(mz
+					+ absTolerance, mz / (1 - relTolerance))
+					: Double.POSITIVE_INFINITY) + slack;
+
+			NavigableSet<IndexEntry> candidates = mzIndex.subSet(
+					new IndexEntry(searchMin, Integer.MIN_VALUE, null), true,
+					new IndexEntry(searchMax, Integer.MAX_VALUE, null), true);
+
+			for (IndexEntry candidate : candidates) {
+
+				Chromatogram testChrom = candidate.chromatogram;
 				DataPoint lastMzPeak = testChrom.getLastMzPeak();
 				Range toleranceRange = mzTolerance.getToleranceRange(lastMzPeak
 						.getMZ());
-				if (toleranceRange.contains(mzPeak.getMZ())) {
+				if (toleranceRange.contains(mz)) {
 					if ((bestChromatogram == null)
-							|| (testChrom.getLastMzPeak().getIntensity() > bestChromatogram
-									.getLastMzPeak().getIntensity())) {
+							|| (lastMzPeak.getIntensity() > bestChromatogram
+									.getLastMzPeak().getIntensity())
+							|| ((lastMzPeak.getIntensity() == bestChromatogram
+									.getLastMzPeak().getIntensity()) && (candidate.order < bestOrder))) {
 						bestChromatogram = testChrom;
+						bestOrder = candidate.order;
 					}
 				}
 
@@ -98,7 +160,14 @@ public class HighestDataPointConnector {
 				bestChromatogram = new Chromatogram(dataFile);
 			}
 
-			// Add this mzPeak to the chromatogram
+			// Add this mzPeak to the chromatogram. This changes the m/z of its
+			// last data point, so we have to update its index entry.
+			if (bestOrder >= 0) {
+				mzIndex.remove(entries[bestOrder]);
+				entries[bestOrder] = new IndexEntry(mz, bestOrder,
+						bestChromatogram);
+				mzIndex.add(entries[bestOrder]);
+			}
 			bestChromatogram.addMzPeak(scanNumber, mzPeak);
 
 			// Move the chromatogram to the set of connected chromatograms
@@ -19,10 +19,17 @@
 
 package net.sf.mzmine.modules.peaklistmethods.alignment.join;
 
-import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -39,6 +46,7 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.PeakUtils;
 import net.sf.mzmine.util.Range;
@@ -62,6 +70,9 @@ class JoinAlignerTask extends AbstractTask {
     // ID counter for the new peaklist
     private int newRowID = 1;
 
+    // Number of rows scored by one sub-task
+    private static final int ROWS_PER_SUBTASK = 100;
+
     JoinAlignerTask(ParameterSet parameters) {
 
         this.parameters = parameters;
@@ -155,130 +166,200 @@ class JoinAlignerTask extends AbstractTask {
 
         // Iterate source peak lists
         for (PeakList peakList : peakLists) {
+            if (!alignPeakList(peakList))
+                return;
+        }
 
-            // Create a sorted set of scores matching
-            TreeSet<RowVsRowScore> scoreSet = new TreeSet<RowVsRowScore>();
+        // Add new aligned peak list to the project
+        MZmineProject currentProject = MZmineCore.getCurrentProject();
+        currentProject.addPeakList(alignedPeakList);
 
-            PeakListRow allRows[] = peakList.getRows();
+        // Add task description to peakList
+        alignedPeakList
+                .addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
+                        "Join aligner", parameters));
 
-            // Calculate scores for all possible alignments of this row
-            for (PeakListRow row : allRows) {
+        logger.info("Finished join aligner");
+        setStatus(TaskStatus.FINISHED);
 
-                if (isCanceled())
-                    return;
+    }
 
-                // Calculate limits for a row with which the row can be aligned
-                Range mzRange = mzTolerance.getToleranceRange(row
-                        .getAverageMZ());
-                Range rtRange = rtTolerance.getToleranceRange(row
-                        .getAverageRT());
+    /**
+     * Aligns the rows of one peak list to the aligned peak list
+     * 
+     * @return false if the task was canceled or failed
+     */
+    private boolean alignPeakList(PeakList peakList) {
+
+        final PeakListRow allRows[] = peakList.getRows();
+
+        // Calculate scores for all possible alignments of all rows. The
+        // rows are scored in parallel, in blocks of consecutive rows, as
+        // sub-tasks on the worker threads of the task controller.
+        TaskController taskController = MZmineCore.getTaskController();
+        List<Future<List<RowVsRowScore>>> blockScores = new ArrayList<Future<List<RowVsRowScore>>>();
+        for (int i = 0; i < allRows.length; i += ROWS_PER_SUBTASK) {
+            final int blockStart = i;
+            final int blockEnd = Math.min(i + ROWS_PER_SUBTASK,
+                    allRows.length);
+            blockScores.add(taskController.submitSubTask(new Callable<List<RowVsRowScore>>() {
+                public List<RowVsRowScore> call() {
+                    List<RowVsRowScore> scores = new ArrayList<RowVsRowScore>();
+                    for (int j = blockStart; j < blockEnd; j++) {
+                        if (isCanceled())
+                            break;
+                        calculateScores(allRows[j], scores);
+                    }
+                    return scores;
+                }
+            }));
+        }
 
-                // Get all rows of the aligned peaklist within parameter limits
-                PeakListRow candidateRows[] = alignedPeakList
-                        .getRowsInsideScanAndMZRange(rtRange, mzRange);
+        // Collect the scores in the order of rows. The scores are then
+        // sorted the same way as a TreeSet would order them: by
+        // descending score, ties in reverse order of insertion.
+        ArrayList<RowVsRowScore> scoreList = new ArrayList<RowVsRowScore>();
+        for (int i = 0; i < blockScores.size(); i++) {
+            if (isCanceled()) {
+                cancelSubTasks(blockScores);
+                return false;
+            }
+            List<RowVsRowScore> scores;
+            try {
+                scores = taskController.joinSubTask(blockScores.get(i));
+            } catch (InterruptedException e) {
+                cancelSubTasks(blockScores);
+                setStatus(TaskStatus.ERROR);
+                errorMessage = "Join aligner was interrupted";
+                return false;
+            } catch (ExecutionException e) {
+                logger.log(Level.SEVERE, "Join aligner failed",
+                        e.getCause());
+                cancelSubTasks(blockScores);
+                setStatus(TaskStatus.ERROR);
+                errorMessage = "Join aligner failed: " + e.getCause();
+                return false;
+            }
+            scoreList.addAll(scores);
+            processedRows += Math.min(ROWS_PER_SUBTASK, allRows.length
+                    - i * ROWS_PER_SUBTASK);
+        }
+        Collections.reverse(scoreList);
+        Collections.sort(scoreList, new Comparator<RowVsRowScore>() {
+            public int compare(RowVsRowScore s1, RowVsRowScore s2) {
+                if (s1.getScore() > s2.getScore())
+                    return -1;
+                if (s1.getScore() < s2.getScore())
+                    return 1;
+                return 0;
+            }
+        });
 
-                // Calculate scores and store them
-                for (PeakListRow candidate : candidateRows) {
+        // Create a table of mappings for best scores
+        HashMap<PeakListRow, PeakListRow> alignmentMapping = new HashMap<PeakListRow, PeakListRow>();
+        HashSet<PeakListRow> mappedAlignedRows = new HashSet<PeakListRow>();
 
-                    if (sameChargeRequired) {
-                        if (!PeakUtils.compareChargeState(row, candidate))
-                            continue;
-                    }
+        // Iterate scores by descending order
+        for (RowVsRowScore score : scoreList) {
 
-                    if (sameIDRequired) {
-                        if (!PeakUtils.compareIdentities(row, candidate))
-                            continue;
-                    }
+            // Check if the row is already mapped
+            if (alignmentMapping.containsKey(score.getPeakListRow()))
+                continue;
 
-                    if (compareIsotopePattern) {
-                        IsotopePattern ip1 = row.getBestIsotopePattern();
-                        IsotopePattern ip2 = candidate.getBestIsotopePattern();
-
-                        if ((ip1 != null) && (ip2 != null)) {
-                            ParameterSet isotopeParams = parameters
-                                    .getParameter(
-                                            JoinAlignerParameters.compareIsotopePattern)
-                                    .getEmbeddedParameters();
-
-                            if (!IsotopePatternScoreCalculator.checkMatch(ip1,
-                                    ip2, isotopeParams)) {
-                                continue;
-                            }
-                        }
-                    }
+            // Check if the aligned row is already filled
+            if (mappedAlignedRows.contains(score.getAlignedRow()))
+                continue;
 
-                    RowVsRowScore score = new RowVsRowScore(row, candidate,
-                            mzRange.getSize() / 2, mzWeight,
-                            rtRange.getSize() / 2, rtWeight);
+            alignmentMapping.put(score.getPeakListRow(),
+                    score.getAlignedRow());
+            mappedAlignedRows.add(score.getAlignedRow());
 
-                    scoreSet.add(score);
+        }
 
-                }
+        // Align all rows using mapping
+        for (PeakListRow row : allRows) {
 
-                processedRows++;
+            PeakListRow targetRow = alignmentMapping.get(row);
 
+            // If we have no mapping for this row, add a new one
+            if (targetRow == null) {
+                targetRow = new SimplePeakListRow(newRowID);
+                newRowID++;
+                alignedPeakList.addRow(targetRow);
             }
 
-            // Create a table of mappings for best scores
-            Hashtable<PeakListRow, PeakListRow> alignmentMapping = new Hashtable<PeakListRow, PeakListRow>();
+            // Add all peaks from the original row to the aligned row
+            for (RawDataFile file : row.getRawDataFiles()) {
+                targetRow.addPeak(file, row.getPeak(file));
+            }
 
-            // Iterate scores by descending order
-            Iterator<RowVsRowScore> scoreIterator = scoreSet.iterator();
-            while (scoreIterator.hasNext()) {
+            // Add all non-existing identities from the original row to the
+            // aligned row
+            PeakUtils.copyPeakListRowProperties(row, targetRow);
 
-                RowVsRowScore score = scoreIterator.next();
+            processedRows++;
 
-                // Check if the row is already mapped
-                if (alignmentMapping.containsKey(score.getPeakListRow()))
-                    continue;
-
-                // Check if the aligned row is already filled
-                if (alignmentMapping.containsValue(score.getAlignedRow()))
-                    continue;
+        }
 
-                alignmentMapping.put(score.getPeakListRow(),
-                        score.getAlignedRow());
+        return true;
 
-            }
+    }
 
-            // Align all rows using mapping
-            for (PeakListRow row : allRows) {
+    private void cancelSubTasks(List<Future<List<RowVsRowScore>>> subTasks) {
+        for (Future<List<RowVsRowScore>> subTask : subTasks)
+            subTask.cancel(false);
+    }
 
-                PeakListRow targetRow = alignmentMapping.get(row);
+    /**
+     * Calculates the scores of all possible alignments of given row. This
+     * method is called by several threads at once.
+     */
+    private void calculateScores(PeakListRow row, List<RowVsRowScore> scores) {
 
-                // If we have no mapping for this row, add a new one
-                if (targetRow == null) {
-                    targetRow = new SimplePeakListRow(newRowID);
-                    newRowID++;
-                    alignedPeakList.addRow(targetRow);
-                }
+        // Calculate limits for a row with which the row can be aligned
+        Range mzRange = mzTolerance.getToleranceRange(row.getAverageMZ());
+        Range rtRange = rtTolerance.getToleranceRange(row.getAverageRT());
 
-                // Add all peaks from the original row to the aligned row
-                for (RawDataFile file : row.getRawDataFiles()) {
-                    targetRow.addPeak(file, row.getPeak(file));
-                }
+        // Get all rows of the aligned peaklist within parameter limits
+        PeakListRow candidateRows[] = alignedPeakList
+                .getRowsInsideScanAndMZRange(rtRange, mzRange);
 
-                // Add all non-existing identities from the original row to the
-                // aligned row
-                PeakUtils.copyPeakListRowProperties(row, targetRow);
+        // Calculate scores and store them
+        for (PeakListRow candidate : candidateRows) {
 
-                processedRows++;
+            if (sameChargeRequired) {
+                if (!PeakUtils.compareChargeState(row, candidate))
+                    continue;
+            }
 
+            if (sameIDRequired) {
+                if (!PeakUtils.compareIdentities(row, candidate))
+                    continue;
             }
 
-        } // Next peak list
+            if (compareIsotopePattern) {
+                IsotopePattern ip1 = row.getBestIsotopePattern();
+                IsotopePattern ip2 = candidate.getBestIsotopePattern();
 
-        // Add new aligned peak list to the project
-        MZmineProject currentProject = MZmineCore.getCurrentProject();
-        currentProject.addPeakList(alignedPeakList);
+                if ((ip1 != null) && (ip2 != null)) {
+                    ParameterSet isotopeParams = parameters.getParameter(
+                            JoinAlignerParameters.compareIsotopePattern)
+                            .getEmbeddedParameters();
 
-        // Add task description to peakList
-        alignedPeakList
-                .addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
-                        "Join aligner", parameters));
+                    if (!IsotopePatternScoreCalculator.checkMatch(ip1, ip2,
+                            isotopeParams)) {
+                        continue;
+                    }
+                }
+            }
 
-        logger.info("Finished join aligner");
-        setStatus(TaskStatus.FINISHED);
+            RowVsRowScore score = new RowVsRowScore(row, candidate,
+                    mzRange.getSize() / 2, mzWeight, rtRange.getSize() / 2,
+                    rtWeight);
+
+            scores.add(score);
+
+        }
 
     }
 
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Draws a heat map in Java, with the same layout and defaults as R's
+ * heatmap.2: rows and columns are clustered by complete linkage of their
+ * euclidean distances, the dendrograms are reordered by the row and column
+ * means, and the values are colored from blue (minimum) through white (0) to
+ * red (maximum). Missing values are grey.
+ */
+class HeatMapImage {
+
+	// Size of one line of text in pixels, the unit of the margins
+	private static final int LINE_HEIGHT = 12;
+
+	// Relative size of the dendrograms and the key, as heatmap.2's lhei and
+	// lwid
+	private static final double TREE_SIZE = 1.5 / 5.5;
+
+	private static final Color NA_COLOR = new Color(0xBE, 0xBE, 0xBE);
+
+	private final double data[][];
+	private final String rowNames[], colNames[];
+	private final String stars[][];
+	private final int numOfRows, numOfColumns;
+	private final double min, max;
+
+	private final HierarchicalClustering rowTree, colTree;
+	private final int rowOrder[], colOrder[];
+
+	/**
+	 * @param data
+	 *            values by column and row, infinite values are treated as
+	 *            missing
+	 * @param rowNames
+	 * @param colNames
+	 * @param stars
+	 *            text shown in each cell by column and row, or null
+	 */
+	HeatMapImage(double data[][], String rowNames[], String colNames[],
+			String stars[][]) {
+
+		numOfColumns = data.length;
+		int numOfAllRows = data[0].length;
+
+		// Transpose the data, so the rows can be clustered
+		double rows[][] = new double[numOfAllRows][numOfColumns];
+		for (int column = 0; column < numOfColumns; column++) {
+			for (int row = 0; row < numOfAllRows; row++) {
+				double value = data[column][row];
+				rows[row][column] = Double.isInfinite(value) ? Double.NaN
+						: value;
+			}
+		}
+
+		// Remove the rows with too many missing values, the same way as
+		// HeatMapTask does in R: a row is removed if it has no sample in
+		// common with any of the rows before it
+		float distances[] = HierarchicalClustering.distances(rows);
+		int kept[] = new int[numOfAllRows];
+		int numOfKept = 0;
+		for (int row = 0; row < numOfAllRows; row++) {
+			boolean comparable = true;
+			for (int previous = 0; comparable && previous < row; previous++)
+				comparable = !Float.isNaN(distances[HierarchicalClustering
+						.index(previous, row, numOfAllRows)]);
+			if (comparable)
+				kept[numOfKept++] = row;
+		}
+		numOfRows = numOfKept;
+
+		// Keep only the distances between the remaining rows. Every pair
+		// moves to a lower index, so this can be done in place.
+		if (numOfRows < numOfAllRows) {
+			for (int i = 0; i < numOfRows; i++) {
+				for (int j = i + 1; j < numOfRows; j++)
+					distances[HierarchicalClustering.index(i, j, numOfRows)] = distances[HierarchicalClustering
+							.index(kept[i], kept[j], numOfAllRows)];
+			}
+		}
+
+		this.data = new double[numOfRows][];
+		this.rowNames = new String[numOfRows];
+		this.stars = stars == null ? null : new String[numOfRows][numOfColumns];
+		double min = 0, max = 0;
+		for (int i = 0; i < numOfRows; i++) {
+			this.data[i] = rows[kept[i]];
+			this.rowNames[i] = rowNames[kept[i]];
+			for (int column = 0; column < numOfColumns; column++) {
+				double value = this.data[i][column];
+				if (value < min)
+					min = value;
+				if (value > max)
+					max = value;
+				if (stars != null)
+					this.stars[i][column] = stars[column][kept[i]];
+			}
+		}
+		this.colNames = colNames;
+		this.min = min;
+		this.max = max;
+
+		rowTree = new HierarchicalClustering(distances, numOfRows);
+		rowOrder = rowTree.getOrder(means(this.data));
+
+		double columns[][] = new double[numOfColumns][numOfRows];
+		for (int i = 0; i < numOfRows; i++) {
+			for (int column = 0; column < numOfColumns; column++)
+				columns[column][i] = this.data[i][column];
+		}
+		colTree = new HierarchicalClustering(
+				HierarchicalClustering.distances(columns), numOfColumns);
+		colOrder = colTree.getOrder(means(columns));
+	}
+
+	/**
+	 * Returns the number of rows left after removing the rows which can't be
+	 * clustered
+	 */
+	int getNumberOfRows() {
+		return numOfRows;
+	}
+
+	/**
+	 * Draws the heat map and writes it to a png file.
+	 *
+	 * @param file
+	 * @param width
+	 *            in pixels
+	 * @param height
+	 *            in pixels
+	 * @param columnMargin
+	 *            lines of text below the heat map, for the column names
+	 * @param rowMargin
+	 *            lines of text right of the heat map, for the row names
+	 * @param starSize
+	 *            size of the cell text, relative to the normal text size
+	 * @throws IOException
+	 */
+	void write(File file, int width, int height, int columnMargin,
+			int rowMargin, int starSize) throws IOException {
+
+		// Layout
+		int left = (int) (width * TREE_SIZE);
+		int top = (int) (height * TREE_SIZE);
+		int right = width - rowMargin * LINE_HEIGHT;
+		int bottom = height - columnMargin * LINE_HEIGHT;
+		if (right - left < numOfColumns || bottom - top < 1)
+			throw new IOException(
+					"The heat map does not fit into the figure, increase the width and height or decrease the margins");
+		double cellWidth = (double) (right - left) / numOfColumns;
+		double cellHeight = (double) (bottom - top) / numOfRows;
+
+		BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.white);
+		g.fillRect(0, 0, width, height);
+
+		// Cells, the first row of the order is drawn at the bottom
+		int rgb[] = new int[right - left];
+		for (int y = top; y < bottom; y++) {
+			int row = rowOrder[Math.min(numOfRows - 1,
+					(int) ((bottom - 1 - y) / cellHeight))];
+			for (int x = left; x < right; x++) {
+				int column = colOrder[Math.min(numOfColumns - 1,
+						(int) ((x - left) / cellWidth))];
+				rgb[x - left] = color(data[row][column]);
+			}
+			image.setRGB(left, y, right - left, 1, rgb, 0, rgb.length);
+		}
+
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+				RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+				RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setColor(Color.black);
+
+		// Cell text
+		if (stars != null) {
+			float size = (float) Math.min(starSize * LINE_HEIGHT,
+					Math.min(cellWidth, cellHeight));
+			if (size >= 4) {
+				g.setFont(g.getFont().deriveFont(size));
+				FontMetrics metrics = g.getFontMetrics();
+				for (int i = 0; i < numOfRows; i++) {
+					for (int j = 0; j < numOfColumns; j++) {
+						String text = stars[rowOrder[i]][colOrder[j]];
+						if (text == null || text.length() == 0)
+							continue;
+						float x = (float) (left + (j + 0.5) * cellWidth - metrics
+								.stringWidth(text) / 2.0);
+						float y = (float) (bottom - (i + 0.5) * cellHeight + metrics
+								.getAscent() / 2.0);
+						g.drawString(text, x, y);
+					}
+				}
+			}
+		}
+
+		// Row names, right of the cells
+		Font labelFont = labelFont(g.getFont(), numOfRows, cellHeight);
+		if (labelFont != null) {
+			g.setFont(labelFont);
+			FontMetrics metrics = g.getFontMetrics();
+			for (int i = 0; i < numOfRows; i++) {
+				float y = (float) (bottom - (i + 0.5) * cellHeight + metrics
+						.getAscent() / 2.0);
+				g.drawString(rowNames[rowOrder[i]], right + 4, y);
+			}
+		}
+
+		// Column names, below the cells and rotated
+		labelFont = labelFont(g.getFont(), numOfColumns, cellWidth);
+		if (labelFont != null) {
+			g.setFont(labelFont);
+			FontMetrics metrics = g.getFontMetrics();
+			AffineTransform transform = g.getTransform();
+			for (int j = 0; j < numOfColumns; j++) {
+				String name = colNames[colOrder[j]];
+				g.translate(left + (j + 0.5) * cellWidth, bottom + 4);
+				g.rotate(-Math.PI / 2);
+				g.drawString(name, -metrics.stringWidth(name),
+						metrics.getAscent() / 2.0f);
+				g.setTransform(transform);
+			}
+		}
+
+		// Dendrograms
+		g.setStroke(new BasicStroke(1));
+		drawTree(g, colTree, colOrder, left, cellWidth, top - 2, top - 4, false);
+		drawTree(g, rowTree, rowOrder, bottom, -cellHeight, left - 2, left - 4,
+				true);
+
+		drawKey(g, 0, 0, left, top);
+
+		g.dispose();
+		ImageIO.write(image, "png", file);
+	}
+
+	/**
+	 * Draws a dendrogram. The leaves are at the base and the highest cluster
+	 * at base - size.
+	 *
+	 * @param start
+	 *            position of the first leaf
+	 * @param step
+	 *            distance between the leaves
+	 * @param vertical
+	 *            whether the leaves are placed vertically (row dendrogram)
+	 */
+	private void drawTree(Graphics2D g, HierarchicalClustering tree,
+			int order[], double start, double step, double base, double size,
+			boolean vertical) {
+
+		int numOfMerges = tree.getNumberOfMerges();
+		if (numOfMerges == 0)
+			return;
+		double positions[] = tree.getPositions(order);
+		int numOfLeaves = tree.getNumberOfLeaves();
+		double maxHeight = tree.getHeight(numOfLeaves + numOfMerges - 1);
+		double scale = maxHeight > 0 ? size / maxHeight : 0;
+
+		for (int merge = 0; merge < numOfMerges; merge++) {
+			int first = tree.getLeft(merge), second = tree.getRight(merge);
+			double p1 = start + (positions[first] + 0.5) * step;
+			double p2 = start + (positions[second] + 0.5) * step;
+			double h1 = base - tree.getHeight(first) * scale;
+			double h2 = base - tree.getHeight(second) * scale;
+			double h = base - tree.getHeight(numOfLeaves + merge) * scale;
+			if (vertical) {
+				g.draw(new Line2D.Double(h1, p1, h, p1));
+				g.draw(new Line2D.Double(h, p1, h, p2));
+				g.draw(new Line2D.Double(h, p2, h2, p2));
+			} else {
+				g.draw(new Line2D.Double(p1, h1, p1, h));
+				g.draw(new Line2D.Double(p1, h, p2, h));
+				g.draw(new Line2D.Double(p2, h, p2, h2));
+			}
+		}
+	}
+
+	/**
+	 * Draws the color key into the given area
+	 */
+	private void drawKey(Graphics2D g, int x, int y, int width, int height) {
+
+		int keyLeft = x + width / 10, keyRight = x + width * 9 / 10;
+		int keyTop = y + height / 3, keyBottom = y + height * 2 / 3;
+		if (keyRight - keyLeft < 2 || keyBottom - keyTop < 2)
+			return;
+
+		for (int i = keyLeft; i < keyRight; i++) {
+			double value = min + (max - min) * (i - keyLeft)
+					/ (keyRight - keyLeft - 1);
+			g.setColor(new Color(color(value)));
+			g.fillRect(i, keyTop, 1, keyBottom - keyTop);
+		}
+		g.setColor(Color.black);
+		g.drawRect(keyLeft, keyTop, keyRight - keyLeft, keyBottom - keyTop);
+
+		g.setFont(g.getFont().deriveFont((float) LINE_HEIGHT));
+		FontMetrics metrics = g.getFontMetrics();
+		int textY = keyBottom + metrics.getAscent() + 2;
+		g.drawString(format(min), keyLeft, textY);
+		String text = format(max);
+		g.drawString(text, keyRight - metrics.stringWidth(text), textY);
+		if (min < 0 && max > 0) {
+			int zero = keyLeft
+					+ (int) ((keyRight - keyLeft) * -min / (max - min));
+			g.drawString("0", zero - metrics.stringWidth("0") / 2, textY);
+		}
+		text = "Value";
+		g.drawString(text, (keyLeft + keyRight - metrics.stringWidth(text)) / 2,
+				keyTop - metrics.getDescent() - 2);
+	}
+
+	/**
+	 * Color of a value, as bluered() with breaks from the minimum to 0 and
+	 * from 0 to the maximum
+	 */
+	private int color(double value) {
+		if (Double.isNaN(value))
+			return NA_COLOR.getRGB();
+		if (value < 0) {
+			int c = (int) Math.round(255 * (1 - value / min));
+			return 0xFF000000 | (c << 16) | (c << 8) | 0xFF;
+		}
+		int c = max > 0 ? (int) Math.round(255 * (1 - value / max)) : 255;
+		return 0xFFFF0000 | (c << 8) | c;
+	}
+
+	/**
+	 * Font of the row or column names, sized as heatmap.2 does (cex = 0.2 +
+	 * 1/log10(n)) but not larger than a cell. Returns null if the names would
+	 * be too small to read.
+	 */
+	private static Font labelFont(Font font, int count, double cellSize) {
+		double size = LINE_HEIGHT * (0.2 + 1 / Math.log10(Math.max(count, 2)));
+		size = Math.min(size, cellSize);
+		if (size < 4)
+			return null;
+		return font.deriveFont((float) size);
+	}
+
+	private static String format(double value) {
+		return String.format("%.2g", value);
+	}
+
+	/**
+	 * Means of the vectors, ignoring missing values
+	 */
+	private static double[] means(double vectors[][]) {
+		double means[] = new double[vectors.length];
+		for (int i = 0; i < vectors.length; i++) {
+			double sum = 0;
+			int count = 0;
+			for (double value : vectors[i]) {
+				if (!Double.isNaN(value)) {
+					sum += value;
+					count++;
+				}
+			}
+			means[i] = count > 0 ? sum / count : Double.NaN;
+		}
+		return means;
+	}
+
+}
@@ -38,6 +38,8 @@ public class HeatMapParameters extends SimpleParameterSet {
                 "Output name", "Select the path and name of the output file.");
         public static final ComboParameter<String> fileTypeSelection = new ComboParameter<String>(
                 "Output file type", "Output file type", fileTypes, fileTypes[0]);
+        public static final BooleanParameter useR = new BooleanParameter(
+                "Use R", "Draw the heat map with the R function heatmap.2. If not selected, the heat map is clustered and drawn in Java, which is much faster for large data sets but can only write \"png\" files", true);
         public static final ComboParameter<UserParameter> selectionData = new ComboParameter<UserParameter>(
                 "Sample parameter",
                 "One sample parameter has to be selected to be used in the heat map. They can be defined in \"Project -> Set sample parameters\"",
@@ -72,7 +74,7 @@ public class HeatMapParameters extends SimpleParameterSet {
                 "Row margin", "Row margin of the heat map", 10);
 
         public HeatMapParameters() {
-                super(new Parameter[]{fileName, fileTypeSelection, selectionData,
+                super(new Parameter[]{fileName, fileTypeSelection, useR, selectionData,
                                 referenceGroup, useIdenfiedRows, usePeakArea, scale, log,
                                 showControlSamples, plegend, star, height, width, columnMargin,
                                 rowMargin});
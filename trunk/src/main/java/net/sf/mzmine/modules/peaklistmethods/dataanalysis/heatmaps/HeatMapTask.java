@@ -20,6 +20,7 @@
 package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -47,7 +48,7 @@ public class HeatMapTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 	private String outputType;
-	private boolean log, rcontrol, scale, plegend, area, onlyIdentified;
+	private boolean useR, log, rcontrol, scale, plegend, area, onlyIdentified;
 	private int height, width, columnMargin, rowMargin, starSize;
 	private File outputFile;
 	private double[][] newPeakList;
@@ -66,6 +67,7 @@ public class HeatMapTask extends AbstractTask {
 				.getValue();
 		outputType = parameters.getParameter(
 				HeatMapParameters.fileTypeSelection).getValue();
+		useR = parameters.getParameter(HeatMapParameters.useR).getValue();
 		selectedParameter = parameters.getParameter(
 				HeatMapParameters.selectionData).getValue();
 		referenceGroup = parameters.getParameter(
@@ -123,6 +125,60 @@ public class HeatMapTask extends AbstractTask {
 			return;
 		}
 
+		if (outputType.contains("png")) {
+			if (height < 500 || width < 500) {
+
+				setStatus(TaskStatus.ERROR);
+				errorMessage = "Figure height or width is too small. Minimun height and width is 500.";
+				return;
+			}
+		}
+
+		if (useR) {
+			drawWithR();
+		} else {
+			drawWithJava();
+		}
+
+	}
+
+	/**
+	 * Clusters and draws the heat map in Java. Only png files can be written.
+	 */
+	private void drawWithJava() {
+
+		if (!outputType.contains("png")) {
+			setStatus(TaskStatus.ERROR);
+			errorMessage = "Heat maps can only be saved as \"png\" without R.";
+			return;
+		}
+
+		finishedPercentage = 0.3f;
+
+		HeatMapImage image = new HeatMapImage(newPeakList, rowNames, colNames,
+				plegend ? pValueMatrix : null);
+		logger.info("Clustered " + image.getNumberOfRows() + " of "
+				+ rowNames.length + " rows");
+
+		if (isCanceled())
+			return;
+		finishedPercentage = 0.8f;
+
+		try {
+			image.write(outputFile, width, height, columnMargin, rowMargin,
+					starSize);
+		} catch (IOException e) {
+			setStatus(TaskStatus.ERROR);
+			errorMessage = "Could not write the heat map: " + e.getMessage();
+			return;
+		}
+		finishedPercentage = 1.0f;
+
+		setStatus(TaskStatus.FINISHED);
+	}
+
+	private void drawWithR() {
+
 		Rengine rEngine = null;
 		try {
 			rEngine = RUtilities.getREngine();
@@ -141,59 +197,41 @@ public class HeatMapTask extends AbstractTask {
 			if (rEngine.eval("require(gplots)").asBool().isFALSE()) {
 				setStatus(TaskStatus.ERROR);
 				errorMessage = "Heap maps plot requires the \"gplots\" R package, which could not be loaded. Please add it to your R installation.";
+				return;
 			}
 
 			try {
 
-				if (outputType.contains("png")) {
-					if (height < 500 || width < 500) {
-
-						setStatus(TaskStatus.ERROR);
-						errorMessage = "Figure height or width is too small. Minimun height and width is 500.";
-						return;
-					}
-				}
-
-				rEngine.eval("dataset<- matrix(\"\",nrow ="
-						+ newPeakList[0].length + ",ncol=" + newPeakList.length
-						+ ")");
-
-				if (plegend) {
-					rEngine.eval("stars<- matrix(\"\",nrow ="
-							+ newPeakList[0].length + ",ncol="
-							+ newPeakList.length + ")");
-				}
-
-				// assing the values to the matrix
-				for (int row = 0; row < newPeakList[0].length; row++) {
-
-					for (int column = 0; column < newPeakList.length; column++) {
-
-						int r = row + 1;
-						int c = column + 1;
-
+				// Transfer the whole matrix at once, in R's column-major
+				// order. Missing values become NaN in Java and are changed to
+				// NA in R.
+				int numRows = newPeakList[0].length;
+				int numColumns = newPeakList.length;
+				double values[] = new double[numRows * numColumns];
+				String stars[] = plegend ? new String[values.length] : null;
+				for (int column = 0, i = 0; column < numColumns; column++) {
+					for (int row = 0; row < numRows; row++, i++) {
 						double value = newPeakList[column][row];
-
+						values[i] = Double.isInfinite(value) ? Double.NaN
+								: value;
 						if (plegend) {
-							String pValue = pValueMatrix[column][row];
-							rEngine.eval("stars[" + r + "," + c + "] = \""
-									+ pValue + "\"");
+							stars[i] = pValueMatrix[column][row];
 						}
+					}
+				}
 
-						if (!Double.isInfinite(value) && !Double.isNaN(value)) {
-
-							rEngine.eval("dataset[" + r + "," + c + "] = "
-									+ value);
-						} else {
+				rEngine.assign("dataset", values);
+				rEngine.eval("dataset <- matrix(dataset, nrow=" + numRows
+						+ ", ncol=" + numColumns + ")");
+				rEngine.eval("dataset[is.nan(dataset)] <- NA");
 
-							rEngine.eval("dataset[" + r + "," + c + "] = NA");
-						}
-					}
+				if (plegend) {
+					rEngine.assign("stars", stars);
+					rEngine.eval("stars <- matrix(stars, nrow=" + numRows
+							+ ", ncol=" + numColumns + ")");
 				}
 				finishedPercentage = 0.4f;
 
-				rEngine.eval("dataset <- apply(dataset, 2, as.numeric)");
-
 				// Assign row names to the data set
 				long rows = rEngine.rniPutStringArray(rowNames);
 				rEngine.rniAssign("rowNames", rows, 0);
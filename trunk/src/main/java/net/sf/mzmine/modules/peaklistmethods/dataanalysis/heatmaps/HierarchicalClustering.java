@@ -0,0 +1,301 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.dataanalysis.heatmaps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.TaskController;
+
+/**
+ * Complete linkage hierarchical clustering, the default method of R's hclust()
+ * as used by heatmap.2.
+ *
+ * Distances are kept in a condensed lower triangle (one float per pair of
+ * vectors, in the order of R's dist objects). The clusters are built with the
+ * nearest neighbor chain algorithm, which needs O(n^2) time and no memory
+ * besides the distances.
+ *
+ * Nodes 0 to n-1 are the clustered vectors, node n+k is the cluster created
+ * by the k-th merge.
+ */
+class HierarchicalClustering {
+
+	private final int numOfLeaves;
+	private final int left[], right[];
+	private final double heights[];
+
+	/**
+	 * Clusters the vectors with the given distances. The distances are
+	 * overwritten.
+	 *
+	 * @param distances
+	 *            condensed distances, see index(int, int, int)
+	 * @param n
+	 *            number of vectors
+	 */
+	HierarchicalClustering(float distances[], int n) {
+
+		numOfLeaves = n;
+		int numOfMerges = Math.max(n - 1, 0);
+		left = new int[numOfMerges];
+		right = new int[numOfMerges];
+		heights = new double[numOfMerges];
+
+		// Node currently represented by each vector slot
+		int nodes[] = new int[n];
+		boolean active[] = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			nodes[i] = i;
+			active[i] = true;
+		}
+
+		int chain[] = new int[n];
+		int chainSize = 0;
+		int firstActive = 0;
+
+		for (int merge = 0; merge < numOfMerges; merge++) {
+
+			if (chainSize == 0) {
+				while (!active[firstActive])
+					firstActive++;
+				chain[chainSize++] = firstActive;
+			}
+
+			// Follow the nearest neighbors until two clusters are each
+			// other's nearest neighbor
+			int a, b;
+			while (true) {
+				a = chain[chainSize - 1];
+				int previous = chainSize > 1 ? chain[chainSize - 2] : -1;
+
+				// Prefer the previous cluster on ties, so the chain ends
+				b = previous;
+				float best = previous >= 0 ? distances[index(a, previous, n)]
+						: Float.POSITIVE_INFINITY;
+				for (int k = 0; k < n; k++) {
+					if (!active[k] || k == a)
+						continue;
+					float d = distances[index(a, k, n)];
+					if (b < 0 || d < best) {
+						b = k;
+						best = d;
+					}
+				}
+
+				if (b == previous)
+					break;
+				chain[chainSize++] = b;
+			}
+			chainSize -= 2;
+
+			// Merge a into b. The distance of the new cluster to any other
+			// cluster is the larger of the two distances.
+			left[merge] = nodes[a];
+			right[merge] = nodes[b];
+			heights[merge] = distances[index(a, b, n)];
+			for (int k = 0; k < n; k++) {
+				if (!active[k] || k == a || k == b)
+					continue;
+				int ka = index(k, a, n), kb = index(k, b, n);
+				if (distances[ka] > distances[kb])
+					distances[kb] = distances[ka];
+			}
+			active[a] = false;
+			nodes[b] = n + merge;
+		}
+	}
+
+	/**
+	 * Returns the index of the distance between vectors i and j in the
+	 * condensed distances of n vectors.
+	 */
+	static int index(int i, int j, int n) {
+		if (i > j) {
+			int swap = i;
+			i = j;
+			j = swap;
+		}
+		return (int) ((long) n * i - (long) i * (i + 1) / 2 + j - i - 1);
+	}
+
+	/**
+	 * Calculates the euclidean distances between all pairs of vectors. Missing
+	 * values (NaN) are excluded and the sum is scaled up proportionally to the
+	 * number of excluded values, as R's dist() does. The distance of two
+	 * vectors without any value in common is NaN. Rows of the distance matrix
+	 * are calculated in parallel by sub-tasks.
+	 *
+	 * @param vectors
+	 *            vectors, all of the same length
+	 * @return condensed distances
+	 */
+	static float[] distances(final double vectors[][]) {
+
+		final int n = vectors.length;
+		long size = Math.max((long) n * (n - 1) / 2, 0);
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many vectors to cluster ("
+					+ n + ")");
+		final float distances[] = new float[(int) size];
+
+		// Interleave the rows among the sub-tasks, the first rows are the
+		// longest
+		final TaskController taskController = MZmineCore.getTaskController();
+		final int numOfSubTasks = Math.max(1, Math.min(n, MZmineCore
+				.getConfiguration().getPreferences().getNumOfThreads()));
+		List<Future<Object>> subTasks = new ArrayList<Future<Object>>();
+		for (int t = 0; t < numOfSubTasks; t++) {
+			final int first = t;
+			subTasks.add(taskController.submitSubTask(new Callable<Object>() {
+				public Object call() {
+					for (int i = first; i < n; i += numOfSubTasks) {
+						for (int j = i + 1; j < n; j++)
+							distances[index(i, j, n)] = distance(vectors[i],
+									vectors[j]);
+					}
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (int t = 0; t < subTasks.size(); t++) {
+				taskController.joinSubTask(subTasks.get(t));
+				subTasks.set(t, null);
+			}
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(
+					"Distance calculation was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Distance calculation failed",
+					e.getCause());
+		} finally {
+			for (Future<Object> subTask : subTasks) {
+				if (subTask != null)
+					subTask.cancel(false);
+			}
+		}
+
+		return distances;
+	}
+
+	private static float distance(double x[], double y[]) {
+		double sum = 0;
+		int count = 0;
+		for (int c = 0; c < x.length; c++) {
+			double diff = x[c] - y[c];
+			if (!Double.isNaN(diff)) {
+				sum += diff * diff;
+				count++;
+			}
+		}
+		if (count == 0)
+			return Float.NaN;
+		return (float) Math.sqrt(sum * x.length / count);
+	}
+
+	int getNumberOfLeaves() {
+		return numOfLeaves;
+	}
+
+	int getNumberOfMerges() {
+		return heights.length;
+	}
+
+	int getLeft(int merge) {
+		return left[merge];
+	}
+
+	int getRight(int merge) {
+		return right[merge];
+	}
+
+	/**
+	 * Returns the height of the given node, 0 for the leaves
+	 */
+	double getHeight(int node) {
+		return node < numOfLeaves ? 0 : heights[node - numOfLeaves];
+	}
+
+	/**
+	 * Orders the leaves as R's reorder.dendrogram() with agglo.FUN = mean:
+	 * the weight of a cluster is the mean of the weights of its two
+	 * sub-clusters, and the sub-cluster with the lower weight comes first.
+	 *
+	 * @param weights
+	 *            weights of the leaves
+	 * @return leaves in display order
+	 */
+	int[] getOrder(double weights[]) {
+
+		if (numOfLeaves == 0)
+			return new int[0];
+
+		double nodeWeights[] = new double[numOfLeaves + heights.length];
+		System.arraycopy(weights, 0, nodeWeights, 0, numOfLeaves);
+		for (int merge = 0; merge < heights.length; merge++)
+			nodeWeights[numOfLeaves + merge] = (nodeWeights[left[merge]] + nodeWeights[right[merge]]) / 2;
+
+		// Depth first traversal without recursion, the tree may be very deep
+		int order[] = new int[numOfLeaves];
+		int size = 0;
+		int stack[] = new int[numOfLeaves];
+		int stackSize = 0;
+		stack[stackSize++] = nodeWeights.length - 1;
+		while (stackSize > 0) {
+			int node = stack[--stackSize];
+			if (node < numOfLeaves) {
+				order[size++] = node;
+				continue;
+			}
+			int first = left[node - numOfLeaves];
+			int second = right[node - numOfLeaves];
+			if (nodeWeights[second] < nodeWeights[first]) {
+				int swap = first;
+				first = second;
+				second = swap;
+			}
+			stack[stackSize++] = second;
+			stack[stackSize++] = first;
+		}
+
+		return order;
+	}
+
+	/**
+	 * Returns the position of each node when the leaves are drawn in the given
+	 * order: the index of each leaf in the order, and the middle of its
+	 * sub-clusters for each cluster.
+	 */
+	double[] getPositions(int order[]) {
+		double positions[] = new double[numOfLeaves + heights.length];
+		for (int i = 0; i < order.length; i++)
+			positions[order[i]] = i;
+		for (int merge = 0; merge < heights.length; merge++)
+			positions[numOfLeaves + merge] = (positions[left[merge]] + positions[right[merge]]) / 2;
+		return positions;
+	}
+
+}
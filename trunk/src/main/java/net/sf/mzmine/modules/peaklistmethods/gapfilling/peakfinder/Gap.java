@@ -64,7 +64,25 @@ class Gap {
 
 	}
 
-	void offerNextScan(Scan scan) {
+	Range getRTRange() {
+		return rtRange;
+	}
+
+	/**
+	 * Returns true if this gap will ignore all scans with retention time
+	 * greater or equal to given value
+	 */
+	boolean isFinished(double rt) {
+		return (rt > rtRange.getMax()) && (currentPeakDataPoints == null);
+	}
+
+	/**
+	 * Offers a scan whose data points have already been read into the given
+	 * arrays, sorted by m/z. The arrays are not modified, so the same data can
+	 * be offered to many gaps.
+	 */
+	void offerNextScan(Scan scan, double mzValues[], double intensityValues[],
+			int numOfDataPoints) {
 
 		double scanRT = scan.getRetentionTime();
 
@@ -77,12 +95,13 @@ class Gap {
 			return;
 
 		// Find top m/z peak in our range
-		DataPoint basePeak = ScanUtils.findBasePeak(scan, mzRange);
+		int basePeak = findBasePeak(mzValues, intensityValues,
+				numOfDataPoints);
 
 		GapDataPoint currentDataPoint;
-		if (basePeak != null) {
-			currentDataPoint = new GapDataPoint(scan.getScanNumber(), basePeak
-					.getMZ(), scanRT, basePeak.getIntensity());
+		if (basePeak >= 0) {
+			currentDataPoint = new GapDataPoint(scan.getScanNumber(),
+					mzValues[basePeak], scanRT, intensityValues[basePeak]);
 		} else {
 			currentDataPoint = new GapDataPoint(scan.getScanNumber(), mzRange.getAverage(),
 					scanRT, 0);
@@ -198,6 +217,33 @@ class Gap {
 
 	}
 
+	/**
+	 * Returns the index of the most intense data point within our m/z range,
+	 * or -1 if there is no data point in the range
+	 */
+	private int findBasePeak(double mzValues[], double intensityValues[],
+			int numOfDataPoints) {
+
+		// Binary search for the first data point inside the range
+		int low = 0, high = numOfDataPoints;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mzValues[mid] < mzRange.getMin())
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		int basePeak = -1;
+		for (int i = low; (i < numOfDataPoints)
+				&& (mzValues[i] <= mzRange.getMax()); i++) {
+			if ((basePeak < 0)
+					|| (intensityValues[i] > intensityValues[basePeak]))
+				basePeak = i;
+		}
+		return basePeak;
+	}
+
 	/**
 	 * This function check for the shape of the peak in RT direction, and
 	 * determines if it is possible to add given m/z peak at the end of the
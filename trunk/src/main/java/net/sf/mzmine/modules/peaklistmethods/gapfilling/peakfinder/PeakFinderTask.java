@@ -19,7 +19,16 @@
 
 package net.sf.mzmine.modules.peaklistmethods.gapfilling.peakfinder;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.Feature;
@@ -37,6 +46,7 @@ import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.Range;
 
@@ -50,7 +60,8 @@ class PeakFinderTask extends AbstractTask {
 	private RTTolerance rtTolerance;
 	private boolean rtCorrection;
 	private ParameterSet parameters;
-	private int processedScans, totalScans;
+	private AtomicInteger processedScans = new AtomicInteger();
+	private int totalScans;
 	private boolean MASTERLIST = true, removeOriginal;
 	private int masterSample = 0;
 
@@ -112,230 +123,358 @@ class PeakFinderTask extends AbstractTask {
 			fillList(MASTERLIST);
 
 			// Process all raw data files
-			fillList(!MASTERLIST);
+			if (!isCanceled() && (getStatus() != TaskStatus.ERROR))
+				fillList(!MASTERLIST);
 
 		} else {
 
-			// Process all raw data files
-			for (RawDataFile dataFile : peakList.getRawDataFiles()) {
-
-				// Canceled?
-				if (isCanceled()) {
-					return;
-				}
-
-				Vector<Gap> gaps = new Vector<Gap>();
-
-				// Fill each row of this raw data file column, create new empty
-				// gaps
-				// if necessary
-				for (int row = 0; row < peakList.getNumberOfRows(); row++) {
-					PeakListRow sourceRow = peakList.getRow(row);
-					PeakListRow newRow = processedPeakList.getRow(row);
+			// Process all raw data files, each file fills only its own
+			// column, so the files can be processed concurrently
+			Vector<Callable<Object>> fileTasks = new Vector<Callable<Object>>();
+			for (final RawDataFile dataFile : peakList.getRawDataFiles()) {
+				fileTasks.add(new Callable<Object>() {
+					public Object call() {
+						fillFile(dataFile);
+						return null;
+					}
+				});
+			}
+			runConcurrently(fileTasks);
 
-					Feature sourcePeak = sourceRow
-							.getPeak(dataFile);
+		}
 
-					if (sourcePeak == null) {
+		if (isCanceled() || (getStatus() == TaskStatus.ERROR))
+			return;
 
-						// Create a new gap
+		// Append processed peak list to the project
+		MZmineProject currentProject = MZmineCore.getCurrentProject();
+		currentProject.addPeakList(processedPeakList);
 
-						Range mzRange = mzTolerance.getToleranceRange(sourceRow
-								.getAverageMZ());
-						Range rtRange = rtTolerance.getToleranceRange(sourceRow
-								.getAverageRT());
+		// Add task description to peakList
+		processedPeakList
+				.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
+						"Gap filling ", parameters));
 
-						Gap newGap = new Gap(newRow, dataFile, mzRange,
-								rtRange, intTolerance);
+		// Remove the original peaklist if requested
+		if (removeOriginal)
+			currentProject.removePeakList(peakList);
+		
+		logger.info("Finished gap-filling on " + peakList);
+		setStatus(TaskStatus.FINISHED);
 
-						gaps.add(newGap);
+	}
 
-					} else {
-						newRow.addPeak(dataFile, sourcePeak);
-					}
+	/**
+	 * Fills the gaps of one raw data file column
+	 */
+	private void fillFile(RawDataFile dataFile) {
 
-				}
+		// Canceled?
+		if (isCanceled()) {
+			return;
+		}
 
-				// Stop processing this file if there are no gaps
-				if (gaps.size() == 0) {
-					processedScans += dataFile.getNumOfScans();
-					continue;
-				}
+		Vector<Gap> gaps = new Vector<Gap>();
 
-				// Get all scans of this data file
-				int scanNumbers[] = dataFile.getScanNumbers(1);
+		// Fill each row of this raw data file column, create new empty
+		// gaps
+		// if necessary
+		for (int row = 0; row < peakList.getNumberOfRows(); row++) {
+			PeakListRow sourceRow = peakList.getRow(row);
+			PeakListRow newRow = processedPeakList.getRow(row);
 
-				// Process each scan
-				for (int scanNumber : scanNumbers) {
+			Feature sourcePeak = sourceRow
+					.getPeak(dataFile);
 
-					// Canceled?
-					if (isCanceled()) {
-						return;
-					}
+			if (sourcePeak == null) {
 
-					// Get the scan
-					Scan scan = dataFile.getScan(scanNumber);
+				// Create a new gap
 
-					// Feed this scan to all gaps
-					for (Gap gap : gaps) {
-						gap.offerNextScan(scan);
-					}
+				Range mzRange = mzTolerance.getToleranceRange(sourceRow
+						.getAverageMZ());
+				Range rtRange = rtTolerance.getToleranceRange(sourceRow
+						.getAverageRT());
 
-					processedScans++;
-				}
+				Gap newGap = new Gap(newRow, dataFile, mzRange,
+						rtRange, intTolerance);
 
-				// Finalize gaps
-				for (Gap gap : gaps) {
-					gap.noMoreOffers();
-				}
+				gaps.add(newGap);
 
+			} else {
+				newRow.addPeak(dataFile, sourcePeak);
 			}
-		}
 
-		// Append processed peak list to the project
-		MZmineProject currentProject = MZmineCore.getCurrentProject();
-		currentProject.addPeakList(processedPeakList);
+		}
 
-		// Add task description to peakList
-		processedPeakList
-				.addDescriptionOfAppliedTask(new SimplePeakListAppliedMethod(
-						"Gap filling ", parameters));
+		// Stop processing this file if there are no gaps
+		if (gaps.size() == 0) {
+			processedScans.addAndGet(dataFile.getNumOfScans());
+			return;
+		}
 
-		// Remove the original peaklist if requested
-		if (removeOriginal)
-			currentProject.removePeakList(peakList);
-		
-		logger.info("Finished gap-filling on " + peakList);
-		setStatus(TaskStatus.FINISHED);
+		fillGaps(dataFile, gaps);
 
 	}
 
 	public void fillList(boolean masterList) {
+
+		Vector<Callable<Object>> fileTasks = new Vector<Callable<Object>>();
+
 		for (int i = 0; i < peakList.getNumberOfRawDataFiles(); i++) {
 			if (i != masterSample) {
 
-				RawDataFile datafile1;
-				RawDataFile datafile2;
-
+				// The master list pass fills the master column from each
+				// other file in turn, so it must run sequentially. The
+				// second pass fills a different column from each file.
 				if (masterList) {
-					datafile1 = peakList.getRawDataFile(masterSample);
-					datafile2 = peakList.getRawDataFile(i);
+					fillFile(i, masterList);
+					if (isCanceled())
+						return;
 				} else {
-					datafile1 = peakList.getRawDataFile(i);
-					datafile2 = peakList.getRawDataFile(masterSample);
+					final int fileIndex = i;
+					fileTasks.add(new Callable<Object>() {
+						public Object call() {
+							fillFile(fileIndex, false);
+							return null;
+						}
+					});
 				}
-				RegressionInfo info = new RegressionInfo();
+			}
+		}
 
-				for (PeakListRow row : peakList.getRows()) {
-					Feature peaki = row.getPeak(datafile1);
-					Feature peake = row.getPeak(datafile2);
-					if (peaki != null && peake != null) {
-						info.addData(peake.getRT(), peaki.getRT());
-					}
-				}
+		runConcurrently(fileTasks);
+	}
 
-				info.setFunction();
+	/**
+	 * Fills the gaps of one raw data file column using the retention time
+	 * correction between this file and the master sample
+	 */
+	private void fillFile(int i, boolean masterList) {
 
-				// Canceled?
-				if (isCanceled()) {
-					return;
-				}
+		RawDataFile datafile1;
+		RawDataFile datafile2;
 
-				Vector<Gap> gaps = new Vector<Gap>();
-
-				// Fill each row of this raw data file column, create new empty
-				// gaps
-				// if necessary
-				for (int row = 0; row < peakList.getNumberOfRows(); row++) {
-					PeakListRow sourceRow = peakList.getRow(row);
-					PeakListRow newRow = processedPeakList.getRow(row);
-
-					Feature sourcePeak = sourceRow
-							.getPeak(datafile1);
-
-					if (sourcePeak == null) {
-
-						// Create a new gap
-
-						double mz = sourceRow.getAverageMZ();
-						double rt2 = -1;
-						if (!masterList) {
-							if (processedPeakList.getRow(row)
-									.getPeak(datafile2) != null) {
-								rt2 = processedPeakList.getRow(row)
-										.getPeak(datafile2).getRT();
-							}
-						} else {
-							if (peakList.getRow(row).getPeak(datafile2) != null) {
-								rt2 = peakList.getRow(row).getPeak(datafile2)
-										.getRT();
-							}
-						}
+		if (masterList) {
+			datafile1 = peakList.getRawDataFile(masterSample);
+			datafile2 = peakList.getRawDataFile(i);
+		} else {
+			datafile1 = peakList.getRawDataFile(i);
+			datafile2 = peakList.getRawDataFile(masterSample);
+		}
+		RegressionInfo info = new RegressionInfo();
 
-						if (rt2 > -1) {
+		for (PeakListRow row : peakList.getRows()) {
+			Feature peaki = row.getPeak(datafile1);
+			Feature peake = row.getPeak(datafile2);
+			if (peaki != null && peake != null) {
+				info.addData(peake.getRT(), peaki.getRT());
+			}
+		}
 
-							double rt = info.predict(rt2);
+		info.setFunction();
 
-							if (rt != -1) {
+		// Canceled?
+		if (isCanceled()) {
+			return;
+		}
 
-								Range mzRange = mzTolerance
-										.getToleranceRange(mz);
-								Range rtRange = rtTolerance
-										.getToleranceRange(rt);
+		Vector<Gap> gaps = new Vector<Gap>();
 
-								Gap newGap = new Gap(newRow, datafile1,
-										mzRange, rtRange, intTolerance);
+		// Fill each row of this raw data file column, create new empty
+		// gaps
+		// if necessary
+		for (int row = 0; row < peakList.getNumberOfRows(); row++) {
+			PeakListRow sourceRow = peakList.getRow(row);
+			PeakListRow newRow = processedPeakList.getRow(row);
 
-								gaps.add(newGap);
-							}
-						}
+			Feature sourcePeak = sourceRow
+					.getPeak(datafile1);
 
-					} else {
-						newRow.addPeak(datafile1, sourcePeak);
-					}
+			if (sourcePeak == null) {
 
-				}
+				// Create a new gap
 
-				// Stop processing this file if there are no gaps
-				if (gaps.size() == 0) {
-					processedScans += datafile1.getNumOfScans();
-					continue;
+				double mz = sourceRow.getAverageMZ();
+				double rt2 = -1;
+				if (!masterList) {
+					if (processedPeakList.getRow(row)
+							.getPeak(datafile2) != null) {
+						rt2 = processedPeakList.getRow(row)
+								.getPeak(datafile2).getRT();
+					}
+				} else {
+					if (peakList.getRow(row).getPeak(datafile2) != null) {
+						rt2 = peakList.getRow(row).getPeak(datafile2)
+								.getRT();
+					}
 				}
 
-				// Get all scans of this data file
-				int scanNumbers[] = datafile1.getScanNumbers(1);
+				if (rt2 > -1) {
 
-				// Process each scan
-				for (int scanNumber : scanNumbers) {
+					double rt = info.predict(rt2);
 
-					// Canceled?
-					if (isCanceled()) {
-						return;
-					}
+					if (rt != -1) {
 
-					// Get the scan
-					Scan scan = datafile1.getScan(scanNumber);
+						Range mzRange = mzTolerance
+								.getToleranceRange(mz);
+						Range rtRange = rtTolerance
+								.getToleranceRange(rt);
 
-					// Feed this scan to all gaps
-					for (Gap gap : gaps) {
-						gap.offerNextScan(scan);
+						Gap newGap = new Gap(newRow, datafile1,
+								mzRange, rtRange, intTolerance);
+
+						gaps.add(newGap);
 					}
-					processedScans++;
 				}
 
-				// Finalize gaps
-				for (Gap gap : gaps) {
-					gap.noMoreOffers();
+			} else {
+				newRow.addPeak(datafile1, sourcePeak);
+			}
+
+		}
+
+		// Stop processing this file if there are no gaps
+		if (gaps.size() == 0) {
+			processedScans.addAndGet(datafile1.getNumOfScans());
+			return;
+		}
+
+		fillGaps(datafile1, gaps);
+
+	}
+
+	/**
+	 * Feeds the MS1 scans of given file to the gaps. Each scan is read only
+	 * once and offered only to the gaps whose retention time window has
+	 * started and which are still collecting data points.
+	 */
+	private void fillGaps(RawDataFile dataFile, List<Gap> gaps) {
+
+		// Get all scans of this data file
+		int scanNumbers[] = dataFile.getScanNumbers(1);
+
+		// Gaps can only be scheduled by their retention time windows if the
+		// retention times grow with the scan numbers, otherwise all gaps
+		// see all scans
+		boolean rtOrdered = true;
+		double lastRT = Double.NEGATIVE_INFINITY;
+		for (int scanNumber : scanNumbers) {
+			double rt = dataFile.getScan(scanNumber).getRetentionTime();
+			if (rt < lastRT) {
+				rtOrdered = false;
+				break;
+			}
+			lastRT = rt;
+		}
+
+		// Gaps ordered by the start of their retention time windows
+		Gap pendingGaps[] = gaps.toArray(new Gap[0]);
+		if (rtOrdered) {
+			Arrays.sort(pendingGaps, new Comparator<Gap>() {
+				public int compare(Gap g1, Gap g2) {
+					return Double.compare(g1.getRTRange().getMin(), g2
+							.getRTRange().getMin());
 				}
+			});
+		}
+		int nextPendingGap = 0;
+		ArrayList<Gap> activeGaps = new ArrayList<Gap>();
+
+		double mzValues[] = new double[0];
+		double intensityValues[] = new double[0];
+
+		// Process each scan
+		for (int scanNumber : scanNumbers) {
+
+			// Canceled?
+			if (isCanceled()) {
+				return;
+			}
+
+			// Get the scan
+			Scan scan = dataFile.getScan(scanNumber);
+			double scanRT = scan.getRetentionTime();
+
+			// Activate the gaps whose window starts before this scan
+			while ((nextPendingGap < pendingGaps.length)
+					&& (!rtOrdered || (pendingGaps[nextPendingGap]
+							.getRTRange().getMin() <= scanRT))) {
+				activeGaps.add(pendingGaps[nextPendingGap++]);
 			}
+
+			if (!activeGaps.isEmpty()) {
+
+				// Read the data points once for all gaps
+				int size = scan.getNumberOfDataPoints();
+				if (mzValues.length < size) {
+					mzValues = new double[size];
+					intensityValues = new double[size];
+				}
+				int numOfDataPoints = scan.getDataPoints(mzValues,
+						intensityValues);
+
+				// Feed this scan to all active gaps, and drop the gaps
+				// which will ignore all following scans
+				int remaining = 0;
+				for (int i = 0; i < activeGaps.size(); i++) {
+					Gap gap = activeGaps.get(i);
+					gap.offerNextScan(scan, mzValues, intensityValues,
+							numOfDataPoints);
+					if (!rtOrdered || !gap.isFinished(scanRT))
+						activeGaps.set(remaining++, gap);
+				}
+				while (activeGaps.size() > remaining)
+					activeGaps.remove(activeGaps.size() - 1);
+			}
+
+			processedScans.incrementAndGet();
 		}
+
+		// Finalize gaps
+		for (Gap gap : gaps) {
+			gap.noMoreOffers();
+		}
+
+	}
+
+	/**
+	 * Runs the given tasks as sub-tasks on the worker threads of the task
+	 * controller and waits for them to finish
+	 */
+	private void runConcurrently(List<Callable<Object>> tasks) {
+
+		if (tasks.isEmpty())
+			return;
+
+		TaskController taskController = MZmineCore.getTaskController();
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+		try {
+			for (Callable<Object> task : tasks)
+				futures.add(taskController.submitSubTask(task));
+			for (Future<Object> future : futures)
+				taskController.joinSubTask(future);
+		} catch (InterruptedException e) {
+			setStatus(TaskStatus.ERROR);
+			errorMessage = "Gap filling of " + peakList + " was interrupted";
+		} catch (ExecutionException e) {
+			logger.log(Level.SEVERE, "Gap filling of " + peakList + " failed",
+					e.getCause());
+			setStatus(TaskStatus.ERROR);
+			errorMessage = "Gap filling of " + peakList + " failed: "
+					+ e.getCause();
+		} finally {
+			for (Future<Object> future : futures)
+				future.cancel(false);
+		}
+
 	}
 
 	public double getFinishedPercentage() {
 		if (totalScans == 0) {
 			return 0;
 		}
-		return (double) processedScans / (double) totalScans;
+		return (double) processedScans.get() / (double) totalScans;
 
 	}
 
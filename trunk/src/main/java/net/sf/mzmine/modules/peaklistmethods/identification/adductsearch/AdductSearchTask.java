@@ -24,6 +24,7 @@ import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.
 import static net.sf.mzmine.modules.peaklistmethods.identification.adductsearch.AdductSearchParameters.RT_TOLERANCE;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,7 +37,9 @@ import net.sf.mzmine.parameters.parametertypes.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.MassDifferenceSearch;
 import net.sf.mzmine.util.PeakListRowSorter;
+import net.sf.mzmine.util.Range;
 import net.sf.mzmine.util.SortingDirection;
 import net.sf.mzmine.util.SortingProperty;
 
@@ -45,7 +48,7 @@ public class AdductSearchTask extends AbstractTask {
     // Logger.
     private static final Logger LOG = Logger.getLogger(AdductSearchTask.class.getName());
 
-    private int finishedRows;
+    private final AtomicInteger finishedRows;
     private int totalRows;
     private final PeakList peakList;
 
@@ -68,7 +71,7 @@ public class AdductSearchTask extends AbstractTask {
         peakList = list;
         parameters = parameterSet;
 
-        finishedRows = 0;
+        finishedRows = new AtomicInteger();
         totalRows = 0;
 
         rtTolerance = parameterSet.getParameter(RT_TOLERANCE).getValue();
@@ -80,7 +83,7 @@ public class AdductSearchTask extends AbstractTask {
     @Override
     public double getFinishedPercentage() {
 
-        return totalRows == 0 ? 0.0 : (double) finishedRows / (double) totalRows;
+        return totalRows == 0 ? 0.0 : (double) finishedRows.get() / (double) totalRows;
     }
 
     @Override
@@ -124,6 +127,11 @@ public class AdductSearchTask extends AbstractTask {
 
     /**
      * Search peak-list for adducts.
+     *
+     * Of each pair of rows, the smaller m/z row is the main peak (the higher peak if both m/z are
+     * equal) and the other row may be an adduct. Instead of testing all pairs, the rows at the m/z of each adduct of
+     * each main peak are looked up in a mass difference index, in parallel. The identities are then added in the
+     * order of the pairs and adducts, the same order as a pass over all pairs would add them.
      */
     private void searchAdducts() {
 
@@ -134,47 +142,68 @@ public class AdductSearchTask extends AbstractTask {
         // Start with the highest peaks.
         Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height, SortingDirection.Descending));
 
-        // Compare each pair of rows against each other.
-        for (int i = 0;
-             !isCanceled() && i < totalRows;
-             i++) {
+        final MassDifferenceSearch index = new MassDifferenceSearch(rows, rtTolerance);
+        final long numRows = rows.length;
+        final int numAdducts = selectedAdducts.length;
 
-            for (int j = i + 1;
-                 !isCanceled() && j < totalRows;
-                 j++) {
+        // Keys of the matches are the positions of the two rows (first one lower) and the adduct index.
+        final long[] matches = index.search(new MassDifferenceSearch.RowSearch() {
+            @Override
+            public long[] search(final int mainPosition) {
 
-                // Treat the smaller m/z peak as main peak and check if the bigger one may be an adduct.
-                if (rows[i].getAverageMZ() > rows[j].getAverageMZ()) {
+                if (isCanceled()) {
+                    return null;
+                }
 
-                    findAdducts(rows[j], rows[i]);
+                final PeakListRow mainRow = rows[mainPosition];
+                final double mainMZ = mainRow.getAverageMZ();
+                long[] keys = new long[16];
+                int numKeys = 0;
 
-                } else {
+                for (int adductIndex = 0; adductIndex < numAdducts; adductIndex++) {
 
-                    findAdducts(rows[i], rows[j]);
-                }
-            }
+                    final AdductType adduct = selectedAdducts[adductIndex];
+                    final Range mzRange = mzTolerance.getToleranceRange(mainMZ + adduct.getMassDifference());
 
-            finishedRows++;
-        }
-    }
+                    for (final int position : index.findRows(mainPosition, mzRange)) {
 
-    /**
-     * Check if candidate peak may be a possible adduct of a given main peak.
-     *
-     * @param mainRow        main peak.
-     * @param possibleAdduct candidate adduct peak.
-     */
-    private void findAdducts(final PeakListRow mainRow,
-                             final PeakListRow possibleAdduct) {
+                        // The main peak of a pair is the smaller m/z row, or the higher peak if both are equal.
+                        final double mz = rows[position].getAverageMZ();
+                        if (position == mainPosition || mz < mainMZ || (mz == mainMZ && position < mainPosition)) {
+                            continue;
+                        }
 
-        for (final AdductType adduct : selectedAdducts) {
+                        if (checkAdduct(mainRow, rows[position], adduct)) {
 
-            if (checkAdduct(mainRow, possibleAdduct, adduct)) {
+                            final long pair = Math.min(mainPosition, position) * numRows
+                                              + Math.max(mainPosition, position);
+                            if (numKeys == keys.length) {
+                                keys = Arrays.copyOf(keys, numKeys * 2);
+                            }
+                            keys[numKeys++] = pair * numAdducts + adductIndex;
+                        }
+                    }
+                }
 
-                // Add adduct identity and notify GUI.
-                possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
-                MZmineCore.getCurrentProject().notifyObjectChanged(possibleAdduct, false);
+                finishedRows.incrementAndGet();
+                return Arrays.copyOf(keys, numKeys);
             }
+        });
+
+        // Add the adduct identities and notify GUI.
+        for (int i = 0;
+             !isCanceled() && i < matches.length;
+             i++) {
+
+            final long pair = matches[i] / numAdducts;
+            final PeakListRow row1 = rows[(int) (pair / numRows)];
+            final PeakListRow row2 = rows[(int) (pair % numRows)];
+            final AdductType adduct = selectedAdducts[(int) (matches[i] % numAdducts)];
+
+            final PeakListRow mainRow = row1.getAverageMZ() > row2.getAverageMZ() ? row2 : row1;
+            final PeakListRow possibleAdduct = mainRow == row1 ? row2 : row1;
+            possibleAdduct.addPeakIdentity(new AdductIdentity(mainRow, adduct), false);
+            MZmineCore.getCurrentProject().notifyObjectChanged(possibleAdduct, false);
         }
     }
 
@@ -20,6 +20,8 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.complexsearch;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.IonizationType;
@@ -42,6 +44,10 @@ public class ComplexSearchTask extends AbstractTask {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
+    // Rounding margin of the m/z range of the second rows, the pairs found
+    // are checked again by checkComplex()
+    private static final double SUM_MARGIN = 0.000001;
+
     private int finishedRows, totalRows;
     private PeakList peakList;
 
@@ -96,38 +102,64 @@ public class ComplexSearchTask extends AbstractTask {
 
         logger.info("Starting complex search in " + peakList);
 
-        PeakListRow rows[] = peakList.getRows();
+        PeakListRow listRows[] = peakList.getRows();
+        PeakListRow rows[] = listRows.clone();
         totalRows = rows.length;
 
+        // Positions of the rows in the peak list, to report each pair once
+        // and in peak list order
+        Map<PeakListRow, Integer> positions = new HashMap<PeakListRow, Integer>();
+        for (int i = 0; i < totalRows; i++)
+            positions.put(listRows[i], i);
+
         // Sort the array by m/z so we start with biggest peak (possible
         // complex)
         Arrays.sort(rows, new PeakListRowSorter(SortingProperty.MZ,
                 SortingDirection.Descending));
 
-        // Compare each three rows against each other
         for (int i = 0; i < totalRows; i++) {
 
-            Range testRTRange = rtTolerance.getToleranceRange(rows[i]
+            // Task canceled?
+            if (isCanceled())
+                return;
+
+            PeakListRow complexRow = rows[i];
+
+            Range testRTRange = rtTolerance.getToleranceRange(complexRow
                     .getAverageRT());
             PeakListRow testRows[] = peakList
                     .getRowsInsideScanRange(testRTRange);
 
-            for (int j = 0; j < testRows.length; j++) {
-
-                for (int k = j; k < testRows.length; k++) {
-
-                    // Task canceled?
-                    if (isCanceled())
-                        return;
-
-                    // To avoid finding a complex of the peak itself and another
-                    // very small m/z peak
-                    if ((rows[i] == testRows[j]) || (rows[i] == testRows[k]))
+            double detectedMass = complexRow.getAverageMZ()
+                    - ionType.getAddedMass();
+            Range mzRange = mzTolerance.getToleranceRange(detectedMass);
+            double minSum = mzRange.getMin() + 2 * ionType.getAddedMass()
+                    - SUM_MARGIN;
+            double maxSum = mzRange.getMax() + 2 * ionType.getAddedMass()
+                    + SUM_MARGIN;
+
+            for (PeakListRow row1 : testRows) {
+
+                // To avoid finding a complex of the peak itself and another
+                // very small m/z peak
+                if ((row1 == complexRow)
+                        || (complexRow.getAverageHeight() > row1
+                                .getAverageHeight() * maxComplexHeight))
+                    continue;
+
+                // Only the second rows whose m/z adds up to the complex m/z
+                double mz1 = row1.getAverageMZ();
+                PeakListRow partnerRows[] = peakList
+                        .getRowsInsideScanAndMZRange(testRTRange, new Range(
+                                minSum - mz1, maxSum - mz1));
+
+                int position1 = positions.get(row1);
+                for (PeakListRow row2 : partnerRows) {
+                    if ((row2 == complexRow)
+                            || (positions.get(row2) < position1))
                         continue;
-
-                    if (checkComplex(rows[i], testRows[j], testRows[k]))
-                        addComplexInfo(rows[i], testRows[j], testRows[k]);
-
+                    if (checkComplex(complexRow, row1, row2))
+                        addComplexInfo(complexRow, row1, row2);
                 }
 
             }
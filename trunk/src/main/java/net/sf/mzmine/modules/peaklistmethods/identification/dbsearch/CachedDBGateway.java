@@ -0,0 +1,119 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.dbsearch;
+
+import java.io.IOException;
+import java.net.URL;
+
+import net.sf.mzmine.datamodel.PeakIdentity;
+import net.sf.mzmine.parameters.Parameter;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.parameters.parametertypes.MZTolerance;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Gateway answering repeated queries from the DBResponseCache, so identical
+ * queries (same database, mass window and parameters) are sent to the
+ * database server only once. The local database is not cached, it is faster
+ * than the cache.
+ * 
+ * Each instance wraps its own gateway, so a task running several queries at
+ * once creates one instance for each thread.
+ */
+class CachedDBGateway implements DBGateway {
+
+    private final OnlineDatabase database;
+    private final DBGateway gateway;
+    private final DBResponseCache cache;
+
+    CachedDBGateway(OnlineDatabase database) throws InstantiationException,
+	    IllegalAccessException {
+	this.database = database;
+	this.gateway = database.getGatewayClass().newInstance();
+	this.cache = database == OnlineDatabase.LOCAL ? null : DBResponseCache
+		.getInstance();
+    }
+
+    public String[] findCompounds(double mass, MZTolerance mzTolerance,
+	    int numOfResults, ParameterSet parameters) throws IOException {
+
+	if (cache == null)
+	    return gateway.findCompounds(mass, mzTolerance, numOfResults,
+		    parameters);
+
+	Range toleranceRange = mzTolerance.getToleranceRange(mass);
+	String key = "find\t" + database.name() + "\t"
+		+ toleranceRange.getMin() + "\t" + toleranceRange.getMax()
+		+ "\t" + numOfResults + getParametersKey(parameters);
+
+	String compoundIDs[] = cache.get(key);
+	if (compoundIDs == null) {
+	    compoundIDs = gateway.findCompounds(mass, mzTolerance,
+		    numOfResults, parameters);
+	    cache.put(key, compoundIDs);
+	}
+	return compoundIDs;
+
+    }
+
+    public DBCompound getCompound(String ID, ParameterSet parameters)
+	    throws IOException {
+
+	if (cache == null)
+	    return gateway.getCompound(ID, parameters);
+
+	String key = "compound\t" + database.name() + "\t" + ID
+		+ getParametersKey(parameters);
+
+	String values[] = cache.get(key);
+	if (values != null) {
+	    return new DBCompound(database, ID, values[0], values[1], new URL(
+		    values[2]), toURL(values[3]), toURL(values[4]));
+	}
+
+	DBCompound compound = gateway.getCompound(ID, parameters);
+	values = new String[] { compound.getName(),
+		compound.getPropertyValue(PeakIdentity.PROPERTY_FORMULA),
+		compound.getPropertyValue(PeakIdentity.PROPERTY_URL),
+		toString(compound.get2DStructureURL()),
+		toString(compound.get3DStructureURL()) };
+	cache.put(key, values);
+	return compound;
+
+    }
+
+    private static String getParametersKey(ParameterSet parameters) {
+	StringBuilder key = new StringBuilder();
+	for (Parameter<?> parameter : parameters.getParameters()) {
+	    key.append('\t').append(parameter.getName()).append('=')
+		    .append(parameter.getValue());
+	}
+	return key.toString();
+    }
+
+    private static URL toURL(String value) throws IOException {
+	return value.length() == 0 ? null : new URL(value);
+    }
+
+    private static String toString(URL url) {
+	return url == null ? "" : url.toString();
+    }
+
+}
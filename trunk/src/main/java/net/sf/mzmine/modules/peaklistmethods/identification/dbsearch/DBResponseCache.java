@@ -0,0 +1,224 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.dbsearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.main.MZmineConfiguration;
+
+/**
+ * Persistent cache of database responses. Each response is a list of strings,
+ * which may be null (e.g. a compound without a name), stored in its own file.
+ * The file is named by the SHA-1 hash of its key, so the keys (which may
+ * contain security tokens) are not written to the disk.
+ * 
+ * The total size of the cache is limited to MAX_SIZE bytes. When a new
+ * response does not fit, the least recently used responses are removed. The
+ * time of the last use of each response is kept as the modification time of
+ * its file, so the order survives restarts. Responses older than MAX_AGE are
+ * not used, so changes of the databases are picked up eventually.
+ * 
+ * All methods are synchronized, the responses are small compared to the time
+ * spent waiting for a database server.
+ */
+class DBResponseCache {
+
+    private static final Logger LOG = Logger.getLogger(DBResponseCache.class
+	    .getName());
+
+    private static final File CACHE_DIRECTORY = new File(
+	    MZmineConfiguration.CONFIG_FILE.getParentFile(), "dbcache");
+
+    // 64 MB
+    private static final long MAX_SIZE = 64L << 20;
+
+    // 30 days
+    private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    private static final String EXTENSION = ".response";
+    private static final int VERSION = 2;
+
+    private static DBResponseCache myInstance;
+
+    private final File directory;
+    private final long maxSize;
+
+    // Size of each cached file, least recently used first
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>(
+	    16, 0.75f, true);
+    private long size;
+
+    static synchronized DBResponseCache getInstance() {
+	if (myInstance == null)
+	    myInstance = new DBResponseCache(CACHE_DIRECTORY, MAX_SIZE);
+	return myInstance;
+    }
+
+    DBResponseCache(File directory, long maxSize) {
+
+	this.directory = directory;
+	this.maxSize = maxSize;
+
+	File existing[] = directory.listFiles();
+	if (existing == null)
+	    return;
+	Arrays.sort(existing, new Comparator<File>() {
+	    public int compare(File f1, File f2) {
+		long m1 = f1.lastModified(), m2 = f2.lastModified();
+		return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+	    }
+	});
+	for (File file : existing) {
+	    if (!file.getName().endsWith(EXTENSION))
+		continue;
+	    files.put(file.getName(), file.length());
+	    size += file.length();
+	}
+    }
+
+    /**
+     * Returns the cached response for given key, or null if there is none
+     */
+    synchronized String[] get(String key) {
+
+	// Lookup also marks the file as the most recently used
+	final String fileName = getFileName(key);
+	if (files.get(fileName) == null)
+	    return null;
+	final File file = new File(directory, fileName);
+
+	try {
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(
+		    new FileInputStream(file)));
+	    try {
+		if ((in.readInt() != VERSION)
+			|| (in.readLong() < System.currentTimeMillis() - MAX_AGE)) {
+		    remove(fileName);
+		    return null;
+		}
+		String values[] = new String[in.readInt()];
+		for (int i = 0; i < values.length; i++) {
+		    // Each value is preceded by a flag telling if it is null
+		    if (in.readBoolean())
+			values[i] = in.readUTF();
+		}
+		file.setLastModified(System.currentTimeMillis());
+		return values;
+	    } finally {
+		in.close();
+	    }
+	} catch (IOException e) {
+	    LOG.log(Level.FINE, "Could not read cached response " + file, e);
+	    remove(fileName);
+	    return null;
+	}
+    }
+
+    /**
+     * Stores the response for given key, replacing any previous response
+     */
+    synchronized void put(String key, String values[]) {
+
+	final String fileName = getFileName(key);
+	final File file = new File(directory, fileName);
+	final File newFile = new File(directory, fileName + ".tmp");
+
+	try {
+	    if (!directory.isDirectory() && !directory.mkdirs())
+		throw new IOException("Cannot create directory " + directory);
+	    DataOutputStream out = new DataOutputStream(
+		    new BufferedOutputStream(new FileOutputStream(newFile)));
+	    try {
+		out.writeInt(VERSION);
+		out.writeLong(System.currentTimeMillis());
+		out.writeInt(values.length);
+		for (String value : values) {
+		    out.writeBoolean(value != null);
+		    if (value != null)
+			out.writeUTF(value);
+		}
+	    } finally {
+		out.close();
+	    }
+	    remove(fileName);
+	    if (!newFile.renameTo(file))
+		throw new IOException("Cannot rename " + newFile + " to " + file);
+	} catch (IOException e) {
+	    LOG.log(Level.FINE, "Could not cache response in " + file, e);
+	    newFile.delete();
+	    return;
+	}
+
+	files.put(fileName, file.length());
+	size += file.length();
+
+	// Remove the least recently used responses
+	Iterator<Map.Entry<String, Long>> iterator = files.entrySet()
+		.iterator();
+	while ((size > maxSize) && iterator.hasNext()) {
+	    Map.Entry<String, Long> eldest = iterator.next();
+	    new File(directory, eldest.getKey()).delete();
+	    size -= eldest.getValue();
+	    iterator.remove();
+	}
+    }
+
+    private void remove(String fileName) {
+	Long fileSize = files.remove(fileName);
+	if (fileSize != null)
+	    size -= fileSize;
+	new File(directory, fileName).delete();
+    }
+
+    /**
+     * Returns the name of the file holding the response for given key
+     */
+    static String getFileName(String key) {
+	try {
+	    MessageDigest md = MessageDigest.getInstance("SHA-1");
+	    byte hash[] = md.digest(key.getBytes("UTF-8"));
+	    StringBuilder name = new StringBuilder();
+	    for (byte b : hash)
+		name.append(String.format("%02x", b & 0xff));
+	    return name.append(EXTENSION).toString();
+	} catch (NoSuchAlgorithmException e) {
+	    throw new IllegalStateException(e);
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+}
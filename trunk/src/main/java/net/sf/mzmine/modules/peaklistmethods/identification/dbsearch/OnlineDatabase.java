@@ -27,6 +27,8 @@ import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases.C
 import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases.HMDBGateway;
 import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases.KEGGGateway;
 import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases.LipidMapsGateway;
+import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases.LocalDatabaseGateway;
+import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases.LocalDatabaseParameters;
 import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases.MassBankGateway;
 import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases.MetLinGateway;
 import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases.MetLinParameters;
@@ -47,7 +49,9 @@ public enum OnlineDatabase implements MZmineModule {
     MASSBANK("MassBank Database", MassBankGateway.class), //
     CHEMSPIDER("ChemSpider Database", ChemSpiderGateway.class,
 	    ChemSpiderParameters.class), //
-    PLANTCYC("PlantCyc Database", PlantCycGateway.class);
+    PLANTCYC("PlantCyc Database", PlantCycGateway.class), //
+    LOCAL("Local database (SDF or CSV file)", LocalDatabaseGateway.class,
+	    LocalDatabaseParameters.class);
 
     private final String dbName;
     private final Class<? extends DBGateway> gatewayClass;
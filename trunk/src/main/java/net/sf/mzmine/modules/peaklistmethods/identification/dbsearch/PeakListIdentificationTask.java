@@ -19,8 +19,17 @@
 
 package net.sf.mzmine.modules.peaklistmethods.identification.dbsearch;
 
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +46,7 @@ import net.sf.mzmine.modules.peaklistmethods.isotopes.isotopeprediction.IsotopeP
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.parameters.parametertypes.MZTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.FormulaUtils;
@@ -53,6 +63,27 @@ public class PeakListIdentificationTask extends AbstractTask {
     // Minimum abundance.
     private static final double MIN_ABUNDANCE = 0.001;
 
+    // Maximum number of rows searched at once in an online database.
+    static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    // Threads sending the requests to online databases, shared by all tasks,
+    // so waiting for a server never occupies the worker threads of the task
+    // controller.
+    private static final ThreadPoolExecutor REQUEST_EXECUTOR = new ThreadPoolExecutor(
+	    MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS, 60,
+	    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+	    new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread thread = new Thread(r, "Online database request");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+
+    static {
+	REQUEST_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     // Counters.
     private int finishedItems;
     private int numItems;
@@ -64,8 +95,7 @@ public class PeakListIdentificationTask extends AbstractTask {
     private final boolean isotopeFilter;
     private final ParameterSet isotopeFilterParameters;
     private final IonizationType ionType;
-    private DBGateway gateway;
-    private PeakListRow currentRow;
+    private volatile PeakListRow currentRow;
 
     /**
      * Create the identification task.
@@ -82,7 +112,6 @@ public class PeakListIdentificationTask extends AbstractTask {
 	peakList = list;
 	numItems = 0;
 	finishedItems = 0;
-	gateway = null;
 	currentRow = null;
 
 	db = parameters
@@ -132,9 +161,6 @@ public class PeakListIdentificationTask extends AbstractTask {
 
 		setStatus(TaskStatus.PROCESSING);
 
-		// Create database gateway.
-		gateway = db.getModule().getGatewayClass().newInstance();
-
 		// Identify the peak list rows starting from the biggest peaks.
 		final PeakListRow[] rows = peakList.getRows();
 		Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Area,
@@ -144,12 +170,7 @@ public class PeakListIdentificationTask extends AbstractTask {
 		numItems = rows.length;
 
 		// Process rows.
-		for (finishedItems = 0; !isCanceled()
-			&& finishedItems < numItems; finishedItems++) {
-
-		    // Retrieve results for each row.
-		    retrieveIdentification(rows[finishedItems]);
-		}
+		searchRows(rows);
 
 		if (!isCanceled()) {
 		    setStatus(TaskStatus.FINISHED);
@@ -165,17 +186,117 @@ public class PeakListIdentificationTask extends AbstractTask {
     }
 
     /**
-     * Search the database for the peak's identity.
+     * Search the database for the identities of all rows, at most
+     * maxPendingRows at once, so the waiting for the database server overlaps
+     * without flooding it with requests. Searches of the local database run
+     * as sub-tasks, searches of online databases run on the REQUEST_EXECUTOR.
+     * The identities are still added to the rows in order, by this thread.
+     * 
+     * @param rows
+     *            the peak list rows.
+     * @throws Exception
+     *             if a search fails.
+     */
+    private void searchRows(final PeakListRow[] rows) throws Exception {
+
+	final int numOfThreads = MZmineCore.getConfiguration()
+		.getPreferences().getNumOfThreads();
+	final boolean local = db.getModule() == OnlineDatabase.LOCAL;
+	final int maxPendingRows = local ? numOfThreads * 4
+		: MAX_CONCURRENT_REQUESTS;
+
+	final TaskController taskController = MZmineCore.getTaskController();
+	final LinkedList<Future<List<DBCompound>>> pendingResults = new LinkedList<Future<List<DBCompound>>>();
+
+	try {
+	    int nextRow = 0;
+	    for (finishedItems = 0; !isCanceled() && finishedItems < numItems; finishedItems++) {
+
+		// Keep the searches going.
+		while (nextRow < numItems
+			&& pendingResults.size() < maxPendingRows) {
+		    final PeakListRow row = rows[nextRow++];
+		    final Callable<List<DBCompound>> search = new Callable<List<DBCompound>>() {
+			public List<DBCompound> call() throws Exception {
+			    return retrieveIdentification(row);
+			}
+		    };
+		    pendingResults.add(local ? taskController
+			    .submitSubTask(search) : submitRequest(search));
+		}
+
+		// Add the identities of the oldest row.
+		final PeakListRow row = rows[finishedItems];
+		currentRow = row;
+		final List<DBCompound> compounds;
+		try {
+		    final Future<List<DBCompound>> result = pendingResults
+			    .removeFirst();
+		    if (local) {
+			compounds = taskController.joinSubTask(result);
+		    } else {
+			// Give the worker thread back while waiting for the server
+			taskController.beginWaiting();
+			try {
+			    compounds = result.get();
+			} finally {
+			    taskController.endWaiting();
+			}
+		    }
+		} catch (ExecutionException e) {
+		    if (e.getCause() instanceof Exception)
+			throw (Exception) e.getCause();
+		    throw e;
+		}
+		for (final DBCompound compound : compounds) {
+
+		    // Add the retrieved identity to the peak list row
+		    row.addPeakIdentity(compound, false);
+		}
+
+		if (!compounds.isEmpty()) {
+
+		    // Notify the GUI about the change in the project
+		    MZmineCore.getCurrentProject().notifyObjectChanged(row,
+			    false);
+		    MZmineCore.getDesktop().getMainWindow().repaint();
+		}
+	    }
+	} finally {
+	    for (final Future<List<DBCompound>> pendingResult : pendingResults) {
+		pendingResult.cancel(false);
+	    }
+	}
+    }
+
+    /**
+     * Submits a request to an online database to the REQUEST_EXECUTOR.
+     */
+    static <T> Future<T> submitRequest(final Callable<T> request) {
+
+	return REQUEST_EXECUTOR.submit(request);
+    }
+
+    /**
+     * Search the database for the peak's identity. Called by several threads
+     * at once, each with its own gateway.
      * 
      * @param row
      *            the peak list row.
-     * @throws IOException
+     * @return the matching compounds.
+     * @throws Exception
      *             if there are i/o problems.
      */
-    private void retrieveIdentification(final PeakListRow row)
-	    throws IOException {
+    private List<DBCompound> retrieveIdentification(final PeakListRow row)
+	    throws Exception {
 
-	currentRow = row;
+	final List<DBCompound> compounds = new ArrayList<DBCompound>();
+	if (isCanceled()) {
+	    return compounds;
+	}
+
+	// Create database gateway.
+	final DBGateway gateway = new CachedDBGateway(db.getModule());
 
 	// Determine peak charge.
 	final Feature bestPeak = row.getBestPeak();
@@ -225,12 +346,9 @@ public class PeakListIdentificationTask extends AbstractTask {
 		    continue;
 	    }
 
-	    // Add the retrieved identity to the peak list row
-	    row.addPeakIdentity(compound, false);
-
-	    // Notify the GUI about the change in the project
-	    MZmineCore.getCurrentProject().notifyObjectChanged(row, false);
-	    MZmineCore.getDesktop().getMainWindow().repaint();
+	    compounds.add(compound);
 	}
+
+	return compounds;
     }
 }
@@ -82,7 +82,7 @@ public class SingleRowIdentificationTask extends AbstractTask {
         db = parameters.getParameter(DATABASE).getValue();
 
         try {
-            gateway = db.getModule().getGatewayClass().newInstance();
+            gateway = new CachedDBGateway(db.getModule());
         } catch (Exception e) {
             e.printStackTrace();
         }
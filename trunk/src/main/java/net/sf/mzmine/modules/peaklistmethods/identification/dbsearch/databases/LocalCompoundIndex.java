@@ -0,0 +1,713 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.mzmine.util.FormulaUtils;
+
+/**
+ * Compound database stored in a local index file, built from an SDF or CSV
+ * dump of a compound database (optionally gzipped).
+ *
+ * The index file contains a header, the monoisotopic masses of all compounds
+ * sorted in ascending order, the offset of the record of each compound, the
+ * positions of the compounds sorted by their ID and finally the records. Each
+ * record holds the ID, name, formula and structure (MOL block) of one compound
+ * as length-prefixed UTF-8 strings. Compounds are identified by their position
+ * in the mass order.
+ *
+ * The index file is memory-mapped in segments of SEGMENT_SIZE bytes. It is
+ * never modified once built, so any number of threads can search it
+ * concurrently without locking. Masses, offsets and positions are aligned to
+ * their size and never cross a segment boundary; strings crossing a boundary
+ * are read with a positional read.
+ *
+ * The index is built next to the source file (or in the temporary directory,
+ * if that is not writable) and rebuilt when the source file changes. The name
+ * of the index file contains the modification time of the source, so a
+ * rebuilt index never replaces a file that is still mapped. Opened indexes are
+ * shared by all gateways; when an index is rebuilt, the old one is closed and
+ * its file removed (on exit, if the system does not allow removing a file
+ * which is still mapped).
+ */
+class LocalCompoundIndex {
+
+	// Size of one mapped segment (64 MB)
+	static final int SEGMENT_SIZE = 1 << 26;
+
+	static final int ID = 0, NAME = 1, FORMULA = 2, STRUCTURE = 3;
+	private static final int NUM_OF_FIELDS = 4;
+
+	private static final int MAGIC = 0x4D5A4349; // "MZCI"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+
+	// Names of the SDF tags and CSV columns of each field, in order of
+	// preference. Names are compared by their letters and digits only,
+	// ignoring case.
+	private static final String FIELD_NAMES[][] = {
+			{ "ID", "DATABASEID", "COMPOUNDID", "HMDBID", "LMID", "CHEBIID",
+					"KEGGID", "PUBCHEMCOMPOUNDCID", "CID" },
+			{ "NAME", "COMPOUNDNAME", "COMMONNAME", "GENERICNAME",
+					"CHEBINAME", "SYSTEMATICNAME", "PUBCHEMIUPACNAME" },
+			{ "FORMULA", "MOLECULARFORMULA", "CHEMICALFORMULA", "FORMULAE",
+					"PUBCHEMMOLECULARFORMULA" },
+			{ "MOLFILE", "MOLBLOCK", "STRUCTURE" } };
+	private static final String MASS_NAMES[] = { "MONOISOTOPICMASS",
+			"EXACTMASS", "MONOISOTOPICWEIGHT", "MONOMASS",
+			"MONOISOTOPICMOLECULARWEIGHT", "PUBCHEMEXACTMASS",
+			"PUBCHEMMONOISOTOPICWEIGHT", "MASS" };
+
+	private static final Logger logger = Logger
+			.getLogger(LocalCompoundIndex.class.getName());
+
+	private static final ConcurrentHashMap<File, LocalCompoundIndex> openIndexes = new ConcurrentHashMap<File, LocalCompoundIndex>();
+
+	private final File source;
+	private final long sourceLength, sourceModified;
+
+	private final File indexFile;
+	private final FileChannel channel;
+	private final long length;
+	private final MappedByteBuffer segments[];
+
+	private final int numOfCompounds;
+	private final long massesStart, offsetsStart, idOrderStart;
+
+	/**
+	 * Returns the index of the given SDF or CSV file, building it if it does
+	 * not exist or is older than the file.
+	 */
+	static LocalCompoundIndex getIndex(File source) throws IOException {
+
+		source = source.getAbsoluteFile();
+		if (!source.isFile())
+			throw new IOException("Compound database " + source
+					+ " does not exist");
+
+		LocalCompoundIndex index = openIndexes.get(source);
+		if ((index != null) && index.isCurrent())
+			return index;
+
+		// Only one thread builds the index, the others wait for it
+		synchronized (LocalCompoundIndex.class) {
+			index = openIndexes.get(source);
+			if ((index != null) && index.isCurrent())
+				return index;
+
+			long sourceLength = source.length();
+			long sourceModified = source.lastModified();
+			File indexFile = getIndexFile(source, sourceModified);
+			if (!isValid(indexFile, sourceLength, sourceModified)) {
+				logger.info("Building compound index " + indexFile + " from "
+						+ source);
+				build(source, indexFile, sourceLength, sourceModified);
+			}
+
+			LocalCompoundIndex newIndex = new LocalCompoundIndex(source,
+					indexFile);
+			openIndexes.put(source, newIndex);
+			if (index != null)
+				index.close();
+			removeOldIndexes(source, indexFile);
+			return newIndex;
+		}
+	}
+
+	private LocalCompoundIndex(File source, File indexFile) throws IOException {
+
+		this.source = source;
+		this.indexFile = indexFile;
+
+		RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		channel = file.getChannel();
+		length = channel.size();
+
+		int numOfSegments = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		segments = new MappedByteBuffer[numOfSegments];
+		for (int s = 0; s < numOfSegments; s++) {
+			long start = (long) s * SEGMENT_SIZE;
+			segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+					Math.min(SEGMENT_SIZE, length - start));
+		}
+
+		ByteBuffer header = getBytes(0, HEADER_SIZE);
+		header.getInt(); // magic
+		header.getInt(); // version
+		numOfCompounds = header.getInt();
+		header.getInt();
+		sourceLength = header.getLong();
+		sourceModified = header.getLong();
+
+		massesStart = HEADER_SIZE;
+		offsetsStart = massesStart + 8L * numOfCompounds;
+		idOrderStart = offsetsStart + 8L * numOfCompounds;
+	}
+
+	/**
+	 * @return Number of compounds in the index
+	 */
+	int getNumberOfCompounds() {
+		return numOfCompounds;
+	}
+
+	/**
+	 * @return Monoisotopic mass of the compound at given position
+	 */
+	double getMass(int position) {
+		long offset = massesStart + 8L * position;
+		return segments[(int) (offset / SEGMENT_SIZE)]
+				.getDouble((int) (offset % SEGMENT_SIZE));
+	}
+
+	/**
+	 * @return Position of the first compound with mass >= given mass, or the
+	 *         number of compounds if there is no such compound
+	 */
+	int lowerBound(double mass) {
+		int low = 0, high = numOfCompounds;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getMass(mid) < mass)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return Position of the compound with given ID, or -1 if there is no
+	 *         such compound
+	 */
+	int findID(String id) throws IOException {
+		int low = 0, high = numOfCompounds;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int position = getIDOrder(mid);
+			int comparison = getField(position, ID).compareTo(id);
+			if (comparison == 0)
+				return position;
+			if (comparison < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns one field (ID, NAME, FORMULA or STRUCTURE) of the compound at
+	 * given position. The field is empty if the source did not contain it.
+	 */
+	String getField(int position, int field) throws IOException {
+		long offset = offsetsStart + 8L * position;
+		long recordOffset = segments[(int) (offset / SEGMENT_SIZE)]
+				.getLong((int) (offset % SEGMENT_SIZE));
+		for (int f = 0; f < field; f++)
+			recordOffset += 4 + getBytes(recordOffset, 4).getInt();
+		int stringLength = getBytes(recordOffset, 4).getInt();
+		ByteBuffer bytes = getBytes(recordOffset + 4, stringLength);
+		return new String(bytes.array(), bytes.arrayOffset()
+				+ bytes.position(), stringLength, "UTF-8");
+	}
+
+	File getSource() {
+		return source;
+	}
+
+	private int getIDOrder(int i) {
+		long offset = idOrderStart + 4L * i;
+		return segments[(int) (offset / SEGMENT_SIZE)]
+				.getInt((int) (offset % SEGMENT_SIZE));
+	}
+
+	/**
+	 * Returns a buffer with an array holding the given range of the index
+	 * file. The returned buffer is private to the caller.
+	 */
+	private ByteBuffer getBytes(long offset, int numOfBytes) throws IOException {
+
+		final long end = offset + numOfBytes;
+		if ((numOfBytes < 0) || (end > length)) {
+			throw new EOFException("Cannot read " + numOfBytes
+					+ " bytes at offset " + offset + " of file " + indexFile
+					+ ", file length is " + length);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(numOfBytes);
+		final int segmentNumber = (int) (offset / SEGMENT_SIZE);
+		final long segmentStart = (long) segmentNumber * SEGMENT_SIZE;
+
+		// Range crossing a segment boundary, read it directly
+		if (end > segmentStart + SEGMENT_SIZE) {
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer, offset + buffer.position());
+				if (read < 0)
+					throw new EOFException("Unexpected end of file "
+							+ indexFile);
+			}
+			buffer.flip();
+			return buffer;
+		}
+
+		ByteBuffer segment = segments[segmentNumber].duplicate();
+		segment.position((int) (offset - segmentStart));
+		segment.limit((int) (end - segmentStart));
+		buffer.put(segment);
+		buffer.flip();
+		return buffer;
+	}
+
+	private boolean isCurrent() {
+		return (source.length() == sourceLength)
+				&& (source.lastModified() == sourceModified);
+	}
+
+	/**
+	 * Closes the index file of a replaced index. The mapped segments are
+	 * released by the garbage collector.
+	 */
+	private void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.warning("Could not close file " + indexFile + ": "
+					+ e.toString());
+		}
+	}
+
+	/**
+	 * @return Index file name without the modification time and extension
+	 */
+	private static File getIndexBase(File source) {
+		File directory = source.getParentFile();
+		if ((directory != null) && directory.canWrite())
+			return source;
+		return new File(System.getProperty("java.io.tmpdir"), source.getName()
+				+ "-" + Integer.toHexString(source.getPath().hashCode()));
+	}
+
+	private static File getIndexFile(File source, long sourceModified) {
+		return new File(getIndexBase(source).getPath() + "."
+				+ Long.toHexString(sourceModified) + ".index");
+	}
+
+	/**
+	 * Removes the index files of older versions of the source, except the
+	 * given current one
+	 */
+	private static void removeOldIndexes(File source, final File indexFile) {
+		File base = getIndexBase(source);
+		final Pattern pattern = Pattern.compile(Pattern.quote(base.getName())
+				+ "(\\.[0-9a-f]+)?\\.index");
+		File oldIndexFiles[] = base.getParentFile().listFiles(
+				new FilenameFilter() {
+					public boolean accept(File directory, String name) {
+						return pattern.matcher(name).matches()
+								&& !name.equals(indexFile.getName());
+					}
+				});
+		if (oldIndexFiles == null)
+			return;
+		for (File oldIndexFile : oldIndexFiles) {
+			if (!oldIndexFile.delete()) {
+				logger.warning("Could not remove old compound index "
+						+ oldIndexFile + ", it will be removed on exit");
+				oldIndexFile.deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Checks the header of an existing index file
+	 */
+	private static boolean isValid(File indexFile, long sourceLength,
+			long sourceModified) throws IOException {
+		if (indexFile.length() < HEADER_SIZE)
+			return false;
+		RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		try {
+			if ((file.readInt() != MAGIC) || (file.readInt() != VERSION))
+				return false;
+			file.readInt();
+			file.readInt();
+			return (file.readLong() == sourceLength)
+					&& (file.readLong() == sourceModified);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Compounds read from the source. The records are written to a temporary
+	 * file as they are read, only the masses, record offsets and IDs are kept
+	 * in memory for sorting.
+	 */
+	private static class Builder {
+
+		final DataOutputStream records;
+		long recordsLength;
+		int size;
+		double masses[] = new double[1024];
+		long offsets[] = new long[1024];
+		String ids[] = new String[1024];
+		int skipped;
+
+		Builder(File recordsFile) throws IOException {
+			records = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(recordsFile)));
+		}
+
+		/**
+		 * Adds one compound. The mass is calculated from the formula if the
+		 * source does not contain it, compounds without any mass are skipped.
+		 */
+		void add(String fields[], String massString) throws IOException {
+
+			double mass = Double.NaN;
+			if (massString != null) {
+				try {
+					mass = Double.parseDouble(massString.trim());
+				} catch (NumberFormatException e) {
+					// Calculate it from the formula
+				}
+			}
+			if (Double.isNaN(mass) && (fields[FORMULA].length() > 0))
+				mass = FormulaUtils.calculateExactMass(fields[FORMULA]);
+			if (Double.isNaN(mass) || (mass <= 0)) {
+				skipped++;
+				return;
+			}
+
+			if (fields[ID].length() == 0)
+				fields[ID] = String.valueOf(size + skipped + 1);
+			if (fields[NAME].length() == 0)
+				fields[NAME] = fields[ID];
+
+			if (size == masses.length) {
+				masses = Arrays.copyOf(masses, size * 2);
+				offsets = Arrays.copyOf(offsets, size * 2);
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			masses[size] = mass;
+			offsets[size] = recordsLength;
+			ids[size] = fields[ID];
+			size++;
+
+			for (String field : fields) {
+				byte bytes[] = field.getBytes("UTF-8");
+				records.writeInt(bytes.length);
+				records.write(bytes);
+				recordsLength += 4 + bytes.length;
+			}
+		}
+
+	}
+
+	private static void build(File source, File indexFile, long sourceLength,
+			long sourceModified) throws IOException {
+
+		File recordsFile = new File(indexFile.getPath() + ".records");
+		File newIndexFile = new File(indexFile.getPath() + ".tmp");
+		try {
+
+			// Read the compounds
+			Builder builder = new Builder(recordsFile);
+			String sourceName = source.getName().toLowerCase();
+			InputStream input = new FileInputStream(source);
+			if (sourceName.endsWith(".gz")) {
+				input = new GZIPInputStream(input);
+				sourceName = sourceName.substring(0, sourceName.length() - 3);
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					input, "UTF-8"));
+			try {
+				if (sourceName.endsWith(".sdf") || sourceName.endsWith(".sd"))
+					readSDF(reader, builder);
+				else
+					readCSV(reader, builder);
+			} finally {
+				reader.close();
+				builder.records.close();
+			}
+			if (builder.skipped > 0)
+				logger.warning("Skipped " + builder.skipped + " compounds of "
+						+ source + " without a mass or formula");
+
+			// Sort the compounds by mass, then by ID
+			final int size = builder.size;
+			final double masses[] = builder.masses;
+			final String ids[] = builder.ids;
+			Integer massOrder[] = new Integer[size];
+			for (int i = 0; i < size; i++)
+				massOrder[i] = i;
+			Arrays.sort(massOrder, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					return Double.compare(masses[i1], masses[i2]);
+				}
+			});
+			final int positions[] = new int[size];
+			for (int i = 0; i < size; i++)
+				positions[massOrder[i]] = i;
+			Integer idOrder[] = new Integer[size];
+			for (int i = 0; i < size; i++)
+				idOrder[i] = i;
+			Arrays.sort(idOrder, new Comparator<Integer>() {
+				public int compare(Integer i1, Integer i2) {
+					int comparison = ids[i1].compareTo(ids[i2]);
+					if (comparison != 0)
+						return comparison;
+					return positions[i1] - positions[i2];
+				}
+			});
+
+			// Write the index
+			long recordsStart = HEADER_SIZE + 20L * size;
+			recordsStart = (recordsStart + 7) / 8 * 8;
+			FileOutputStream indexStream = new FileOutputStream(newIndexFile);
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(indexStream));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(size);
+				out.writeInt(0);
+				out.writeLong(sourceLength);
+				out.writeLong(sourceModified);
+				out.write(new byte[HEADER_SIZE - 32]);
+				for (int i = 0; i < size; i++)
+					out.writeDouble(masses[massOrder[i]]);
+				for (int i = 0; i < size; i++)
+					out.writeLong(recordsStart + builder.offsets[massOrder[i]]);
+				for (int i = 0; i < size; i++)
+					out.writeInt(positions[idOrder[i]]);
+				out.write(new byte[(int) (recordsStart - HEADER_SIZE - 20L
+						* size)]);
+				out.flush();
+
+				FileInputStream recordsStream = new FileInputStream(
+						recordsFile);
+				try {
+					FileChannel recordsChannel = recordsStream.getChannel();
+					FileChannel indexChannel = indexStream.getChannel();
+					long position = 0, recordsLength = recordsChannel.size();
+					while (position < recordsLength)
+						position += recordsChannel.transferTo(position,
+								recordsLength - position, indexChannel);
+				} finally {
+					recordsStream.close();
+				}
+			} finally {
+				indexStream.close();
+			}
+
+			if (indexFile.exists() && !indexFile.delete())
+				throw new IOException("Cannot replace " + indexFile);
+			if (!newIndexFile.renameTo(indexFile))
+				throw new IOException("Cannot create " + indexFile);
+
+			logger.info("Indexed " + size + " compounds of " + source);
+
+		} finally {
+			recordsFile.delete();
+			newIndexFile.delete();
+		}
+	}
+
+	/**
+	 * Reads an SD file. The MOL block of each compound is followed by data
+	 * items ("> <TAG>" followed by the value lines and an empty line) and the
+	 * compound ends with a "$$$$" line. The title line of the MOL block is
+	 * used as ID and name if the data items do not contain them.
+	 */
+	private static void readSDF(BufferedReader reader, Builder builder)
+			throws IOException {
+
+		StringBuilder molBlock = new StringBuilder();
+		Map<String, String> items = new HashMap<String, String>();
+		boolean inMolBlock = true;
+		String tag = null;
+		StringBuilder value = new StringBuilder();
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+
+			if (line.startsWith("$$$$")) {
+				if ((tag != null) && !items.containsKey(tag))
+					items.put(tag, value.toString());
+
+				String title = molBlock.length() > 0 ? molBlock.substring(0,
+						Math.max(molBlock.indexOf("\n"), 0)).trim() : "";
+				String fields[] = new String[NUM_OF_FIELDS];
+				for (int f = 0; f < NUM_OF_FIELDS; f++)
+					fields[f] = findField(items, FIELD_NAMES[f]);
+				if (fields[ID].length() == 0)
+					fields[ID] = title;
+				if (fields[NAME].length() == 0)
+					fields[NAME] = title;
+				if (fields[STRUCTURE].length() == 0)
+					fields[STRUCTURE] = molBlock.toString();
+				String mass = findField(items, MASS_NAMES);
+				builder.add(fields, mass.length() > 0 ? mass : null);
+
+				molBlock.setLength(0);
+				items.clear();
+				inMolBlock = true;
+				tag = null;
+				continue;
+			}
+
+			if (inMolBlock) {
+				molBlock.append(line).append('\n');
+				if (line.startsWith("M  END"))
+					inMolBlock = false;
+				continue;
+			}
+
+			if (line.startsWith(">")) {
+				int start = line.indexOf('<'), end = line.lastIndexOf('>');
+				tag = (start >= 0) && (end > start) ? normalize(line
+						.substring(start + 1, end)) : null;
+				value.setLength(0);
+			} else if (line.trim().length() == 0) {
+				if ((tag != null) && !items.containsKey(tag))
+					items.put(tag, value.toString());
+				tag = null;
+			} else if (tag != null) {
+				if (value.length() > 0)
+					value.append(' ');
+				value.append(line.trim());
+			}
+		}
+	}
+
+	/**
+	 * Reads a comma or tab separated file. The first line must contain the
+	 * column names, values may be quoted.
+	 */
+	private static void readCSV(BufferedReader reader, Builder builder)
+			throws IOException {
+
+		String header = reader.readLine();
+		if (header == null)
+			return;
+		char separator = header.indexOf('\t') >= 0 ? '\t' : ',';
+
+		List<String> columns = splitLine(header, separator);
+		int fieldColumns[] = new int[NUM_OF_FIELDS];
+		for (int f = 0; f < NUM_OF_FIELDS; f++)
+			fieldColumns[f] = findColumn(columns, FIELD_NAMES[f]);
+		int massColumn = findColumn(columns, MASS_NAMES);
+		if ((massColumn < 0) && (fieldColumns[FORMULA] < 0))
+			throw new IOException("Compound database has neither a mass nor a formula column, columns are "
+					+ columns);
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.trim().length() == 0)
+				continue;
+			List<String> values = splitLine(line, separator);
+			String fields[] = new String[NUM_OF_FIELDS];
+			for (int f = 0; f < NUM_OF_FIELDS; f++)
+				fields[f] = getValue(values, fieldColumns[f]);
+			String mass = getValue(values, massColumn);
+			builder.add(fields, mass.length() > 0 ? mass : null);
+		}
+	}
+
+	private static String normalize(String name) {
+		return name.replaceAll("[^A-Za-z0-9]", "").toUpperCase();
+	}
+
+	private static String findField(Map<String, String> items, String names[]) {
+		for (String name : names) {
+			String value = items.get(name);
+			if ((value != null) && (value.length() > 0))
+				return value;
+		}
+		return "";
+	}
+
+	private static int findColumn(List<String> columns, String names[]) {
+		for (String name : names) {
+			for (int c = 0; c < columns.size(); c++) {
+				if (normalize(columns.get(c)).equals(name))
+					return c;
+			}
+		}
+		return -1;
+	}
+
+	private static String getValue(List<String> values, int column) {
+		if ((column < 0) || (column >= values.size()))
+			return "";
+		return values.get(column).trim();
+	}
+
+	private static List<String> splitLine(String line, char separator) {
+		List<String> values = new ArrayList<String>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && (i + 1 < line.length())
+						&& (line.charAt(i + 1) == '"')) {
+					value.append('"');
+					i++;
+				} else
+					quoted = !quoted;
+			} else if ((c == separator) && !quoted) {
+				values.add(value.toString());
+				value.setLength(0);
+			} else
+				value.append(c);
+		}
+		values.add(value.toString());
+		return values;
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.databases;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.DBCompound;
+import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.DBGateway;
+import net.sf.mzmine.modules.peaklistmethods.identification.dbsearch.OnlineDatabase;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.parameters.parametertypes.MZTolerance;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Searches a compound database stored in a local SDF or CSV file. The file is
+ * indexed by mass when it is first searched (see LocalCompoundIndex), so
+ * searches need no network access and any number of searches may run
+ * concurrently.
+ */
+public class LocalDatabaseGateway implements DBGateway {
+
+    /**
+     * Returns the IDs of the compounds within the tolerance of given mass,
+     * closest compounds first.
+     */
+    public String[] findCompounds(final double mass, MZTolerance mzTolerance,
+	    int numOfResults, ParameterSet parameters) throws IOException {
+
+	final LocalCompoundIndex index = getIndex(parameters);
+	Range toleranceRange = mzTolerance.getToleranceRange(mass);
+
+	int from = index.lowerBound(toleranceRange.getMin());
+	int to = from;
+	while ((to < index.getNumberOfCompounds())
+		&& (index.getMass(to) <= toleranceRange.getMax()))
+	    to++;
+
+	Integer positions[] = new Integer[to - from];
+	for (int i = 0; i < positions.length; i++)
+	    positions[i] = from + i;
+	Arrays.sort(positions, new Comparator<Integer>() {
+	    public int compare(Integer p1, Integer p2) {
+		return Double.compare(Math.abs(index.getMass(p1) - mass),
+			Math.abs(index.getMass(p2) - mass));
+	    }
+	});
+
+	String results[] = new String[Math.min(numOfResults, positions.length)];
+	for (int i = 0; i < results.length; i++)
+	    results[i] = index.getField(positions[i], LocalCompoundIndex.ID);
+
+	return results;
+
+    }
+
+    /**
+     * This method retrieves the details about a compound from the index
+     */
+    public DBCompound getCompound(String ID, ParameterSet parameters)
+	    throws IOException {
+
+	final LocalCompoundIndex index = getIndex(parameters);
+	final int position = index.findID(ID);
+	if (position < 0)
+	    throw new IOException("Compound " + ID + " not found in "
+		    + index.getSource());
+
+	String name = index.getField(position, LocalCompoundIndex.NAME);
+	String formula = index.getField(position, LocalCompoundIndex.FORMULA);
+	URL entryURL = index.getSource().toURI().toURL();
+
+	// The structure is read from the index when the viewer opens the URL
+	URL structureURL = null;
+	if (index.getField(position, LocalCompoundIndex.STRUCTURE).length() > 0) {
+	    URLStreamHandler handler = new URLStreamHandler() {
+		protected URLConnection openConnection(URL url) {
+		    return new URLConnection(url) {
+			public void connect() {
+			}
+
+			public InputStream getInputStream() throws IOException {
+			    String structure = index.getField(position,
+				    LocalCompoundIndex.STRUCTURE);
+			    return new ByteArrayInputStream(structure
+				    .getBytes("UTF-8"));
+			}
+		    };
+		}
+	    };
+	    structureURL = new URL("mzmine-local", null, -1, "/" + position,
+		    handler);
+	}
+
+	DBCompound newCompound = new DBCompound(OnlineDatabase.LOCAL, ID,
+		name, formula, entryURL, structureURL, structureURL);
+
+	return newCompound;
+
+    }
+
+    private static LocalCompoundIndex getIndex(ParameterSet parameters)
+	    throws IOException {
+	File databaseFile = parameters.getParameter(
+		LocalDatabaseParameters.DATABASE_FILE).getValue();
+	if (databaseFile == null)
+	    throw new IOException("Local database file is not set");
+	return LocalCompoundIndex.getIndex(databaseFile);
+    }
+}
@@ -20,6 +20,7 @@
 package net.sf.mzmine.modules.peaklistmethods.identification.fragmentsearch;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.DataPoint;
@@ -35,6 +36,7 @@ import net.sf.mzmine.parameters.parametertypes.MZTolerance;
 import net.sf.mzmine.parameters.parametertypes.RTTolerance;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.MassDifferenceSearch;
 import net.sf.mzmine.util.PeakListRowSorter;
 import net.sf.mzmine.util.Range;
 import net.sf.mzmine.util.SortingDirection;
@@ -44,7 +46,8 @@ public class FragmentSearchTask extends AbstractTask {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
-	private int finishedRows, totalRows;
+	private AtomicInteger finishedRows = new AtomicInteger();
+	private int totalRows;
 	private PeakList peakList;
 
 	private RTTolerance rtTolerance;
@@ -80,7 +83,7 @@ public class FragmentSearchTask extends AbstractTask {
 	public double getFinishedPercentage() {
 		if (totalRows == 0)
 			return 0;
-		return ((double) finishedRows) / totalRows;
+		return ((double) finishedRows.get()) / totalRows;
 	}
 
 	/**
@@ -99,36 +102,40 @@ public class FragmentSearchTask extends AbstractTask {
 
 		logger.info("Starting fragments search in " + peakList);
 
-		PeakListRow rows[] = peakList.getRows();
+		final PeakListRow rows[] = peakList.getRows();
 		totalRows = rows.length;
 
 		// Start with the highest peaks
 		Arrays.sort(rows, new PeakListRowSorter(SortingProperty.Height,
 				SortingDirection.Descending));
 
-		// Compare each two rows against each other
-		for (int i = 0; i < totalRows; i++) {
-
-			for (int j = i + 1; j < rows.length; j++) {
-
-				// Task canceled?
+		// Look up the rows at the m/z of each MS/MS peak of each main peak.
+		// The keys of the matches are the positions of the two rows, the
+		// lower one first.
+		final MassDifferenceSearch index = new MassDifferenceSearch(rows,
+				rtTolerance);
+		long matches[] = index.search(new MassDifferenceSearch.RowSearch() {
+			public long[] search(int mainPosition) {
 				if (isCanceled())
-					return;
-
-				// Treat the higher m/z peak as main peak and check if the
-				// smaller one may be a fragment
-				if (rows[i].getAverageMZ() > rows[j].getAverageMZ()) {
-					if (checkFragment(rows[i], rows[j]))
-						addFragmentInfo(rows[i], rows[j]);
-				} else {
-					if (checkFragment(rows[j], rows[i]))
-						addFragmentInfo(rows[j], rows[i]);
-				}
-
+					return null;
+				long keys[] = findFragments(index, mainPosition);
+				finishedRows.incrementAndGet();
+				return keys;
 			}
-
-			finishedRows++;
-
+		});
+
+		// Task canceled?
+		if (isCanceled())
+			return;
+
+		// Add the identities in the order of the pairs of rows
+		for (long match : matches) {
+			PeakListRow row1 = rows[(int) (match / totalRows)];
+			PeakListRow row2 = rows[(int) (match % totalRows)];
+			if (row1.getAverageMZ() > row2.getAverageMZ())
+				addFragmentInfo(row1, row2);
+			else
+				addFragmentInfo(row2, row1);
 		}
 
 		// Add task description to peakList
@@ -145,14 +152,94 @@ public class FragmentSearchTask extends AbstractTask {
 
 	}
 
+	/**
+	 * Find the fragments of the row at given position. Of each pair of rows,
+	 * the higher m/z row is the main peak (the lower peak if both m/z are
+	 * equal) and the other row may be a fragment.
+	 * 
+	 * @param index
+	 * @param mainPosition
+	 * @return keys of the pairs of the main peak and its fragments
+	 */
+	private long[] findFragments(MassDifferenceSearch index, int mainPosition) {
+
+		PeakListRow mainPeak = index.getRow(mainPosition);
+		DataPoint fragmentDataPoints[] = getFragmentDataPoints(mainPeak);
+		if (fragmentDataPoints == null)
+			return null;
+
+		// Rows whose m/z tolerance range may contain a MS/MS peak of
+		// required height
+		double mainMZ = mainPeak.getAverageMZ();
+		int candidates[] = new int[16];
+		int numCandidates = 0;
+		for (DataPoint dp : fragmentDataPoints) {
+			if (dp.getIntensity() <= minMS2peakHeight)
+				continue;
+			Range mzRange = ms2mzTolerance.getToleranceRange(ms2mzTolerance
+					.getToleranceRange(dp.getMZ()));
+			for (int position : index.findRows(mainPosition, mzRange)) {
+				double mz = index.getRow(position).getAverageMZ();
+				if ((position == mainPosition) || (mz > mainMZ)
+						|| ((mz == mainMZ) && (position > mainPosition)))
+					continue;
+				if (numCandidates == candidates.length)
+					candidates = Arrays.copyOf(candidates, numCandidates * 2);
+				candidates[numCandidates++] = position;
+			}
+		}
+		Arrays.sort(candidates, 0, numCandidates);
+
+		long keys[] = new long[numCandidates];
+		int numKeys = 0;
+		for (int i = 0; i < numCandidates; i++) {
+			if ((i > 0) && (candidates[i] == candidates[i - 1]))
+				continue;
+			if (checkFragment(mainPeak, index.getRow(candidates[i]),
+					fragmentDataPoints)) {
+				long first = Math.min(mainPosition, candidates[i]);
+				long second = Math.max(mainPosition, candidates[i]);
+				keys[numKeys++] = first * index.getNumberOfRows() + second;
+			}
+		}
+
+		return Arrays.copyOf(keys, numKeys);
+
+	}
+
+	/**
+	 * Get the data points of the MS/MS scan of a given main peak
+	 * 
+	 * @param mainPeak
+	 * @return data points, or null if there is no MS/MS scan
+	 */
+	private DataPoint[] getFragmentDataPoints(PeakListRow mainPeak) {
+
+		// Get MS/MS scan, if exists
+		int fragmentScanNumber = mainPeak.getBestPeak()
+				.getMostIntenseFragmentScanNumber();
+		if (fragmentScanNumber <= 0)
+			return null;
+
+		RawDataFile dataFile = mainPeak.getBestPeak().getDataFile();
+		Scan fragmentScan = dataFile.getScan(fragmentScanNumber);
+		if (fragmentScan == null)
+			return null;
+
+		return fragmentScan.getDataPoints();
+
+	}
+
 	/**
 	 * Check if candidate peak may be a possible fragment of a given main peak
 	 * 
 	 * @param mainPeak
 	 * @param possibleFragment
+	 * @param fragmentDataPoints
+	 *            data points of the MS/MS scan of the main peak
 	 */
 	private boolean checkFragment(PeakListRow mainPeak,
-			PeakListRow possibleFragment) {
+			PeakListRow possibleFragment, DataPoint fragmentDataPoints[]) {
 
 		// Check retention time condition
 		boolean rtCheck = rtTolerance.checkWithinTolerance(
@@ -165,27 +252,14 @@ public class FragmentSearchTask extends AbstractTask {
 				* maxFragmentHeight)
 			return false;
 
-		// Get MS/MS scan, if exists
-		int fragmentScanNumber = mainPeak.getBestPeak()
-				.getMostIntenseFragmentScanNumber();
-		if (fragmentScanNumber <= 0)
-			return false;
-
-		RawDataFile dataFile = mainPeak.getBestPeak().getDataFile();
-		Scan fragmentScan = dataFile.getScan(fragmentScanNumber);
-		if (fragmentScan == null)
-			return false;
-
 		// Get MS/MS data points in the tolerance range
 		Range ms2mzRange = ms2mzTolerance.getToleranceRange(possibleFragment
 				.getAverageMZ());
 
-		DataPoint fragmentDataPoints[] = fragmentScan
-				.getDataPointsByMass(ms2mzRange);
-
 		// If there is a MS/MS peak of required height, we have a hit
 		for (DataPoint dp : fragmentDataPoints) {
-			if (dp.getIntensity() > minMS2peakHeight)
+			if (ms2mzRange.contains(dp.getMZ())
+					&& (dp.getIntensity() > minMS2peakHeight))
 				return true;
 		}
 
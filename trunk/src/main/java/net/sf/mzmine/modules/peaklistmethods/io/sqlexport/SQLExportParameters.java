@@ -21,6 +21,7 @@ package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
 
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.IntegerParameter;
 import net.sf.mzmine.parameters.parametertypes.PeakListsParameter;
 import net.sf.mzmine.parameters.parametertypes.StringParameter;
 
@@ -39,8 +40,18 @@ public class SQLExportParameters extends SimpleParameterSet {
 
     public static final SQLColumnSettingsParameter exportColumns = new SQLColumnSettingsParameter();
 
+    public static final IntegerParameter batchSize = new IntegerParameter(
+	    "Batch size",
+	    "Number of rows sent to the database at once", 1000, 1, null);
+
+    public static final IntegerParameter commitInterval = new IntegerParameter(
+	    "Commit interval",
+	    "Number of rows inserted in one transaction. The rows of an unfinished transaction are rolled back if the export fails or is canceled.",
+	    10000, 1, null);
+
     public SQLExportParameters() {
-	super(new Parameter[] { peakList, connectionString, tableName, exportColumns });
+	super(new Parameter[] { peakList, connectionString, tableName,
+		exportColumns, batchSize, commitInterval });
     }
 
 }
@@ -19,12 +19,14 @@
 
 package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
 
-import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.IsotopePattern;
@@ -37,14 +39,17 @@ import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.ScanUtils;
 
 class SQLExportTask extends AbstractTask {
 
+    private Logger logger = Logger.getLogger(this.getClass().getName());
+
     private final PeakList peakList;
     private final String connectionString;
     private final String tableName;
     private final SQLColumnSettings exportColumns;
+    private final int batchSize;
+    private final int commitInterval;
 
     private int processedRows = 0, totalRows = 0;
 
@@ -61,6 +66,10 @@ class SQLExportTask extends AbstractTask {
 		.getValue();
 	this.exportColumns = parameters.getParameter(
 		SQLExportParameters.exportColumns).getValue();
+	this.batchSize = Math.max(1, parameters.getParameter(
+		SQLExportParameters.batchSize).getValue());
+	this.commitInterval = Math.max(1, parameters.getParameter(
+		SQLExportParameters.commitInterval).getValue());
 
     }
 
@@ -94,16 +103,17 @@ class SQLExportTask extends AbstractTask {
 	PeakListRow rows[] = peakList.getRows();
 
 	try {
-	    for (PeakListRow row : rows) {
-		if (getStatus() != TaskStatus.PROCESSING)
-		    break;
-		exportPeakListRow(row);
-		processedRows++;
-	    }
+	    exportPeakListRows(rows);
 	} catch (SQLException e) {
 	    setStatus(TaskStatus.ERROR);
 	    errorMessage = "Error running SQL query: " + e.toString();
 	    return;
+	} finally {
+	    try {
+		dbConnection.close();
+	    } catch (SQLException e) {
+		logger.log(Level.WARNING, "Error closing the SQL connection", e);
+	    }
 	}
 
 	if (getStatus() == TaskStatus.PROCESSING)
@@ -111,12 +121,13 @@ class SQLExportTask extends AbstractTask {
 
     }
 
-    private void exportPeakListRow(PeakListRow row) throws SQLException {
-
-	// Cancel?
-	if (isCanceled()) {
-	    return;
-	}
+    /**
+     * Inserts the rows using a single prepared statement. The rows are sent
+     * to the database in batches of batchSize rows and committed every
+     * commitInterval rows. If the export fails or is canceled, the rows of
+     * the current transaction are rolled back.
+     */
+    private void exportPeakListRows(PeakListRow rows[]) throws SQLException {
 
 	StringBuilder sql = new StringBuilder();
 	sql.append("INSERT INTO ");
@@ -135,8 +146,81 @@ class SQLExportTask extends AbstractTask {
 	}
 	sql.append(")");
 
+	final boolean useBatches = (batchSize > 1)
+		&& dbConnection.getMetaData().supportsBatchUpdates();
+	final boolean autoCommit = dbConnection.getAutoCommit();
+	final long startTime = System.currentTimeMillis();
+	int batchedRows = 0, uncommittedRows = 0;
+
+	dbConnection.setAutoCommit(false);
 	PreparedStatement statement = dbConnection.prepareStatement(sql
 		.toString());
+	try {
+
+	    for (PeakListRow row : rows) {
+
+		// Cancel?
+		if (getStatus() != TaskStatus.PROCESSING) {
+		    dbConnection.rollback();
+		    return;
+		}
+
+		setRowValues(statement, row);
+		if (useBatches) {
+		    statement.addBatch();
+		    batchedRows++;
+		} else {
+		    statement.executeUpdate();
+		}
+		uncommittedRows++;
+
+		if (batchedRows >= batchSize) {
+		    statement.executeBatch();
+		    batchedRows = 0;
+		}
+		if (uncommittedRows >= commitInterval) {
+		    if (batchedRows > 0) {
+			statement.executeBatch();
+			batchedRows = 0;
+		    }
+		    dbConnection.commit();
+		    uncommittedRows = 0;
+		}
+
+		processedRows++;
+	    }
+
+	    if (batchedRows > 0)
+		statement.executeBatch();
+	    dbConnection.commit();
+
+	} catch (SQLException e) {
+	    try {
+		dbConnection.rollback();
+	    } catch (SQLException rollbackError) {
+		logger.log(Level.WARNING, "Error rolling back the SQL export",
+			rollbackError);
+	    }
+	    // Batch errors usually hide the actual cause
+	    if (e.getNextException() != null)
+		e = e.getNextException();
+	    throw e;
+	} finally {
+	    statement.close();
+	    dbConnection.setAutoCommit(autoCommit);
+	}
+
+	final double seconds = Math.max(
+		System.currentTimeMillis() - startTime, 1) / 1000.0;
+	logger.info("Exported " + processedRows + " rows of " + peakList
+		+ " to SQL table " + tableName + " in " + seconds + " s ("
+		+ Math.round(processedRows / seconds) + " rows/s)");
+
+    }
+
+    private void setRowValues(PreparedStatement statement, PeakListRow row)
+	    throws SQLException {
+
 	for (int i = 0; i < exportColumns.getRowCount(); i++) {
 	    SQLExportDataType dataType = (SQLExportDataType) exportColumns
 		    .getValueAt(i, 1);
@@ -174,10 +258,7 @@ class SQLExportTask extends AbstractTask {
 		    statement.setNull(i + 1, Types.BLOB);
 		    break;
 		}
-		DataPoint dataPoints[] = isotopes.getDataPoints();
-		byte bytes[] = ScanUtils.encodeDataPointsToBytes(dataPoints);
-		ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-		statement.setBlob(i + 1, is);
+		setDataPoints(statement, i + 1, isotopes.getDataPoints());
 		break;
 	    case MSMS:
 		int msmsScanNum = row.getBestPeak()
@@ -195,16 +276,85 @@ class SQLExportTask extends AbstractTask {
 		    statement.setNull(i + 1, Types.BLOB);
 		    break;
 		}
-		dataPoints = msmsMassList.getDataPoints();
-		bytes = ScanUtils.encodeDataPointsToBytes(dataPoints);
-		is = new ByteArrayInputStream(bytes);
-		statement.setBlob(i + 1, is);
-
+		setDataPoints(statement, i + 1, msmsMassList.getDataPoints());
 		break;
 	    }
 	}
 
-	statement.execute();
+    }
+
+    /**
+     * Sets a blob parameter to the data points, in the format of
+     * ScanUtils.encodeDataPointsToBytes(). The bytes are encoded while the
+     * driver reads the stream, and its length is given, so the driver does
+     * not need to buffer it.
+     */
+    private static void setDataPoints(PreparedStatement statement, int index,
+	    DataPoint dataPoints[]) throws SQLException {
+	statement.setBlob(index, new DataPointsInputStream(dataPoints),
+		dataPoints.length * 16L);
+    }
+
+    /**
+     * Stream of the m/z and intensity values of data points, each as a
+     * big-endian double (same as DataOutputStream.writeDouble()).
+     */
+    private static class DataPointsInputStream extends InputStream {
+
+	private final DataPoint dataPoints[];
+	private final byte buffer[] = new byte[16];
+	private int dataPointIndex, bufferPosition = 16;
+
+	DataPointsInputStream(DataPoint dataPoints[]) {
+	    this.dataPoints = dataPoints;
+	}
+
+	@Override
+	public int read() {
+	    if (!fillBuffer())
+		return -1;
+	    return buffer[bufferPosition++] & 0xff;
+	}
+
+	@Override
+	public int read(byte b[], int off, int len) {
+	    if (len == 0)
+		return 0;
+	    int count = 0;
+	    while ((count < len) && fillBuffer()) {
+		int n = Math.min(len - count, 16 - bufferPosition);
+		System.arraycopy(buffer, bufferPosition, b, off + count, n);
+		bufferPosition += n;
+		count += n;
+	    }
+	    return count == 0 ? -1 : count;
+	}
+
+	@Override
+	public int available() {
+	    return (dataPoints.length - dataPointIndex) * 16 + 16
+		    - bufferPosition;
+	}
+
+	private boolean fillBuffer() {
+	    if (bufferPosition < 16)
+		return true;
+	    if (dataPointIndex == dataPoints.length)
+		return false;
+	    DataPoint dp = dataPoints[dataPointIndex++];
+	    putDouble(dp.getMZ(), 0);
+	    putDouble(dp.getIntensity(), 8);
+	    bufferPosition = 0;
+	    return true;
+	}
+
+	private void putDouble(double value, int offset) {
+	    long bits = Double.doubleToLongBits(value);
+	    for (int i = 7; i >= 0; i--) {
+		buffer[offset + i] = (byte) bits;
+		bits >>>= 8;
+	    }
+	}
 
     }
 
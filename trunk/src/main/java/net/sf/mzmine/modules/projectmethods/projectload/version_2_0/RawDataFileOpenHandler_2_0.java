@@ -23,7 +23,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.TreeMap;
+import java.util.SortedMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -240,9 +240,9 @@ public class RawDataFileOpenHandler_2_0 extends DefaultHandler implements
 
 			try {
 				int newStorageID = 1;
-				TreeMap<Integer, Long> dataPointsOffsets = newRawDataFile
+				SortedMap<Integer, Long> dataPointsOffsets = newRawDataFile
 						.getDataPointsOffsets();
-				TreeMap<Integer, Integer> dataPointsLengths = newRawDataFile
+				SortedMap<Integer, Integer> dataPointsLengths = newRawDataFile
 						.getDataPointsLengths();
 				if (!dataPointsOffsets.isEmpty())
 					newStorageID = dataPointsOffsets.lastKey().intValue() + 1;
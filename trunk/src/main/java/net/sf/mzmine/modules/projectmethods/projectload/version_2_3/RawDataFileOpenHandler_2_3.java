@@ -24,7 +24,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.SortedMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -275,9 +275,9 @@ public class RawDataFileOpenHandler_2_3 extends DefaultHandler implements
 
 	    try {
 		int newStorageID = 1;
-		TreeMap<Integer, Long> dataPointsOffsets = newRawDataFile
+		SortedMap<Integer, Long> dataPointsOffsets = newRawDataFile
 			.getDataPointsOffsets();
-		TreeMap<Integer, Integer> dataPointsLengths = newRawDataFile
+		SortedMap<Integer, Integer> dataPointsLengths = newRawDataFile
 			.getDataPointsLengths();
 		if (!dataPointsOffsets.isEmpty())
 		    newStorageID = dataPointsOffsets.lastKey().intValue() + 1;
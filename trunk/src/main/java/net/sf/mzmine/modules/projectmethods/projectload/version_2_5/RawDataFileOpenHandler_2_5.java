@@ -24,7 +24,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.SortedMap;
 import java.util.logging.Logger;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -69,8 +69,8 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements
     private int currentStorageID;
     private int storedDataID;
     private int storedDataNumDP;
-    private TreeMap<Integer, Long> dataPointsOffsets;
-    private TreeMap<Integer, Integer> dataPointsLengths;
+    private SortedMap<Integer, Long> dataPointsOffsets;
+    private SortedMap<Integer, Integer> dataPointsLengths;
     private StreamCopy copyMachine;
     private ArrayList<StorableMassList> massLists;
 
@@ -194,7 +194,7 @@ public class RawDataFileOpenHandler_2_5 extends DefaultHandler implements
         {
             String jobName    = attrs.getValue(RawDataElementName_2_5.JOB_NAME.getElementName());
             String targetName = attrs.getValue(RawDataElementName_2_5.JOB_TARGET_NAME.getElementName());
-        	newRawDataFile.addJob(jobName, newRawDataFile, targetName, null);
+        	newRawDataFile.addJob(jobName, newRawDataFile, targetName);
         }
     }
 
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.projectmethods.projectsave;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression of the data points of raw data files (the .scans entries) in
+ * saved projects
+ */
+public enum DataPointsCompression {
+
+    STORED("No compression", Deflater.NO_COMPRESSION),
+    FAST("Fast compression", Deflater.BEST_SPEED),
+    DEFAULT("Default compression", Deflater.DEFAULT_COMPRESSION);
+
+    private final String name;
+    private final int level;
+
+    DataPointsCompression(String name, int level) {
+	this.name = name;
+	this.level = level;
+    }
+
+    /**
+     * Returns the Deflater level, not used for STORED entries
+     */
+    public int getLevel() {
+	return level;
+    }
+
+    public String toString() {
+	return name;
+    }
+}
@@ -302,15 +302,25 @@ public class ProjectSavingTask extends AbstractTask {
 
 	RawDataFile rawDataFiles[] = savedProject.getDataFiles();
 
-	for (int i = 0; i < rawDataFiles.length; i++) {
+	// The data points of several files are prepared concurrently, ahead of
+	// writing them in order
+	rawDataFileSaveHandler.prepareRawDataFiles(rawDataFiles);
 
-	    if (isCanceled())
-		return;
+	try {
+	    for (int i = 0; i < rawDataFiles.length; i++) {
 
-	    currentSavedObjectName = rawDataFiles[i].getName();
-	    rawDataFileSaveHandler.writeRawDataFile(
-		    (RawDataFileImpl) rawDataFiles[i], i + 1);
-	    dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
+		if (isCanceled())
+		    return;
+
+		currentSavedObjectName = rawDataFiles[i].getName();
+		rawDataFileSaveHandler.writeRawDataFile(
+			(RawDataFileImpl) rawDataFiles[i], i + 1);
+		dataFilesIDMap.put(rawDataFiles[i], String.valueOf(i + 1));
+	    }
+	} finally {
+	    // Remove the data points prepared in vain, if saving was canceled
+	    // or failed
+	    rawDataFileSaveHandler.dispose();
 	}
     }
 
@@ -19,13 +19,28 @@
 
 package net.sf.mzmine.modules.projectmethods.projectsave;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -35,11 +50,14 @@ import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 
 import net.sf.mzmine.datamodel.MassList;
+import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.RemoteJob;
+import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.project.impl.StorableMassList;
 import net.sf.mzmine.project.impl.StorableScan;
+import net.sf.mzmine.taskcontrol.TaskController;
 
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
@@ -47,25 +65,106 @@ import org.xml.sax.helpers.AttributesImpl;
 import de.schlichtherle.truezip.zip.ZipEntry;
 import de.schlichtherle.truezip.zip.ZipOutputStream;
 
+/**
+ * Saves raw data files into the project zip file. The data points of each
+ * raw data file are saved in a .scans entry, consolidated so that only the
+ * data points still referenced by a storage ID are saved, and the description
+ * of the raw data file in an .xml entry.
+ * 
+ * The .scans entries are prepared by sub-tasks, concurrently for several raw
+ * data files, and then written to the zip file one by one as they are, without
+ * compressing them again (see prepareRawDataFiles()). The preparation runs at
+ * most as many files ahead of the writer as there are threads. A deflated
+ * entry, or a stored entry of a compressed data points file, is prepared in a
+ * temporary file, which is removed as soon as the entry is written. A stored
+ * entry of an uncompressed data points file only needs its checksum to be
+ * calculated; the data points are copied from the data points file when the
+ * entry is written. The data points are read by large positional reads,
+ * merging the records which are contiguous in the data points file.
+ */
 class RawDataFileSaveHandler {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
-    private int numOfScans, completedScans;
+
+    // Size of the buffer used to copy the data points
+    private static final int COPY_BUFFER_SIZE = 1 << 20;
+
+    private int numOfScans;
     private ZipOutputStream zipOutputStream;
-    private boolean canceled = false;
+    private volatile boolean canceled = false;
     private Map<Integer, Long> dataPointsOffsets;
     private Map<Integer, Long> consolidatedDataPointsOffsets;
     private Map<Integer, Integer> dataPointsLengths;
-    private double progress = 0;
+
+    private final DataPointsCompression compression;
+
+    // Entries being prepared by sub-tasks, by raw data file
+    private final Map<RawDataFileImpl, Future<DataPointsEntry>> preparedEntries = new HashMap<RawDataFileImpl, Future<DataPointsEntry>>();
+
+    // Raw data files whose entries are not being prepared yet, in the order
+    // they are written
+    private final LinkedList<RawDataFileImpl> waitingFiles = new LinkedList<RawDataFileImpl>();
+
+    // Maximum number of entries prepared ahead of the writer
+    private final int maxPreparedEntries;
+
+    // Bytes of data points to be prepared and written, and bytes done so far
+    private volatile long totalBytes;
+    private final AtomicLong processedBytes = new AtomicLong();
 
     RawDataFileSaveHandler(ZipOutputStream zipOutputStream) {
     	this.zipOutputStream = zipOutputStream;
+    	this.compression = MZmineCore.getConfiguration().getPreferences()
+    		.getDataPointsCompression();
+    	this.maxPreparedEntries = MZmineCore.getConfiguration().getPreferences()
+    		.getNumOfThreads();
+    }
+
+    /**
+     * Starts preparing the .scans entries of the given raw data files, which
+     * are going to be saved by writeRawDataFile() in the same order. Only the
+     * entries of the first maxPreparedEntries files are started, the others
+     * are started as the entries are written.
+     */
+    void prepareRawDataFiles(RawDataFile rawDataFiles[])
+    {
+		for (RawDataFile dataFile : rawDataFiles) {
+		    RawDataFileImpl rawDataFile = (RawDataFileImpl) dataFile;
+		    // Scans read from the original file are counted too, they are
+		    // copied to the data points file before they are saved
+		    totalBytes += rawDataFile.getNumOfDataPointsToSave() * 4L * 2 * 2;
+		    waitingFiles.add(rawDataFile);
+		}
+		startPreparing();
     }
 
     /**
-     * Copy the data points file of the raw data file from the temporary folder
-     * to the zip file. Create an XML file which contains the description of the
-     * same raw data file an copy it into the same zip file.
+     * Starts preparing the entries of the waiting files, until
+     * maxPreparedEntries entries are prepared or waiting to be written
+     */
+    private void startPreparing()
+    {
+		while ((preparedEntries.size() < maxPreparedEntries)
+			&& !waitingFiles.isEmpty() && !canceled) {
+		    RawDataFileImpl rawDataFile = waitingFiles.removeFirst();
+		    preparedEntries.put(rawDataFile, submitPreparation(rawDataFile));
+		}
+    }
+
+    private Future<DataPointsEntry> submitPreparation(final RawDataFileImpl rawDataFile)
+    {
+		TaskController taskController = MZmineCore.getTaskController();
+		return taskController.submitSubTask(new Callable<DataPointsEntry>() {
+		    public DataPointsEntry call() throws IOException {
+			return prepareDataPoints(rawDataFile);
+		    }
+		});
+    }
+
+    /**
+     * Copy the prepared data points of the raw data file to the zip file.
+     * Create an XML file which contains the description of the same raw data
+     * file an copy it into the same zip file.
      * 
      * @param rawDataFile
      *            raw data file to be copied
@@ -80,46 +179,64 @@ class RawDataFileSaveHandler {
 	{
 		numOfScans = rawDataFile.getNumOfScans();
 	
-		// Get the structure of the data points file
-		dataPointsOffsets = rawDataFile.getDataPointsOffsets();
-		dataPointsLengths = rawDataFile.getDataPointsLengths();
-		consolidatedDataPointsOffsets = new TreeMap<Integer, Long>();
+		Future<DataPointsEntry> preparedEntry = preparedEntries.remove(rawDataFile);
+		if ((preparedEntry == null) && waitingFiles.remove(rawDataFile)) {
+		    // Written out of order, prepare it now
+		    preparedEntry = submitPreparation(rawDataFile);
+		}
+		if (preparedEntry == null) {
+		    throw new IllegalStateException("Data points of " + rawDataFile.getName()
+			    + " were not prepared");
+		}
+
+		// The entry is not ahead of the writer anymore, start the next one
+		startPreparing();
+
+		DataPointsEntry entry = joinEntry(preparedEntry);
+		if ((entry == null) || canceled)
+		    return;
 	
 		// step 1 - save data file
 		logger.info("Saving data points of: " + rawDataFile.getName());
 	
 		String rawDataSavedName = "Raw data file #" + number + " " + rawDataFile.getName();
 	
-		zipOutputStream.putNextEntry(new ZipEntry(rawDataSavedName + ".scans"));
+		try {
+		    ZipEntry zipEntry = new ZipEntry(rawDataSavedName + ".scans");
+		    zipEntry.setMethod(entry.method);
+		    zipEntry.setCrc(entry.crc);
+		    zipEntry.setSize(entry.size);
+		    zipEntry.setCompressedSize(entry.compressedSize);
 	
-		// We save only those data points that still have a reference in the
-		// dataPointsOffset table. Some deleted mass lists may still be present
-		// in the data points file, we don't want to copy those.
-		long newOffset = 0;
-		byte buffer[] = new byte[1 << 20];
-		RandomAccessFile dataPointsFile = rawDataFile.getDataPointsFile();
-		for (Integer storageID : dataPointsOffsets.keySet()) {
-	
-		    if (canceled)
-		    	return;
-	
-		    final long offset = dataPointsOffsets.get(storageID);
-		    dataPointsFile.seek(offset);
-	
-		    final int bytes = dataPointsLengths.get(storageID) * 4 * 2;
-		    consolidatedDataPointsOffsets.put(storageID, newOffset);
-		    if (buffer.length < bytes) {
-		    	buffer = new byte[bytes * 2];
+		    // The entry is written as it is, it is not compressed again
+		    zipOutputStream.putNextEntry(zipEntry, false);
+		    byte buffer[] = new byte[COPY_BUFFER_SIZE];
+		    if (entry.file == null) {
+		    	copyDataPoints(rawDataFile, entry, buffer, zipOutputStream, null);
+		    } else {
+		    	RandomAccessFile entryFile = new RandomAccessFile(entry.file, "r");
+		    	try {
+		    	    copyBytes(entryFile.getChannel(), 0, entry.compressedSize,
+		    		    buffer, zipOutputStream, null);
+		    	} finally {
+		    	    entryFile.close();
+		    	}
+		    	// Progress is counted in uncompressed bytes
+		    	processedBytes.addAndGet(entry.size - entry.compressedSize);
 		    }
-		    dataPointsFile.read(buffer, 0, bytes);
-		    zipOutputStream.write(buffer, 0, bytes);
-		    newOffset += bytes;
-		    progress = 0.9 * ((double) offset / dataPointsFile.length());
+		} finally {
+		    if (entry.file != null)
+		    	entry.file.delete();
 		}
 	
 		if (canceled)
 		    return;
 	
+		// The description must match the saved data points
+		dataPointsOffsets = entry.offsets;
+		dataPointsLengths = entry.lengths;
+		consolidatedDataPointsOffsets = entry.consolidatedOffsets;
+	
 		// step 2 - save raw data description
 		logger.info("Saving raw data description of: " + rawDataFile.getName());
 	
@@ -140,6 +257,204 @@ class RawDataFileSaveHandler {
 		hd.endDocument();
     }
 
+    /**
+     * Waits for the entry prepared by a sub-task
+     * 
+     * @return the entry, or null if saving was canceled
+     */
+    private DataPointsEntry joinEntry(Future<DataPointsEntry> preparedEntry)
+	    throws IOException
+	{
+		try {
+		    return MZmineCore.getTaskController().joinSubTask(preparedEntry);
+		} catch (InterruptedException e) {
+		    canceled = true;
+		    return null;
+		} catch (ExecutionException e) {
+		    Throwable cause = e.getCause();
+		    if (cause instanceof IOException)
+		    	throw (IOException) cause;
+		    if (cause instanceof RuntimeException)
+		    	throw (RuntimeException) cause;
+		    throw new IOException(cause);
+		}
+    }
+
+    /**
+     * Prepares the .scans entry of the given raw data file. Runs as a
+     * sub-task.
+     * 
+     * @return the entry, or null if saving was canceled
+     */
+    private DataPointsEntry prepareDataPoints(RawDataFileImpl rawDataFile)
+	    throws IOException
+	{
+		if (canceled)
+		    return null;
+	
+		// Scans read from the original file are saved from the data points
+		// file too
+		rawDataFile.materializeDataPoints();
+	
+		// We save only those data points that still have a reference in the
+		// dataPointsOffset table. Some deleted mass lists may still be present
+		// in the data points file, we don't want to copy those. The structure
+		// is copied, so that the saved description matches the saved data
+		// points even if the raw data file is modified in the meantime.
+		DataPointsEntry entry = new DataPointsEntry();
+		Map<Integer, Integer> lengths = rawDataFile.getDataPointsLengths();
+		long newOffset = 0;
+		for (Map.Entry<Integer, Long> offset : rawDataFile.getDataPointsOffsets().entrySet()) {
+		    Integer length = lengths.get(offset.getKey());
+		    if (length == null)
+		    	continue;
+		    entry.offsets.put(offset.getKey(), offset.getValue());
+		    entry.lengths.put(offset.getKey(), length);
+		    entry.consolidatedOffsets.put(offset.getKey(), newOffset);
+		    newOffset += length * 4L * 2;
+		}
+		entry.size = newOffset;
+	
+		byte buffer[] = new byte[COPY_BUFFER_SIZE];
+		CRC32 crc = new CRC32();
+	
+		if ((compression == DataPointsCompression.STORED)
+			&& !rawDataFile.isDataPointsFileCompressed()) {
+		    // Copied from the data points file when the entry is written
+		    copyDataPoints(rawDataFile, entry, buffer, null, crc);
+		    entry.method = ZipEntry.STORED;
+		    entry.compressedSize = entry.size;
+		    entry.crc = crc.getValue();
+		    return entry;
+		}
+	
+		entry.file = File.createTempFile("mzmine", ".scans");
+		entry.file.deleteOnExit();
+		boolean prepared = false;
+		Deflater deflater = null;
+		try {
+		    FileOutputStream fileStream = new FileOutputStream(entry.file);
+		    try {
+		    	OutputStream entryStream = fileStream;
+		    	if (compression != DataPointsCompression.STORED) {
+		    	    // Raw deflate data, as in zip files
+		    	    deflater = new Deflater(compression.getLevel(), true);
+		    	    entryStream = new DeflaterOutputStream(fileStream, deflater, 1 << 16);
+		    	}
+		    	copyDataPoints(rawDataFile, entry, buffer, entryStream, crc);
+		    	entryStream.close();
+		    } finally {
+		    	fileStream.close();
+		    }
+		    entry.method = (deflater == null) ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		    entry.compressedSize = entry.file.length();
+		    entry.crc = crc.getValue();
+		    prepared = !canceled;
+		} finally {
+		    if (deflater != null)
+		    	deflater.end();
+		    if (!prepared)
+		    	entry.file.delete();
+		}
+	
+		return prepared ? entry : null;
+    }
+
+    /**
+     * Copies the data points of the entry, in the order of their storage IDs
+     * and without compression, to the given stream and checksum (either may
+     * be null)
+     */
+    private void copyDataPoints(RawDataFileImpl rawDataFile,
+	    DataPointsEntry entry, byte buffer[], OutputStream out,
+	    Checksum checksum) throws IOException
+	{
+		if (rawDataFile.isDataPointsFileCompressed()) {
+		    // Records are read at the copied offsets, like below
+		    for (Integer storageID : entry.offsets.keySet()) {
+		    	if (canceled)
+		    	    return;
+		    	ByteBuffer dataPoints = rawDataFile.getDataPointsBytes(
+		    		entry.offsets.get(storageID), entry.lengths.get(storageID));
+		    	while (dataPoints.hasRemaining()) {
+		    	    int length = Math.min(buffer.length, dataPoints.remaining());
+		    	    dataPoints.get(buffer, 0, length);
+		    	    write(buffer, length, out, checksum);
+		    	}
+		    }
+		    return;
+		}
+	
+		// Records which follow each other in the file are copied at once
+		FileChannel channel = rawDataFile.getDataPointsFile().getChannel();
+		long runStart = 0, runEnd = 0;
+		for (Integer storageID : entry.offsets.keySet()) {
+		    if (canceled)
+		    	return;
+		    final long offset = entry.offsets.get(storageID);
+		    if (offset != runEnd) {
+		    	copyBytes(channel, runStart, runEnd, buffer, out, checksum);
+		    	runStart = offset;
+		    }
+		    runEnd = offset + entry.lengths.get(storageID) * 4L * 2;
+		}
+		copyBytes(channel, runStart, runEnd, buffer, out, checksum);
+    }
+
+    /**
+     * Copies the given range of the channel to the given stream and checksum
+     * (either may be null), using positional reads
+     */
+    private void copyBytes(FileChannel channel, long start, long end,
+	    byte buffer[], OutputStream out, Checksum checksum)
+	    throws IOException
+	{
+		long position = start;
+		while ((position < end) && !canceled) {
+		    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0,
+			    (int) Math.min(buffer.length, end - position));
+		    while (chunk.hasRemaining()) {
+		    	if (channel.read(chunk, position + chunk.position()) < 0)
+		    	    throw new EOFException("Unexpected end of file at offset "
+		    		    + (position + chunk.position()));
+		    }
+		    write(buffer, chunk.position(), out, checksum);
+		    position += chunk.position();
+		}
+    }
+
+    private void write(byte buffer[], int length, OutputStream out,
+	    Checksum checksum) throws IOException
+	{
+		if (checksum != null)
+		    checksum.update(buffer, 0, length);
+		if (out != null)
+		    out.write(buffer, 0, length);
+		processedBytes.addAndGet(length);
+    }
+
+    /**
+     * Stops the preparation of the entries which were not written and removes
+     * their temporary files, e.g. when saving failed
+     */
+    void dispose()
+    {
+		waitingFiles.clear();
+		if (preparedEntries.isEmpty())
+		    return;
+		canceled = true;
+		for (Future<DataPointsEntry> preparedEntry : preparedEntries.values()) {
+		    try {
+		    	DataPointsEntry entry = joinEntry(preparedEntry);
+		    	if ((entry != null) && (entry.file != null))
+		    	    entry.file.delete();
+		    } catch (Exception e) {
+		    	// The entry failed, nothing to remove
+		    }
+		}
+		preparedEntries.clear();
+    }
+
     /**
      * Function which creates an XML file with the descripcion of the raw data
      * 
@@ -197,8 +512,6 @@ class RawDataFileSaveHandler {
 		    fillScanElement(scan, hd);
 		    hd.endElement("", "", RawDataElementName.SCAN.getElementName());
 		    atts.clear();
-		    completedScans++;
-		    progress = 0.9 + (0.1 * ((double) completedScans / numOfScans));
 		}
 
 		// JOBS
@@ -220,6 +533,26 @@ class RawDataFileSaveHandler {
 		hd.endElement("", "", RawDataElementName.RAWDATA.getElementName());
     }
 
+    /**
+     * The .scans entry of a raw data file, ready to be written to the zip file
+     */
+    private static class DataPointsEntry {
+
+	// Structure of the data points file when the entry was prepared
+	final Map<Integer, Long> offsets = new TreeMap<Integer, Long>();
+	final Map<Integer, Integer> lengths = new TreeMap<Integer, Integer>();
+
+	// Offsets of the data points in the entry
+	final Map<Integer, Long> consolidatedOffsets = new TreeMap<Integer, Long>();
+
+	// Temporary file containing the entry data, or null if the data points
+	// are copied from the data points file
+	File file;
+
+	int method;
+	long crc, size, compressedSize;
+    }
+
     /**
      * Create the part of the XML document related to the scans
      * 
@@ -309,7 +642,9 @@ class RawDataFileSaveHandler {
      *         to the zip file.
      */
     double getProgress() {
-	return progress;
+	if (totalBytes == 0)
+	    return 0;
+	return Math.min(1.0, (double) processedBytes.get() / totalBytes);
     }
 
     void cancel() {
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection;
+
+import java.util.Arrays;
+
+/**
+ * Asymmetric least squares baseline, as calculated by asysm() of R's
+ * parametric time warping (ptw) package.
+ *
+ * The baseline z of a signal y minimizes sum(w * (y - z)^2) + lambda *
+ * sum(diff(z, 2)^2), where the weight w of each point is p if the point lies
+ * above the current baseline and 1 - p otherwise. The weights are updated
+ * until they no longer change (at most MAX_ITERATIONS times). Each iteration
+ * solves (W + lambda * D'D) z = W y, where D is the second order difference
+ * matrix, so the system matrix is symmetric, positive definite and
+ * pentadiagonal and is solved by a banded LDL' decomposition in linear time.
+ * The solver keeps no state between calls, so one instance may be used by
+ * several threads.
+ */
+class AsymmetricLeastSquares {
+
+    // Same defaults as ptw::asysm().
+    private static final double EPSILON = 1e-8;
+    private static final int MAX_ITERATIONS = 25;
+
+    private final double smoothing;
+    private final double asymmetry;
+
+    /**
+     * Creates the solver.
+     *
+     * @param smoothing the smoothing factor (lambda).
+     * @param asymmetry the weight (p) of points above the baseline.
+     */
+    AsymmetricLeastSquares(final double smoothing, final double asymmetry) {
+
+        this.smoothing = smoothing;
+        this.asymmetry = asymmetry;
+    }
+
+    /**
+     * Determine the baseline of a signal.
+     *
+     * @param y the signal (e.g. a chromatogram).
+     * @return the baseline.
+     */
+    double[] baseline(final double[] y) {
+
+        final int m = y.length;
+
+        // Bands of D'D (main diagonal and the two upper diagonals).
+        final double[] p0 = new double[m];
+        final double[] p1 = new double[m];
+        final double[] p2 = new double[m];
+        for (int k = 0; k + 2 < m; k++) {
+
+            // Row k of D is (1, -2, 1) at columns k, k + 1 and k + 2.
+            p0[k] += 1.0;
+            p0[k + 1] += 4.0;
+            p0[k + 2] += 1.0;
+            p1[k] -= 2.0;
+            p1[k + 1] -= 2.0;
+            p2[k] += 1.0;
+        }
+
+        final double[] w = new double[m];
+        final double[] z = new double[m];
+        final double[] d = new double[m];
+        final double[] l1 = new double[m];
+        final double[] l2 = new double[m];
+        Arrays.fill(w, 1.0);
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+
+            // Factorize W + lambda * D'D = L * diag(d) * L'.
+            for (int i = 0; i < m; i++) {
+
+                double di = w[i] + smoothing * p0[i];
+                if (i > 0) {
+                    di -= l1[i - 1] * l1[i - 1] * d[i - 1];
+                }
+                if (i > 1) {
+                    di -= l2[i - 2] * l2[i - 2] * d[i - 2];
+                }
+                d[i] = di;
+
+                double a1 = smoothing * p1[i];
+                if (i > 0) {
+                    a1 -= l2[i - 1] * l1[i - 1] * d[i - 1];
+                }
+                l1[i] = a1 / di;
+                l2[i] = smoothing * p2[i] / di;
+            }
+
+            // Solve L * u = W y, then diag(d) * L' * z = u.
+            for (int i = 0; i < m; i++) {
+
+                double u = w[i] * y[i];
+                if (i > 0) {
+                    u -= l1[i - 1] * z[i - 1];
+                }
+                if (i > 1) {
+                    u -= l2[i - 2] * z[i - 2];
+                }
+                z[i] = u;
+            }
+            for (int i = 0; i < m; i++) {
+                z[i] /= d[i];
+            }
+            for (int i = m - 1; i >= 0; i--) {
+
+                if (i + 1 < m) {
+                    z[i] -= l1[i] * z[i + 1];
+                }
+                if (i + 2 < m) {
+                    z[i] -= l2[i] * z[i + 2];
+                }
+            }
+
+            // Update the weights.
+            boolean changed = false;
+            for (int i = 0; i < m; i++) {
+
+                final double wi = y[i] > z[i] + EPSILON ? asymmetry : 1.0 - asymmetry;
+                changed |= wi != w[i];
+                w[i] = wi;
+            }
+            if (!changed) {
+                break;
+            }
+        }
+
+        return z;
+    }
+}
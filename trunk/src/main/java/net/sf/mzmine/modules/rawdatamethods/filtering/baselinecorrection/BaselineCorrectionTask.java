@@ -24,6 +24,11 @@
 package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,12 +42,10 @@ import net.sf.mzmine.datamodel.impl.SimpleScan;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.RUtilities;
 import net.sf.mzmine.util.Range;
 
-import org.rosuda.JRI.Rengine;
-
 /**
  * Task that performs baseline correction.
  *
@@ -266,10 +269,7 @@ public class BaselineCorrectionTask extends AbstractTask {
 
         // Calculate baselines: done in-place, i.e. overwrite chromatograms to save memory.
         LOG.finest("Calculating baselines.");
-        for (int binIndex = 0; !isCanceled() && binIndex < numBins; binIndex++) {
-            baseChrom[binIndex] = asymBaseline(baseChrom[binIndex]);
-            progress++;
-        }
+        calculateBaselines(baseChrom, false);
 
         // Subtract baselines.
         LOG.finest("Subtracting baselines.");
@@ -310,20 +310,7 @@ public class BaselineCorrectionTask extends AbstractTask {
 
         // Calculate baselines: done in-place, i.e. overwrite chromatograms to save memory.
         LOG.finest("Calculating baselines.");
-        for (int binIndex = 0; !isCanceled() && binIndex < numBins; binIndex++) {
-
-            // Calculate baseline.
-            final double[] baseline = asymBaseline(baseChrom[binIndex]);
-
-            // Normalize the baseline w.r.t. chromatogram (TIC).
-            for (int scanIndex = 0; scanIndex < numScans; scanIndex++) {
-                final double bc = baseChrom[binIndex][scanIndex];
-                if (bc != 0.0) {
-                    baseChrom[binIndex][scanIndex] = baseline[scanIndex] / bc;
-                }
-            }
-            progress++;
-        }
+        calculateBaselines(baseChrom, true);
 
         // Subtract baselines.
         LOG.finest("Subtracting baselines.");
@@ -416,47 +403,63 @@ public class BaselineCorrectionTask extends AbstractTask {
     }
 
     /**
-     * Determine the baseline via Asymmetric Least Squares (in R's parametric time warping PTW package).
+     * Determine the baselines of all chromatograms via Asymmetric Least Squares. The chromatograms are processed in
+     * parallel by sub-tasks, and each one is overwritten by its baseline.
      *
-     * @param chromatogram the chromatogram whose baseline is to be determined.
-     * @return the baseline.
+     * @param chromatograms the chromatograms whose baselines are to be determined.
+     * @param normalize     whether to normalize the baselines w.r.t. chromatograms (TIC).
      */
-    private double[] asymBaseline(final double[] chromatogram) {
+    private void calculateBaselines(final double[][] chromatograms, final boolean normalize) {
 
-        // Get R engine.
-        final Rengine rEngine;
-        try {
-            rEngine = RUtilities.getREngine();
-        }
-        catch (Throwable t) {
-            throw new IllegalStateException(
-                    "Baseline correction requires R but it couldn't be loaded (" + t.getMessage() + ')');
-        }
-
-        final double[] baseline;
-        synchronized (RUtilities.R_SEMAPHORE) {
+        final TaskController taskController = MZmineCore.getTaskController();
+        final AsymmetricLeastSquares solver = new AsymmetricLeastSquares(smoothing, asymmetry);
 
-            // Load PTW library.
-            if (rEngine.eval("require(ptw)").asBool().isFALSE()) {
+        // Submit one sub-task per chromatogram.
+        final List<Future<double[]>> baselines = new ArrayList<Future<double[]>>(chromatograms.length);
+        for (final double[] chromatogram : chromatograms) {
 
-                throw new IllegalStateException("The \"ptw\" R package couldn't be loaded - is it installed in R?");
-            }
-
-            try {
-
-                // Set chromatogram.
-                rEngine.assign("chromatogram", chromatogram);
-
-                // Calculate baseline.
-                baseline = rEngine.eval("asysm(chromatogram," + smoothing + ',' + asymmetry + ')').asDoubleArray();
+            baselines.add(taskController.submitSubTask(new Callable<double[]>() {
+                @Override
+                public double[] call() {
+                    return solver.baseline(chromatogram);
+                }
+            }));
+        }
 
+        try {
+            for (int binIndex = 0; !isCanceled() && binIndex < chromatograms.length; binIndex++) {
+
+                final double[] baseline = taskController.joinSubTask(baselines.get(binIndex));
+                baselines.set(binIndex, null);
+                final double[] chromatogram = chromatograms[binIndex];
+                if (normalize) {
+
+                    // Normalize the baseline w.r.t. chromatogram (TIC).
+                    for (int scanIndex = 0; scanIndex < chromatogram.length; scanIndex++) {
+                        final double bc = chromatogram[scanIndex];
+                        if (bc != 0.0) {
+                            chromatogram[scanIndex] = baseline[scanIndex] / bc;
+                        }
+                    }
+                } else {
+                    chromatograms[binIndex] = baseline;
+                }
+                progress++;
             }
-            catch (Throwable t) {
-
-                throw new IllegalStateException("R error during baseline correction", t);
+        }
+        catch (InterruptedException e) {
+            throw new IllegalStateException("Baseline calculation was interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Baseline calculation failed", e.getCause());
+        }
+        finally {
+            for (final Future<double[]> baseline : baselines) {
+                if (baseline != null) {
+                    baseline.cancel(false);
+                }
             }
         }
-        return baseline;
     }
 
     /**
@@ -21,7 +21,6 @@ package net.sf.mzmine.modules.rawdatamethods.filtering.scanfilters.resample;
 
 import javax.annotation.Nonnull;
 
-import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
@@ -45,16 +44,13 @@ public class ResampleFilter implements ScanFilter {
 	}
 
 	// ScanUtils.binValues needs arrays
-	DataPoint dps[] = scan.getDataPoints();
-	double[] x = new double[dps.length];
-	double[] y = new double[dps.length];
-	for (int i = 0; i < dps.length; i++) {
-	    x[i] = dps[i].getMZ();
-	    y[i] = dps[i].getIntensity();
-	}
+	double[] x = new double[scan.getNumberOfDataPoints()];
+	double[] y = new double[scan.getNumberOfDataPoints()];
+	int numOfDataPoints = scan.getDataPoints(x, y);
+
 	// the new intensity values
-	double[] newY = ScanUtils.binValues(x, y, mzRange, numberOfBins,
-		!scan.isCentroided(), ScanUtils.BinningType.AVG);
+	double[] newY = ScanUtils.binValues(x, y, numOfDataPoints, mzRange,
+		numberOfBins, !scan.isCentroided(), ScanUtils.BinningType.AVG);
 	SimpleDataPoint[] newPoints = new SimpleDataPoint[newY.length];
 
 	// set the new m/z value in the middle of the bin
@@ -31,6 +31,7 @@ import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.recursive.
 import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.wavelet.WaveletMassDetector;
 import net.sf.mzmine.parameters.Parameter;
 import net.sf.mzmine.parameters.impl.SimpleParameterSet;
+import net.sf.mzmine.parameters.parametertypes.BooleanParameter;
 import net.sf.mzmine.parameters.parametertypes.MSLevelParameter;
 import net.sf.mzmine.parameters.parametertypes.ModuleComboParameter;
 import net.sf.mzmine.parameters.parametertypes.RawDataFilesParameter;
@@ -62,8 +63,13 @@ public class MassDetectionParameters extends SimpleParameterSet {
 	    "Name of the new mass list. If the processed scans already have a mass list of that name, it will be replaced.",
 	    "masses");
 
+    public static final BooleanParameter parallel = new BooleanParameter(
+	    "Parallel scan processing",
+	    "Detect masses in several scans of the same file at once, using up to the configured number of threads. Mass detectors which must see the scans one by one ignore this option.",
+	    false);
+
     public MassDetectionParameters() {
-    	super(new Parameter[] { dataFiles, massDetector, msLevel, name });
+    	super(new Parameter[] { dataFiles, massDetector, msLevel, name, parallel });
     }
 
     @Override
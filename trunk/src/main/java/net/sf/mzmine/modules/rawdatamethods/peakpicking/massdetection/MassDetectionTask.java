@@ -19,7 +19,12 @@
 
 package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection;
 
-import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.datamodel.DataPoint;
@@ -31,6 +36,7 @@ import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.modules.MZmineProcessingStep;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 
 public class MassDetectionTask extends AbstractTask {
@@ -44,6 +50,7 @@ public class MassDetectionTask extends AbstractTask {
 
     // User parameters
     private String name;
+    private boolean parallel;
 
     // Mass detector
     private MZmineProcessingStep<MassDetector> massDetector;
@@ -59,6 +66,8 @@ public class MassDetectionTask extends AbstractTask {
 		massDetector = parameters.getParameter(MassDetectionParameters.massDetector).getValue();
 		msLevel      = parameters.getParameter(MassDetectionParameters.msLevel).getValue();
 		name         = parameters.getParameter(MassDetectionParameters.name).getValue();
+		Boolean parallelValue = parameters.getParameter(MassDetectionParameters.parallel).getValue();
+		parallel     = (parallelValue != null) && parallelValue;
     }
 
     /**
@@ -94,7 +103,7 @@ public class MassDetectionTask extends AbstractTask {
 		totalSteps = scanNumbers.length + 2;			// add one for the job start & finish calls
 
 		// get the selected scans for this data file
-		ArrayList<Scan> selectedScans = new ArrayList<Scan>();
+		HashSet<Scan> selectedScans = new HashSet<Scan>();
 		MainWindow mainWindow = (MainWindow) MZmineCore.getDesktop();
 		Scan scans[] = mainWindow.getMainPanel().getRawDataTree().getSelectedObjects(Scan.class);
 		for (Scan scan : scans)	// for all selected scans
@@ -116,32 +125,106 @@ public class MassDetectionTask extends AbstractTask {
 		name       = detector.filterTargetName(name);	// get the target name, the detector may change it
 	    step += 1;
 
-		// Process all scans one by one
+		if (parallel && detector.isParallelSafe())
+		    processScansInParallel(detector, job, scanNumbers, selectedScans);
+		else
+		    processScans(detector, job, scanNumbers, selectedScans);
+
+		if (isCanceled())
+		    return;
+
+		// finish the job
+		detector.finishMassValuesJob(job);
+	    step += 1;
+
+		setStatus(TaskStatus.FINISHED);
+		logger.info("Finished " + detector.getName() + " mass detector on " + dataFile);
+    }
+
+    /**
+     * Process all scans one by one
+     */
+    private void processScans(MassDetector detector, String job, int scanNumbers[], HashSet<Scan> selectedScans)
+    {
 		for (int i = 0; i < scanNumbers.length; i++)
 		{
 		    if (isCanceled())
 		    	return;
 
 		    Scan scan = dataFile.getScan(scanNumbers[i]);
-    		boolean selected = selectedScans.remove(scan);
+    		boolean selected = selectedScans.contains(scan);
 
 		    // give the detector all scans but tell it which ones to process
 		    // some detectors run a second pass where the selected list is incorrect but they know which scans to process
 		    DataPoint mzPeaks[] = detector.getMassValues(scan, selected, job, massDetector.getParameterSet());
-		    if (mzPeaks != null)
-		    {
-		    	SimpleMassList newMassList = new SimpleMassList(name, scan, mzPeaks);
-			    scan.addMassList(newMassList);	// Add new mass list to the scan
-		    }
+		    addMassList(scan, mzPeaks);
 		    step += 1;
 		}
+    }
 
-		// finish the job
-		detector.finishMassValuesJob(job);
-	    step += 1;
+    /**
+     * Process the scans as sub-tasks on the worker threads of the task
+     * controller. The mass lists are still added
+     * to the scans in scan order, by this thread. Only a limited number of
+     * scans is processed ahead, so the detected masses waiting to be added do
+     * not fill the memory.
+     */
+    private void processScansInParallel(final MassDetector detector, final String job, int scanNumbers[], HashSet<Scan> selectedScans)
+    {
+		final int numOfThreads = MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+		final int maxPendingScans = numOfThreads * 4;
+		logger.info("Detecting masses of " + dataFile + " in parallel");
 
-		setStatus(TaskStatus.FINISHED);
-		logger.info("Finished " + detector.getName() + " mass detector on " + dataFile);
+		TaskController taskController = MZmineCore.getTaskController();
+		LinkedList<Scan> pendingScans = new LinkedList<Scan>();
+		LinkedList<Future<DataPoint[]>> pendingResults = new LinkedList<Future<DataPoint[]>>();
+
+		try {
+		    int nextScan = 0;
+		    while ((nextScan < scanNumbers.length) || (!pendingResults.isEmpty()))
+		    {
+				if (isCanceled())
+				    return;
+
+				// Keep the workers busy
+				while ((nextScan < scanNumbers.length) && (pendingResults.size() < maxPendingScans))
+				{
+				    final Scan scan = dataFile.getScan(scanNumbers[nextScan++]);
+				    final boolean selected = selectedScans.contains(scan);
+				    pendingScans.add(scan);
+				    pendingResults.add(taskController.submitSubTask(new Callable<DataPoint[]>() {
+						public DataPoint[] call() {
+						    return detector.getMassValues(scan, selected, job, massDetector.getParameterSet());
+						}
+				    }));
+				}
+
+				// Add the mass list of the oldest scan
+				Scan scan = pendingScans.removeFirst();
+				DataPoint mzPeaks[] = taskController.joinSubTask(pendingResults.removeFirst());
+				addMassList(scan, mzPeaks);
+				step += 1;
+		    }
+		} catch (InterruptedException e) {
+		    setStatus(TaskStatus.ERROR);
+		    errorMessage = "Mass detection of " + dataFile + " was interrupted";
+		} catch (ExecutionException e) {
+		    logger.log(Level.SEVERE, "Mass detection of " + dataFile + " failed", e.getCause());
+		    setStatus(TaskStatus.ERROR);
+		    errorMessage = "Mass detection of " + dataFile + " failed: " + e.getCause();
+		} finally {
+		    for (Future<DataPoint[]> pendingResult : pendingResults)
+		    	pendingResult.cancel(false);
+		}
+    }
+
+    private void addMassList(Scan scan, DataPoint mzPeaks[])
+    {
+		if (mzPeaks != null)
+		{
+		    SimpleMassList newMassList = new SimpleMassList(name, scan, mzPeaks);
+		    scan.addMassList(newMassList);	// Add new mass list to the scan
+		}
     }
 
     public Object[] getCreatedObjects()
@@ -71,4 +71,13 @@ public interface MassDetector extends MZmineModule {
 	 */
 	public void finishMassValuesJob(String job);
 
+	/**
+	 * Returns true if getMassValues() may be called for several scans of the
+	 * same job at the same time, from different threads. Detectors which keep
+	 * state between the scans of a job must return false.
+	 * 
+	 * @return
+	 */
+	public boolean isParallelSafe();
+
 }
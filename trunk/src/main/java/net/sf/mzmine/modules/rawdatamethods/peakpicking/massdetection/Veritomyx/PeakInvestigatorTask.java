@@ -19,34 +19,18 @@
 
 package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.Veritomyx;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
-import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.desktop.preferences.MZminePreferences;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.parameters.ParameterSet;
 import net.sf.mzmine.util.ExitCode;
-import net.sf.mzmine.util.FileChecksum;
-
-import org.xeustechnologies.jtar.TarEntry;
-import org.xeustechnologies.jtar.TarInputStream;
-import org.xeustechnologies.jtar.TarOutputStream;
 
 import veritomyxSaaS.VeritomyxSaaS;
 
@@ -71,7 +55,8 @@ public class PeakInvestigatorTask
 	private String          username;
 	private String          password;
 	private int             aid;
-	private TarOutputStream tarfile;
+	private ScanBundleWriter bundle;
+	private ScanResultsReader results;
 	private RawDataFile     rawDataFile;
 	private int             errors;
 
@@ -81,7 +66,8 @@ public class PeakInvestigatorTask
 		logger.setLevel(MZmineCore.VtmxDebug ? Level.INFO : Level.FINEST);
 		logger.info("Initializing PeakInvestigator™ Task");
 		jobID   = null;
-		tarfile = null;
+		bundle  = null;
+		results = null;
 		desc    = "initializing";
 
 		// pickup all the parameters
@@ -194,7 +180,7 @@ public class PeakInvestigatorTask
 		logger.info("Preparing to launch new job, " + jobID);
 		scanCnt = 0;
 		try {
-			tarfile = new TarOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(intputFilename))));
+			bundle = new ScanBundleWriter(intputFilename);
 		} catch (IOException e) {
 			logger.finest(e.getMessage());
 			MZmineCore.getDesktop().displayErrorMessage("Error", "Cannot create scans bundle file", logger);
@@ -216,21 +202,9 @@ public class PeakInvestigatorTask
 		// ########################################################################
 		// Export all scans to remote processor
 		try {
-			// export the scan to a file
+			// format the scan directly into the tar file
 			String filename = jobID + "_scan_" + String.format("%04d", scan_num) + ".txt";
-			scan.exportToFile("", "", filename);
-
-			// put the exported scan into the tar file
-			File f = new File(filename);
-			tarfile.putNextEntry(new TarEntry(f, filename));
-			BufferedInputStream origin = new BufferedInputStream(new FileInputStream(f));
-			int count;
-			byte data[] = new byte[2048];
-			while ((count = origin.read(data)) != -1)
-				tarfile.write(data, 0, count);
-			origin.close();
-			f.delete();			// remove the local copy of the scan file
-			tarfile.flush();
+			bundle.putScan(scan, filename);
 			scanCnt += 1;		// count this scan
 		} catch (IOException e) {
 			logger.finest(e.getMessage());
@@ -247,7 +221,7 @@ public class PeakInvestigatorTask
 	{
 		desc = "finishing launch";
 		try {
-			tarfile.close();
+			bundle.close();
 		} catch (IOException e) {
 			logger.finest(e.getMessage());
 			MZmineCore.getDesktop().displayErrorMessage("Error", "Cannot close scans bundle file.", logger);
@@ -266,7 +240,7 @@ public class PeakInvestigatorTask
 
 		// job was started - record it
 		logger.info("Job, " + jobID + ", launched");
-		rawDataFile.addJob(jobID, rawDataFile, targetName, vtmx);	// record this job start
+		rawDataFile.addJob(jobID, rawDataFile, targetName);	// record this job start
 		logger.finest(vtmx.getPageStr().split(" ",2)[1]);
 		File f = new File(intputFilename);
 		f.delete();			// remove the local copy of the tar file
@@ -318,23 +292,9 @@ public class PeakInvestigatorTask
 		logger.info("Reading centroided data, " + outputFilename + ", from SFTP drop...");
 		if (vtmx.getFile(outputFilename))
 		{
-			TarInputStream tis = null;
-			FileOutputStream outputStream = null;
+			results = new ScanResultsReader(jobID);
 			try {
-				tis = new TarInputStream(new GZIPInputStream(new FileInputStream(outputFilename)));
-				TarEntry tf;
-				int bytesRead;
-				byte buf[] = new byte[1024];
-				while ((tf = tis.getNextEntry()) != null)
-				{
-					if (tf.isDirectory()) continue;
-					logger.info("Reading peaks data to " + tf.getName() + " - " + tf.getSize() + " bytes");
-					outputStream = new FileOutputStream(tf.getName());
-					while ((bytesRead = tis.read(buf, 0, 1024)) > -1)
-						outputStream.write(buf, 0, bytesRead);
-					outputStream.close();
-				}
-				tis.close();
+				results.read(outputFilename);
 				File f = new File(outputFilename);
 				f.delete();			// remove the local copy of the results tar file
 			} catch (Exception e1) {
@@ -342,9 +302,6 @@ public class PeakInvestigatorTask
 				MZmineCore.getDesktop().displayErrorMessage("Error", "Cannot parse results file", logger);
 				errors++;
 				e1.printStackTrace();
-			} finally {
-				try { tis.close(); } catch (Exception e) {}
-				try { outputStream.close(); } catch (Exception e) {}
 			}
 		}
 		desc = "results downloaded";
@@ -362,35 +319,17 @@ public class PeakInvestigatorTask
 			return null;
 
 		desc = "parsing scan " + scan_num;
-		List<DataPoint> mzPeaks = null;
+		DataPoint[] mzPeaks = null;
 
-		// read in the peaks for this scan
-		// convert filename to expected peak file name
+		// take the peaks for this scan from the results bundle
+		// scans might not be included in original processing
 		String pfilename = jobID + "_scan_" + String.format("%04d", scan_num) + ".vcent.txt";
 		logger.info("Parsing peaks data from " + pfilename);
 		try
 		{
-			File centfile = new File(pfilename);
-			FileChecksum fchksum = new FileChecksum(centfile);
-			if (!fchksum.verify(false))
-				throw new IOException("Invalid checksum");
-	
-			List<String> lines = fchksum.getFileStrings();
-			mzPeaks = new ArrayList<DataPoint>();
-			for (String line:lines)
-			{
-				if (line.startsWith("#") || line.isEmpty())	// skip comment lines
-					continue;
-	
-				Scanner sc = new Scanner(line);
-				double mz  = sc.nextDouble();
-				double y   = sc.nextDouble();
-				mzPeaks.add(new SimpleDataPoint(mz, y));
-				sc.close();
-			}
-			centfile.delete();	// delete the temporary results peaks list file
+			if (results != null)
+				mzPeaks = results.takeScan(scan_num);
 		}
-		catch (FileNotFoundException e) { /* expect some scans might not be included in original processing */ }
 		catch (Exception e)
 		{
 			logger.finest(e.getMessage());
@@ -398,7 +337,7 @@ public class PeakInvestigatorTask
 		}
 
 		desc = "scan " + scan_num + " parsed";
-		return (mzPeaks == null) ? null : mzPeaks.toArray(new DataPoint[0]);
+		return mzPeaks;
 	}
 
 	/**
@@ -406,6 +345,8 @@ public class PeakInvestigatorTask
 	 */
 	private void finishRetrieve()
 	{
+		if (results != null)
+			results.cancel();	// drop the results of scans which were not processed
 		if (errors > 0)
 			return;
 
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013-2014 Veritomyx
+ *
+ * This file is part of MZminePI.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.Veritomyx;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.util.FileChecksum;
+import net.sf.mzmine.util.Range;
+
+import org.xeustechnologies.jtar.TarEntry;
+import org.xeustechnologies.jtar.TarOutputStream;
+
+/**
+ * Writes the scans bundle of a PeakInvestigator job.
+ *
+ * Each scan is formatted the same way as Scan.exportToFile() writes it,
+ * including the trailing checksum line, but directly into its entry of the
+ * gzip'd tar file. The checksum is computed line by line while the entry is
+ * formatted, so no scan file is ever written to disk and read back.
+ * A tar header must contain the size of its entry, therefore each entry is
+ * formatted into a buffer (reused for all scans) before it is written.
+ *
+ * @author dschmidt
+ *
+ */
+public class ScanBundleWriter
+{
+	private final TarOutputStream       tarfile;
+	private final ByteArrayOutputStream entry;		// formatted entry, reused for all scans
+	private final StringBuilder         line;
+	private double[]                    mzValues;
+	private double[]                    intensityValues;
+
+	/**
+	 * Create the bundle file
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public ScanBundleWriter(String filename) throws IOException
+	{
+		tarfile         = new TarOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(filename))));
+		entry           = new ByteArrayOutputStream(64 * 1024);
+		line            = new StringBuilder(64);
+		mzValues        = new double[0];
+		intensityValues = new double[0];
+	}
+
+	/**
+	 * Add the scan to the bundle as the given entry name
+	 *
+	 * @param scan
+	 * @param filename
+	 * @return number of data points written
+	 * @throws IOException
+	 */
+	public int putScan(Scan scan, String filename) throws IOException
+	{
+		int num = scan.getNumberOfDataPoints();
+		if (mzValues.length < num)
+		{
+			mzValues        = new double[num];
+			intensityValues = new double[num];
+		}
+		num = scan.getDataPoints(mzValues, intensityValues);
+
+		FileChecksum chksum;
+		try {
+			chksum = new FileChecksum();
+		} catch (Exception e) {
+			throw new IOException("Cannot compute scan checksum", e);
+		}
+
+		// format the scan and its checksum
+		Range mzRange = scan.getMZRange();
+		entry.reset();
+		writeLine(chksum, "# Scan Number: "      + scan.getScanNumber());
+		writeLine(chksum, "# Scan MS Level: "    + scan.getMSLevel());
+		writeLine(chksum, "# Scan Data Points: " + num);
+		writeLine(chksum, "# Scan Mass Range: "  + mzRange.getSize());
+		writeLine(chksum, "# Scan Min Mass: "    + mzRange.getMin());
+		writeLine(chksum, "# Scan Max Mass: "    + mzRange.getMax());
+		writeLine(chksum, "");
+		for (int p = 0; p < num; p++)
+		{
+			line.setLength(0);
+			line.append(mzValues[p]).append('\t').append(intensityValues[p]);
+			writeLine(chksum, line.toString());
+		}
+		entry.write(chksum.checksum_line().getBytes());
+
+		// the entry is named after a file that does not exist, so set its size and time explicitly
+		TarEntry tarEntry = new TarEntry(new File(filename), filename);
+		tarEntry.setSize(entry.size());
+		tarEntry.setModTime(System.currentTimeMillis());
+		tarfile.putNextEntry(tarEntry);
+		entry.writeTo(tarfile);
+		return num;
+	}
+
+	/**
+	 * Finish the bundle file
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		tarfile.close();
+	}
+
+	/**
+	 * Add one line to the entry and to its checksum
+	 *
+	 * @param chksum
+	 * @param text
+	 */
+	private void writeLine(FileChecksum chksum, String text)
+	{
+		chksum.hash_line(text);
+		byte[] bytes = text.getBytes();
+		entry.write(bytes, 0, bytes.length);
+		entry.write('\n');
+	}
+
+}
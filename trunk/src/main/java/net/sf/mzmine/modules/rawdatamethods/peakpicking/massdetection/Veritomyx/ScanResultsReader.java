@@ -0,0 +1,226 @@
+/*
+ * Copyright 2013-2014 Veritomyx
+ *
+ * This file is part of MZminePI.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.Veritomyx;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.util.FileChecksum;
+
+import org.xeustechnologies.jtar.TarEntry;
+import org.xeustechnologies.jtar.TarInputStream;
+
+/**
+ * Reads the results bundle of a PeakInvestigator job.
+ *
+ * The entries of the gzip'd tar file are read one after the other straight
+ * from the archive, no file is extracted. Each entry is then verified and
+ * parsed by a sub-task of the task controller, so the scans are parsed in
+ * parallel while the archive is still being read. The checksum is computed
+ * line by line while the entry is parsed.
+ *
+ * @author dschmidt
+ *
+ */
+public class ScanResultsReader
+{
+	private Logger                                 logger;
+	private String                                 prefix;		// entry name prefix before the scan number
+	private String                                 suffix;		// entry name suffix after the scan number
+	private HashMap<Integer, Future<DataPoint[]>> results;		// parsed peaks by scan number
+
+	/**
+	 * @param jobID
+	 */
+	public ScanResultsReader(String jobID)
+	{
+		logger  = Logger.getLogger(this.getClass().getName());
+		prefix  = jobID + "_scan_";
+		suffix  = ".vcent.txt";
+		results = new HashMap<Integer, Future<DataPoint[]>>();
+	}
+
+	/**
+	 * Read all entries of the results bundle and start parsing them
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public void read(String filename) throws IOException
+	{
+		TarInputStream tis = new TarInputStream(new GZIPInputStream(new FileInputStream(filename)));
+		try {
+			TarEntry tf;
+			while ((tf = tis.getNextEntry()) != null)
+			{
+				if (tf.isDirectory()) continue;
+				String name = tf.getName();
+				if (!name.startsWith(prefix) || !name.endsWith(suffix))
+				{
+					logger.info("Skipping unexpected entry " + name);
+					continue;
+				}
+				int scan_num;
+				try {
+					scan_num = Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length()));
+				} catch (NumberFormatException e) {
+					logger.info("Skipping unexpected entry " + name);
+					continue;
+				}
+
+				logger.info("Reading peaks data from " + name + " - " + tf.getSize() + " bytes");
+				final byte[] data = new byte[(int) tf.getSize()];
+				int offset = 0;
+				while (offset < data.length)
+				{
+					int bytesRead = tis.read(data, offset, data.length - offset);
+					if (bytesRead < 0)
+						throw new EOFException("Unexpected end of entry " + name);
+					offset += bytesRead;
+				}
+
+				Future<DataPoint[]> result = MZmineCore.getTaskController().submitSubTask(new Callable<DataPoint[]>() {
+					public DataPoint[] call() throws Exception { return parse(data); }
+				});
+				results.put(scan_num, result);
+			}
+		} catch (IOException e) {
+			cancel();
+			throw e;
+		} finally {
+			tis.close();
+		}
+	}
+
+	/**
+	 * Return the peaks of the given scan, waiting for them to be parsed if needed.
+	 * Each scan can be taken only once.
+	 *
+	 * @param scan_num
+	 * @return peaks, or null if the scan is not included in the results
+	 * @throws Exception
+	 */
+	public DataPoint[] takeScan(int scan_num) throws Exception
+	{
+		Future<DataPoint[]> result = results.remove(scan_num);
+		if (result == null)
+			return null;
+		try {
+			return MZmineCore.getTaskController().joinSubTask(result);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw (cause instanceof Exception) ? (Exception) cause : e;
+		}
+	}
+
+	/**
+	 * Drop the scans which were not taken
+	 */
+	public void cancel()
+	{
+		for (Future<DataPoint[]> result : results.values())
+			result.cancel(false);
+		results.clear();
+	}
+
+	/**
+	 * Verify and parse one entry of the results bundle.
+	 * Comment lines start with '#', peak lines contain the m/z and the intensity.
+	 *
+	 * @param data
+	 * @return
+	 * @throws Exception
+	 */
+	private static DataPoint[] parse(byte[] data) throws Exception
+	{
+		FileChecksum chksum = new FileChecksum();
+		String fsum = null;		// hash read from the entry
+		double[] mzValues        = new double[64];
+		double[] intensityValues = new double[64];
+		int num = 0;
+
+		int start = 0;
+		while (start < data.length)
+		{
+			int end = start;
+			while ((end < data.length) && (data[end] != '\n'))
+				end++;
+			int len = end - start;
+			if ((len > 0) && (data[start + len - 1] == '\r'))
+				len--;
+			String line = new String(data, start, len);
+			start = end + 1;
+
+			if (line.startsWith(chksum.prefix))
+			{
+				fsum = line.substring(chksum.prefix.length());
+				continue;
+			}
+			chksum.hash_line(line);
+			if (line.startsWith("#") || line.isEmpty())	// skip comment lines
+				continue;
+
+			if (num == mzValues.length)
+			{
+				mzValues        = Arrays.copyOf(mzValues, num * 2);
+				intensityValues = Arrays.copyOf(intensityValues, num * 2);
+			}
+			int mzEnd            = skipToken(line, 0);
+			int yStart           = skipSpace(line, mzEnd);
+			mzValues[num]        = Double.parseDouble(line.substring(0, mzEnd));
+			intensityValues[num] = Double.parseDouble(line.substring(yStart, skipToken(line, yStart)));
+			num++;
+		}
+
+		if (!chksum.checksum().equals(fsum))
+			throw new IOException("Invalid checksum");
+
+		DataPoint[] peaks = new DataPoint[num];
+		for (int i = 0; i < num; i++)
+			peaks[i] = new SimpleDataPoint(mzValues[i], intensityValues[i]);
+		return peaks;
+	}
+
+	private static int skipToken(String line, int pos)
+	{
+		while ((pos < line.length()) && !Character.isWhitespace(line.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
+	private static int skipSpace(String line, int pos)
+	{
+		while ((pos < line.length()) && Character.isWhitespace(line.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
+}
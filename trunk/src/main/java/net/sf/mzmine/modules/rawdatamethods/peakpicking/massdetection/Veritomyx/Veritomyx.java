@@ -20,7 +20,7 @@
 package net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.Veritomyx;
 
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,7 +34,7 @@ import net.sf.mzmine.parameters.ParameterSet;
 public class Veritomyx implements MassDetector
 {
 	private Logger logger;	
-	private ArrayList<PeakInvestigatorTask> jobs;
+	private ConcurrentHashMap<String, PeakInvestigatorTask> jobs;	// running jobs by name
 	private String desc;
 
 	public Veritomyx()
@@ -42,7 +42,7 @@ public class Veritomyx implements MassDetector
 		logger = Logger.getLogger(this.getClass().getName());
 		logger.setLevel(MZmineCore.VtmxDebug ? Level.INFO : Level.FINEST);
 		logger.info("Initializing Veritomyx " + this.getName());
-		jobs = new ArrayList<PeakInvestigatorTask>();
+		jobs = new ConcurrentHashMap<String, PeakInvestigatorTask>();
 	}
 
 	public String getName() { return "PeakInvestigator™"; }
@@ -112,7 +112,7 @@ public class Veritomyx implements MassDetector
 		logger.finest("startMassValuesJob " + filterJobName(name) + " - " + job_name + " - " + ((job != null) ? job.getDesc() : "nojob"));
 		if (job_name != null)
 		{
-			jobs.add(job);
+			jobs.put(job_name, job);
 			job.start();
 		}
 		return job_name;
@@ -153,10 +153,16 @@ public class Veritomyx implements MassDetector
 		if (job != null)
 		{
 			job.finish();
-			jobs.remove(job);
+			jobs.remove(job_name);
 		}
 	}
 
+	/**
+	 * Scans of a job are exported to the job as they come, so they must be
+	 * processed one by one
+	 */
+	public boolean isParallelSafe() { return false; }
+
 	/**
 	 * Retrieve the job task from a job name
 	 * 
@@ -165,13 +171,7 @@ public class Veritomyx implements MassDetector
 	 */
 	private PeakInvestigatorTask getJobFromName(String jobName)
 	{
-		// get the job from jobs list using the jobName
-		for (PeakInvestigatorTask job:jobs)
-		{
-			if (job.getName().equals(jobName))
-				return job;
-		}
-		return null;
+		return (jobName != null) ? jobs.get(jobName) : null;
 	}
 
 }
\ No newline at end of file
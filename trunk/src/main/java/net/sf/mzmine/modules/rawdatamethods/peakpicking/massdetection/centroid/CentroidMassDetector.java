@@ -26,6 +26,7 @@ import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetector;
 import net.sf.mzmine.parameters.ParameterSet;
 
@@ -43,14 +44,19 @@ public class CentroidMassDetector implements MassDetector {
 	
 		ArrayList<DataPoint> mzPeaks = new ArrayList<DataPoint>();
 	
-		DataPoint dataPoints[] = scan.getDataPoints();
+		// Read the raw values into primitive arrays, so we only create
+		// DataPoint objects for the detected peaks
+		final int numOfDataPoints = scan.getNumberOfDataPoints();
+		double mzValues[] = new double[numOfDataPoints];
+		double intensityValues[] = new double[numOfDataPoints];
+		final int length = scan.getDataPoints(mzValues, intensityValues);
 	
 		// Find possible mzPeaks
-		for (int j = 0; j < dataPoints.length; j++) {
+		for (int j = 0; j < length; j++) {
 		    // Is intensity above the noise level?
-		    if (dataPoints[j].getIntensity() >= noiseLevel) {
+		    if (intensityValues[j] >= noiseLevel) {
 				// Yes, then mark this index as mzPeak
-				mzPeaks.add(dataPoints[j]);
+				mzPeaks.add(new SimpleDataPoint(mzValues[j], intensityValues[j]));
 		    }
 		}
 		return mzPeaks.toArray(new DataPoint[0]);
@@ -64,4 +70,5 @@ public class CentroidMassDetector implements MassDetector {
     }
 
 	public void finishMassValuesJob(String job) {}
+	public boolean isParallelSafe() { return true; }
 }
@@ -253,5 +253,6 @@ public class ExactMassDetector implements MassDetector {
     }
 
 	public void finishMassValuesJob(String job) {}
+	public boolean isParallelSafe() { return true; }
 
 }
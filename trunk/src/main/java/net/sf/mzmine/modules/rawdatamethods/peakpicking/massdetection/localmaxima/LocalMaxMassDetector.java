@@ -26,6 +26,7 @@ import javax.annotation.Nonnull;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.modules.rawdatamethods.peakpicking.massdetection.MassDetector;
 import net.sf.mzmine.parameters.ParameterSet;
 
@@ -49,23 +50,25 @@ public class LocalMaxMassDetector implements MassDetector {
 		// List of found mz peaks
 		ArrayList<DataPoint> mzPeaks = new ArrayList<DataPoint>();
 	
-		DataPoint dataPoints[] = scan.getDataPoints();
+		// Read the raw values into primitive arrays, so we only create
+		// DataPoint objects for the detected peaks
+		final int numOfDataPoints = scan.getNumberOfDataPoints();
+		double mzValues[] = new double[numOfDataPoints];
+		double intensityValues[] = new double[numOfDataPoints];
+		final int length = scan.getDataPoints(mzValues, intensityValues);
 	
-		// All data points of current m/z peak
-	
-		// Top data point of current m/z peak
-		DataPoint currentMzPeakTop = null;
+		// Index of the top data point of current m/z peak
+		int currentMzPeakTop = -1;
 	
 		// True if we haven't reached the current local maximum yet
 		boolean ascending = true;
 	
 		// Iterate through all data points
-		for (int i = 0; i < dataPoints.length - 1; i++) {
+		for (int i = 0; i < length - 1; i++) {
 	
-		    boolean nextIsBigger = dataPoints[i + 1].getIntensity() > dataPoints[i]
-			    .getIntensity();
-		    boolean nextIsZero = dataPoints[i + 1].getIntensity() == 0;
-		    boolean currentIsZero = dataPoints[i].getIntensity() == 0;
+		    boolean nextIsBigger = intensityValues[i + 1] > intensityValues[i];
+		    boolean nextIsZero = intensityValues[i + 1] == 0;
+		    boolean currentIsZero = intensityValues[i] == 0;
 	
 		    // Ignore zero intensity regions
 		    if (currentIsZero)
@@ -73,19 +76,20 @@ public class LocalMaxMassDetector implements MassDetector {
 	
 		    // Check for local maximum
 		    if (ascending && (!nextIsBigger)) {
-			currentMzPeakTop = dataPoints[i];
+			currentMzPeakTop = i;
 			ascending = false;
 			continue;
 		    }
 	
-		    assert currentMzPeakTop != null;
+		    assert currentMzPeakTop >= 0;
 	
 		    // Check for the end of the peak
 		    if ((!ascending) && (nextIsBigger || nextIsZero)) {
 	
 			// Add the m/z peak if it is above the noise level
-			if (currentMzPeakTop.getIntensity() > noiseLevel) {
-			    mzPeaks.add(currentMzPeakTop);
+			if (intensityValues[currentMzPeakTop] > noiseLevel) {
+			    mzPeaks.add(new SimpleDataPoint(mzValues[currentMzPeakTop],
+				    intensityValues[currentMzPeakTop]));
 			}
 	
 			// Reset and start with new peak
@@ -108,5 +112,6 @@ public class LocalMaxMassDetector implements MassDetector {
     }
 
 	public void finishMassValuesJob(String job) {}
+	public boolean isParallelSafe() { return true; }
 
 }
@@ -163,5 +163,6 @@ public class RecursiveMassDetector implements MassDetector {
 	}
 
 	public void finishMassValuesJob(String job) {}
+	public boolean isParallelSafe() { return true; }
 
 }
@@ -234,5 +234,6 @@ public class WaveletMassDetector implements MassDetector {
     }
 
 	public void finishMassValuesJob(String job) {}
+	public boolean isParallelSafe() { return true; }
 
 }
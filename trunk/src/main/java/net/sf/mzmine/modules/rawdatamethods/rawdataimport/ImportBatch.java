@@ -0,0 +1,320 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.main.MZmineCore;
+
+/**
+ * Files imported by one invocation of the raw data import module.
+ *
+ * The number of files read at the same time from one disk is limited by the
+ * "Concurrent file readers per disk" preference, shared by all batches, so
+ * that many files imported at once do not make the disk seek back and forth
+ * between them. Imports which cannot read their file yet are queued by disk
+ * and give their worker thread back, so the other workers are free e.g. for
+ * the decoding of mzML spectra. When a file has been read, the next queued
+ * import of the disk continues on a reader thread of its own, because reading
+ * waits mostly for the disk. The preference is read again whenever a reader is
+ * acquired or released, so a changed value applies to the imports in
+ * progress.
+ *
+ * When all files of the batch are imported, the total throughput (MB/s and
+ * scans/s) is logged.
+ */
+class ImportBatch {
+
+    private static final Logger logger = Logger.getLogger(ImportBatch.class
+	    .getName());
+
+    /*
+     * Threads reading the files of queued imports. The number of these threads
+     * is bounded by the number of disks times the readers allowed per disk.
+     */
+    private static final ThreadPoolExecutor READER_EXECUTOR = new ThreadPoolExecutor(
+	    0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+	    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread thread = new Thread(r, "Raw data file reader");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+
+    // Readers of each disk, by device, guarded by itself
+    private static final Map<String, DiskReaders> diskReaders = new HashMap<String, DiskReaders>();
+
+    /**
+     * Number of files being read from one disk, and the imports waiting for
+     * their turn. Guarded by itself.
+     */
+    private static class DiskReaders {
+	int numOfReaders;
+	final LinkedList<RawDataImportTask> waitingImports = new LinkedList<RawDataImportTask>();
+    }
+
+    private int numOfFiles, numOfFinishedFiles, numOfImportedFiles;
+    private long startTime = -1, totalBytes, totalScans;
+
+    // Mount points and devices, longest mount point first (Linux only)
+    private final List<String[]> mounts;
+
+    ImportBatch() {
+	this.mounts = readMounts();
+    }
+
+    /**
+     * Adds a file to the batch. All files must be added before any of them is
+     * imported.
+     */
+    synchronized void addFile() {
+	numOfFiles++;
+    }
+
+    /**
+     * Acquires a reader of the disk containing given file, or queues the import
+     * until a reader is released. A queued import continues by its
+     * readQueued() method on a reader thread.
+     *
+     * @return true if the file may be read now
+     */
+    boolean acquireReader(File file, RawDataImportTask task) {
+	DiskReaders readers = getReaders(file);
+	synchronized (readers) {
+	    readers.waitingImports.add(task);
+	}
+	List<RawDataImportTask> startedImports = startWaitingImports(readers,
+		task);
+	return startedImports.remove(task);
+    }
+
+    /**
+     * Releases the reader acquired for given file, and starts the waiting
+     * imports of its disk
+     */
+    void releaseReader(File file) {
+	DiskReaders readers = getReaders(file);
+	synchronized (readers) {
+	    readers.numOfReaders--;
+	}
+	startWaitingImports(readers, null);
+    }
+
+    /**
+     * Removes a canceled import from the queue of its disk, or stops its
+     * queued read if that has not started yet. The import then never reads
+     * its file, so it is finished here.
+     */
+    void cancelQueued(File file, RawDataImportTask task) {
+
+	DiskReaders readers = getReaders(file);
+	boolean queued;
+	synchronized (readers) {
+	    queued = readers.waitingImports.remove(task);
+	}
+
+	if (!queued) {
+	    // A read which has started ends by itself
+	    Future<?> queuedRead = task.getQueuedRead();
+	    if ((queuedRead == null) || (!queuedRead.cancel(false)))
+		return;
+	    releaseReader(file);
+	}
+
+	fileFinished(file, -1);
+	MZmineCore.getTaskController().taskFinished(task);
+    }
+
+    /**
+     * Called when the reading of a file starts
+     */
+    synchronized void readingStarted() {
+	if (startTime < 0)
+	    startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Called when the import of a file has ended, whether it succeeded or not
+     *
+     * @param numOfScans
+     *            number of imported scans, or -1 if the import failed
+     */
+    void fileFinished(File file, int numOfScans) {
+
+	synchronized (this) {
+	    numOfFinishedFiles++;
+	    if (numOfScans >= 0) {
+		numOfImportedFiles++;
+		totalBytes += file.length();
+		totalScans += numOfScans;
+	    }
+	    if ((numOfFinishedFiles < numOfFiles) || (startTime < 0)
+		    || (numOfImportedFiles == 0))
+		return;
+	}
+
+	double seconds = Math.max(System.currentTimeMillis() - startTime, 1) / 1000d;
+	double megabytes = totalBytes / (1024d * 1024d);
+	logger.info(String.format(
+		"Imported %d files (%.1f MB, %d scans) in %.1f s: %.1f MB/s, %.0f scans/s",
+		numOfImportedFiles, megabytes, totalScans, seconds, megabytes
+			/ seconds, totalScans / seconds));
+    }
+
+    /**
+     * Gives the free readers of given disk to its waiting imports, as many as
+     * the preferences allow. The imports are continued on reader threads,
+     * except the given one, which the caller continues itself.
+     *
+     * @return the started imports
+     */
+    private static List<RawDataImportTask> startWaitingImports(
+	    DiskReaders readers, RawDataImportTask callerTask) {
+
+	int maxReaders = MZmineCore.getConfiguration().getPreferences()
+		.getNumOfReadersPerDisk();
+	List<RawDataImportTask> startedImports = new ArrayList<RawDataImportTask>();
+	synchronized (readers) {
+	    while ((readers.numOfReaders < maxReaders)
+		    && (!readers.waitingImports.isEmpty())) {
+		readers.numOfReaders++;
+		startedImports.add(readers.waitingImports.removeFirst());
+	    }
+	}
+
+	for (final RawDataImportTask task : startedImports) {
+	    if (task == callerTask)
+		continue;
+	    task.setQueuedRead(READER_EXECUTOR.submit(new Callable<Object>() {
+		public Object call() {
+		    task.readQueued();
+		    return null;
+		}
+	    }));
+	}
+	return startedImports;
+    }
+
+    /**
+     * Returns the readers of the disk containing given file
+     */
+    private DiskReaders getReaders(File file) {
+	String device = getDevice(file);
+	synchronized (diskReaders) {
+	    DiskReaders readers = diskReaders.get(device);
+	    if (readers == null) {
+		readers = new DiskReaders();
+		diskReaders.put(device, readers);
+	    }
+	    return readers;
+	}
+    }
+
+    /**
+     * Returns an identifier of the disk containing given file: the device of
+     * the longest mount point containing the file on Linux, or the file system
+     * root (e.g. the drive on Windows) elsewhere
+     */
+    private String getDevice(File file) {
+
+	String path;
+	try {
+	    path = file.getCanonicalPath();
+	} catch (IOException e) {
+	    path = file.getAbsolutePath();
+	}
+
+	for (String mount[] : mounts) {
+	    String mountPoint = mount[0];
+	    if (path.equals(mountPoint)
+		    || path.startsWith(mountPoint.endsWith("/") ? mountPoint
+			    : mountPoint + "/"))
+		return mount[1];
+	}
+
+	for (File root : File.listRoots()) {
+	    if (path.toLowerCase().startsWith(root.getPath().toLowerCase()))
+		return root.getPath();
+	}
+	return "";
+    }
+
+    /**
+     * Reads the mount points from /proc/mounts, if it exists
+     *
+     * @return mount point and device pairs, longest mount point first
+     */
+    private static List<String[]> readMounts() {
+
+	List<String[]> mounts = new ArrayList<String[]>();
+	File mountsFile = new File("/proc/mounts");
+	if (!mountsFile.canRead())
+	    return mounts;
+
+	try {
+	    BufferedReader reader = new BufferedReader(new FileReader(
+		    mountsFile));
+	    try {
+		String line;
+		while ((line = reader.readLine()) != null) {
+		    String fields[] = line.split(" ");
+		    if (fields.length < 2)
+			continue;
+		    // Spaces in the mount point are escaped as \040
+		    String mountPoint = fields[1].replace("\\040", " ");
+		    mounts.add(new String[] { mountPoint, fields[0] });
+		}
+	    } finally {
+		reader.close();
+	    }
+	} catch (IOException e) {
+	    logger.warning("Could not read the mount points: " + e);
+	}
+
+	// Later mounts hide earlier ones on the same mount point
+	List<String[]> sorted = new ArrayList<String[]>();
+	for (int i = mounts.size() - 1; i >= 0; i--) {
+	    String mount[] = mounts.get(i);
+	    int position = 0;
+	    while ((position < sorted.size())
+		    && (sorted.get(position)[0].length() >= mount[0].length()))
+		position++;
+	    sorted.add(position, mount);
+	}
+	return sorted;
+    }
+
+}
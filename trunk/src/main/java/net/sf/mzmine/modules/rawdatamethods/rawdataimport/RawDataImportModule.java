@@ -75,6 +75,9 @@ public class RawDataImportModule implements MZmineProcessingModule,
 	File fileNames[] = parameters.getParameter(
 		RawDataImportParameters.fileNames).getValue();
 
+	// The files are read from disk by a limited number of tasks at a time
+	ImportBatch batch = new ImportBatch();
+
 	for (int i = 0; i < fileNames.length; i++) {
 
 	    if ((!fileNames[i].exists()) || (!fileNames[i].canRead())) {
@@ -154,8 +157,9 @@ public class RawDataImportModule implements MZmineProcessingModule,
 		return ExitCode.ERROR;
 	    }
 
-	    newTask.addTaskListener(this);
-	    tasks.add(newTask);
+	    Task importTask = new RawDataImportTask(fileNames[i], newTask, batch);
+	    importTask.addTaskListener(this);
+	    tasks.add(importTask);
 
 	}
 
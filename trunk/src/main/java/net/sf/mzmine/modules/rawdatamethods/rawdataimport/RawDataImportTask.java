@@ -0,0 +1,159 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport;
+
+import java.io.File;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.ExceptionUtils;
+
+/**
+ * Import of one raw data file as a part of an ImportBatch. Runs the reading
+ * task of the file format when the file may be read from its disk. Until
+ * then, the import stays WAITING in the batch queue without occupying a
+ * worker thread.
+ */
+class RawDataImportTask extends AbstractTask {
+
+    private Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private final File file;
+    private final Task readTask;
+    private final ImportBatch batch;
+
+    private volatile boolean waiting = true;
+
+    // Read of a queued import, once a reader of its disk has been acquired
+    private volatile Future<?> queuedRead;
+
+    RawDataImportTask(File file, Task readTask, ImportBatch batch) {
+	this.file = file;
+	this.readTask = readTask;
+	this.batch = batch;
+	batch.addFile();
+    }
+
+    public void run() {
+	if (batch.acquireReader(file, this))
+	    read();
+    }
+
+    /**
+     * Continues a queued import, once a reader of its disk has been acquired.
+     * Called from a reader thread of the ImportBatch.
+     */
+    void readQueued() {
+
+	read();
+
+	// The worker threads only report the errors of tasks which end in
+	// their run() method
+	if (getStatus() == TaskStatus.ERROR)
+	    MZmineCore.getDesktop().displayErrorMessage(
+		    "Error of task " + getTaskDescription(),
+		    errorMessage == null ? "Unspecified error" : errorMessage);
+
+	// Release the file writer and scans kept by the reading task
+	MZmineCore.getTaskController().taskFinished(this);
+
+    }
+
+    void setQueuedRead(Future<?> queuedRead) {
+	this.queuedRead = queuedRead;
+    }
+
+    Future<?> getQueuedRead() {
+	return queuedRead;
+    }
+
+    /**
+     * Reads the file, once a reader of its disk has been acquired
+     */
+    private void read() {
+
+	int numOfScans = -1;
+	try {
+
+	    try {
+		if (isCanceled())
+		    return;
+		waiting = false;
+		setStatus(TaskStatus.PROCESSING);
+		batch.readingStarted();
+		readTask.run();
+	    } catch (Throwable e) {
+		// A queued import runs on a reader thread, whose Future would
+		// keep the exception to itself
+		logger.severe("Unhandled exception " + e + " while reading "
+			+ file);
+		errorMessage = ExceptionUtils.exceptionToString(e);
+		setStatus(TaskStatus.ERROR);
+		return;
+	    } finally {
+		batch.releaseReader(file);
+	    }
+
+	    if (readTask.getStatus() == TaskStatus.FINISHED) {
+		Object createdObjects[] = readTask.getCreatedObjects();
+		if ((createdObjects != null) && (createdObjects.length > 0)
+			&& (createdObjects[0] instanceof RawDataFile))
+		    numOfScans = ((RawDataFile) createdObjects[0])
+			    .getNumOfScans();
+	    }
+
+	} finally {
+	    batch.fileFinished(file, numOfScans);
+	}
+
+	// Take over the final status of the reading task
+	if (isCanceled())
+	    return;
+	errorMessage = readTask.getErrorMessage();
+	setStatus(readTask.getStatus());
+
+    }
+
+    public void cancel() {
+	super.cancel();
+	readTask.cancel();
+	batch.cancelQueued(file, this);
+    }
+
+    public String getTaskDescription() {
+	if (waiting)
+	    return "Waiting to read file " + file;
+	return readTask.getTaskDescription();
+    }
+
+    public double getFinishedPercentage() {
+	return waiting ? 0 : readTask.getFinishedPercentage();
+    }
+
+    public Object[] getCreatedObjects() {
+	return readTask.getCreatedObjects();
+    }
+
+}
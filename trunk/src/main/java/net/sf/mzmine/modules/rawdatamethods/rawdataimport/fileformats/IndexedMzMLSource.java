@@ -0,0 +1,103 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.util.ScanUtils;
+
+/**
+ * Indexed mzML file (indexedmzML). The index (index element with
+ * name="spectrum") maps spectrum IDs to the offsets of the spectrum elements.
+ * The spectra are parsed by MzMLParser, with the referenceableParamGroups
+ * collected when the file was imported.
+ */
+class IndexedMzMLSource extends IndexedXMLSource {
+
+	private final Map<String, List<MzMLParser.CVParam>> paramGroups;
+
+	private IndexedMzMLSource(File file, Map<String, Long> index,
+			Map<String, List<MzMLParser.CVParam>> paramGroups)
+			throws IOException {
+		super(file, index, "spectrum");
+		this.paramGroups = paramGroups;
+	}
+
+	/**
+	 * @param paramGroups
+	 *            referenceableParamGroups of the file, filled when the file is
+	 *            imported
+	 * @return source for the given file, or null if the file is not indexed
+	 */
+	static IndexedMzMLSource open(File file,
+			Map<String, List<MzMLParser.CVParam>> paramGroups)
+			throws IOException {
+		Map<String, Long> index = readIndex(file, "indexListOffset",
+				"spectrum", "idRef");
+		if (index == null)
+			return null;
+		return new IndexedMzMLSource(file, index, paramGroups);
+	}
+
+	@Override
+	protected DataPoint[] decode(XMLStreamReader reader)
+			throws XMLStreamException, DataFormatException, IOException {
+
+		MzMLParser parser = new MzMLParser(paramGroups);
+
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+
+			case XMLStreamConstants.START_ELEMENT:
+				parser.startElement(reader);
+				break;
+
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+				parser.characters(reader);
+				break;
+
+			case XMLStreamConstants.END_ELEMENT:
+				MzMLParser.Spectrum spectrum = parser.endElement(reader
+						.getLocalName());
+				if (spectrum == null)
+					break;
+
+				// Same processing as in MzMLReadTask
+				DataPoint dataPoints[] = MzMLParser
+						.extractDataPoints(spectrum);
+				boolean centroided = ScanUtils.isCentroided(dataPoints);
+				return ScanUtils.removeZeroDataPoints(dataPoints, centroided);
+			}
+		}
+
+		throw new XMLStreamException("No spectrum found");
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.util.ScanUtils;
+
+/**
+ * Indexed mzXML file. The index (index element with name="scan") maps scan
+ * numbers to the offsets of the scan elements. The peaks of a scan precede
+ * its nested fragment scans, so decoding stops at the end of the first peaks
+ * element.
+ */
+class IndexedMzXMLSource extends IndexedXMLSource {
+
+	private IndexedMzXMLSource(File file, Map<String, Long> index)
+			throws IOException {
+		super(file, index, "scan");
+	}
+
+	/**
+	 * @return source for the given file, or null if the file is not indexed
+	 */
+	static IndexedMzXMLSource open(File file) throws IOException {
+		Map<String, Long> index = readIndex(file, "indexOffset", "scan", "id");
+		if (index == null)
+			return null;
+		return new IndexedMzXMLSource(file, index);
+	}
+
+	@Override
+	protected DataPoint[] decode(XMLStreamReader reader)
+			throws XMLStreamException, DataFormatException, IOException {
+
+		boolean scanFound = false;
+		int peaksCount = 0;
+		boolean compressed = false;
+		String precision = null;
+		StringBuilder charBuffer = null;
+
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+
+			case XMLStreamConstants.START_ELEMENT:
+				String name = reader.getLocalName();
+				if (name.equals("scan")) {
+					// A nested scan before the peaks of the scan
+					if (scanFound)
+						throw new XMLStreamException("No peaks found in the scan");
+					scanFound = true;
+					peaksCount = Integer.parseInt(reader.getAttributeValue(
+							null, "peaksCount"));
+				} else if (name.equals("peaks")) {
+					String compressionType = reader.getAttributeValue(null,
+							"compressionType");
+					compressed = (compressionType != null)
+							&& !compressionType.equals("none");
+					precision = reader.getAttributeValue(null, "precision");
+					charBuffer = new StringBuilder(peaksCount * 12);
+				}
+				break;
+
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+				if (charBuffer != null)
+					charBuffer.append(reader.getTextCharacters(),
+							reader.getTextStart(), reader.getTextLength());
+				break;
+
+			case XMLStreamConstants.END_ELEMENT:
+				if ((charBuffer == null)
+						|| !reader.getLocalName().equals("peaks"))
+					break;
+
+				// Same processing as in MzXMLReadTask
+				DataPoint completeDataPoints[] = MzXMLReadTask.decodePeaks(
+						charBuffer.toString(), compressed, precision,
+						peaksCount);
+				boolean centroided = ScanUtils
+						.isCentroided(completeDataPoints);
+				return ScanUtils.removeZeroDataPoints(completeDataPoints,
+						centroided);
+			}
+		}
+
+		throw new XMLStreamException("No peaks found in the scan");
+	}
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.project.impl.DataPointsSource;
+
+/**
+ * Indexed XML raw data file (indexed mzXML or mzML), from which the data
+ * points of single scans are decoded on demand. The index at the end of the
+ * file gives the byte offset of each scan element. Scans are decoded by
+ * parsing the file from that offset with a StAX parser, until the data points
+ * of the scan are read.
+ *
+ * The file is read by positional reads on its channel, so any number of scans
+ * may be decoded at once.
+ */
+abstract class IndexedXMLSource implements DataPointsSource {
+
+	private static final Logger logger = Logger
+			.getLogger(IndexedXMLSource.class.getName());
+
+	// The index offset is searched for in this many bytes at the end of file
+	private static final int TAIL_SIZE = 4096;
+
+	private final File file;
+	private final long fileLength, fileModified;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel channel;
+	private final Map<String, Long> index;
+	private final String scanElement;
+
+	// Factories are not guaranteed to be thread safe, access is synchronized
+	private final XMLInputFactory factory;
+
+	/**
+	 * @param index
+	 *            offsets of the scan elements, by scan ID
+	 * @param scanElement
+	 *            name of the element at the offsets
+	 */
+	IndexedXMLSource(File file, Map<String, Long> index, String scanElement)
+			throws IOException {
+		this.file = file;
+		this.fileLength = file.length();
+		this.fileModified = file.lastModified();
+		this.randomAccessFile = new RandomAccessFile(file, "r");
+		this.channel = randomAccessFile.getChannel();
+		this.index = index;
+		this.scanElement = scanElement;
+		this.factory = createFactory();
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		// The parsed fragments do not contain the namespace declarations
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+		return factory;
+	}
+
+	/**
+	 * Reads the index of the given file.
+	 *
+	 * @param offsetElement
+	 *            element at the end of the file which contains the offset of
+	 *            the index (e.g. indexOffset)
+	 * @param indexName
+	 *            name attribute of the index element listing the scans
+	 * @param idAttribute
+	 *            attribute of the offset elements which contains the scan ID
+	 * @return offsets by scan ID, or null if the file has no usable index
+	 */
+	static Map<String, Long> readIndex(File file, String offsetElement,
+			String indexName, String idAttribute) throws IOException {
+
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			final long length = randomAccessFile.length();
+			final int tailSize = (int) Math.min(length, TAIL_SIZE);
+			byte tail[] = new byte[tailSize];
+			randomAccessFile.seek(length - tailSize);
+			randomAccessFile.readFully(tail);
+
+			Pattern pattern = Pattern.compile("<" + offsetElement
+					+ ">\\s*([0-9]+)\\s*</" + offsetElement + ">");
+			Matcher matcher = pattern.matcher(new String(tail, "ISO-8859-1"));
+			if (!matcher.find())
+				return null;
+			final long indexOffset = Long.parseLong(matcher.group(1));
+			if (indexOffset >= length)
+				return null;
+
+			Map<String, Long> index = new HashMap<String, Long>();
+			InputStream inputStream = new BufferedInputStream(
+					new ChannelInputStream(randomAccessFile.getChannel(),
+							indexOffset), 1 << 16);
+			XMLStreamReader reader = createFactory().createXMLStreamReader(
+					inputStream);
+			try {
+				boolean inIndex = false;
+				String id = null;
+				StringBuilder value = new StringBuilder();
+				int depth = 0;
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						depth++;
+						String name = reader.getLocalName();
+						if (name.equals("index"))
+							inIndex = indexName.equals(reader
+									.getAttributeValue(null, "name"));
+						else if (inIndex && name.equals("offset")) {
+							id = reader.getAttributeValue(null, idAttribute);
+							value.setLength(0);
+						}
+					} else if ((event == XMLStreamConstants.CHARACTERS)
+							&& (id != null)) {
+						value.append(reader.getText());
+					} else if (event == XMLStreamConstants.END_ELEMENT) {
+						depth--;
+						String name = reader.getLocalName();
+						if (name.equals("index"))
+							inIndex = false;
+						else if (name.equals("offset") && (id != null)) {
+							index.put(id, Long.parseLong(value.toString()
+									.trim()));
+							id = null;
+						}
+						// End of the index fragment
+						if (depth == 0)
+							break;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+			return index.isEmpty() ? null : index;
+
+		} catch (XMLStreamException e) {
+			logger.warning("Could not read the index of " + file + ": " + e);
+			return null;
+		} catch (NumberFormatException e) {
+			logger.warning("Could not read the index of " + file + ": " + e);
+			return null;
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * Returns the offset of the scan with the given ID, if the index contains
+	 * the scan and the offset really points to a scan element
+	 *
+	 * @return offset of the scan, or null
+	 */
+	Long getPosition(String scanID) throws IOException {
+		Long position = index.get(scanID);
+		if ((position == null) || (position < 0)
+				|| (position >= fileLength))
+			return null;
+
+		// The element name must be followed by a space or the end of tag
+		String expected = "<" + scanElement;
+		ByteBuffer buffer = ByteBuffer.allocate(expected.length() + 1);
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0)
+				return null;
+		}
+		String found = new String(buffer.array(), "ISO-8859-1");
+		char last = found.charAt(expected.length());
+		if (!found.startsWith(expected)
+				|| !(Character.isWhitespace(last) || (last == '>')))
+			return null;
+		return position;
+	}
+
+	/**
+	 * Decodes the data points of the scan element at given offset
+	 */
+	public DataPoint[] readDataPoints(long position) throws IOException {
+
+		if ((file.length() != fileLength)
+				|| (file.lastModified() != fileModified))
+			throw new IOException("File " + file
+					+ " was modified since it was opened");
+
+		InputStream inputStream = new BufferedInputStream(
+				new ChannelInputStream(channel, position), 1 << 16);
+		XMLStreamReader reader;
+		try {
+			synchronized (factory) {
+				reader = factory.createXMLStreamReader(inputStream);
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Could not read scan at offset " + position
+					+ " of " + file, e);
+		}
+
+		try {
+			return decode(reader);
+		} catch (XMLStreamException e) {
+			throw new IOException("Could not read scan at offset " + position
+					+ " of " + file, e);
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt data points at offset " + position
+					+ " of " + file, e);
+		} finally {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				// Nothing to do, the stream has no other resources
+			}
+		}
+	}
+
+	/**
+	 * Parses the scan element, which starts at the beginning of given reader,
+	 * and decodes its data points. The data points must be processed as when
+	 * the file was imported (e.g. zero data points removed).
+	 */
+	protected abstract DataPoint[] decode(XMLStreamReader reader)
+			throws XMLStreamException, DataFormatException, IOException;
+
+	public String getName() {
+		return file.getPath();
+	}
+
+	public void close() throws IOException {
+		randomAccessFile.close();
+	}
+
+	/**
+	 * Input stream reading a file channel from the given offset by positional
+	 * reads, so it does not interfere with other readers of the channel
+	 */
+	private static class ChannelInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private long position;
+
+		ChannelInputStream(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte b[] = new byte[1];
+			int read = read(b, 0, 1);
+			return read < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte b[], int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if (read > 0)
+				position += read;
+			return read;
+		}
+
+	}
+
+}
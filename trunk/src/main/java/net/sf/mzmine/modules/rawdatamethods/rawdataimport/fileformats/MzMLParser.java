@@ -0,0 +1,455 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.util.CompressionUtils;
+
+import org.apache.axis.encoding.Base64;
+
+/**
+ * Parser of the spectra of an mzML file, driven by the events of a StAX
+ * reader (see MzMLReadTask). It keeps only the values needed for the scans
+ * (ID, MS level, retention time, precursor and the binary data arrays).
+ *
+ * The referenceableParamGroups are collected in the map given to the
+ * constructor, so a parser created later with the same map can parse single
+ * spectra of the same file (see IndexedMzMLSource).
+ */
+class MzMLParser {
+
+    private Logger logger = Logger.getLogger(this.getClass().getName());
+
+    /**
+     * Controlled vocabulary parameter (cvParam element)
+     */
+    static class CVParam {
+        final String accession, value, unitAccession;
+
+        CVParam(String accession, String value, String unitAccession) {
+            this.accession = accession;
+            this.value = value;
+            this.unitAccession = unitAccession;
+        }
+    }
+
+    /**
+     * Binary data array of a spectrum, before decoding
+     */
+    private static class BinaryArray {
+        String encodedData;
+        int arrayLength;
+        boolean mzArray, intensityArray;
+        boolean zlibCompressed;
+        boolean integer;
+        int precision = 64;
+    }
+
+    /**
+     * Values of one spectrum element
+     */
+    static class Spectrum {
+        String id;
+        int scanNumber;
+        int msLevel = 1;
+        double retentionTime;
+        boolean retentionTimeFound;
+        int numOfPrecursors;
+        int parentScan = -1;
+        double precursorMz;
+        boolean precursorMzFound;
+        int precursorCharge;
+        boolean precursorChargeFound;
+        List<BinaryArray> binaryArrays = new ArrayList<BinaryArray>(2);
+    }
+
+    // Parameters of each referenceableParamGroup, by its ID
+    private final Map<String, List<CVParam>> paramGroups;
+
+    private Map<String, Integer> scanIdTable = new Hashtable<String, Integer>();
+    private int lastScanNumber = 0;
+    private int totalScans = 0;
+
+    // Parser state
+    private final ArrayList<String> elementPath = new ArrayList<String>();
+    private List<CVParam> currentParamGroup;
+    private Spectrum currentSpectrum;
+    private BinaryArray currentArray;
+    private int defaultArrayLength;
+    private final StringBuilder charBuffer = new StringBuilder();
+    private boolean readingBinary;
+
+    MzMLParser(Map<String, List<CVParam>> paramGroups) {
+        this.paramGroups = paramGroups;
+    }
+
+    /**
+     * @return number of spectra given by the spectrumList element, or 0
+     */
+    int getTotalScans() {
+        return totalScans;
+    }
+
+    /**
+     * Processes the characters of the current element
+     */
+    void characters(XMLStreamReader reader) {
+        if (readingBinary)
+            charBuffer.append(reader.getTextCharacters(),
+                    reader.getTextStart(), reader.getTextLength());
+    }
+
+    /**
+     * Processes the start of an element
+     */
+    void startElement(XMLStreamReader reader) {
+
+        final String name = reader.getLocalName();
+        final String parent = elementPath.isEmpty() ? null : elementPath
+                .get(elementPath.size() - 1);
+        elementPath.add(name);
+
+        if (name.equals("cvParam")) {
+            CVParam param = new CVParam(reader.getAttributeValue(null,
+                    "accession"), reader.getAttributeValue(null, "value"),
+                    reader.getAttributeValue(null, "unitAccession"));
+            if ("referenceableParamGroup".equals(parent)) {
+                if (currentParamGroup != null)
+                    currentParamGroup.add(param);
+            } else {
+                processParam(parent, param);
+            }
+            return;
+        }
+
+        if (name.equals("referenceableParamGroupRef")) {
+            List<CVParam> group = paramGroups.get(reader.getAttributeValue(
+                    null, "ref"));
+            if (group != null) {
+                for (CVParam param : group)
+                    processParam(parent, param);
+            }
+            return;
+        }
+
+        if (name.equals("referenceableParamGroup")) {
+            currentParamGroup = new ArrayList<CVParam>();
+            paramGroups.put(reader.getAttributeValue(null, "id"),
+                    currentParamGroup);
+            return;
+        }
+
+        if (name.equals("spectrumList")) {
+            String count = reader.getAttributeValue(null, "count");
+            if (count != null)
+                totalScans = Integer.parseInt(count);
+            return;
+        }
+
+        if (name.equals("spectrum")) {
+            currentSpectrum = new Spectrum();
+            currentSpectrum.id = reader.getAttributeValue(null, "id");
+            currentSpectrum.scanNumber = convertScanIdToScanNumber(currentSpectrum.id);
+            String length = reader.getAttributeValue(null,
+                    "defaultArrayLength");
+            defaultArrayLength = length == null ? -1 : Integer
+                    .parseInt(length);
+            return;
+        }
+
+        if (currentSpectrum == null)
+            return;
+
+        // Only the first precursor is used
+        if (name.equals("precursor")) {
+            currentSpectrum.numOfPrecursors++;
+            if (currentSpectrum.numOfPrecursors > 1)
+                return;
+            String precursorScanId = reader.getAttributeValue(null,
+                    "spectrumRef");
+            if (precursorScanId == null) {
+                logger.warning("Missing precursor spectrumRef tag for spectrum ID "
+                        + currentSpectrum.id);
+                return;
+            }
+            currentSpectrum.parentScan = convertScanIdToScanNumber(precursorScanId);
+            return;
+        }
+
+        if (name.equals("binaryDataArray")) {
+            currentArray = new BinaryArray();
+            String length = reader.getAttributeValue(null, "arrayLength");
+            currentArray.arrayLength = length == null ? defaultArrayLength
+                    : Integer.parseInt(length);
+            currentSpectrum.binaryArrays.add(currentArray);
+            return;
+        }
+
+        if (name.equals("binary") && (currentArray != null)) {
+            charBuffer.setLength(0);
+            readingBinary = true;
+        }
+
+    }
+
+    /**
+     * @return the spectrum, if the element was the end of a spectrum
+     */
+    Spectrum endElement(String name) {
+
+        elementPath.remove(elementPath.size() - 1);
+
+        if (name.equals("referenceableParamGroup")) {
+            currentParamGroup = null;
+            return null;
+        }
+
+        if (name.equals("binary") && readingBinary) {
+            currentArray.encodedData = charBuffer.toString();
+            readingBinary = false;
+            return null;
+        }
+
+        if (name.equals("binaryDataArray")) {
+            currentArray = null;
+            return null;
+        }
+
+        if (name.equals("spectrum")) {
+            Spectrum spectrum = currentSpectrum;
+            currentSpectrum = null;
+            return spectrum;
+        }
+
+        return null;
+    }
+
+    /**
+     * Processes a cvParam of the given element, either given directly or as a
+     * part of a referenceableParamGroup
+     */
+    private void processParam(String element, CVParam param) {
+
+        if ((currentSpectrum == null) || (element == null)
+                || (param.accession == null))
+            return;
+        final String accession = param.accession;
+        final String value = param.value;
+
+        // MS level MS:1000511
+        if (element.equals("spectrum")) {
+            if (accession.equals("MS:1000511") && (value != null))
+                currentSpectrum.msLevel = Integer.parseInt(value);
+            return;
+        }
+
+        // Retention time (actually "Scan start time") MS:1000016
+        if (element.equals("scan")) {
+            if (accession.equals("MS:1000016") && (value != null)
+                    && !currentSpectrum.retentionTimeFound) {
+                // MS:1000038 is used in mzML 1.0, while UO:0000031
+                // is used in mzML 1.1.0 :-/
+                String unitAccession = param.unitAccession;
+                double retentionTime;
+                if ((unitAccession == null)
+                        || (unitAccession.equals("MS:1000038"))
+                        || unitAccession.equals("UO:0000031")) {
+                    retentionTime = Double.parseDouble(value);
+                } else {
+                    retentionTime = Double.parseDouble(value) / 60d;
+                }
+                currentSpectrum.retentionTime = retentionTime;
+                currentSpectrum.retentionTimeFound = true;
+            }
+            return;
+        }
+
+        if (element.equals("selectedIon")) {
+            if ((currentSpectrum.numOfPrecursors != 1) || (value == null))
+                return;
+            // MS:1000040 is used in mzML 1.0,
+            // MS:1000744 is used in mzML 1.1.0
+            if ((accession.equals("MS:1000040") || accession
+                    .equals("MS:1000744"))
+                    && !currentSpectrum.precursorMzFound) {
+                currentSpectrum.precursorMz = Double.parseDouble(value);
+                currentSpectrum.precursorMzFound = true;
+            }
+            if (accession.equals("MS:1000041")
+                    && !currentSpectrum.precursorChargeFound) {
+                currentSpectrum.precursorCharge = Integer.parseInt(value);
+                currentSpectrum.precursorChargeFound = true;
+            }
+            return;
+        }
+
+        if (element.equals("binaryDataArray") && (currentArray != null)) {
+            if (accession.equals("MS:1000514"))
+                currentArray.mzArray = true;
+            else if (accession.equals("MS:1000515"))
+                currentArray.intensityArray = true;
+            else if (accession.equals("MS:1000574"))
+                currentArray.zlibCompressed = true;
+            else if (accession.equals("MS:1000576"))
+                currentArray.zlibCompressed = false;
+            else if (accession.equals("MS:1000521")) {
+                currentArray.integer = false;
+                currentArray.precision = 32;
+            } else if (accession.equals("MS:1000523")) {
+                currentArray.integer = false;
+                currentArray.precision = 64;
+            } else if (accession.equals("MS:1000519")) {
+                currentArray.integer = true;
+                currentArray.precision = 32;
+            } else if (accession.equals("MS:1000522")) {
+                currentArray.integer = true;
+                currentArray.precision = 64;
+            }
+        }
+    }
+
+    private int convertScanIdToScanNumber(String scanId) {
+
+        if (scanIdTable.containsKey(scanId))
+            return scanIdTable.get(scanId);
+
+        final Pattern pattern = Pattern.compile("scan=([0-9]+)");
+        final Matcher matcher = pattern.matcher(scanId);
+        boolean scanNumberFound = matcher.find();
+
+        // Some vendors include scan=XX in the ID, some don't, such as
+        // mzML converted from WIFF files. See the definition of nativeID in
+        // http://psidev.cvs.sourceforge.net/viewvc/psidev/psi/psi-ms/mzML/controlledVocabulary/psi-ms.obo
+        if (scanNumberFound) {
+            int scanNumber = Integer.parseInt(matcher.group(1));
+            scanIdTable.put(scanId, scanNumber);
+            return scanNumber;
+        }
+
+        int scanNumber = lastScanNumber + 1;
+        lastScanNumber++;
+        scanIdTable.put(scanId, scanNumber);
+        return scanNumber;
+    }
+
+    /**
+     * Decodes the m/z and intensity arrays of the spectrum
+     */
+    static DataPoint[] extractDataPoints(Spectrum spectrum)
+            throws DataFormatException {
+
+        // Find the m/z and intensity arrays by their type, or take the first
+        // two arrays if the types are missing
+        BinaryArray mzArray = null, intensityArray = null;
+        for (BinaryArray array : spectrum.binaryArrays) {
+            if (array.mzArray && (mzArray == null))
+                mzArray = array;
+            if (array.intensityArray && (intensityArray == null))
+                intensityArray = array;
+        }
+        if ((mzArray == null) && (intensityArray == null)
+                && (spectrum.binaryArrays.size() >= 2)) {
+            mzArray = spectrum.binaryArrays.get(0);
+            intensityArray = spectrum.binaryArrays.get(1);
+        }
+        if ((mzArray == null) || (intensityArray == null))
+            return new DataPoint[0];
+
+        double mzValues[] = decodeArray(mzArray);
+        double intensityValues[] = decodeArray(intensityArray);
+        DataPoint dataPoints[] = new DataPoint[Math.min(mzValues.length,
+                intensityValues.length)];
+        for (int i = 0; i < dataPoints.length; i++) {
+            dataPoints[i] = new SimpleDataPoint(mzValues[i],
+                    intensityValues[i]);
+        }
+        return dataPoints;
+
+    }
+
+    /**
+     * Decodes a base64 encoded, optionally zlib compressed, little endian
+     * binary data array
+     */
+    private static double[] decodeArray(BinaryArray array)
+            throws DataFormatException {
+
+        if ((array.encodedData == null) || (array.encodedData.length() == 0))
+            return new double[0];
+
+        byte bytes[] = Base64.decode(array.encodedData);
+        final int valueSize = array.precision / 8;
+
+        if (array.zlibCompressed) {
+            if (array.arrayLength >= 0) {
+                // The size of the data is known, inflate it in one go
+                Inflater inflater = new Inflater();
+                inflater.setInput(bytes);
+                byte inflated[] = new byte[array.arrayLength * valueSize];
+                int length = 0;
+                while ((length < inflated.length) && !inflater.finished()) {
+                    int n = inflater.inflate(inflated, length, inflated.length
+                            - length);
+                    if ((n == 0) && (inflater.needsInput() || inflater
+                            .needsDictionary()))
+                        break;
+                    length += n;
+                }
+                inflater.end();
+                if (length < inflated.length)
+                    throw new DataFormatException("Binary data array is shorter than "
+                            + array.arrayLength + " values");
+                bytes = inflated;
+            } else {
+                bytes = CompressionUtils.decompress(bytes);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(
+                ByteOrder.LITTLE_ENDIAN);
+        double values[] = new double[bytes.length / valueSize];
+        for (int i = 0; i < values.length; i++) {
+            if (array.integer)
+                values[i] = valueSize == 4 ? buffer.getInt() : buffer
+                        .getLong();
+            else
+                values[i] = valueSize == 4 ? buffer.getFloat() : buffer
+                        .getDouble();
+        }
+        return values;
+
+    }
+
+}
@@ -19,41 +19,50 @@
 
 package net.sf.mzmine.modules.rawdatamethods.rawdataimport.fileformats;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.util.Hashtable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
-import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.AbstractTask;
+import net.sf.mzmine.taskcontrol.TaskController;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 import net.sf.mzmine.util.ScanUtils;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArrayList;
-import uk.ac.ebi.jmzml.model.mzml.CVParam;
-import uk.ac.ebi.jmzml.model.mzml.ParamGroup;
-import uk.ac.ebi.jmzml.model.mzml.Precursor;
-import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
-import uk.ac.ebi.jmzml.model.mzml.Scan;
-import uk.ac.ebi.jmzml.model.mzml.ScanList;
-import uk.ac.ebi.jmzml.model.mzml.SelectedIonList;
-import uk.ac.ebi.jmzml.model.mzml.Spectrum;
-import uk.ac.ebi.jmzml.xml.io.MzMLObjectIterator;
-import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
 
 /**
  * This class reads mzML 1.0 and 1.1.0 files
- * (http://www.psidev.info/index.php?q=node/257) using the jmzml library
- * (http://code.google.com/p/jmzml/).
+ * (http://www.psidev.info/index.php?q=node/257).
+ * 
+ * The file is read by a StAX parser (see MzMLParser), which keeps only the
+ * values needed for the scans (ID, MS level, retention time, precursor and the
+ * binary data arrays). The binary data arrays of each spectrum are decoded
+ * (base64, zlib) by a sub-task on the worker threads of the task controller,
+ * while the parser continues with the next spectra. The decoded scans are added to the
+ * raw data file in the order of the file. If the file is indexed (indexedmzML),
+ * the data points of the scans are not copied to the temporary file, but
+ * decoded from the mzML file when needed (see IndexedMzMLSource).
  */
 public class MzMLReadTask extends AbstractTask {
 
@@ -62,11 +71,7 @@ public class MzMLReadTask extends AbstractTask {
     private File file;
     private RawDataFileWriter newMZmineFile;
     private RawDataFile finalRawDataFile;
-    private int totalScans = 0, parsedScans;
-
-    private int lastScanNumber = 0;
-
-    private Map<String, Integer> scanIdTable = new Hashtable<String, Integer>();
+    private int parsedScans;
 
     /*
      * This stack stores at most 20 consecutive scans. This window serves to
@@ -79,6 +84,16 @@ public class MzMLReadTask extends AbstractTask {
     private static final int PARENT_STACK_SIZE = 20;
     private LinkedList<SimpleScan> parentStack = new LinkedList<SimpleScan>();
 
+    // Parameters of each referenceableParamGroup, collected by the parser
+    private final Map<String, List<MzMLParser.CVParam>> paramGroups = new HashMap<String, List<MzMLParser.CVParam>>();
+    private final MzMLParser parser = new MzMLParser(paramGroups);
+
+    // Source of the data points, if the file is indexed, and the offsets of
+    // the spectra in the file, by scan number
+    private IndexedMzMLSource source;
+    private boolean sourceUsed;
+    private final Map<Integer, Long> scanPositions = new HashMap<Integer, Long>();
+
     public MzMLReadTask(File fileToOpen, RawDataFileWriter newMZmineFile) {
         this.file = fileToOpen;
         this.newMZmineFile = newMZmineFile;
@@ -88,6 +103,7 @@ public class MzMLReadTask extends AbstractTask {
      * @see net.sf.mzmine.taskcontrol.Task#getFinishedPercentage()
      */
     public double getFinishedPercentage() {
+        final int totalScans = parser.getTotalScans();
         return totalScans == 0 ? 0 : (double) parsedScans / totalScans;
     }
 
@@ -99,81 +115,114 @@ public class MzMLReadTask extends AbstractTask {
         setStatus(TaskStatus.PROCESSING);
         logger.info("Started parsing file " + file);
 
-        MzMLUnmarshaller unmarshaller = new MzMLUnmarshaller(file);
-
-        totalScans = unmarshaller
-                .getObjectCountForXpath("/run/spectrumList/spectrum");
+        // Only a limited number of spectra is decoded ahead, so the scans
+        // waiting to be added do not fill the memory
+        final int maxPendingScans = MZmineCore.getConfiguration()
+                .getPreferences().getNumOfThreads() * 4;
+        final TaskController taskController = MZmineCore.getTaskController();
+        final LinkedList<Future<SimpleScan>> pendingScans = new LinkedList<Future<SimpleScan>>();
 
-        MzMLObjectIterator<Spectrum> spectrumIterator = unmarshaller
-                .unmarshalCollectionFromXpath("/run/spectrumList/spectrum",
-                        Spectrum.class);
         try {
 
-            while (spectrumIterator.hasNext()) {
-
-                Spectrum spectrum = spectrumIterator.next();
-
-                String scanId = spectrum.getId();
-                int scanNumber = convertScanIdToScanNumber(scanId);
-
-                int msLevel = extractMSLevel(spectrum);
-                double retentionTime = extractRetentionTime(spectrum);
-
-                // Get parent scan number
-                int parentScan = extractParentScanNumber(spectrum);
-                double precursorMz = extractPrecursorMz(spectrum);
-                int precursorCharge = extractPrecursorCharge(spectrum);
-
-                DataPoint dataPoints[] = extractDataPoints(spectrum);
-
-                // Auto-detect whether this scan is centroided
-                boolean centroided = ScanUtils.isCentroided(dataPoints);
-
-                // Remove zero data points
-                DataPoint optimizedDataPoints[] = ScanUtils
-                        .removeZeroDataPoints(dataPoints, centroided);
-
-                SimpleScan scan = new SimpleScan(null, scanNumber, msLevel,
-                        retentionTime, parentScan, precursorMz,
-                        precursorCharge, null, optimizedDataPoints, centroided);
-
-                for (SimpleScan s : parentStack) {
-                    if (s.getScanNumber() == parentScan) {
-                        s.addFragmentScan(scanNumber);
+            if (newMZmineFile instanceof RawDataFileImpl)
+                source = IndexedMzMLSource.open(file, paramGroups);
+
+            InputStream inputStream = new BufferedInputStream(
+                    new FileInputStream(file), 1 << 16);
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+
+            try {
+                while (reader.hasNext()) {
+
+                    if (isCanceled())
+                        return;
+
+                    switch (reader.next()) {
+
+                    case XMLStreamConstants.START_ELEMENT:
+                        parser.startElement(reader);
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                        parser.characters(reader);
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        final MzMLParser.Spectrum spectrum = parser
+                                .endElement(reader.getLocalName());
+                        if (spectrum == null)
+                            break;
+
+                        if (source != null) {
+                            Long position = source.getPosition(spectrum.id);
+                            // If the scan number is not unique, the scans
+                            // are stored
+                            if (scanPositions.containsKey(spectrum.scanNumber))
+                                position = -1L;
+                            if (position != null)
+                                scanPositions.put(spectrum.scanNumber,
+                                        position);
+                        }
+
+                        // Decode the spectrum in a sub-task
+                        pendingScans.add(taskController
+                                .submitSubTask(new Callable<SimpleScan>() {
+                                    public SimpleScan call()
+                                            throws DataFormatException {
+                                        return createScan(spectrum);
+                                    }
+                                }));
+                        while (pendingScans.size() > maxPendingScans)
+                            addScan(taskController.joinSubTask(pendingScans
+                                    .removeFirst()));
+                        break;
                     }
                 }
-
-                /*
-                 * Verify the size of parentStack. The actual size of the window
-                 * to cover possible candidates is defined by limitSize.
-                 */
-                if (parentStack.size() > PARENT_STACK_SIZE) {
-                    SimpleScan firstScan = parentStack.removeLast();
-                    newMZmineFile.addScan(firstScan);
-                }
-
-                parentStack.addFirst(scan);
-
-                parsedScans++;
-
+            } finally {
+                reader.close();
+                inputStream.close();
             }
 
+            while (!pendingScans.isEmpty())
+                addScan(taskController.joinSubTask(pendingScans.removeFirst()));
+
             while (!parentStack.isEmpty()) {
                 SimpleScan scan = parentStack.removeLast();
-                newMZmineFile.addScan(scan);
+                writeScan(scan);
 
             }
 
             finalRawDataFile = newMZmineFile.finishWriting();
 
         } catch (Throwable e) {
+            if (e instanceof ExecutionException)
+                e = e.getCause();
             setStatus(TaskStatus.ERROR);
             errorMessage = "Error parsing mzML: "
                     + ExceptionUtils.exceptionToString(e);
             e.printStackTrace();
             return;
+        } finally {
+            for (Future<SimpleScan> pendingScan : pendingScans)
+                pendingScan.cancel(false);
+
+            // The raw data file closes the source when it is closed
+            if ((source != null) && ((finalRawDataFile == null) || !sourceUsed)) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    logger.warning("Could not close file " + file + ": " + e);
+                }
+            }
         }
 
+        if (sourceUsed)
+            logger.info("Data points of " + file
+                    + " are read from the file when needed");
+
         if (parsedScans == 0) {
             setStatus(TaskStatus.ERROR);
             errorMessage = "No scans found";
@@ -186,210 +235,65 @@ public class MzMLReadTask extends AbstractTask {
 
     }
 
-    private int convertScanIdToScanNumber(String scanId) {
+    /**
+     * Decodes the data points of the spectrum and creates the scan. Called by
+     * the decoder sub-tasks.
+     */
+    private SimpleScan createScan(MzMLParser.Spectrum spectrum)
+            throws DataFormatException {
 
-        if (scanIdTable.containsKey(scanId))
-            return scanIdTable.get(scanId);
+        DataPoint dataPoints[] = MzMLParser.extractDataPoints(spectrum);
 
-        final Pattern pattern = Pattern.compile("scan=([0-9]+)");
-        final Matcher matcher = pattern.matcher(scanId);
-        boolean scanNumberFound = matcher.find();
+        // Auto-detect whether this scan is centroided
+        boolean centroided = ScanUtils.isCentroided(dataPoints);
 
-        // Some vendors include scan=XX in the ID, some don't, such as
-        // mzML converted from WIFF files. See the definition of nativeID in
-        // http://psidev.cvs.sourceforge.net/viewvc/psidev/psi/psi-ms/mzML/controlledVocabulary/psi-ms.obo
-        if (scanNumberFound) {
-            int scanNumber = Integer.parseInt(matcher.group(1));
-            scanIdTable.put(scanId, scanNumber);
-            return scanNumber;
-        }
+        // Remove zero data points
+        DataPoint optimizedDataPoints[] = ScanUtils.removeZeroDataPoints(
+                dataPoints, centroided);
 
-        int scanNumber = lastScanNumber + 1;
-        lastScanNumber++;
-        scanIdTable.put(scanId, scanNumber);
-        return scanNumber;
+        return new SimpleScan(null, spectrum.scanNumber, spectrum.msLevel,
+                spectrum.retentionTime, spectrum.parentScan,
+                spectrum.precursorMz, spectrum.precursorCharge, null,
+                optimizedDataPoints, centroided);
     }
 
-    private int extractMSLevel(Spectrum spectrum) {
-        // Browse the spectrum parameters
-        List<CVParam> cvParams = spectrum.getCvParam();
-        if (cvParams == null)
-            return 1;
-        for (CVParam param : cvParams) {
-            String accession = param.getAccession();
-            String value = param.getValue();
-            if ((accession == null) || (value == null))
-                continue;
-
-            // MS level MS:1000511
-            if (accession.equals("MS:1000511")) {
-                int msLevel = Integer.parseInt(value);
-                return msLevel;
-            }
-        }
-        return 1;
-    }
-
-    private double extractRetentionTime(Spectrum spectrum) {
-
-        ScanList scanListElement = spectrum.getScanList();
-        if (scanListElement == null)
-            return 0;
-        List<Scan> scanElements = scanListElement.getScan();
-        if (scanElements == null)
-            return 0;
-
-        for (Scan scan : scanElements) {
-            List<CVParam> cvParams = scan.getCvParam();
-            if (cvParams == null)
-                continue;
-
-            for (CVParam param : cvParams) {
-                String accession = param.getAccession();
-                String unitAccession = param.getUnitAccession();
-                String value = param.getValue();
-                if ((accession == null) || (value == null))
-                    continue;
-
-                // Retention time (actually "Scan start time") MS:100001
-                if (accession.equals("MS:1000016")) {
-                    // MS:1000038 is used in mzML 1.0, while UO:0000031
-                    // is used in mzML 1.1.0 :-/
-                    double retentionTime;
-                    if ((unitAccession == null)
-                            || (unitAccession.equals("MS:1000038"))
-                            || unitAccession.equals("UO:0000031")) {
-                        retentionTime = Double.parseDouble(value);
-                    } else {
-                        retentionTime = Double.parseDouble(value) / 60d;
-                    }
-                    return retentionTime;
+    /**
+     * Adds the scan to the parent stack, in the order of the file
+     */
+    private void addScan(SimpleScan scan) throws IOException {
 
-                }
+        for (SimpleScan s : parentStack) {
+            if (s.getScanNumber() == scan.getParentScanNumber()) {
+                s.addFragmentScan(scan.getScanNumber());
             }
         }
 
-        return 0;
-    }
-
-    private DataPoint[] extractDataPoints(Spectrum spectrum) {
-        BinaryDataArrayList dataList = spectrum.getBinaryDataArrayList();
-
-        if ((dataList == null) || (dataList.getCount().equals(0)))
-            return new DataPoint[0];
-
-        BinaryDataArray mzArray = dataList.getBinaryDataArray().get(0);
-        BinaryDataArray intensityArray = dataList.getBinaryDataArray().get(1);
-        Number mzValues[] = mzArray.getBinaryDataAsNumberArray();
-        Number intensityValues[] = intensityArray.getBinaryDataAsNumberArray();
-        DataPoint dataPoints[] = new DataPoint[mzValues.length];
-        for (int i = 0; i < dataPoints.length; i++) {
-            double mz = mzValues[i].doubleValue();
-            double intensity = intensityValues[i].doubleValue();
-            dataPoints[i] = new SimpleDataPoint(mz, intensity);
+        /*
+         * Verify the size of parentStack. The actual size of the window to
+         * cover possible candidates is defined by limitSize.
+         */
+        if (parentStack.size() > PARENT_STACK_SIZE) {
+            SimpleScan firstScan = parentStack.removeLast();
+            writeScan(firstScan);
         }
-        return dataPoints;
 
-    }
+        parentStack.addFirst(scan);
 
-    private int extractParentScanNumber(Spectrum spectrum) {
-        PrecursorList precursorListElement = spectrum.getPrecursorList();
-        if ((precursorListElement == null)
-                || (precursorListElement.getCount().equals(0)))
-            return -1;
-
-        List<Precursor> precursorList = precursorListElement.getPrecursor();
-        for (Precursor parent : precursorList) {
-            // Get the precursor scan number
-            String precursorScanId = parent.getSpectrumRef();
-            if (precursorScanId == null) {
-                logger.warning("Missing precursor spectrumRef tag for spectrum ID "
-                        + spectrum.getId());
-                return -1;
-            }
-            int parentScan = convertScanIdToScanNumber(precursorScanId);
-            return parentScan;
-        }
-        return -1;
+        parsedScans++;
     }
 
-    private double extractPrecursorMz(Spectrum spectrum) {
-
-        PrecursorList precursorListElement = spectrum.getPrecursorList();
-        if ((precursorListElement == null)
-                || (precursorListElement.getCount().equals(0)))
-            return 0;
-
-        List<Precursor> precursorList = precursorListElement.getPrecursor();
-        for (Precursor parent : precursorList) {
-
-            SelectedIonList selectedIonListElement = parent
-                    .getSelectedIonList();
-            if ((selectedIonListElement == null)
-                    || (selectedIonListElement.getCount().equals(0)))
-                return 0;
-            List<ParamGroup> selectedIonParams = selectedIonListElement
-                    .getSelectedIon();
-            if (selectedIonParams == null)
-                continue;
-
-            for (ParamGroup pg : selectedIonParams) {
-                List<CVParam> pgCvParams = pg.getCvParam();
-                for (CVParam param : pgCvParams) {
-                    String accession = param.getAccession();
-                    String value = param.getValue();
-                    if ((accession == null) || (value == null))
-                        continue;
-                    // MS:1000040 is used in mzML 1.0,
-                    // MS:1000744 is used in mzML 1.1.0
-                    if (accession.equals("MS:1000040")
-                            || accession.equals("MS:1000744")) {
-                        double precursorMz = Double.parseDouble(value);
-                        return precursorMz;
-                    }
-                }
-
-            }
-        }
-        return 0;
-    }
-
-    private int extractPrecursorCharge(Spectrum spectrum) {
-        PrecursorList precursorListElement = spectrum.getPrecursorList();
-        if ((precursorListElement == null)
-                || (precursorListElement.getCount().equals(0)))
-            return 0;
-
-        List<Precursor> precursorList = precursorListElement.getPrecursor();
-        for (Precursor parent : precursorList) {
-
-            SelectedIonList selectedIonListElement = parent
-                    .getSelectedIonList();
-            if ((selectedIonListElement == null)
-                    || (selectedIonListElement.getCount().equals(0)))
-                return 0;
-            List<ParamGroup> selectedIonParams = selectedIonListElement
-                    .getSelectedIon();
-            if (selectedIonParams == null)
-                continue;
-
-            for (ParamGroup pg : selectedIonParams) {
-                List<CVParam> pgCvParams = pg.getCvParam();
-                for (CVParam param : pgCvParams) {
-                    String accession = param.getAccession();
-                    String value = param.getValue();
-                    if ((accession == null) || (value == null))
-                        continue;
-                    if (accession.equals("MS:1000041")) {
-                        int precursorCharge = Integer.parseInt(value);
-                        return precursorCharge;
-                    }
-
-                }
-
-            }
+    /**
+     * Adds the scan to the raw data file. If the spectrum was found in the
+     * index of the file, its data points are left in the file.
+     */
+    private void writeScan(SimpleScan scan) throws IOException {
+        Long position = scanPositions.remove(scan.getScanNumber());
+        if ((position != null) && (position >= 0)) {
+            ((RawDataFileImpl) newMZmineFile).addScan(scan, source, position);
+            sourceUsed = true;
+        } else {
+            newMZmineFile.addScan(scan);
         }
-        return 0;
     }
 
     public String getTaskDescription() {
@@ -400,4 +304,4 @@ public class MzMLReadTask extends AbstractTask {
         return new Object[] { finalRawDataFile };
     }
 
-}
\ No newline at end of file
+}
@@ -38,6 +38,7 @@ import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
 import net.sf.mzmine.taskcontrol.AbstractTask;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.CompressionUtils;
@@ -50,7 +51,9 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
- * 
+ * This class reads mzXML files. If the file is indexed, the data points of the
+ * scans are not copied to the temporary file, but decoded from the mzXML file
+ * when needed (see IndexedMzXMLSource).
  */
 public class MzXMLReadTask extends AbstractTask {
 
@@ -90,6 +93,10 @@ public class MzXMLReadTask extends AbstractTask {
 	 */
 	private SimpleScan buildingScan;
 
+	// Source of the data points, if the file is indexed
+	private IndexedMzXMLSource source;
+	private boolean sourceUsed;
+
 	public MzXMLReadTask(File fileToOpen, RawDataFileWriter newMZmineFile) {
 		// 256 kilo-chars buffer
 		charBuffer = new StringBuilder(1 << 18);
@@ -120,6 +127,9 @@ public class MzXMLReadTask extends AbstractTask {
 
 			dataTypeFactory = DatatypeFactory.newInstance();
 
+			if (newMZmineFile instanceof RawDataFileImpl)
+				source = IndexedMzXMLSource.open(file);
+
 			SAXParser saxParser = factory.newSAXParser();
 			saxParser.parse(file, handler);
 
@@ -133,8 +143,21 @@ public class MzXMLReadTask extends AbstractTask {
 				errorMessage = ExceptionUtils.exceptionToString(e);
 			}
 			return;
+		} finally {
+			// The raw data file closes the source when it is closed
+			if ((source != null) && ((finalRawDataFile == null) || !sourceUsed)) {
+				try {
+					source.close();
+				} catch (IOException e) {
+					logger.warning("Could not close file " + file + ": " + e);
+				}
+			}
 		}
 
+		if (sourceUsed)
+			logger.info("Data points of " + file
+					+ " are read from the file when needed");
+
 		if (parsedScans == 0) {
 			setStatus(TaskStatus.ERROR);
 			errorMessage = "No scans found";
@@ -147,6 +170,69 @@ public class MzXMLReadTask extends AbstractTask {
 
 	}
 
+	/**
+	 * Adds the scan to the raw data file. If the scan is found in the index of
+	 * the file, its data points are left in the file.
+	 */
+	private void addScan(SimpleScan scan) throws IOException {
+		Long position = null;
+		if (source != null)
+			position = source.getPosition(String.valueOf(scan
+					.getScanNumber()));
+		if (position != null) {
+			((RawDataFileImpl) newMZmineFile).addScan(scan, source, position);
+			sourceUsed = true;
+		} else {
+			newMZmineFile.addScan(scan);
+		}
+	}
+
+	/**
+	 * Decodes the base64 encoded content of a peaks element, i.e. pairs of
+	 * big endian m/z and intensity values
+	 *
+	 * @param compressed
+	 *            true if the data is zlib compressed
+	 * @param precision
+	 *            precision attribute of the peaks element, "32" or "64"
+	 */
+	static DataPoint[] decodePeaks(String encodedPeaks, boolean compressed,
+			String precision, int peaksCount) throws DataFormatException,
+			IOException {
+
+		byte[] peakBytes = Base64.decode(encodedPeaks);
+
+		if (compressed)
+			peakBytes = CompressionUtils.decompress(peakBytes);
+
+		// make a data input stream
+		DataInputStream peakStream = new DataInputStream(
+				new ByteArrayInputStream(peakBytes));
+
+		DataPoint completeDataPoints[] = new DataPoint[peaksCount];
+
+		for (int i = 0; i < completeDataPoints.length; i++) {
+
+			// Always respect this order pairOrder="m/z-int"
+			double massOverCharge;
+			double intensity;
+			if ("64".equals(precision)) {
+				massOverCharge = peakStream.readDouble();
+				intensity = peakStream.readDouble();
+			} else {
+				massOverCharge = (double) peakStream.readFloat();
+				intensity = (double) peakStream.readFloat();
+			}
+
+			// Copy m/z and intensity data
+			completeDataPoints[i] = new SimpleDataPoint(massOverCharge,
+					intensity);
+
+		}
+
+		return completeDataPoints;
+	}
+
 	public String getTaskDescription() {
 		return "Opening file" + file;
 	}
@@ -281,7 +367,7 @@ public class MzXMLReadTask extends AbstractTask {
 					while (!parentStack.isEmpty()) {
 						SimpleScan currentScan = parentStack.removeLast();
 						try {
-							newMZmineFile.addScan(currentScan);
+							addScan(currentScan);
 						} catch (IOException e) {
 							setStatus(TaskStatus.ERROR);
 							errorMessage = "IO error: " + e;
@@ -311,44 +397,14 @@ public class MzXMLReadTask extends AbstractTask {
 			// <peaks>
 			if (qName.equalsIgnoreCase("peaks")) {
 
-				byte[] peakBytes = Base64.decode(charBuffer.toString());
-
-				if (compressFlag) {
-					try {
-						peakBytes = CompressionUtils.decompress(peakBytes);
-					} catch (DataFormatException e) {
-						setStatus(TaskStatus.ERROR);
-						errorMessage = "Corrupt compressed peak: "
-								+ e.toString();
-						throw new SAXException("Parsing Cancelled");
-					}
-				}
-
-				// make a data input stream
-				DataInputStream peakStream = new DataInputStream(
-						new ByteArrayInputStream(peakBytes));
-
-				DataPoint completeDataPoints[] = new DataPoint[peaksCount];
-
+				DataPoint completeDataPoints[];
 				try {
-					for (int i = 0; i < completeDataPoints.length; i++) {
-
-						// Always respect this order pairOrder="m/z-int"
-						double massOverCharge;
-						double intensity;
-						if ("64".equals(precision)) {
-							massOverCharge = peakStream.readDouble();
-							intensity = peakStream.readDouble();
-						} else {
-							massOverCharge = (double) peakStream.readFloat();
-							intensity = (double) peakStream.readFloat();
-						}
-
-						// Copy m/z and intensity data
-						completeDataPoints[i] = new SimpleDataPoint(
-								massOverCharge, intensity);
-
-					}
+					completeDataPoints = decodePeaks(charBuffer.toString(),
+							compressFlag, precision, peaksCount);
+				} catch (DataFormatException e) {
+					setStatus(TaskStatus.ERROR);
+					errorMessage = "Corrupt compressed peak: " + e.toString();
+					throw new SAXException("Parsing Cancelled");
 				} catch (IOException eof) {
 					setStatus(TaskStatus.ERROR);
 					errorMessage = "Corrupt mzXML file";
@@ -21,7 +21,6 @@ package net.sf.mzmine.modules.visualization.threed;
 
 import java.util.logging.Logger;
 
-import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.taskcontrol.AbstractTask;
@@ -116,6 +115,10 @@ class ThreeDSamplingTask extends AbstractTask {
                     * rtResolution];
             boolean rtDataSet[] = new boolean[rtResolution];
 
+            // arrays for reading the scans, reused for all scans
+            double[] scanMZValues = new double[0];
+            double[] scanIntensityValues = new double[0];
+
             // load scans
             for (int scanIndex = 0; scanIndex < scanNumbers.length; scanIndex++) {
 
@@ -124,17 +127,16 @@ class ThreeDSamplingTask extends AbstractTask {
 
                 Scan scan = dataFile.getScan(scanNumbers[scanIndex]);
 
-                DataPoint dataPoints[] = scan.getDataPoints();
-                double[] scanMZValues = new double[dataPoints.length];
-                double[] scanIntensityValues = new double[dataPoints.length];
-                for (int dp = 0; dp < dataPoints.length; dp++) {
-                    scanMZValues[dp] = dataPoints[dp].getMZ();
-                    scanIntensityValues[dp] = dataPoints[dp].getIntensity();
+                if (scanMZValues.length < scan.getNumberOfDataPoints()) {
+                    scanMZValues = new double[scan.getNumberOfDataPoints()];
+                    scanIntensityValues = new double[scan.getNumberOfDataPoints()];
                 }
+                int numOfDataPoints = scan.getDataPoints(scanMZValues,
+                        scanIntensityValues);
 
                 double[] binnedIntensities = ScanUtils.binValues(scanMZValues,
-                        scanIntensityValues, mzRange, mzResolution,
-                        !scan.isCentroided(), BinningType.MAX);
+                        scanIntensityValues, numOfDataPoints, mzRange,
+                        mzResolution, !scan.isCentroided(), BinningType.MAX);
 
                 int scanBinIndex;
 
@@ -26,17 +26,13 @@ import java.util.LinkedList;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.Scan;
-import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskEvent;
 import net.sf.mzmine.taskcontrol.TaskListener;
 import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
-import net.sf.mzmine.util.DataPointSorter;
 import net.sf.mzmine.util.Range;
-import net.sf.mzmine.util.SortingDirection;
-import net.sf.mzmine.util.SortingProperty;
 
 import org.jfree.data.xy.AbstractXYDataset;
 
@@ -49,7 +45,8 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
 	private double retentionTimes[];
 	private double basePeaks[];
-	private SoftReference<DataPoint[]> dataPointMatrix[];
+	// m/z values (index 0) and intensities (index 1) of each scan
+	private SoftReference<double[][]> dataPointMatrix[];
 
 	private Range totalRTRange, totalMZRange;
 	private int scanNumbers[], totalScans, processedScans;
@@ -95,9 +92,8 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 			retentionTimes[index] = scan.getRetentionTime();
 			basePeaks[index] = (scanBasePeak == null ? 0 : scanBasePeak
 					.getIntensity());
-			DataPoint scanDataPoints[] = scan.getDataPoints();
-			dataPointMatrix[index] = new SoftReference<DataPoint[]>(
-					scanDataPoints);
+			dataPointMatrix[index] = new SoftReference<double[][]>(
+					readScan(scan));
 			processedScans++;
 		}
 
@@ -206,60 +202,69 @@ class TwoDDataSet extends AbstractXYDataset implements Task {
 
 	}
 
+	/**
+	 * Reads the m/z and intensity values of given scan, without creating
+	 * DataPoint objects
+	 */
+	private double[][] readScan(Scan scan) {
+		double values[][] = new double[2][scan.getNumberOfDataPoints()];
+		int numOfDataPoints = scan.getDataPoints(values[0], values[1]);
+		if (numOfDataPoints < values[0].length) {
+			values[0] = Arrays.copyOf(values[0], numOfDataPoints);
+			values[1] = Arrays.copyOf(values[1], numOfDataPoints);
+		}
+		return values;
+	}
+
 	private double getMaxIntensity(int dataPointMatrixIndex, Range mzRange,
 			PlotMode plotMode) {
-		DataPoint dataPoints[] = dataPointMatrix[dataPointMatrixIndex].get();
-		if (dataPoints == null) {
+		double values[][] = dataPointMatrix[dataPointMatrixIndex].get();
+		if (values == null) {
 			Scan scan = rawDataFile.getScan(scanNumbers[dataPointMatrixIndex]);
-			dataPoints = scan.getDataPoints();
-			dataPointMatrix[dataPointMatrixIndex] = new SoftReference<DataPoint[]>(
-					dataPoints);
+			values = readScan(scan);
+			dataPointMatrix[dataPointMatrixIndex] = new SoftReference<double[][]>(
+					values);
 		}
-		return getMaxIntensity(dataPoints, mzRange, plotMode);
+		return getMaxIntensity(values[0], values[1], mzRange, plotMode);
 	}
 
-	private double getMaxIntensity(DataPoint dataPoints[], Range mzRange,
-			PlotMode plotMode) {
+	private double getMaxIntensity(double mzValues[],
+			double intensityValues[], Range mzRange, PlotMode plotMode) {
 
 		double maxIntensity = 0;
 
-		DataPoint searchMZ = new SimpleDataPoint(mzRange.getMin(), 0);
-		int startMZIndex = Arrays.binarySearch(dataPoints, searchMZ,
-				new DataPointSorter(SortingProperty.MZ,
-						SortingDirection.Ascending));
+		int startMZIndex = Arrays.binarySearch(mzValues, mzRange.getMin());
 		if (startMZIndex < 0)
 			startMZIndex = (startMZIndex * -1) - 1;
 
-		if (startMZIndex >= dataPoints.length)
+		if (startMZIndex >= mzValues.length)
 			return 0;
 
-		if (dataPoints[startMZIndex].getMZ() > mzRange.getMax()) {
+		if (mzValues[startMZIndex] > mzRange.getMax()) {
 			if (plotMode != PlotMode.CENTROID) {
 				if (startMZIndex == 0)
 					return 0;
-				if (startMZIndex == dataPoints.length - 1)
-					return dataPoints[startMZIndex - 1].getIntensity();
+				if (startMZIndex == mzValues.length - 1)
+					return intensityValues[startMZIndex - 1];
 
 				// find which data point is closer
-				double diffNext = dataPoints[startMZIndex].getMZ()
-						- mzRange.getMax();
-				double diffPrev = mzRange.getMin()
-						- dataPoints[startMZIndex - 1].getMZ();
+				double diffNext = mzValues[startMZIndex] - mzRange.getMax();
+				double diffPrev = mzRange.getMin() - mzValues[startMZIndex - 1];
 
 				if (diffPrev < diffNext)
-					return dataPoints[startMZIndex - 1].getIntensity();
+					return intensityValues[startMZIndex - 1];
 				else
-					return dataPoints[startMZIndex].getIntensity();
+					return intensityValues[startMZIndex];
 			} else {
 				return 0;
 			}
 
 		}
 
-		for (int mzIndex = startMZIndex; ((mzIndex < dataPoints.length) && (dataPoints[mzIndex]
-				.getMZ() <= mzRange.getMax())); mzIndex++) {
-			if (dataPoints[mzIndex].getIntensity() > maxIntensity)
-				maxIntensity = dataPoints[mzIndex].getIntensity();
+		for (int mzIndex = startMZIndex; ((mzIndex < mzValues.length) && (mzValues[mzIndex] <= mzRange
+				.getMax())); mzIndex++) {
+			if (intensityValues[mzIndex] > maxIntensity)
+				maxIntensity = intensityValues[mzIndex];
 		}
 
 		return maxIntensity;
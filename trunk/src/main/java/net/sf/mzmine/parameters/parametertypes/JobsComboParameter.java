@@ -78,7 +78,7 @@ public class JobsComboParameter implements UserParameter<String, JComboBox>
 			for (RemoteJob job : raw.getJobs())
 			{
 				choices[++job_count] = job.getName()
-							+ "    " + job.getStatus()
+							+ "    " + job.getStatusText()
 							+ "    " + raw.getName();
 			}
 		}
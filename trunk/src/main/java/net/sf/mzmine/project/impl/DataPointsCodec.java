@@ -0,0 +1,199 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.sf.mzmine.datamodel.DataPoint;
+
+/**
+ * Compact encoding of data points, used by compressed data points files. The
+ * values are stored as 4-byte floats like in the uncompressed file, so the
+ * encoding is lossless with respect to it.
+ *
+ * Before compression, the m/z values are written as the second differences of
+ * their float bits, zigzag encoded as variable-length integers. The m/z
+ * values of a scan are sorted and, in profile data, nearly equidistant, so
+ * most of them take a single byte. The intensities follow as four byte
+ * planes (the highest bytes of all intensities, then the second highest
+ * bytes, etc.), which puts the zero intensities and the similar exponents
+ * next to each other. The result is compressed by Deflater at its fastest
+ * level.
+ */
+class DataPointsCodec {
+
+	// Deflater and Inflater hold native memory, so each thread reuses its own
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.BEST_SPEED);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	private DataPointsCodec() {
+	}
+
+	/**
+	 * Encodes and compresses the given data points
+	 */
+	static byte[] encode(DataPoint dataPoints[]) {
+
+		final int numOfDataPoints = dataPoints.length;
+		byte encoded[] = new byte[getMaxEncodedLength(numOfDataPoints)];
+		int position = 0;
+
+		int previousBits = 0, previousDelta = 0;
+		for (DataPoint dp : dataPoints) {
+			final int bits = Float.floatToRawIntBits((float) dp.getMZ());
+			final int delta = bits - previousBits;
+			final int deltaOfDelta = delta - previousDelta;
+			previousBits = bits;
+			previousDelta = delta;
+
+			int zigzag = (deltaOfDelta << 1) ^ (deltaOfDelta >> 31);
+			while ((zigzag & ~0x7f) != 0) {
+				encoded[position++] = (byte) ((zigzag & 0x7f) | 0x80);
+				zigzag >>>= 7;
+			}
+			encoded[position++] = (byte) zigzag;
+		}
+
+		for (int i = 0; i < numOfDataPoints; i++) {
+			final int bits = Float.floatToRawIntBits((float) dataPoints[i]
+					.getIntensity());
+			encoded[position + i] = (byte) (bits >>> 24);
+			encoded[position + numOfDataPoints + i] = (byte) (bits >>> 16);
+			encoded[position + 2 * numOfDataPoints + i] = (byte) (bits >>> 8);
+			encoded[position + 3 * numOfDataPoints + i] = (byte) bits;
+		}
+		position += 4 * numOfDataPoints;
+
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setInput(encoded, 0, position);
+		deflater.finish();
+
+		// Incompressible data may grow a little
+		byte compressed[] = new byte[position + (position >> 4) + 64];
+		int compressedLength = 0;
+		while (!deflater.finished()) {
+			if (compressedLength == compressed.length) {
+				byte larger[] = new byte[compressed.length * 2];
+				System.arraycopy(compressed, 0, larger, 0, compressedLength);
+				compressed = larger;
+			}
+			compressedLength += deflater.deflate(compressed, compressedLength,
+					compressed.length - compressedLength);
+		}
+
+		byte result[] = new byte[compressedLength];
+		System.arraycopy(compressed, 0, result, 0, compressedLength);
+		return result;
+	}
+
+	/**
+	 * Decompresses and decodes data points encoded by encode()
+	 *
+	 * @param mzValues
+	 *            array receiving the m/z values
+	 * @param intensityValues
+	 *            array receiving the intensities
+	 */
+	static void decode(byte compressed[], int offset, int length,
+			int numOfDataPoints, float mzValues[], float intensityValues[])
+			throws IOException {
+
+		// One spare byte, so that the end of the data is always reached
+		byte encoded[] = new byte[getMaxEncodedLength(numOfDataPoints) + 1];
+		int encodedLength = 0;
+
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(compressed, offset, length);
+		try {
+			while (!inflater.finished() && (encodedLength < encoded.length)) {
+				int inflated = inflater.inflate(encoded, encodedLength,
+						encoded.length - encodedLength);
+				if ((inflated == 0)
+						&& (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				encodedLength += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt compressed data points", e);
+		}
+		if (!inflater.finished())
+			throw new IOException("Corrupt compressed data points");
+
+		int position = 0;
+		int previousBits = 0, previousDelta = 0;
+		try {
+			for (int i = 0; i < numOfDataPoints; i++) {
+				int zigzag = 0, shift = 0;
+				byte b;
+				do {
+					b = encoded[position++];
+					zigzag |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+
+				final int deltaOfDelta = (zigzag >>> 1) ^ -(zigzag & 1);
+				final int delta = previousDelta + deltaOfDelta;
+				final int bits = previousBits + delta;
+				previousBits = bits;
+				previousDelta = delta;
+				mzValues[i] = Float.intBitsToFloat(bits);
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt compressed data points");
+		}
+
+		if (position + 4 * numOfDataPoints != encodedLength)
+			throw new IOException("Corrupt compressed data points, expected "
+					+ numOfDataPoints + " data points");
+
+		for (int i = 0; i < numOfDataPoints; i++) {
+			final int bits = ((encoded[position + i] & 0xff) << 24)
+					| ((encoded[position + numOfDataPoints + i] & 0xff) << 16)
+					| ((encoded[position + 2 * numOfDataPoints + i] & 0xff) << 8)
+					| (encoded[position + 3 * numOfDataPoints + i] & 0xff);
+			intensityValues[i] = Float.intBitsToFloat(bits);
+		}
+	}
+
+	/**
+	 * Returns the maximum length of the encoded data points before
+	 * compression: at most 5 bytes per m/z value and 4 bytes per intensity
+	 */
+	private static int getMaxEncodedLength(int numOfDataPoints) {
+		return numOfDataPoints * 9;
+	}
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.IOException;
+
+import net.sf.mzmine.datamodel.DataPoint;
+
+/**
+ * Original raw data file from which the data points of scans can be decoded
+ * on demand, e.g. an indexed mzXML or mzML file. Each scan is identified by
+ * its position (typically the byte offset given by the index of the file).
+ *
+ * Implementations must allow readDataPoints() to be called by many threads at
+ * once.
+ */
+public interface DataPointsSource {
+
+	/**
+	 * Decodes the data points of the scan at given position. The data points
+	 * must be the same as the data points of the scan when it was added to
+	 * the raw data file.
+	 */
+	DataPoint[] readDataPoints(long position) throws IOException;
+
+	/**
+	 * @return Name of the source, used in messages
+	 */
+	String getName();
+
+	/**
+	 * Releases the resources of the source. No data points are read after
+	 * closing.
+	 */
+	void close() throws IOException;
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.mzmine.datamodel.DataPoint;
+
+/**
+ * Least recently used cache of the data points of scans decoded from a
+ * DataPointsSource, by storage ID. The data points are kept in the same form
+ * as in the data points file (m/z and intensity as interleaved floats), so a
+ * scan reads the same values whether it was decoded from the source or
+ * stored in the data points file. The total number of cached data points is
+ * limited by maxDataPoints.
+ */
+class DecodedScanCache {
+
+	private final long maxDataPoints;
+	private long numOfDataPoints;
+
+	// Access order, the eldest entry is the least recently used
+	private final LinkedHashMap<Integer, float[]> scans = new LinkedHashMap<Integer, float[]>(
+			16, 0.75f, true);
+
+	DecodedScanCache(long maxDataPoints) {
+		this.maxDataPoints = maxDataPoints;
+	}
+
+	/**
+	 * Converts the data points to the cached form
+	 */
+	static float[] toFloats(DataPoint dataPoints[]) {
+		float values[] = new float[dataPoints.length * 2];
+		for (int i = 0; i < dataPoints.length; i++) {
+			values[i * 2] = (float) dataPoints[i].getMZ();
+			values[i * 2 + 1] = (float) dataPoints[i].getIntensity();
+		}
+		return values;
+	}
+
+	/**
+	 * @return cached data points, or null if the scan is not cached
+	 */
+	synchronized float[] get(int storageID) {
+		return scans.get(storageID);
+	}
+
+	synchronized void put(int storageID, float values[]) {
+
+		final int size = values.length / 2;
+		if (size > maxDataPoints)
+			return;
+
+		float previous[] = scans.put(storageID, values);
+		if (previous != null)
+			numOfDataPoints -= previous.length / 2;
+		numOfDataPoints += size;
+
+		// Evict the least recently used scans
+		Iterator<Map.Entry<Integer, float[]>> iterator = scans.entrySet()
+				.iterator();
+		while (numOfDataPoints > maxDataPoints) {
+			Map.Entry<Integer, float[]> eldest = iterator.next();
+			numOfDataPoints -= eldest.getValue().length / 2;
+			iterator.remove();
+		}
+	}
+
+	synchronized void remove(int storageID) {
+		float previous[] = scans.remove(storageID);
+		if (previous != null)
+			numOfDataPoints -= previous.length / 2;
+	}
+
+	synchronized void clear() {
+		scans.clear();
+		numOfDataPoints = 0;
+	}
+
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+
+/**
+ * Temporary file holding the data points of one raw data file. Each data point
+ * is stored as two 4-byte floats (m/z and intensity). In a compressed file,
+ * each record is instead a 4-byte length followed by the data points encoded
+ * by DataPointsCodec. Compressed records are encoded before taking the write
+ * lock and decoded by the reading thread.
+ *
+ * Appends are serialized through a single writer, which uses positional writes
+ * on the file channel. Reads do not take any lock: the file is mapped into
+ * memory in segments of SEGMENT_SIZE bytes and each read works on its own
+ * slice of the mapped segment, so any number of threads can read the data
+ * points of the same file concurrently. A segment is mapped only once it is
+ * complete, so each segment is mapped exactly once. Records in the last,
+ * incomplete segment and records crossing a segment boundary are read with a
+ * positional read, which does not affect other readers either.
+ */
+class MappedDataPointsFile {
+
+	private static final Logger logger = Logger
+			.getLogger(MappedDataPointsFile.class.getName());
+
+	// Size of one mapped segment (64 MB)
+	static final int SEGMENT_SIZE = 1 << 26;
+
+	private final File fileName;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final boolean compressed;
+
+	// Mapped segments, indexed by segment number
+	private final ConcurrentHashMap<Integer, MappedByteBuffer> segments = new ConcurrentHashMap<Integer, MappedByteBuffer>();
+
+	// Number of bytes written so far. Readers never look past this offset.
+	private volatile long length;
+
+	// Buffer used by the writer, guarded by writeLock
+	private final Object writeLock = new Object();
+	private ByteBuffer writeBuffer = ByteBuffer.allocate(20000);
+
+	MappedDataPointsFile(File fileName) throws IOException {
+		this(fileName, false);
+	}
+
+	/**
+	 * @param compressed
+	 *            whether the records are encoded by DataPointsCodec. Files of
+	 *            saved projects are never compressed.
+	 */
+	MappedDataPointsFile(File fileName, boolean compressed) throws IOException {
+
+		this.fileName = fileName;
+		this.compressed = compressed;
+		this.file = new RandomAccessFile(fileName, "rw");
+		this.channel = file.getChannel();
+
+		// Locks the temporary file so it is not removed when another instance
+		// of MZmine is starting. Lock will be automatically released when this
+		// instance of MZmine exits.
+		channel.lock();
+
+		// The file may already contain data points (e.g. when loading a
+		// project)
+		this.length = channel.size();
+
+	}
+
+	File getFileName() {
+		return fileName;
+	}
+
+	RandomAccessFile getFile() {
+		return file;
+	}
+
+	long length() {
+		return length;
+	}
+
+	boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Appends the given data points to the end of the file.
+	 *
+	 * @return offset of the first written byte
+	 */
+	long append(DataPoint dataPoints[]) throws IOException {
+
+		final byte encoded[] = compressed ? DataPointsCodec.encode(dataPoints)
+				: null;
+		final int numOfBytes = compressed ? 4 + encoded.length
+				: dataPoints.length * 2 * 4;
+
+		synchronized (writeLock) {
+
+			if (writeBuffer.capacity() < numOfBytes) {
+				writeBuffer = ByteBuffer.allocate(numOfBytes * 2);
+			} else {
+				writeBuffer.clear();
+			}
+
+			if (compressed) {
+				writeBuffer.putInt(encoded.length);
+				writeBuffer.put(encoded);
+			} else {
+				FloatBuffer floatBuffer = writeBuffer.asFloatBuffer();
+				for (DataPoint dp : dataPoints) {
+					floatBuffer.put((float) dp.getMZ());
+					floatBuffer.put((float) dp.getIntensity());
+				}
+			}
+			writeBuffer.position(0);
+			writeBuffer.limit(numOfBytes);
+
+			final long offset = length;
+			long position = offset;
+			while (writeBuffer.hasRemaining()) {
+				position += channel.write(writeBuffer, position);
+			}
+
+			// Publish the new data to the readers
+			length = position;
+
+			return offset;
+		}
+
+	}
+
+	/**
+	 * Reads the given number of data points starting at given offset. This
+	 * method may be called by any number of threads concurrently.
+	 */
+	DataPoint[] read(long offset, int numOfDataPoints) throws IOException {
+
+		if (compressed) {
+			float mzValues[] = new float[numOfDataPoints];
+			float intensityValues[] = new float[numOfDataPoints];
+			decode(offset, numOfDataPoints, mzValues, intensityValues);
+			DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+			for (int i = 0; i < numOfDataPoints; i++)
+				dataPoints[i] = new SimpleDataPoint(mzValues[i],
+						intensityValues[i]);
+			return dataPoints;
+		}
+
+		final int numOfBytes = numOfDataPoints * 2 * 4;
+
+		FloatBuffer floatBuffer = getBytes(offset, numOfBytes).asFloatBuffer();
+
+		DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+		for (int i = 0; i < numOfDataPoints; i++) {
+			float mz = floatBuffer.get();
+			float intensity = floatBuffer.get();
+			dataPoints[i] = new SimpleDataPoint(mz, intensity);
+		}
+
+		return dataPoints;
+	}
+
+	/**
+	 * Reads the given number of data points starting at given offset into the
+	 * given m/z and intensity arrays. This method may be called by any number
+	 * of threads concurrently.
+	 */
+	void read(long offset, int numOfDataPoints, double mzValues[],
+			double intensityValues[]) throws IOException {
+
+		if ((mzValues.length < numOfDataPoints)
+				|| (intensityValues.length < numOfDataPoints)) {
+			throw new IllegalArgumentException("Arrays too small for "
+					+ numOfDataPoints + " data points");
+		}
+
+		if (compressed) {
+			float mzFloats[] = new float[numOfDataPoints];
+			float intensityFloats[] = new float[numOfDataPoints];
+			decode(offset, numOfDataPoints, mzFloats, intensityFloats);
+			for (int i = 0; i < numOfDataPoints; i++) {
+				mzValues[i] = mzFloats[i];
+				intensityValues[i] = intensityFloats[i];
+			}
+			return;
+		}
+
+		final int numOfBytes = numOfDataPoints * 2 * 4;
+
+		FloatBuffer floatBuffer = getBytes(offset, numOfBytes).asFloatBuffer();
+
+		for (int i = 0; i < numOfDataPoints; i++) {
+			mzValues[i] = floatBuffer.get();
+			intensityValues[i] = floatBuffer.get();
+		}
+	}
+
+	/**
+	 * Returns the given number of data points starting at given offset as two
+	 * 4-byte floats per data point, i.e. in the layout of an uncompressed
+	 * file, whether this file is compressed or not. This method may be called
+	 * by any number of threads concurrently.
+	 */
+	ByteBuffer readUncompressed(long offset, int numOfDataPoints)
+			throws IOException {
+
+		if (!compressed)
+			return getBytes(offset, numOfDataPoints * 2 * 4);
+
+		float mzValues[] = new float[numOfDataPoints];
+		float intensityValues[] = new float[numOfDataPoints];
+		decode(offset, numOfDataPoints, mzValues, intensityValues);
+
+		ByteBuffer buffer = ByteBuffer.allocate(numOfDataPoints * 2 * 4);
+		FloatBuffer floatBuffer = buffer.asFloatBuffer();
+		for (int i = 0; i < numOfDataPoints; i++) {
+			floatBuffer.put(mzValues[i]);
+			floatBuffer.put(intensityValues[i]);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Decodes the compressed record at given offset
+	 */
+	private void decode(long offset, int numOfDataPoints, float mzValues[],
+			float intensityValues[]) throws IOException {
+
+		final int encodedLength = getBytes(offset, 4).getInt();
+		if ((encodedLength < 0) || (offset + 4 + encodedLength > length)) {
+			throw new IOException("Invalid record length " + encodedLength
+					+ " at offset " + offset + " of file " + fileName);
+		}
+
+		byte encoded[] = new byte[encodedLength];
+		getBytes(offset + 4, encodedLength).get(encoded);
+		DataPointsCodec.decode(encoded, 0, encodedLength, numOfDataPoints,
+				mzValues, intensityValues);
+	}
+
+	/**
+	 * Returns a read-only buffer containing the given range of the file. The
+	 * returned buffer is private to the caller.
+	 */
+	ByteBuffer getBytes(long offset, int numOfBytes) throws IOException {
+
+		final long end = offset + numOfBytes;
+		if (end > length) {
+			throw new EOFException("Cannot read " + numOfBytes
+					+ " bytes at offset " + offset + " of file " + fileName
+					+ ", file length is " + length);
+		}
+
+		final int segmentNumber = (int) (offset / SEGMENT_SIZE);
+		final long segmentStart = (long) segmentNumber * SEGMENT_SIZE;
+
+		// Record crossing a segment boundary or lying in the last segment,
+		// which is not complete yet, read it directly
+		if ((end > segmentStart + SEGMENT_SIZE)
+				|| (length < segmentStart + SEGMENT_SIZE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(numOfBytes);
+			while (buffer.hasRemaining()) {
+				int read = channel.read(buffer, offset + buffer.position());
+				if (read < 0)
+					throw new EOFException("Unexpected end of file "
+							+ fileName);
+			}
+			buffer.flip();
+			return buffer.asReadOnlyBuffer();
+		}
+
+		MappedByteBuffer segment = segments.get(segmentNumber);
+		if (segment == null) {
+			segment = channel.map(FileChannel.MapMode.READ_ONLY,
+					segmentStart, SEGMENT_SIZE);
+			MappedByteBuffer previous = segments.putIfAbsent(segmentNumber,
+					segment);
+			if (previous != null)
+				segment = previous;
+		}
+
+		// Each reader gets its own view, so positions are not shared
+		ByteBuffer slice = segment.duplicate();
+		slice.position((int) (offset - segmentStart));
+		slice.limit((int) (end - segmentStart));
+		return slice.slice();
+
+	}
+
+	/**
+	 * Closes and removes the file. The mapped segments are released by the
+	 * garbage collector, and until then some systems (e.g. Windows) refuse to
+	 * delete the file. In that case the file is left to deleteOnExit() and to
+	 * the TmpFileCleanup of the next start.
+	 */
+	void close() throws IOException {
+		segments.clear();
+		file.close();
+		if (!fileName.delete()) {
+			logger.warning("Could not delete file " + fileName
+					+ " yet, it will be removed on exit");
+			fileName.deleteOnExit();
+		}
+	}
+
+}
@@ -23,28 +23,23 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.Set;
-import java.util.TreeMap;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Logger;
 
 import javax.annotation.Nonnull;
 
-import veritomyxSaaS.VeritomyxSaaS;
 import net.sf.mzmine.datamodel.DataPoint;
 import net.sf.mzmine.datamodel.RawDataFile;
 import net.sf.mzmine.datamodel.RawDataFileWriter;
 import net.sf.mzmine.datamodel.Scan;
 import net.sf.mzmine.datamodel.impl.RemoteJob;
+import net.sf.mzmine.datamodel.impl.RemoteJobMonitor;
 import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
 import net.sf.mzmine.main.MZmineCore;
-import net.sf.mzmine.util.CollectionUtils;
 import net.sf.mzmine.util.Range;
 
 /**
@@ -58,6 +53,26 @@ import net.sf.mzmine.util.Range;
  * the storage ID is just deleted from the two TreeMaps. When the project is
  * saved, the contents of the dataPointsFile are consolidated - only data points
  * referenced by the TreeMaps are saved (see the RawDataFileSaveHandler class).
+ * 
+ * The two maps are concurrent and the data points file is memory-mapped (see
+ * MappedDataPointsFile), so readDataPoints() does not take any lock and can be
+ * called by many threads at once. Only storeDataPoints() is serialized.
+ * 
+ * Scans imported from an indexed file (e.g. indexed mzXML or mzML) may keep
+ * their data points in the original file instead: such scans are added by
+ * addScan(Scan, DataPointsSource, long), their storage IDs are mapped to the
+ * position of the scan in the source by sourcePositions, and the data points
+ * are decoded on demand. The recently decoded scans are kept in a bounded
+ * cache. The data points are copied to the data points file only when they
+ * are needed there, i.e. when the project is saved (see
+ * materializeDataPoints()). Mass lists are always stored in the data points
+ * file.
+ * 
+ * The data points file created for a new raw data file may be compressed (see
+ * setCompressDataPoints() and DataPointsCodec). The storage IDs and lengths
+ * keep their meaning, only the offsets point to compressed records. Saved
+ * projects always contain the uncompressed data points (see
+ * getDataPointsBytes()).
  */
 public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
@@ -68,18 +83,30 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     private final Hashtable<Integer, Range> dataMZRange, dataRTRange;
     private final Hashtable<Integer, Double> dataMaxBasePeakIntensity, dataMaxTIC;
-    private final Hashtable<Integer, int[]> scanNumbersCache;
 
-    private ByteBuffer buffer = ByteBuffer.allocate(20000);
-    private final TreeMap<Integer, Long> dataPointsOffsets;
-    private final TreeMap<Integer, Integer> dataPointsLengths;
+    // Index of scan numbers, built on demand and dropped when scans are added
+    private volatile ScanIndex scanIndex;
+
+    private final ConcurrentSkipListMap<Integer, Long> dataPointsOffsets;
+    private final ConcurrentSkipListMap<Integer, Integer> dataPointsLengths;
+
+    // Maximum number of data points kept in the cache of decoded scans (about
+    // 16 MB)
+    private static final int MAX_CACHED_DATA_POINTS = 1 << 21;
+
+    // Scans whose data points are read from the original file
+    private volatile DataPointsSource dataPointsSource;
+    private final ConcurrentSkipListMap<Integer, Long> sourcePositions;
+    private final DecodedScanCache decodedScans;
 
     // Remote job information
     private ArrayList<RemoteJob> jobs_info = null;
 
     // Temporary file for scan data storage
-    private File dataPointsFileName;
-    private RandomAccessFile dataPointsFile;
+    private volatile MappedDataPointsFile dataPointsFile;
+
+    // Whether the data points file is compressed when it is created
+    private boolean compressDataPoints = false;
 
     /**
      * Scans
@@ -91,14 +118,15 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 		this.dataFileName = dataFileName;
 	
 		// Prepare the hashtables for scan numbers and data limits.
-		scanNumbersCache         = new Hashtable<Integer, int[]>();
 		dataMZRange              = new Hashtable<Integer, Range>();
 		dataRTRange              = new Hashtable<Integer, Range>();
 		dataMaxBasePeakIntensity = new Hashtable<Integer, Double>();
 		dataMaxTIC               = new Hashtable<Integer, Double>();
 		scans                    = new Hashtable<Integer, StorableScan>();
-		dataPointsOffsets        = new TreeMap<Integer, Long>();
-		dataPointsLengths        = new TreeMap<Integer, Integer>();
+		dataPointsOffsets        = new ConcurrentSkipListMap<Integer, Long>();
+		dataPointsLengths        = new ConcurrentSkipListMap<Integer, Integer>();
+		sourcePositions          = new ConcurrentSkipListMap<Integer, Long>();
+		decodedScans             = new DecodedScanCache(MAX_CACHED_DATA_POINTS);
 		jobs_info                = new ArrayList<RemoteJob>();
     }
 
@@ -111,30 +139,46 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     /**
      * Returns the (already opened) data points file. Warning: may return null
-     * in case no scans have been added yet to this RawDataFileImpl instance
+     * in case no scans have been added yet to this RawDataFileImpl instance.
+     * The records of a compressed file are not in the raw format, use
+     * getDataPointsBytes() to read them.
      */
-    public RandomAccessFile getDataPointsFile() { return dataPointsFile; }
+    public RandomAccessFile getDataPointsFile()
+    {
+		MappedDataPointsFile file = dataPointsFile;
+		return (file == null) ? null : file.getFile();
+    }
+
+    /**
+     * Returns true if the data points file exists and is compressed, i.e. its
+     * records are not in the raw format
+     */
+    public boolean isDataPointsFileCompressed()
+    {
+		MappedDataPointsFile file = dataPointsFile;
+		return (file != null) && file.isCompressed();
+    }
 
     /**
      * Opens the given file as a data points file for this RawDataFileImpl
      * instance. If the file is not empty, the TreeMaps supplied as parameters
      * have to describe the mapping of storage IDs to data points in the file.
+     * Storage IDs may be added to these maps before or after opening the file.
      */
     public synchronized void openDataPointsFile(File dataPointsFileName)
 	    throws IOException
+	{
+		openDataPointsFile(dataPointsFileName, false);
+    }
+
+    private synchronized void openDataPointsFile(File dataPointsFileName,
+	    boolean compressed) throws IOException
 	{
 		if (this.dataPointsFile != null) {
 		    throw new IOException("Cannot open another data points file, because one is already open");
 		}
 	
-		this.dataPointsFileName = dataPointsFileName;
-		this.dataPointsFile = new RandomAccessFile(dataPointsFileName, "rw");
-	
-		// Locks the temporary file so it is not removed when another instance
-		// of MZmine is starting. Lock will be automatically released when this
-		// instance of MZmine exits.
-		FileChannel fileChannel = dataPointsFile.getChannel();
-		fileChannel.lock();
+		this.dataPointsFile = new MappedDataPointsFile(dataPointsFileName, compressed);
 	
 		// Unfortunately, deleteOnExit() doesn't work on Windows, see JDK
 		// bug #4171239. We will try to remove the temporary files in a
@@ -142,6 +186,16 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 		dataPointsFileName.deleteOnExit();	
     }
 
+    /**
+     * Sets whether the data points file, which is created when the first data
+     * points are stored, is compressed. Has no effect once the file exists
+     * (e.g. when it was opened by openDataPointsFile()).
+     */
+    public synchronized void setCompressDataPoints(boolean compress)
+    {
+		this.compressDataPoints = compress;
+    }
+
     /**
      * @see net.sf.mzmine.datamodel.RawDataFile#getNumOfScans()
      */
@@ -154,19 +208,27 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     Scan getScan(int scanNumber) { return scans.get(scanNumber); }
 
     /**
-     * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers(int)
+     * Returns the scan index, building it if necessary. The index is immutable,
+     * so it can be used without locking once obtained.
      */
-    public @Nonnull
-    int[] getScanNumbers(int msLevel)
+    private ScanIndex getScanIndex()
     {
-		if (scanNumbersCache.containsKey(msLevel))
-		    return scanNumbersCache.get(msLevel);
-		int scanNumbers[] = getScanNumbers(msLevel, new Range(
-			Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
-		scanNumbersCache.put(msLevel, scanNumbers);
-		return scanNumbers;
+		ScanIndex index = scanIndex;
+		if (index != null)
+		    return index;
+		synchronized (this) {
+		    if (scanIndex == null)
+			scanIndex = new ScanIndex(scans.values());
+		    return scanIndex;
+		}
     }
 
+    /**
+     * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers(int)
+     */
+    public @Nonnull
+    int[] getScanNumbers(int msLevel) { return getScanIndex().getScanNumbers(msLevel); }
+
     /**
      * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers(int, double, double)
      */
@@ -174,60 +236,32 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     int[] getScanNumbers(int msLevel, @Nonnull Range rtRange)
     {
 		assert rtRange != null;
-	
-		ArrayList<Integer> eligibleScanNumbers = new ArrayList<Integer>();
-	
-		Enumeration<StorableScan> scansEnum = scans.elements();
-		while (scansEnum.hasMoreElements()) {
-		    Scan scan = scansEnum.nextElement();
-	
-		    if ((scan.getMSLevel() == msLevel)
-			    && (rtRange.contains(scan.getRetentionTime())))
-			eligibleScanNumbers.add(scan.getScanNumber());
-		}
-	
-		int[] numbersArray = CollectionUtils.toIntArray(eligibleScanNumbers);
-		Arrays.sort(numbersArray);
-	
-		return numbersArray;
+		return getScanIndex().getScanNumbers(msLevel, rtRange);
     }
 
     /**
-     * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers()
+     * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers(int, Range, Range)
      */
     public @Nonnull
-    int[] getScanNumbers()
+    int[] getScanNumbers(int msLevel, @Nonnull Range rtRange,
+	    @Nonnull Range precursorMZRange)
     {
-		if (scanNumbersCache.containsKey(0))
-		    return scanNumbersCache.get(0);
-	
-		Set<Integer> allScanNumbers = scans.keySet();
-		int[] numbersArray = CollectionUtils.toIntArray(allScanNumbers);
-		Arrays.sort(numbersArray);
-	
-		scanNumbersCache.put(0, numbersArray);
-	
-		return numbersArray;
+		assert rtRange != null;
+		assert precursorMZRange != null;
+		return getScanIndex().getScanNumbers(msLevel, rtRange, precursorMZRange);
     }
 
+    /**
+     * @see net.sf.mzmine.datamodel.RawDataFile#getScanNumbers()
+     */
+    public @Nonnull
+    int[] getScanNumbers() { return getScanIndex().getScanNumbers(); }
+
     /**
      * @see net.sf.mzmine.datamodel.RawDataFile#getMSLevels()
      */
     public @Nonnull
-    int[] getMSLevels()
-    {
-		Set<Integer> msLevelsSet = new HashSet<Integer>();
-	
-		Enumeration<StorableScan> scansEnum = scans.elements();
-		while (scansEnum.hasMoreElements()) {
-		    Scan scan = scansEnum.nextElement();
-		    msLevelsSet.add(scan.getMSLevel());
-		}
-	
-		int[] msLevels = CollectionUtils.toIntArray(msLevelsSet);
-		Arrays.sort(msLevels);
-		return msLevels;
-    }
+    int[] getMSLevels() { return getScanIndex().getMSLevels().clone(); }
 
     /**
      * @see net.sf.mzmine.datamodel.RawDataFile#getDataMaxBasePeakIntensity()
@@ -304,85 +338,158 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     public synchronized int storeDataPoints(DataPoint dataPoints[])
 	    throws IOException
+	{
+		final int currentID = getNextStorageID();
+		storeDataPoints(currentID, dataPoints);
+		return currentID;
+    }
+
+    /**
+     * Returns the first storage ID which is not used yet, neither by the data
+     * points file nor by the source
+     */
+    private int getNextStorageID()
+    {
+		int lastID = 0;
+		if (!dataPointsOffsets.isEmpty())
+		    lastID = dataPointsOffsets.lastKey();
+		if (!sourcePositions.isEmpty())
+		    lastID = Math.max(lastID, sourcePositions.lastKey());
+		return lastID + 1;
+    }
+
+    private synchronized void storeDataPoints(int currentID,
+	    DataPoint dataPoints[]) throws IOException
 	{
 		if (dataPointsFile == null) {
 		    File newFile = RawDataFileImpl.createNewDataPointsFile();
-		    openDataPointsFile(newFile);
+		    openDataPointsFile(newFile, compressDataPoints);
 		}
 	
-		final long currentOffset = dataPointsFile.length();
-	
-		final int currentID;
-		if (!dataPointsOffsets.isEmpty())
-		    currentID = dataPointsOffsets.lastKey() + 1;
-		else
-		    currentID = 1;
-	
-		final int numOfDataPoints = dataPoints.length;
-	
-		// Convert the dataPoints into a byte array. Each float takes 4 bytes,
-		// so we get the current float offset by dividing the size of the file
-		// by 4
-		final int numOfBytes = numOfDataPoints * 2 * 4;
-	
-		if (buffer.capacity() < numOfBytes) {
-		    buffer = ByteBuffer.allocate(numOfBytes * 2);
-		} else {
-		    buffer.clear();
-		}
-	
-		FloatBuffer floatBuffer = buffer.asFloatBuffer();
-		for (DataPoint dp : dataPoints) {
-		    floatBuffer.put((float) dp.getMZ());
-		    floatBuffer.put((float) dp.getIntensity());
-		}
-	
-		dataPointsFile.seek(currentOffset);
-		dataPointsFile.write(buffer.array(), 0, numOfBytes);
+		final long currentOffset = dataPointsFile.append(dataPoints);
 	
+		// The length must be visible before the offset, because readers
+		// look up the offset first
+		dataPointsLengths.put(currentID, dataPoints.length);
 		dataPointsOffsets.put(currentID, currentOffset);
-		dataPointsLengths.put(currentID, numOfDataPoints);
-	
-		return currentID;
     }
 
-    public synchronized DataPoint[] readDataPoints(int ID) throws IOException
+    /**
+     * Reads the data points stored under given ID. This method is not
+     * synchronized and may be called from many threads at the same time.
+     */
+    public DataPoint[] readDataPoints(int ID) throws IOException
     {
 		final Long currentOffset = dataPointsOffsets.get(ID);
 		final Integer numOfDataPoints = dataPointsLengths.get(ID);
 	
 		if ((currentOffset == null) || (numOfDataPoints == null)) {
-		    throw new IllegalArgumentException("Unknown storage ID " + ID);
+		    float values[] = readSourceDataPoints(ID);
+		    DataPoint dataPoints[] = new DataPoint[values.length / 2];
+		    for (int i = 0; i < dataPoints.length; i++)
+			dataPoints[i] = new SimpleDataPoint(values[i * 2], values[i * 2 + 1]);
+		    return dataPoints;
 		}
 	
-		final int numOfBytes = numOfDataPoints * 2 * 4;
+		return dataPointsFile.read(currentOffset, numOfDataPoints);
+    }
+
+    /**
+     * Reads the data points stored under given ID into the given m/z and
+     * intensity arrays, without creating DataPoint objects. Like
+     * readDataPoints(int), this method is not synchronized.
+     * 
+     * @return number of data points read
+     */
+    public int readDataPoints(int ID, double mzValues[],
+	    double intensityValues[]) throws IOException
+    {
+		final Long currentOffset = dataPointsOffsets.get(ID);
+		final Integer numOfDataPoints = dataPointsLengths.get(ID);
 	
-		if (buffer.capacity() < numOfBytes) {
-		    buffer = ByteBuffer.allocate(numOfBytes * 2);
-		} else {
-		    buffer.clear();
+		if ((currentOffset == null) || (numOfDataPoints == null)) {
+		    float values[] = readSourceDataPoints(ID);
+		    final int size = values.length / 2;
+		    if ((mzValues.length < size) || (intensityValues.length < size)) {
+			throw new IllegalArgumentException("Arrays too small for "
+				+ size + " data points");
+		    }
+		    for (int i = 0; i < size; i++) {
+			mzValues[i] = values[i * 2];
+			intensityValues[i] = values[i * 2 + 1];
+		    }
+		    return size;
 		}
 	
-		dataPointsFile.seek(currentOffset);
-		dataPointsFile.read(buffer.array(), 0, numOfBytes);
-	
-		FloatBuffer floatBuffer = buffer.asFloatBuffer();
-	
-		DataPoint dataPoints[] = new DataPoint[numOfDataPoints];
+		dataPointsFile.read(currentOffset, numOfDataPoints, mzValues,
+			intensityValues);
 	
-		for (int i = 0; i < numOfDataPoints; i++) {
-		    float mz = floatBuffer.get();
-		    float intensity = floatBuffer.get();
-		    dataPoints[i] = new SimpleDataPoint(mz, intensity);
+		return numOfDataPoints;
+    }
+
+    /**
+     * Returns the given number of data points stored at given offset of the
+     * data points file as two 4-byte floats (m/z and intensity) per data
+     * point, which is the format of the data points in saved projects, whether
+     * the file is compressed or not. The offset and length are taken from a
+     * copy of the structure of the file (see getDataPointsOffsets()), so the
+     * data points are read even if their storage ID was removed in the
+     * meantime. Not synchronized, like readDataPoints(int).
+     */
+    public ByteBuffer getDataPointsBytes(long offset, int numOfDataPoints)
+	    throws IOException
+    {
+		return dataPointsFile.readUncompressed(offset, numOfDataPoints);
+    }
+
+    /**
+     * Returns the number of data points of all storage IDs, whether they are
+     * stored in the data points file or read from the source, i.e. the number
+     * of data points to be saved with the project
+     */
+    public synchronized long getNumOfDataPointsToSave()
+    {
+		long numOfDataPoints = 0;
+		for (Integer length : dataPointsLengths.values())
+		    numOfDataPoints += length;
+		for (StorableScan scan : scans.values()) {
+		    if (sourcePositions.containsKey(scan.getStorageID()))
+			numOfDataPoints += scan.getNumberOfDataPoints();
+		}
+		return numOfDataPoints;
+    }
+
+    /**
+     * Reads the data points of a scan kept in the source, from the cache of
+     * decoded scans or by decoding the scan. Not synchronized, scans may be
+     * decoded by many threads at the same time.
+     */
+    private float[] readSourceDataPoints(int ID) throws IOException
+    {
+		float values[] = decodedScans.get(ID);
+		if (values != null)
+		    return values;
+	
+		final Long position = sourcePositions.get(ID);
+		final DataPointsSource source = dataPointsSource;
+		if ((position == null) || (source == null)) {
+		    // The data points may have been materialized in the meantime
+		    if (dataPointsOffsets.containsKey(ID))
+			return DecodedScanCache.toFloats(readDataPoints(ID));
+		    throw new IllegalArgumentException("Unknown storage ID " + ID);
 		}
 	
-		return dataPoints;
+		values = DecodedScanCache.toFloats(source.readDataPoints(position));
+		decodedScans.put(ID, values);
+		return values;
     }
 
     public synchronized void removeStoredDataPoints(int ID) throws IOException
     {
 		dataPointsOffsets.remove(ID);
 		dataPointsLengths.remove(ID);
+		sourcePositions.remove(ID);
+		decodedScans.remove(ID);
     }
 
     public synchronized void addScan(Scan newScan) throws IOException
@@ -391,6 +498,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 		// and we just need store the reference
 		if (newScan instanceof StorableScan) {
 		    scans.put(newScan.getScanNumber(), (StorableScan) newScan);
+		    scanIndex = null;
 		    return;
 		}
 	
@@ -399,16 +507,71 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 	
 		StorableScan storedScan = new StorableScan(newScan, this, dataPoints.length, storageID);
 		scans.put(newScan.getScanNumber(), storedScan);
+		scanIndex = null;
+    }
+
+    /**
+     * Adds a scan whose data points stay in the given source, at given
+     * position, instead of being stored in the data points file. All such
+     * scans of this raw data file must come from the same source. The data
+     * points of the scan are only used to calculate the scan values (m/z
+     * range, base peak, TIC) and are not kept, except in the cache of decoded
+     * scans.
+     */
+    public synchronized void addScan(Scan newScan, DataPointsSource source,
+	    long position) throws IOException
+	{
+		if ((dataPointsSource != null) && (dataPointsSource != source)) {
+		    throw new IllegalArgumentException("Scans of " + dataFileName
+			    + " are already read from " + dataPointsSource.getName());
+		}
+		dataPointsSource = source;
+	
+		DataPoint dataPoints[] = newScan.getDataPoints();
+		final int storageID = getNextStorageID();
+		sourcePositions.put(storageID, position);
+		decodedScans.put(storageID, DecodedScanCache.toFloats(dataPoints));
+	
+		// Calculate the values now, while the data points are at hand
+		StorableScan storedScan = new StorableScan(newScan, this, dataPoints.length, storageID);
+		storedScan.updateValues();
+		scans.put(newScan.getScanNumber(), storedScan);
+		scanIndex = null;
+    }
+
+    /**
+     * Copies the data points of all scans read from the source to the data
+     * points file, keeping their storage IDs. Called before saving the
+     * project, because the saved data points are taken from the data points
+     * file. The source is kept open until close(), in case another thread is
+     * still decoding a scan.
+     */
+    public synchronized void materializeDataPoints() throws IOException
+    {
+		final DataPointsSource source = dataPointsSource;
+		if (source == null)
+		    return;
+	
+		logger.info("Copying data points of " + dataFileName + " from "
+			+ source.getName() + " to the temporary file");
+	
+		for (Integer storageID : sourcePositions.keySet()) {
+		    DataPoint dataPoints[] = readDataPoints(storageID);
+		    storeDataPoints(storageID, dataPoints);
+		    sourcePositions.remove(storageID);
+		}
+		decodedScans.clear();
     }
 
     /**
      * Add a remote job descriptor to the data file
      */
-    public synchronized void addJob(String name, RawDataFile raw, String targetName, VeritomyxSaaS vtmx)
+    public synchronized void addJob(String name, RawDataFile raw, String targetName)
     {
-    	RemoteJob job = new RemoteJob(name, raw, targetName, vtmx);
+    	RemoteJob job = new RemoteJob(name, raw, targetName);
     	this.jobs_info.add(job);
     	MZmineCore.getCurrentProject().addJob(job);
+    	RemoteJobMonitor.getInstance().addJob(job);
     }
     
     /**
@@ -422,6 +585,7 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
     		{
     			jobs_info.remove(job);
     	    	MZmineCore.getCurrentProject().removeJob(job);
+    	    	RemoteJobMonitor.getInstance().removeJob(job);
     	    	break;
     		}
     	}
@@ -437,10 +601,15 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
      */
     public synchronized RawDataFile finishWriting() throws IOException
     {
+		// The values of the scans read from the source were calculated when
+		// they were added
 		for (StorableScan scan : scans.values()) {
-		    scan.updateValues();
+		    if (!sourcePositions.containsKey(scan.getStorageID()))
+			scan.updateValues();
 		}
-		logger.finest("Writing of scans to file " + dataPointsFileName + " finished");
+		logger.finest("Writing of scans to file "
+			+ ((dataPointsFile == null) ? null : dataPointsFile.getFileName())
+			+ " finished");
 		return this;
     }
 
@@ -518,18 +687,31 @@ public class RawDataFileImpl implements RawDataFile, RawDataFileWriter {
 
     public int getNumOfScans(int msLevel) { return getScanNumbers(msLevel).length; }
 
-    public synchronized TreeMap<Integer, Long> getDataPointsOffsets() { return dataPointsOffsets; }
+    public SortedMap<Integer, Long> getDataPointsOffsets() { return dataPointsOffsets; }
 
-    public synchronized TreeMap<Integer, Integer> getDataPointsLengths() { return dataPointsLengths; }
+    public SortedMap<Integer, Integer> getDataPointsLengths() { return dataPointsLengths; }
 
     public synchronized void close()
     {
+		for (RemoteJob job : jobs_info)
+		    RemoteJobMonitor.getInstance().removeJob(job);
+		if (dataPointsSource != null) {
+		    try {
+			dataPointsSource.close();
+		    } catch (IOException e) {
+			logger.warning("Could not close file " + dataPointsSource.getName()
+				+ ": " + e.toString());
+		    }
+		    dataPointsSource = null;
+		}
+		decodedScans.clear();
+		if (dataPointsFile == null)
+		    return;
 		try {
 		    dataPointsFile.close();
-		    dataPointsFileName.delete();
 		} catch (IOException e) {
-		    logger.warning("Could not close file " + dataPointsFileName + ": "
-			    + e.toString());
+		    logger.warning("Could not close file " + dataPointsFile.getFileName()
+			    + ": " + e.toString());
 		}
     }
 
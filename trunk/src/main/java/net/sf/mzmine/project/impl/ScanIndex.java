@@ -0,0 +1,257 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.project.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import net.sf.mzmine.datamodel.Scan;
+import net.sf.mzmine.util.Range;
+
+/**
+ * Immutable index of the scans of one raw data file. For each MS level, it
+ * keeps the scan numbers sorted by retention time and by precursor m/z, so
+ * that scans in a retention time window (and precursor m/z window) can be
+ * found by binary search instead of enumerating all scans of the file.
+ *
+ * The index is built once from a snapshot of the scans. RawDataFileImpl
+ * creates a new index when a scan has been added.
+ */
+class ScanIndex {
+
+	private static final int EMPTY[] = new int[0];
+
+	private final int allScanNumbers[];
+	private final int msLevels[];
+	private final HashMap<Integer, LevelIndex> levels = new HashMap<Integer, LevelIndex>();
+
+	/**
+	 * Scans of one MS level
+	 */
+	private static class LevelIndex {
+
+		// Sorted by scan number
+		int scanNumbers[];
+
+		// Sorted by retention time, then by scan number
+		double retentionTimes[];
+		int scanNumbersByRT[];
+
+		// True if the retention times grow with scan numbers, so the scan
+		// numbers of a retention time window do not need to be sorted again
+		boolean rtOrderIsScanOrder;
+
+		// Sorted by precursor m/z, then by scan number
+		double precursorMZs[];
+		double retentionTimesByPrecursorMZ[];
+		int scanNumbersByPrecursorMZ[];
+	}
+
+	ScanIndex(Collection<? extends Scan> scans) {
+
+		HashMap<Integer, List<Scan>> scansByLevel = new HashMap<Integer, List<Scan>>();
+		allScanNumbers = new int[scans.size()];
+		int i = 0;
+		for (Scan scan : scans) {
+			allScanNumbers[i++] = scan.getScanNumber();
+			List<Scan> levelScans = scansByLevel.get(scan.getMSLevel());
+			if (levelScans == null) {
+				levelScans = new ArrayList<Scan>();
+				scansByLevel.put(scan.getMSLevel(), levelScans);
+			}
+			levelScans.add(scan);
+		}
+		Arrays.sort(allScanNumbers);
+
+		msLevels = new int[scansByLevel.size()];
+		i = 0;
+		for (Integer msLevel : scansByLevel.keySet()) {
+			msLevels[i++] = msLevel;
+			levels.put(msLevel, buildLevelIndex(scansByLevel.get(msLevel)));
+		}
+		Arrays.sort(msLevels);
+
+	}
+
+	private static LevelIndex buildLevelIndex(List<Scan> scans) {
+
+		final int size = scans.size();
+		LevelIndex index = new LevelIndex();
+
+		index.scanNumbers = new int[size];
+		for (int i = 0; i < size; i++)
+			index.scanNumbers[i] = scans.get(i).getScanNumber();
+		Arrays.sort(index.scanNumbers);
+
+		// Retention time order
+		Collections.sort(scans, new Comparator<Scan>() {
+			public int compare(Scan s1, Scan s2) {
+				int result = Double.compare(s1.getRetentionTime(),
+						s2.getRetentionTime());
+				if (result != 0)
+					return result;
+				return s1.getScanNumber() - s2.getScanNumber();
+			}
+		});
+		index.retentionTimes = new double[size];
+		index.scanNumbersByRT = new int[size];
+		index.rtOrderIsScanOrder = true;
+		for (int i = 0; i < size; i++) {
+			Scan scan = scans.get(i);
+			index.retentionTimes[i] = scan.getRetentionTime();
+			index.scanNumbersByRT[i] = scan.getScanNumber();
+			if ((i > 0)
+					&& (index.scanNumbersByRT[i] < index.scanNumbersByRT[i - 1]))
+				index.rtOrderIsScanOrder = false;
+		}
+
+		// Precursor m/z order
+		Collections.sort(scans, new Comparator<Scan>() {
+			public int compare(Scan s1, Scan s2) {
+				int result = Double.compare(s1.getPrecursorMZ(),
+						s2.getPrecursorMZ());
+				if (result != 0)
+					return result;
+				return s1.getScanNumber() - s2.getScanNumber();
+			}
+		});
+		index.precursorMZs = new double[size];
+		index.retentionTimesByPrecursorMZ = new double[size];
+		index.scanNumbersByPrecursorMZ = new int[size];
+		for (int i = 0; i < size; i++) {
+			Scan scan = scans.get(i);
+			index.precursorMZs[i] = scan.getPrecursorMZ();
+			index.retentionTimesByPrecursorMZ[i] = scan.getRetentionTime();
+			index.scanNumbersByPrecursorMZ[i] = scan.getScanNumber();
+		}
+
+		return index;
+	}
+
+	/**
+	 * @return Sorted array of all scan numbers
+	 */
+	int[] getScanNumbers() {
+		return allScanNumbers;
+	}
+
+	/**
+	 * @return Sorted array of all MS levels
+	 */
+	int[] getMSLevels() {
+		return msLevels;
+	}
+
+	/**
+	 * @return Sorted array of scan numbers of given MS level
+	 */
+	int[] getScanNumbers(int msLevel) {
+		LevelIndex index = levels.get(msLevel);
+		if (index == null)
+			return EMPTY;
+		return index.scanNumbers;
+	}
+
+	/**
+	 * @return Sorted array of scan numbers of given MS level within given
+	 *         retention time range. The returned array is a new instance.
+	 */
+	int[] getScanNumbers(int msLevel, Range rtRange) {
+
+		LevelIndex index = levels.get(msLevel);
+		if (index == null)
+			return new int[0];
+
+		final int from = lowerBound(index.retentionTimes, rtRange.getMin());
+		final int to = upperBound(index.retentionTimes, rtRange.getMax());
+		if (from >= to)
+			return new int[0];
+
+		int result[] = Arrays.copyOfRange(index.scanNumbersByRT, from, to);
+		if (!index.rtOrderIsScanOrder)
+			Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * @return Sorted array of scan numbers of given MS level within given
+	 *         retention time range and with precursor m/z in given range. The
+	 *         returned array is a new instance.
+	 */
+	int[] getScanNumbers(int msLevel, Range rtRange, Range precursorMZRange) {
+
+		LevelIndex index = levels.get(msLevel);
+		if (index == null)
+			return new int[0];
+
+		final int from = lowerBound(index.precursorMZs,
+				precursorMZRange.getMin());
+		final int to = upperBound(index.precursorMZs, precursorMZRange.getMax());
+		if (from >= to)
+			return new int[0];
+
+		int result[] = new int[to - from];
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			if (rtRange.contains(index.retentionTimesByPrecursorMZ[i]))
+				result[count++] = index.scanNumbersByPrecursorMZ[i];
+		}
+
+		result = Arrays.copyOf(result, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * @return index of the first value >= key, or values.length
+	 */
+	private static int lowerBound(double values[], double key) {
+		int low = 0, high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * @return index of the first value > key, or values.length
+	 */
+	private static int upperBound(double values[], double key) {
+		int low = 0, high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] <= key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+}
@@ -76,6 +76,25 @@ public class StorableMassList implements MassList {
 		}
 	}
 
+	@Override
+	public int getNumberOfDataPoints() {
+		Integer length = rawDataFile.getDataPointsLengths().get(storageID);
+		return (length == null) ? 0 : length;
+	}
+
+	@Override
+	public int getDataPoints(@Nonnull double mzValues[],
+			@Nonnull double intensityValues[]) {
+		try {
+			return rawDataFile.readDataPoints(storageID, mzValues,
+					intensityValues);
+		} catch (IOException e) {
+			logger.severe("Could not read data from temporary file "
+					+ e.toString());
+			return 0;
+		}
+	}
+
 	public void removeStoredData() {
 		try {
 			rawDataFile.removeStoredDataPoints(storageID);
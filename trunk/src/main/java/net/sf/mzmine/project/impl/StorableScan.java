@@ -128,6 +128,25 @@ public class StorableScan implements Scan {
 		}
 	}
 
+	/**
+	 * Reads the data points from temporary file directly into the given
+	 * arrays, without creating DataPoint objects.
+	 * 
+	 * @see net.sf.mzmine.datamodel.Spectrum#getDataPoints(double[], double[])
+	 */
+	public int getDataPoints(@Nonnull double mzValues[],
+			@Nonnull double intensityValues[]) {
+
+		try {
+			return rawDataFile.readDataPoints(storageID, mzValues,
+					intensityValues);
+		} catch (IOException e) {
+			logger.severe("Could not read data from temporary file "
+					+ e.toString());
+			return 0;
+		}
+	}
+
 	/**
 	 * @return Returns scan datapoints within a given range
 	 */
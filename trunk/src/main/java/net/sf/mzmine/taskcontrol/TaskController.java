@@ -19,6 +19,10 @@
 
 package net.sf.mzmine.taskcontrol;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import net.sf.mzmine.taskcontrol.impl.TaskQueue;
 
 /**
@@ -39,5 +43,43 @@ public interface TaskController {
 	public void addTaskControlListener(TaskControlListener listener);
 
 	public TaskQueue getTaskQueue();
+
+	/**
+	 * Submits a part of a running task to the worker threads of the task
+	 * controller. Sub-tasks are started before any waiting task of normal
+	 * priority, so that running tasks finish first.
+	 */
+	public <T> Future<T> submitSubTask(Callable<T> subTask);
+
+	/**
+	 * Waits for a sub-task to finish and returns its result. If the sub-task
+	 * has not been started yet, it is run by the calling thread, so a task
+	 * waiting for its sub-tasks never blocks a worker thread needed to run
+	 * them.
+	 */
+	public <T> T joinSubTask(Future<T> subTask) throws InterruptedException,
+			ExecutionException;
+
+	/**
+	 * Called by a running task before it waits for other tasks to finish (e.g.
+	 * a batch waiting for its steps). The worker thread of the task gives its
+	 * place in the pool back while waiting, so that the tasks it waits for can
+	 * run even if every worker runs such a task. Calls may be nested, each one
+	 * must be followed by endWaiting() in the same thread.
+	 */
+	public void beginWaiting();
+
+	/**
+	 * Called by a running task when it stops waiting, see beginWaiting()
+	 */
+	public void endWaiting();
+
+	/**
+	 * Called by a task which ends outside of its run() method, e.g. in a
+	 * sub-task after run() returned with the WAITING status. The task queue
+	 * then keeps only the description and final status of the task, so that
+	 * the garbage collector can remove the task itself.
+	 */
+	public void taskFinished(Task task);
 	
 }
@@ -21,8 +21,9 @@ package net.sf.mzmine.taskcontrol;
 
 /**
  * 
- * This enum defines task priority. High priority tasks are always executed
- * immediately. Normal priority tasks may wait until a thread is available.
+ * This enum defines task priority. High priority tasks are started before any
+ * waiting normal priority task. All tasks run on the same limited number of
+ * threads, so both may wait until a thread is available.
  * 
  */
 public enum TaskPriority {
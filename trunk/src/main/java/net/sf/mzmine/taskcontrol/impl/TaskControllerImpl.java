@@ -21,11 +21,15 @@ package net.sf.mzmine.taskcontrol.impl;
 
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Vector;
+import java.util.LinkedList;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Logger;
 
-import net.sf.mzmine.desktop.preferences.MZminePreferences;
-import net.sf.mzmine.desktop.preferences.NumOfThreadsParameter;
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
 import net.sf.mzmine.taskcontrol.TaskControlListener;
@@ -35,8 +39,20 @@ import net.sf.mzmine.taskcontrol.TaskStatus;
 
 /**
  * Task controller implementation
+ * 
+ * Tasks are executed by a pool of worker threads, which are reused for many
+ * tasks. The number of workers is given by the "Number of concurrently running
+ * tasks" preference. Waiting HIGH priority tasks are started first, then the
+ * sub-tasks of running tasks, then NORMAL priority tasks.
+ * 
+ * Running tasks may split their work into sub-tasks, which are executed by the
+ * same workers. A task which waits for other tasks (e.g. a batch waiting for
+ * its steps) calls beginWaiting(), and its worker does not count towards the
+ * number of workers until endWaiting(), so the tasks it waits for can run.
+ * 
+ * Workers are woken up when a task is added, so tasks start without any delay.
  */
-public class TaskControllerImpl implements TaskController, Runnable {
+public class TaskControllerImpl implements TaskController {
 
     private Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -45,18 +61,25 @@ public class TaskControllerImpl implements TaskController, Runnable {
     /**
      * Update the task progress window every 300 ms
      */
-    private final int TASKCONTROLLER_THREAD_SLEEP = 300;
+    private final int TASKCONTROLLER_REFRESH_PERIOD = 300;
 
-    private Thread taskControllerThread;
+    private Timer refreshTimer;
 
     private TaskQueue taskQueue;
 
     /**
-     * This vector contains references to all running threads of NORMAL
-     * priority. Maximum number of concurrent threads is specified in the
-     * preferences dialog.
+     * Waiting tasks, guarded by this controller
+     */
+    private final LinkedList<WrappedTask> highPriorityTasks = new LinkedList<WrappedTask>();
+    private final LinkedList<WrappedTask> normalPriorityTasks = new LinkedList<WrappedTask>();
+    private final LinkedList<FutureTask<?>> subTasks = new LinkedList<FutureTask<?>>();
+
+    /**
+     * Number of started, idle and waiting (see beginWaiting()) workers
      */
-    private Vector<WorkerThread> runningThreads;
+    private int numOfWorkers = 0, numOfIdleWorkers = 0, numOfWaitingWorkers = 0;
+
+    private int previousQueueSize = -1;
 
     /**
      * Initialize the task controller
@@ -65,13 +88,14 @@ public class TaskControllerImpl implements TaskController, Runnable {
 
 	taskQueue = new TaskQueue();
 
-	runningThreads = new Vector<WorkerThread>();
-
-	// Create a low-priority thread that will manage the queue and start
-	// worker threads for tasks
-	taskControllerThread = new Thread(this, "Task controller thread");
-	taskControllerThread.setPriority(Thread.MIN_PRIORITY);
-	taskControllerThread.start();
+	// Refresh the Tasks in progress window and clean the queue
+	// periodically. This timer does not start any tasks.
+	refreshTimer = new Timer("Task controller refresh thread", true);
+	refreshTimer.schedule(new TimerTask() {
+	    public void run() {
+		refreshQueue();
+	    }
+	}, TASKCONTROLLER_REFRESH_PERIOD, TASKCONTROLLER_REFRESH_PERIOD);
 
     }
 
@@ -98,109 +122,225 @@ public class TaskControllerImpl implements TaskController, Runnable {
 	if ((tasks == null) || (tasks.length == 0))
 	    return;
 
-	for (Task task : tasks) {
-	    WrappedTask newQueueEntry = new WrappedTask(task, priority);
-	    taskQueue.addWrappedTask(newQueueEntry);
+	synchronized (this) {
+	    for (Task task : tasks) {
+		WrappedTask newQueueEntry = new WrappedTask(task, priority);
+		taskQueue.addWrappedTask(newQueueEntry);
+		if (priority == TaskPriority.HIGH)
+		    highPriorityTasks.add(newQueueEntry);
+		else
+		    normalPriorityTasks.add(newQueueEntry);
+	    }
+	    wakeUpWorkers(tasks.length);
+	}
+
+	fireWaitingTasksChanged();
+
+    }
+
+    public <T> Future<T> submitSubTask(Callable<T> subTask) {
+	FutureTask<T> future = new FutureTask<T>(subTask);
+	synchronized (this) {
+	    subTasks.add(future);
+	    wakeUpWorkers(1);
+	}
+	return future;
+    }
+
+    public <T> T joinSubTask(Future<T> subTask) throws InterruptedException,
+	    ExecutionException {
+
+	// If nobody has started the sub-task yet, run it in this thread
+	boolean notStarted;
+	synchronized (this) {
+	    notStarted = subTasks.remove(subTask);
 	}
+	if (notStarted)
+	    ((FutureTask<?>) subTask).run();
+
+	return subTask.get();
+    }
 
-	// Wake up the task controller thread
+    public void beginWaiting() {
+	Thread thread = Thread.currentThread();
+	if (!(thread instanceof WorkerThread))
+	    return;
+	WorkerThread worker = (WorkerThread) thread;
+	if (worker.waitingDepth++ > 0)
+	    return;
 	synchronized (this) {
-	    this.notifyAll();
+	    numOfWaitingWorkers++;
+	    wakeUpWorkers(highPriorityTasks.size() + subTasks.size()
+		    + normalPriorityTasks.size());
 	}
+    }
+
+    public void endWaiting() {
+	Thread thread = Thread.currentThread();
+	if (!(thread instanceof WorkerThread))
+	    return;
+	WorkerThread worker = (WorkerThread) thread;
+	if (--worker.waitingDepth > 0)
+	    return;
 
+	// The pool may be larger than allowed for a while, until a worker
+	// finishes its work
+	synchronized (this) {
+	    numOfWaitingWorkers--;
+	}
     }
 
     /**
-     * Task controller thread main method.
-     * 
-     * @see java.lang.Runnable#run()
+     * Makes sure there are enough workers for given number of new tasks and
+     * wakes them up. Must be called while holding the lock of this controller.
      */
-    public void run() {
+    private void wakeUpWorkers(int numOfNewTasks) {
+
+	int maxWorkers = getMaxWorkers();
+	int missingWorkers = Math.min(numOfNewTasks - numOfIdleWorkers,
+		maxWorkers - (numOfWorkers - numOfWaitingWorkers));
+	for (int i = 0; i < missingWorkers; i++) {
+	    WorkerThread newWorker = new WorkerThread(this);
+	    numOfWorkers++;
+	    newWorker.start();
+	}
 
-	int previousQueueSize = -1;
+	notifyAll();
 
-	while (true) {
+    }
 
-	    int currentQueueSize = taskQueue.getNumOfWaitingTasks();
-	    if (currentQueueSize != previousQueueSize) {
-		previousQueueSize = currentQueueSize;
-		for (TaskControlListener listener : listeners)
-		    listener.numberOfWaitingTasksChanged(currentQueueSize);
-	    }
+    /**
+     * Obtain the settings of max concurrent threads
+     */
+    private int getMaxWorkers() {
+	return MZmineCore.getConfiguration().getPreferences().getNumOfThreads();
+    }
 
-	    // If the queue is empty, we can sleep. When new task is added into
-	    // the queue, we will be awaken by notify()
-	    synchronized (this) {
-		while (taskQueue.isEmpty()) {
-		    try {
-			this.wait();
-		    } catch (InterruptedException e) {
-			// Ignore
-		    }
-		}
-	    }
+    /**
+     * Called by a worker to obtain its next piece of work. Waits until there
+     * is something to do.
+     * 
+     * @return WrappedTask or FutureTask to execute, or null if the worker
+     *         should exit because the number of workers was decreased
+     */
+    synchronized Object takeWork(WorkerThread worker) {
 
-	    // Check if all tasks in the queue are finished
-	    if (taskQueue.allTasksFinished()) {
-		taskQueue.clear();
-		continue;
+	while (true) {
+
+	    // Shrink the pool if the preferences have changed, or a waiting
+	    // worker has returned
+	    if (numOfWorkers - numOfWaitingWorkers > getMaxWorkers()) {
+		numOfWorkers--;
+		return null;
 	    }
 
-	    // Remove already finished threads from runningThreads
-	    Iterator<WorkerThread> threadIterator = runningThreads.iterator();
-	    while (threadIterator.hasNext()) {
-		WorkerThread thread = threadIterator.next();
-		if (thread.isFinished())
-		    threadIterator.remove();
+	    WrappedTask task = pollTask(highPriorityTasks);
+	    if (task != null) {
+		task.assignTo(worker);
+		return task;
 	    }
 
-	    // Get a snapshot of the queue
-	    WrappedTask[] queueSnapshot = taskQueue.getQueueSnapshot();
-
-	    // Obtain the settings of max concurrent threads
-	    NumOfThreadsParameter parameter = MZmineCore.getConfiguration()
-		    .getPreferences()
-		    .getParameter(MZminePreferences.numOfThreads);
-	    int maxRunningThreads;
-	    if (parameter.isAutomatic() || (parameter.getValue() == null))
-		maxRunningThreads = Runtime.getRuntime().availableProcessors();
-	    else
-		maxRunningThreads = parameter.getValue();
-
-	    // Check all tasks in the queue
-	    for (WrappedTask task : queueSnapshot) {
-
-		// Skip assigned and canceled tasks
-		if (task.isAssigned()
-			|| (task.getActualTask().getStatus() == TaskStatus.CANCELED))
-		    continue;
-
-		// Create a new thread if the task is high-priority or if we
-		// have less then maximum # of threads running
-		if ((task.getPriority() == TaskPriority.HIGH)
-			|| (runningThreads.size() < maxRunningThreads)) {
-		    WorkerThread newThread = new WorkerThread(task);
-
-		    if (task.getPriority() == TaskPriority.NORMAL) {
-			runningThreads.add(newThread);
-		    }
+	    FutureTask<?> subTask = pollSubTask();
+	    if (subTask != null)
+		return subTask;
 
-		    newThread.start();
-		}
+	    task = pollTask(normalPriorityTasks);
+	    if (task != null) {
+		task.assignTo(worker);
+		return task;
 	    }
 
-	    // Tell the queue to refresh the Task progress window
-	    taskQueue.refresh();
-
-	    // Sleep for a while until next update
+	    numOfIdleWorkers++;
 	    try {
-		Thread.sleep(TASKCONTROLLER_THREAD_SLEEP);
+		wait();
 	    } catch (InterruptedException e) {
 		// Ignore
 	    }
+	    numOfIdleWorkers--;
+
+	}
+    }
+
+    /**
+     * Removes and returns the first task of given list which was not
+     * canceled, or null
+     */
+    private WrappedTask pollTask(LinkedList<WrappedTask> tasks) {
+	Iterator<WrappedTask> iterator = tasks.iterator();
+	while (iterator.hasNext()) {
+	    WrappedTask task = iterator.next();
+	    iterator.remove();
+	    if (task.getActualTask().getStatus() != TaskStatus.CANCELED)
+		return task;
+	}
+	return null;
+    }
+
+    private FutureTask<?> pollSubTask() {
+	while (!subTasks.isEmpty()) {
+	    FutureTask<?> subTask = subTasks.removeFirst();
+	    if (!subTask.isCancelled())
+		return subTask;
+	}
+	return null;
+    }
+
+    /**
+     * Called by a worker when a task has finished
+     */
+    void taskFinished(WrappedTask task) {
+	fireWaitingTasksChanged();
+    }
+
+    public void taskFinished(Task task) {
+
+	// Find the task in the queue, if it has not been cleared yet
+	for (WrappedTask wrappedTask : taskQueue.getQueueSnapshot()) {
+	    if (wrappedTask.getActualTask() == task)
+		wrappedTask.removeTaskReference();
+	}
+
+	fireWaitingTasksChanged();
+    }
+
+    /**
+     * Notifies the listeners if the number of waiting tasks has changed
+     */
+    private void fireWaitingTasksChanged() {
+
+	int currentQueueSize = taskQueue.getNumOfWaitingTasks();
+
+	synchronized (listeners) {
+	    if (currentQueueSize == previousQueueSize)
+		return;
+	    previousQueueSize = currentQueueSize;
+	    for (TaskControlListener listener : listeners)
+		listener.numberOfWaitingTasksChanged(currentQueueSize);
+	}
+
+    }
+
+    /**
+     * Clears the queue if all tasks are finished, and tells the queue to
+     * refresh the Task progress window
+     */
+    private void refreshQueue() {
 
+	fireWaitingTasksChanged();
+
+	if (taskQueue.isEmpty())
+	    return;
+
+	// Check if all tasks in the queue are finished
+	synchronized (this) {
+	    if (taskQueue.allTasksFinished()) {
+		taskQueue.clear();
+		return;
+	    }
 	}
 
+	taskQueue.refresh();
+
     }
 
     public void setTaskPriority(Task task, TaskPriority priority) {
@@ -214,10 +354,21 @@ public class TaskControllerImpl implements TaskController, Runnable {
 	    if (wrappedTask.getActualTask() == task) {
 		logger.finest("Setting priority of task \""
 			+ task.getTaskDescription() + "\" to " + priority);
-		wrappedTask.setPriority(priority);
 
-		// Call refresh to re-sort the queue according to new priority
-		// and update the Task progress window
+		// Move a waiting task to the other lane
+		synchronized (this) {
+		    if (highPriorityTasks.remove(wrappedTask)
+			    || normalPriorityTasks.remove(wrappedTask)) {
+			if (priority == TaskPriority.HIGH)
+			    highPriorityTasks.add(wrappedTask);
+			else
+			    normalPriorityTasks.add(wrappedTask);
+			wakeUpWorkers(1);
+		    }
+		    wrappedTask.setPriority(priority);
+		}
+
+		// Call refresh to update the Task progress window
 		taskQueue.refresh();
 	    }
 	}
@@ -225,7 +376,9 @@ public class TaskControllerImpl implements TaskController, Runnable {
 
     @Override
     public void addTaskControlListener(TaskControlListener listener) {
-	listeners.add(listener);
+	synchronized (listeners) {
+	    listeners.add(listener);
+	}
     }
 
 }
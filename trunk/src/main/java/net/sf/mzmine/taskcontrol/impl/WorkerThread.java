@@ -19,29 +19,36 @@
 
 package net.sf.mzmine.taskcontrol.impl;
 
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.mzmine.main.MZmineCore;
 import net.sf.mzmine.taskcontrol.Task;
+import net.sf.mzmine.taskcontrol.TaskPriority;
 import net.sf.mzmine.taskcontrol.TaskStatus;
 import net.sf.mzmine.util.ExceptionUtils;
 
 /**
- * Task controller worker thread, this thread will process one task and then
- * finish
+ * Task controller worker thread, this thread processes tasks and sub-tasks
+ * given by the task controller, until the task controller decides to reduce the
+ * number of workers
  */
 class WorkerThread extends Thread {
 
 	private Logger logger = Logger.getLogger(this.getClass().getName());
 
-	private WrappedTask wrappedTask;
-	private boolean finished = false;
+	private final TaskControllerImpl taskController;
 
-	WorkerThread(WrappedTask wrappedTask) {
-		super("Thread executing task " + wrappedTask);
-		this.wrappedTask = wrappedTask;
-		wrappedTask.assignTo(this);
+	/**
+	 * Number of nested TaskController.beginWaiting() calls of the task run by
+	 * this worker, only used by this thread
+	 */
+	int waitingDepth = 0;
+
+	WorkerThread(TaskControllerImpl taskController) {
+		super("Task controller worker");
+		this.taskController = taskController;
 	}
 
 	/**
@@ -49,8 +56,33 @@ class WorkerThread extends Thread {
 	 */
 	public void run() {
 
+		while (true) {
+
+			Object work = taskController.takeWork(this);
+			if (work == null)
+				return;
+
+			if (work instanceof WrappedTask) {
+				WrappedTask wrappedTask = (WrappedTask) work;
+				runTask(wrappedTask);
+				taskController.taskFinished(wrappedTask);
+			} else {
+				// Sub-tasks keep their exceptions in their Future
+				((FutureTask<?>) work).run();
+			}
+
+		}
+
+	}
+
+	private void runTask(WrappedTask wrappedTask) {
+
 		Task actualTask = wrappedTask.getActualTask();
 
+		setName("Thread executing task " + wrappedTask);
+		if (wrappedTask.getPriority() == TaskPriority.HIGH)
+			setPriority(Thread.MAX_PRIORITY);
+
 		logger.finest("Starting processing of task: " + actualTask.getTaskDescription());
 
 		try {
@@ -68,9 +100,14 @@ class WorkerThread extends Thread {
 
 			/*
 			 * This is important to allow the garbage collector to remove the
-			 * task, while keeping the task description in the "Tasks in progress" window
+			 * task, while keeping the task description in the "Tasks in progress" window.
+			 * A task which is still WAITING or PROCESSING continues elsewhere
+			 * (e.g. in a sub-task), so its status must stay visible.
 			 */
-			wrappedTask.removeTaskReference();
+			TaskStatus status = actualTask.getStatus();
+			if ((status != TaskStatus.WAITING)
+					&& (status != TaskStatus.PROCESSING))
+				wrappedTask.removeTaskReference();
 
 		} catch (Throwable e) {
 
@@ -91,14 +128,12 @@ class WorkerThread extends Thread {
 		}
 
 		/*
-		 * Mark this thread as finished
+		 * This thread will be reused for other tasks
 		 */
-		finished = true;
-
-	}
+		wrappedTask.assignTo(null);
+		setPriority(Thread.NORM_PRIORITY);
+		setName("Task controller worker");
 
-	boolean isFinished() {
-		return finished;
 	}
 
 }
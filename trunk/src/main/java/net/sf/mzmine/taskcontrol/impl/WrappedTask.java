@@ -29,7 +29,7 @@ public class WrappedTask {
 
     private Task task;
     private TaskPriority priority;
-    private WorkerThread assignedTo;
+    private Thread assignedTo;
 
     WrappedTask(Task task, TaskPriority priority) {
         this.task = task;
@@ -39,14 +39,14 @@ public class WrappedTask {
     /**
      * @return Returns the priority.
      */
-    TaskPriority getPriority() {
+    synchronized TaskPriority getPriority() {
         return priority;
     }
 
     /**
      * @param priority The priority to set.
      */
-    void setPriority(TaskPriority priority) {
+    synchronized void setPriority(TaskPriority priority) {
         this.priority = priority;
         if (assignedTo != null) {
 			switch (priority) {
@@ -63,11 +63,11 @@ public class WrappedTask {
     /**
      * @return Returns the assigned.
      */
-    boolean isAssigned() {
+    synchronized boolean isAssigned() {
         return assignedTo != null;
     }
 
-    void assignTo(WorkerThread thread) {
+    synchronized void assignTo(Thread thread) {
         assignedTo = thread;
     }
 
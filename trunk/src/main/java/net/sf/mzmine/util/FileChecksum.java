@@ -49,6 +49,19 @@ public class FileChecksum
 	private String        sum;		// computed hash
 	private String        fsum;		// hash read from file
 
+	/**
+	 * Create an instance not bound to a file, used to hash lines with hash_line()
+	 * while they are written elsewhere. The checksum is then taken from checksum_line().
+	 *
+	 * @throws Exception
+	 */
+	public FileChecksum() throws Exception
+	{
+		filename = null;
+		file     = null;
+		reset();
+	}
+
 	/**
 	 * @param filename
 	 * @throws Exception
@@ -141,6 +154,16 @@ public class FileChecksum
 		return lines;
 	}
 
+	/**
+	 * Return the computed hash
+	 * 
+	 * @return
+	 */
+	public String checksum()
+	{
+		return sum;
+	}
+
 	/**
 	 * Return the checksum string
 	 * 
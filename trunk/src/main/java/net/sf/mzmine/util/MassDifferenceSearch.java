@@ -0,0 +1,291 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import net.sf.mzmine.datamodel.PeakListRow;
+import net.sf.mzmine.main.MZmineCore;
+import net.sf.mzmine.parameters.parametertypes.RTTolerance;
+import net.sf.mzmine.taskcontrol.TaskController;
+
+/**
+ * Index of peak list rows for searching rows related by their m/z difference
+ * (adducts, fragments, ...) within a retention time tolerance.
+ *
+ * The rows are put into buckets by their average retention time. Each bucket
+ * is as wide as the retention time tolerance, so the rows within tolerance of
+ * any row are found in at most three neighboring buckets. Inside each bucket
+ * the rows are sorted by m/z, so the rows at a given m/z (e.g. the m/z of the
+ * row plus the mass difference of an adduct) are found by binary search.
+ *
+ * Rows are identified by their position in the array given to the
+ * constructor. search() runs a RowSearch for every row, in parallel over the
+ * buckets, and returns the matches sorted, so the caller can apply them in the
+ * same order regardless of the order in which they were found.
+ */
+public class MassDifferenceSearch {
+
+	/**
+	 * Search for the matches of one row
+	 */
+	public interface RowSearch {
+
+		/**
+		 * Finds the matches of the row at given position. Called by several
+		 * threads at once.
+		 *
+		 * @return keys of the matches, in any order, or null if there are none
+		 */
+		long[] search(int position);
+
+	}
+
+	/**
+	 * Growing array of match keys
+	 */
+	private static class KeyList {
+
+		long keys[] = new long[16];
+		int size;
+
+		void add(long found[]) {
+			if (found == null)
+				return;
+			if (size + found.length > keys.length)
+				keys = Arrays.copyOf(keys,
+						Math.max(keys.length * 2, size + found.length));
+			System.arraycopy(found, 0, keys, size, found.length);
+			size += found.length;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(keys, size);
+		}
+
+	}
+
+	private final PeakListRow rows[];
+	private final RTTolerance rtTolerance;
+
+	private final double minRT, bucketWidth;
+
+	// Rows sorted by bucket, then by m/z
+	private final int bucketStarts[];
+	private final int positions[];
+	private final double mzValues[], rtValues[];
+
+	/**
+	 * Creates the index of given rows
+	 *
+	 * @param rows
+	 * @param rtTolerance
+	 *            maximum retention time difference of related rows
+	 */
+	public MassDifferenceSearch(PeakListRow rows[], RTTolerance rtTolerance) {
+
+		this.rows = rows;
+		this.rtTolerance = rtTolerance;
+
+		final int size = rows.length;
+		final double rt[] = new double[size];
+		final double mz[] = new double[size];
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			rt[i] = rows[i].getAverageRT();
+			mz[i] = rows[i].getAverageMZ();
+			min = Math.min(min, rt[i]);
+			max = Math.max(max, rt[i]);
+		}
+		if (size == 0)
+			min = max = 0;
+		minRT = min;
+
+		// The widest tolerance range is the one of the latest row. Buckets
+		// are not made narrower than needed for one row per bucket on
+		// average.
+		Range widest = rtTolerance.getToleranceRange(max);
+		double width = Math.max(widest.getMax() - max, max - widest.getMin());
+		width = Math.max(width, (max - min) / Math.max(size, 1));
+		bucketWidth = width > 0 ? width : 1;
+
+		final int bucket[] = new int[size];
+		int numOfBuckets = 1;
+		for (int i = 0; i < size; i++) {
+			bucket[i] = getBucket(rt[i]);
+			numOfBuckets = Math.max(numOfBuckets, bucket[i] + 1);
+		}
+
+		Integer order[] = new Integer[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				if (bucket[i1] != bucket[i2])
+					return bucket[i1] < bucket[i2] ? -1 : 1;
+				return Double.compare(mz[i1], mz[i2]);
+			}
+		});
+
+		positions = new int[size];
+		mzValues = new double[size];
+		rtValues = new double[size];
+		bucketStarts = new int[numOfBuckets + 1];
+		for (int i = 0; i < size; i++) {
+			positions[i] = order[i];
+			mzValues[i] = mz[order[i]];
+			rtValues[i] = rt[order[i]];
+			bucketStarts[bucket[order[i]] + 1]++;
+		}
+		for (int b = 0; b < numOfBuckets; b++)
+			bucketStarts[b + 1] += bucketStarts[b];
+
+	}
+
+	/**
+	 * @return Row at given position
+	 */
+	public PeakListRow getRow(int position) {
+		return rows[position];
+	}
+
+	/**
+	 * @return Number of rows
+	 */
+	public int getNumberOfRows() {
+		return rows.length;
+	}
+
+	/**
+	 * Finds the rows within the retention time tolerance of given row and with
+	 * average m/z inside given range. The row itself is included if it is
+	 * inside the range.
+	 *
+	 * @return Sorted positions of the rows
+	 */
+	public int[] findRows(int position, Range mzRange) {
+
+		Range rtRange = rtTolerance.getToleranceRange(rows[position]
+				.getAverageRT());
+		int firstBucket = Math.max(getBucket(rtRange.getMin()), 0);
+		int lastBucket = Math.min(getBucket(rtRange.getMax()),
+				bucketStarts.length - 2);
+
+		int result[] = new int[8];
+		int count = 0;
+		for (int b = firstBucket; b <= lastBucket; b++) {
+			int from = lowerBound(mzValues, bucketStarts[b],
+					bucketStarts[b + 1], mzRange.getMin());
+			for (int i = from; (i < bucketStarts[b + 1])
+					&& (mzValues[i] <= mzRange.getMax()); i++) {
+				if (!rtRange.contains(rtValues[i]))
+					continue;
+				if (count == result.length)
+					result = Arrays.copyOf(result, count * 2);
+				result[count++] = positions[i];
+			}
+		}
+
+		result = Arrays.copyOf(result, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Runs the given search for every row. The rows of each bucket are
+	 * searched by one sub-task.
+	 *
+	 * @return Keys of all matches, sorted and without duplicates
+	 */
+	public long[] search(final RowSearch rowSearch) {
+
+		final TaskController taskController = MZmineCore.getTaskController();
+		List<Future<long[]>> subTasks = new ArrayList<Future<long[]>>();
+		for (int b = 0; b + 1 < bucketStarts.length; b++) {
+			final int from = bucketStarts[b], to = bucketStarts[b + 1];
+			if (from == to)
+				continue;
+			subTasks.add(taskController.submitSubTask(new Callable<long[]>() {
+				public long[] call() {
+					KeyList keys = new KeyList();
+					for (int i = from; i < to; i++)
+						keys.add(rowSearch.search(positions[i]));
+					return keys.toArray();
+				}
+			}));
+		}
+
+		KeyList allKeys = new KeyList();
+		try {
+			for (int t = 0; t < subTasks.size(); t++) {
+				allKeys.add(taskController.joinSubTask(subTasks.get(t)));
+				subTasks.set(t, null);
+			}
+		} catch (InterruptedException e) {
+			throw new IllegalStateException("Search was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Search failed", e.getCause());
+		} finally {
+			for (Future<long[]> subTask : subTasks) {
+				if (subTask != null)
+					subTask.cancel(false);
+			}
+		}
+
+		// Sort and remove duplicates
+		long keys[] = allKeys.toArray();
+		Arrays.sort(keys);
+		int count = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (count == 0 || keys[i] != keys[count - 1])
+				keys[count++] = keys[i];
+		}
+		return Arrays.copyOf(keys, count);
+	}
+
+	private int getBucket(double rt) {
+		if (!(rt > minRT))
+			return 0;
+		return (int) Math.min((rt - minRT) / bucketWidth, Integer.MAX_VALUE - 1);
+	}
+
+	/**
+	 * @return index of the first value >= key in values[from..to), or to
+	 */
+	private static int lowerBound(double values[], int from, int to,
+			double key) {
+		int low = from, high = to;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+}
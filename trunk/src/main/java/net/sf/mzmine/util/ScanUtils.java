@@ -170,8 +170,22 @@ public class ScanUtils {
      */
     public static double[] binValues(double[] x, double[] y, Range binRange,
             int numberOfBins, boolean interpolate, BinningType binningType) {
+        return binValues(x, y, x.length, binRange, numberOfBins, interpolate,
+                binningType);
+    }
+
+    /**
+     * Same as binValues(double[], double[], Range, int, boolean,
+     * BinningType), but only the first numberOfValues elements of x and y are
+     * used. This allows the caller to reuse the same x and y arrays for many
+     * scans (see Spectrum.getDataPoints(double[], double[])).
+     */
+    public static double[] binValues(double[] x, double[] y,
+            int numberOfValues, Range binRange, int numberOfBins,
+            boolean interpolate, BinningType binningType) {
 
-        Double[] binValues = new Double[numberOfBins];
+        double[] binValues = new double[numberOfBins];
+        boolean[] binHasValue = new boolean[numberOfBins];
         double binWidth = binRange.getSize() / numberOfBins;
 
         double beforeX = Double.MIN_VALUE;
@@ -182,7 +196,7 @@ public class ScanUtils {
         double[] noOfEntries = null;
 
         // Binnings
-        for (int valueIndex = 0; valueIndex < x.length; valueIndex++) {
+        for (int valueIndex = 0; valueIndex < numberOfValues; valueIndex++) {
 
             // Before first bin?
             if ((x[valueIndex] - binRange.getMin()) < 0) {
@@ -211,7 +225,7 @@ public class ScanUtils {
 
             switch (binningType) {
             case MAX:
-                if (binValues[binIndex] == null) {
+                if (!binHasValue[binIndex]) {
                     binValues[binIndex] = y[valueIndex];
                 } else {
                     if (binValues[binIndex] < y[valueIndex]) {
@@ -220,7 +234,7 @@ public class ScanUtils {
                 }
                 break;
             case MIN:
-                if (binValues[binIndex] == null) {
+                if (!binHasValue[binIndex]) {
                     binValues[binIndex] = y[valueIndex];
                 } else {
                     if (binValues[binIndex] > y[valueIndex]) {
@@ -232,7 +246,7 @@ public class ScanUtils {
                 if (noOfEntries == null) {
                     noOfEntries = new double[binValues.length];
                 }
-                if (binValues[binIndex] == null) {
+                if (!binHasValue[binIndex]) {
                     noOfEntries[binIndex] = 1;
                     binValues[binIndex] = y[valueIndex];
                 } else {
@@ -243,7 +257,7 @@ public class ScanUtils {
 
             case SUM:
             default:
-                if (binValues[binIndex] == null) {
+                if (!binHasValue[binIndex]) {
                     binValues[binIndex] = y[valueIndex];
                 } else {
                     binValues[binIndex] += y[valueIndex];
@@ -252,6 +266,8 @@ public class ScanUtils {
 
             }
 
+            binHasValue[binIndex] = true;
+
         }
 
         assert noOfEntries != null;
@@ -259,7 +275,7 @@ public class ScanUtils {
         // calculate the AVG
         if (binningType.equals(BinningType.AVG)) {
             for (int binIndex = 0; binIndex < binValues.length; binIndex++) {
-                if (binValues[binIndex] != null) {
+                if (binHasValue[binIndex]) {
                     binValues[binIndex] /= noOfEntries[binIndex];
                 }
             }
@@ -269,14 +285,14 @@ public class ScanUtils {
         if (interpolate) {
 
             for (int binIndex = 0; binIndex < binValues.length; binIndex++) {
-                if (binValues[binIndex] == null) {
+                if (!binHasValue[binIndex]) {
 
                     // Find exisiting left neighbour
                     double leftNeighbourValue = beforeY;
                     int leftNeighbourBinIndex = (int) Math
                             .floor((beforeX - binRange.getMin()) / binWidth);
                     for (int anotherBinIndex = binIndex - 1; anotherBinIndex >= 0; anotherBinIndex--) {
-                        if (binValues[anotherBinIndex] != null) {
+                        if (binHasValue[anotherBinIndex]) {
                             leftNeighbourValue = binValues[anotherBinIndex];
                             leftNeighbourBinIndex = anotherBinIndex;
                             break;
@@ -289,7 +305,7 @@ public class ScanUtils {
                             + (int) Math.ceil((afterX - binRange.getMax())
                                     / binWidth);
                     for (int anotherBinIndex = binIndex + 1; anotherBinIndex < binValues.length; anotherBinIndex++) {
-                        if (binValues[anotherBinIndex] != null) {
+                        if (binHasValue[anotherBinIndex]) {
                             rightNeighbourValue = binValues[anotherBinIndex];
                             rightNeighbourBinIndex = anotherBinIndex;
                             break;
@@ -298,8 +314,9 @@ public class ScanUtils {
 
                     double slope = (rightNeighbourValue - leftNeighbourValue)
                             / (rightNeighbourBinIndex - leftNeighbourBinIndex);
-                    binValues[binIndex] = new Double(leftNeighbourValue + slope
-                            * (binIndex - leftNeighbourBinIndex));
+                    binValues[binIndex] = leftNeighbourValue + slope
+                            * (binIndex - leftNeighbourBinIndex);
+                    binHasValue[binIndex] = true;
 
                 }
 
@@ -307,13 +324,25 @@ public class ScanUtils {
 
         }
 
-        double[] res = new double[binValues.length];
-        for (int binIndex = 0; binIndex < binValues.length; binIndex++) {
-            res[binIndex] = binValues[binIndex] == null ? 0
-                    : binValues[binIndex];
-        }
-        return res;
+        // Empty bins are already 0
+        return binValues;
+
+    }
 
+    /**
+     * Copies m/z and intensity values of given data points into the given
+     * arrays. Common implementation of Spectrum.getDataPoints(double[],
+     * double[]) for spectra which keep their data points in memory.
+     * 
+     * @return Number of copied data points
+     */
+    public static int copyDataPoints(@Nonnull DataPoint dataPoints[],
+            @Nonnull double mzValues[], @Nonnull double intensityValues[]) {
+        for (int i = 0; i < dataPoints.length; i++) {
+            mzValues[i] = dataPoints[i].getMZ();
+            intensityValues[i] = dataPoints[i].getIntensity();
+        }
+        return dataPoints.length;
     }
 
     /**
@@ -374,24 +403,22 @@ public class ScanUtils {
         int bestFragmentScan = -1;
         double topBasePeak = 0;
 
-        int[] fragmentScanNumbers = dataFile.getScanNumbers(2, rtRange);
+        int[] fragmentScanNumbers = dataFile.getScanNumbers(2, rtRange,
+                mzRange);
 
         for (int number : fragmentScanNumbers) {
 
             Scan scan = dataFile.getScan(number);
 
-            if (mzRange.contains(scan.getPrecursorMZ())) {
-
-		DataPoint basePeak = scan.getHighestDataPoint();
+            DataPoint basePeak = scan.getHighestDataPoint();
 
-                // If there is no peak in the scan, basePeak can be null
-                if (basePeak == null)
-                    continue;
+            // If there is no peak in the scan, basePeak can be null
+            if (basePeak == null)
+                continue;
 
-                if (basePeak.getIntensity() > topBasePeak) {
-                    bestFragmentScan = scan.getScanNumber();
-                    topBasePeak = basePeak.getIntensity();
-                }
+            if (basePeak.getIntensity() > topBasePeak) {
+                bestFragmentScan = scan.getScanNumber();
+                topBasePeak = basePeak.getIntensity();
             }
 
         }
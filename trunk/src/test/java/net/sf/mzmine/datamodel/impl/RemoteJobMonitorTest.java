@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013-2014 Veritomyx
+ *
+ * This file is part of MZminePI.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.datamodel.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import veritomyxSaaS.VeritomyxSaaS;
+
+/**
+ * Tests the polling of RemoteJobMonitor against a stub server, which answers
+ * the status requests of a job with a given sequence of statuses
+ */
+public class RemoteJobMonitorTest {
+
+	private static final long POLL_INTERVAL = 50;	// milliseconds
+
+	/**
+	 * Job whose status requests are answered by the stub instead of the server
+	 */
+	private static class StubJob extends RemoteJob
+	{
+		private final LinkedList<Integer> answers = new LinkedList<Integer>();
+		private final Semaphore           requests = new Semaphore(0);
+
+		StubJob(Integer... statuses)
+		{
+			super("vpi-test", null, "test");
+			for (Integer status : statuses)
+				answers.add(status);
+		}
+
+		@Override
+		int requestStatus()
+		{
+			requests.release();
+			synchronized (answers)
+			{
+				if (answers.size() > 1)
+					return answers.removeFirst();
+				return answers.getFirst();
+			}
+		}
+
+		boolean awaitRequests(int count, long timeout) throws InterruptedException
+		{
+			return requests.tryAcquire(count, timeout, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Monitor recording the status changes instead of notifying the project
+	 */
+	private static class TestMonitor extends RemoteJobMonitor
+	{
+		final CopyOnWriteArrayList<Integer> changes = new CopyOnWriteArrayList<Integer>();
+
+		TestMonitor(long pollInterval, long maxPollInterval)
+		{
+			super(pollInterval, maxPollInterval);
+		}
+
+		@Override
+		void notifyJobChanged(RemoteJob job)
+		{
+			changes.add(job.getStatus());
+		}
+	}
+
+	@Test
+	public void testFirstPollIsImmediate() throws InterruptedException
+	{
+		TestMonitor monitor = new TestMonitor(60 * 1000, 60 * 1000);
+		StubJob job = new StubJob(VeritomyxSaaS.W_RUNNING);
+		monitor.addJob(job);
+
+		assertTrue("job was not polled when added", job.awaitRequests(1, 2000));
+		Thread.sleep(100);
+		assertEquals(VeritomyxSaaS.W_RUNNING, job.getStatus());
+		assertEquals(1, monitor.changes.size());
+		monitor.removeJob(job);
+	}
+
+	@Test
+	public void testPollingStopsWhenDone() throws InterruptedException
+	{
+		TestMonitor monitor = new TestMonitor(POLL_INTERVAL, POLL_INTERVAL);
+		StubJob job = new StubJob(VeritomyxSaaS.W_INFO, VeritomyxSaaS.W_RUNNING,
+				VeritomyxSaaS.W_RUNNING, VeritomyxSaaS.W_DONE);
+		monitor.addJob(job);
+
+		assertTrue("job was not polled until done", job.awaitRequests(4, 5000));
+		Thread.sleep(5 * POLL_INTERVAL);
+		assertEquals("job was polled after it was done", 0, job.requests.availablePermits());
+		assertEquals(VeritomyxSaaS.W_DONE, job.getStatus());
+		assertEquals(3, monitor.changes.size());
+		assertEquals(VeritomyxSaaS.W_INFO, monitor.changes.get(0).intValue());
+		assertEquals(VeritomyxSaaS.W_RUNNING, monitor.changes.get(1).intValue());
+		assertEquals(VeritomyxSaaS.W_DONE, monitor.changes.get(2).intValue());
+	}
+
+	@Test
+	public void testIntervalGrowsWhileStatusIsUnchanged() throws InterruptedException
+	{
+		TestMonitor monitor = new TestMonitor(POLL_INTERVAL, 8 * POLL_INTERVAL);
+		StubJob job = new StubJob(VeritomyxSaaS.W_RUNNING);
+		monitor.addJob(job);
+
+		// Polls at 0, 1, 3, 7 and 15 intervals: the 5th poll cannot come
+		// before 15 intervals
+		long start = System.currentTimeMillis();
+		assertTrue(job.awaitRequests(5, 60 * POLL_INTERVAL));
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("polled too often, 5 polls in " + elapsed + " ms", elapsed >= 14 * POLL_INTERVAL);
+		monitor.removeJob(job);
+	}
+
+	@Test
+	public void testRemovedJobIsNotPolled() throws InterruptedException
+	{
+		TestMonitor monitor = new TestMonitor(POLL_INTERVAL, POLL_INTERVAL);
+		StubJob job = new StubJob(VeritomyxSaaS.W_RUNNING);
+		monitor.addJob(job);
+		assertTrue(job.awaitRequests(1, 2000));
+
+		monitor.removeJob(job);
+		Thread.sleep(2 * POLL_INTERVAL);
+		job.requests.drainPermits();
+		Thread.sleep(5 * POLL_INTERVAL);
+		assertEquals("removed job was polled", 0, job.requests.availablePermits());
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin
+ * St, Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.masslistmethods.chromatogrambuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.RawDataFile;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleScan;
+import net.sf.mzmine.parameters.parametertypes.MZTolerance;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.util.DataPointSorter;
+import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.SortingDirection;
+import net.sf.mzmine.util.SortingProperty;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the m/z index of HighestDataPointConnector connects the same
+ * data points as the linear scan over all building chromatograms it replaced
+ */
+public class HighestDataPointConnectorTest {
+
+	private static final int NUMBER_OF_SCANS = 60;
+	private static final double MINIMUM_TIME_SPAN = 0.1;
+	private static final double MINIMUM_HEIGHT = 0;
+
+	private RawDataFileImpl dataFile;
+
+	@Before
+	public void setUp() throws IOException {
+		dataFile = new RawDataFileImpl("test");
+	}
+
+	@After
+	public void tearDown() {
+		dataFile.close();
+	}
+
+	@Test
+	public void testAbsoluteTolerance() throws IOException {
+		for (long seed = 0; seed < 20; seed++)
+			compareConnectors(new MZTolerance(0.004, 0), seed);
+	}
+
+	@Test
+	public void testPpmTolerance() throws IOException {
+		for (long seed = 0; seed < 20; seed++)
+			compareConnectors(new MZTolerance(0, 20), seed);
+	}
+
+	@Test
+	public void testMixedTolerance() throws IOException {
+		for (long seed = 0; seed < 20; seed++)
+			compareConnectors(new MZTolerance(0.002, 10), seed);
+	}
+
+	/**
+	 * Feeds the same random scans to both connectors and compares the
+	 * resulting chromatograms, including their order. The m/z values lie on a
+	 * coarse grid and the intensities take a few values only, so that many
+	 * m/z peaks fall on tolerance boundaries and many chromatograms tie for
+	 * the highest last data point.
+	 */
+	private void compareConnectors(MZTolerance mzTolerance, long seed)
+			throws IOException {
+
+		Random random = new Random(seed);
+		dataFile.close();
+		dataFile = new RawDataFileImpl("test " + seed);
+
+		DataPoint scans[][] = new DataPoint[NUMBER_OF_SCANS][];
+		for (int i = 0; i < NUMBER_OF_SCANS; i++) {
+			DataPoint dataPoints[] = new DataPoint[random.nextInt(200)];
+			for (int j = 0; j < dataPoints.length; j++) {
+				double mz = 400 + random.nextInt(400) * 0.001;
+				double intensity = 1 + random.nextInt(4);
+				dataPoints[j] = new SimpleDataPoint(mz, intensity);
+			}
+			Arrays.sort(dataPoints, new DataPointSorter(SortingProperty.MZ,
+					SortingDirection.Ascending));
+			scans[i] = dataPoints;
+			dataFile.addScan(new SimpleScan(dataFile, i + 1, 1, i * 0.05, -1,
+					0, 0, new int[0], dataPoints, true));
+		}
+
+		HighestDataPointConnector connector = new HighestDataPointConnector(
+				MINIMUM_TIME_SPAN, MINIMUM_HEIGHT, mzTolerance);
+		LinearConnector reference = new LinearConnector(MINIMUM_TIME_SPAN,
+				MINIMUM_HEIGHT, mzTolerance);
+		for (int i = 0; i < NUMBER_OF_SCANS; i++) {
+			connector.addScan(dataFile, i + 1, scans[i].clone());
+			reference.addScan(dataFile, i + 1, scans[i].clone());
+		}
+
+		Chromatogram chromatograms[] = connector.finishChromatograms();
+		Chromatogram expected[] = reference.finishChromatograms();
+
+		assertEquals("chromatograms of seed " + seed, expected.length,
+				chromatograms.length);
+		for (int i = 0; i < expected.length; i++) {
+			for (int scan = 1; scan <= NUMBER_OF_SCANS; scan++) {
+				assertSame("chromatogram " + i + ", scan " + scan + " of seed "
+						+ seed, expected[i].getDataPoint(scan),
+						chromatograms[i].getDataPoint(scan));
+			}
+		}
+
+	}
+
+	/**
+	 * The connector as it was before the m/z index, testing every building
+	 * chromatogram for every m/z peak
+	 */
+	private static class LinearConnector {
+
+		private MZTolerance mzTolerance;
+		private double minimumTimeSpan, minimumHeight;
+		private Set<Chromatogram> buildingChromatograms = new LinkedHashSet<Chromatogram>();
+
+		LinearConnector(double minimumTimeSpan, double minimumHeight,
+				MZTolerance mzTolerance) {
+			this.mzTolerance = mzTolerance;
+			this.minimumHeight = minimumHeight;
+			this.minimumTimeSpan = minimumTimeSpan;
+		}
+
+		void addScan(RawDataFile dataFile, int scanNumber,
+				DataPoint mzValues[]) {
+
+			Arrays.sort(mzValues, new DataPointSorter(
+					SortingProperty.Intensity, SortingDirection.Descending));
+
+			Set<Chromatogram> connectedChromatograms = new LinkedHashSet<Chromatogram>();
+
+			for (DataPoint mzPeak : mzValues) {
+
+				Chromatogram bestChromatogram = null;
+
+				for (Chromatogram testChrom : buildingChromatograms) {
+					DataPoint lastMzPeak = testChrom.getLastMzPeak();
+					Range toleranceRange = mzTolerance
+							.getToleranceRange(lastMzPeak.getMZ());
+					if (toleranceRange.contains(mzPeak.getMZ())) {
+						if ((bestChromatogram == null)
+								|| (testChrom.getLastMzPeak().getIntensity() > bestChromatogram
+										.getLastMzPeak().getIntensity())) {
+							bestChromatogram = testChrom;
+						}
+					}
+				}
+
+				if (bestChromatogram != null) {
+					if (connectedChromatograms.contains(bestChromatogram))
+						continue;
+				} else {
+					bestChromatogram = new Chromatogram(dataFile);
+				}
+
+				bestChromatogram.addMzPeak(scanNumber, mzPeak);
+				connectedChromatograms.add(bestChromatogram);
+
+			}
+
+			for (Chromatogram testChrom : buildingChromatograms) {
+				if (connectedChromatograms.contains(testChrom))
+					continue;
+				if (testChrom.getBuildingSegmentLength() >= minimumTimeSpan) {
+					testChrom.commitBuildingSegment();
+					connectedChromatograms.add(testChrom);
+					continue;
+				}
+				if (testChrom.getNumberOfCommittedSegments() > 0) {
+					testChrom.removeBuildingSegment();
+					connectedChromatograms.add(testChrom);
+				}
+			}
+
+			buildingChromatograms = connectedChromatograms;
+
+		}
+
+		Chromatogram[] finishChromatograms() {
+
+			Iterator<Chromatogram> chromIterator = buildingChromatograms
+					.iterator();
+			while (chromIterator.hasNext()) {
+				Chromatogram chromatogram = chromIterator.next();
+				if (chromatogram.getBuildingSegmentLength() >= minimumTimeSpan) {
+					chromatogram.commitBuildingSegment();
+					chromatogram.finishChromatogram();
+				} else {
+					if (chromatogram.getNumberOfCommittedSegments() == 0) {
+						chromIterator.remove();
+						continue;
+					}
+					chromatogram.removeBuildingSegment();
+					chromatogram.finishChromatogram();
+				}
+				if (chromatogram.getHeight() < minimumHeight)
+					chromIterator.remove();
+			}
+
+			return buildingChromatograms.toArray(new Chromatogram[0]);
+		}
+
+	}
+
+}
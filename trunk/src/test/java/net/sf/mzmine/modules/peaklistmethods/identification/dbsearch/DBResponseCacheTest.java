@@ -0,0 +1,148 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.dbsearch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the eviction, size limit and reloading of the DBResponseCache
+ */
+public class DBResponseCacheTest {
+
+    // Size of the file of a response made by createResponse(): version,
+    // time, number of values, null flag, UTF length and 100 characters
+    private static final int RESPONSE_SIZE = 4 + 8 + 4 + 1 + 2 + 100;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+	directory = File.createTempFile("dbcache", "");
+	directory.delete();
+	directory.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+	File files[] = directory.listFiles();
+	if (files != null) {
+	    for (File file : files)
+		file.delete();
+	}
+	directory.delete();
+    }
+
+    @Test
+    public void testNullValues() {
+	DBResponseCache cache = new DBResponseCache(directory, 1 << 20);
+	String values[] = { "C00031", null, "", "http://localhost/C00031" };
+	cache.put("compound", values);
+	assertArrayEquals(values, cache.get("compound"));
+	assertNull(cache.get("other compound"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+	DBResponseCache cache = new DBResponseCache(directory,
+		3 * RESPONSE_SIZE);
+	cache.put("a", createResponse('a'));
+	cache.put("b", createResponse('b'));
+	cache.put("c", createResponse('c'));
+
+	// Use "a", so "b" becomes the least recently used response
+	assertArrayEquals(createResponse('a'), cache.get("a"));
+	cache.put("d", createResponse('d'));
+
+	assertNull(cache.get("b"));
+	assertArrayEquals(createResponse('a'), cache.get("a"));
+	assertArrayEquals(createResponse('c'), cache.get("c"));
+	assertArrayEquals(createResponse('d'), cache.get("d"));
+    }
+
+    @Test
+    public void testSizeLimit() {
+	final long maxSize = 5 * RESPONSE_SIZE + RESPONSE_SIZE / 2;
+	DBResponseCache cache = new DBResponseCache(directory, maxSize);
+	for (char c = 'a'; c <= 'z'; c++) {
+	    cache.put(String.valueOf(c), createResponse(c));
+	    assertTrue(getDirectorySize() <= maxSize);
+	}
+	assertEquals(5 * RESPONSE_SIZE, getDirectorySize());
+	assertNull(cache.get("u"));
+	for (char c = 'v'; c <= 'z'; c++)
+	    assertArrayEquals(createResponse(c), cache.get(String.valueOf(c)));
+    }
+
+    @Test
+    public void testReload() {
+	DBResponseCache cache = new DBResponseCache(directory,
+		3 * RESPONSE_SIZE);
+	cache.put("a", createResponse('a'));
+	cache.put("b", createResponse('b'));
+	cache.put("c", createResponse('c'));
+
+	// The order of use is kept in the modification times of the files,
+	// make "b" the least recently used response
+	final long now = System.currentTimeMillis();
+	setLastUse("b", now - 3000);
+	setLastUse("c", now - 2000);
+	setLastUse("a", now - 1000);
+
+	// A new cache of the same directory knows the responses, their sizes
+	// and their order
+	cache = new DBResponseCache(directory, 3 * RESPONSE_SIZE);
+	cache.put("d", createResponse('d'));
+	assertEquals(3 * RESPONSE_SIZE, getDirectorySize());
+	assertNull(cache.get("b"));
+	assertArrayEquals(createResponse('a'), cache.get("a"));
+	assertArrayEquals(createResponse('c'), cache.get("c"));
+	assertArrayEquals(createResponse('d'), cache.get("d"));
+    }
+
+    private static String[] createResponse(char c) {
+	char value[] = new char[100];
+	for (int i = 0; i < value.length; i++)
+	    value[i] = c;
+	return new String[] { new String(value) };
+    }
+
+    private void setLastUse(String key, long time) {
+	File file = new File(directory, DBResponseCache.getFileName(key));
+	assertTrue(file.setLastModified(time));
+    }
+
+    private long getDirectorySize() {
+	long size = 0;
+	for (File file : directory.listFiles())
+	    size += file.length();
+	return size;
+    }
+
+}
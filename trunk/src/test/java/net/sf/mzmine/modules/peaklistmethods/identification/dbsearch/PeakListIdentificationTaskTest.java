@@ -0,0 +1,135 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.identification.dbsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.mzmine.util.InetUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that the requests to online databases are sent concurrently, but
+ * never more than MAX_CONCURRENT_REQUESTS at once, using a stub HTTP server
+ */
+public class PeakListIdentificationTaskTest {
+
+    private static final int NUMBER_OF_REQUESTS = 12;
+
+    // Time the stub server takes to answer each request
+    private static final long RESPONSE_TIME = 200;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final AtomicInteger runningRequests = new AtomicInteger();
+    private final AtomicInteger maxRunningRequests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+	server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+	server.createContext("/compound/", new HttpHandler() {
+	    public void handle(HttpExchange exchange) throws IOException {
+		int running = runningRequests.incrementAndGet();
+		synchronized (maxRunningRequests) {
+		    if (running > maxRunningRequests.get())
+			maxRunningRequests.set(running);
+		}
+		try {
+		    Thread.sleep(RESPONSE_TIME);
+		    String path = exchange.getRequestURI().getPath();
+		    byte response[] = ("Compound "
+			    + path.substring(path.lastIndexOf('/') + 1))
+			    .getBytes("UTF-8");
+		    exchange.sendResponseHeaders(200, response.length);
+		    OutputStream out = exchange.getResponseBody();
+		    out.write(response);
+		    out.close();
+		} catch (InterruptedException e) {
+		    exchange.sendResponseHeaders(500, -1);
+		} finally {
+		    runningRequests.decrementAndGet();
+		    exchange.close();
+		}
+	    }
+	});
+
+	// The server itself answers any number of requests at once
+	serverExecutor = Executors.newCachedThreadPool();
+	server.setExecutor(serverExecutor);
+	server.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+	server.stop(0);
+	serverExecutor.shutdownNow();
+	serverExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+
+	final String address = "http://localhost:"
+		+ server.getAddress().getPort() + "/compound/";
+
+	List<Future<String>> responses = new ArrayList<Future<String>>();
+	for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+	    final URL url = new URL(address + i);
+	    responses.add(PeakListIdentificationTask
+		    .submitRequest(new Callable<String>() {
+			public String call() throws IOException {
+			    return InetUtils.retrieveData(url);
+			}
+		    }));
+	}
+
+	// Responses are returned to the right requests
+	for (int i = 0; i < NUMBER_OF_REQUESTS; i++)
+	    assertEquals("Compound " + i,
+		    responses.get(i).get(10, TimeUnit.SECONDS));
+
+	assertTrue("Requests were not sent concurrently",
+		maxRunningRequests.get() > 1);
+	assertTrue(
+		"Too many requests were sent at once",
+		maxRunningRequests.get() <= PeakListIdentificationTask.MAX_CONCURRENT_REQUESTS);
+    }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ * 
+ * This file is part of MZmine 2.
+ * 
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ * 
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.peaklistmethods.io.sqlexport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import net.sf.mzmine.datamodel.DataPoint;
+import net.sf.mzmine.datamodel.Feature.FeatureStatus;
+import net.sf.mzmine.datamodel.IsotopePattern.IsotopePatternStatus;
+import net.sf.mzmine.datamodel.PeakList;
+import net.sf.mzmine.datamodel.impl.SimpleDataPoint;
+import net.sf.mzmine.datamodel.impl.SimpleFeature;
+import net.sf.mzmine.datamodel.impl.SimpleIsotopePattern;
+import net.sf.mzmine.datamodel.impl.SimplePeakList;
+import net.sf.mzmine.datamodel.impl.SimplePeakListRow;
+import net.sf.mzmine.parameters.ParameterSet;
+import net.sf.mzmine.project.impl.RawDataFileImpl;
+import net.sf.mzmine.taskcontrol.TaskStatus;
+import net.sf.mzmine.util.Range;
+import net.sf.mzmine.util.ScanUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the batches, transactions and blobs of the SQL export against an
+ * embedded H2 database. The connections of the task are opened through the
+ * RecordingDriver, which records the size of each executed batch and the
+ * number of commits and rollbacks.
+ */
+public class SQLExportTaskTest {
+
+    private static final String DATABASE = "mem:sqlexport";
+    private static final String TABLE = "peaks";
+    private static final int NUMBER_OF_ROWS = 25;
+    private static final int BATCH_SIZE = 4;
+    private static final int COMMIT_INTERVAL = 10;
+
+    private static final RecordingDriver driver = new RecordingDriver();
+
+    static {
+	try {
+	    DriverManager.registerDriver(driver);
+	} catch (SQLException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    private RawDataFileImpl dataFile;
+    private PeakList peakList;
+
+    // Keeps the in-memory database open during the test
+    private Connection connection;
+
+    @Before
+    public void setUp() throws IOException, SQLException {
+
+	dataFile = new RawDataFileImpl("test");
+	peakList = new SimplePeakList("test", dataFile);
+	for (int i = 1; i <= NUMBER_OF_ROWS; i++) {
+	    double mz = 100.0 * i;
+	    double height = 1000.0 * i;
+	    SimpleFeature peak = new SimpleFeature(dataFile, mz, i, height,
+		    height, new int[] { i },
+		    new DataPoint[] { new SimpleDataPoint(mz, height) },
+		    FeatureStatus.DETECTED, i, -1, new Range(i), new Range(mz),
+		    new Range(height));
+	    peak.setIsotopePattern(new SimpleIsotopePattern(
+		    getIsotopes(mz, height), IsotopePatternStatus.DETECTED,
+		    "test"));
+	    SimplePeakListRow row = new SimplePeakListRow(i);
+	    row.addPeak(dataFile, peak);
+	    peakList.addRow(row);
+	}
+
+	connection = DriverManager.getConnection("jdbc:h2:" + DATABASE);
+
+	driver.batchSizes.clear();
+	driver.commits = 0;
+	driver.rollbacks = 0;
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+	connection.close();
+	dataFile.close();
+    }
+
+    @Test
+    public void testExport() throws SQLException {
+
+	createTable("mz DOUBLE");
+	SQLExportTask task = new SQLExportTask(createParameters());
+	task.run();
+	assertEquals(task.getErrorMessage(), TaskStatus.FINISHED,
+		task.getStatus());
+
+	// Batches end at the batch size, at each commit and at the end
+	assertEquals(Arrays.asList(4, 4, 2, 4, 4, 2, 4, 1), driver.batchSizes);
+	assertEquals(3, driver.commits);
+	assertEquals(0, driver.rollbacks);
+
+	Statement statement = connection.createStatement();
+	ResultSet result = statement.executeQuery("SELECT * FROM " + TABLE
+		+ " ORDER BY mz");
+	int i = 0;
+	while (result.next()) {
+	    i++;
+	    double mz = 100.0 * i;
+	    double height = 1000.0 * i;
+	    assertEquals("sample", result.getString("dataset"));
+	    assertEquals(mz, result.getDouble("mz"), 0);
+	    assertEquals(height, result.getDouble("height"), 0);
+	    assertArrayEquals(
+		    ScanUtils.encodeDataPointsToBytes(getIsotopes(mz, height)),
+		    result.getBytes("isotopes"));
+	}
+	statement.close();
+	assertEquals(NUMBER_OF_ROWS, i);
+    }
+
+    @Test
+    public void testRollback() throws SQLException {
+
+	// Row 15 violates the constraint, in the second transaction
+	createTable("mz DOUBLE CHECK (mz < 1500)");
+	SQLExportTask task = new SQLExportTask(createParameters());
+	task.run();
+	assertEquals(TaskStatus.ERROR, task.getStatus());
+	assertTrue(task.getErrorMessage().startsWith("Error running SQL query"));
+	assertEquals(1, driver.commits);
+	assertEquals(1, driver.rollbacks);
+
+	// Only the rows of the first transaction are kept
+	assertEquals(COMMIT_INTERVAL, countRows());
+    }
+
+    private ParameterSet createParameters() {
+
+	SQLColumnSettings columns = new SQLColumnSettings();
+	addColumn(columns, "dataset", SQLExportDataType.CONSTANT, "sample");
+	addColumn(columns, "mz", SQLExportDataType.MZ, "");
+	addColumn(columns, "height", SQLExportDataType.HEIGHT, "");
+	addColumn(columns, "isotopes", SQLExportDataType.ISOTOPEPATTERN, "");
+
+	ParameterSet parameters = new SQLExportParameters();
+	parameters.getParameter(SQLExportParameters.peakList).setValue(
+		new PeakList[] { peakList });
+	parameters.getParameter(SQLExportParameters.connectionString)
+		.setValue(RecordingDriver.PREFIX + DATABASE);
+	parameters.getParameter(SQLExportParameters.tableName).setValue(TABLE);
+	parameters.getParameter(SQLExportParameters.exportColumns).setValue(
+		columns);
+	parameters.getParameter(SQLExportParameters.batchSize).setValue(
+		BATCH_SIZE);
+	parameters.getParameter(SQLExportParameters.commitInterval).setValue(
+		COMMIT_INTERVAL);
+	return parameters;
+    }
+
+    private static void addColumn(SQLColumnSettings columns, String name,
+	    SQLExportDataType type, String value) {
+	columns.addNewRow();
+	int row = columns.getRowCount() - 1;
+	columns.setValueAt(name, row, 0);
+	columns.setValueAt(type, row, 1);
+	columns.setValueAt(value, row, 2);
+    }
+
+    private static DataPoint[] getIsotopes(double mz, double height) {
+	return new DataPoint[] { new SimpleDataPoint(mz, height),
+		new SimpleDataPoint(mz + 1.003355, height * 0.25),
+		new SimpleDataPoint(mz + 2.00671, height * 0.05) };
+    }
+
+    private void createTable(String mzColumn) throws SQLException {
+	Statement statement = connection.createStatement();
+	statement.execute("CREATE TABLE " + TABLE + " (dataset VARCHAR(20), "
+		+ mzColumn + ", height DOUBLE, isotopes BLOB)");
+	statement.close();
+    }
+
+    private int countRows() throws SQLException {
+	Statement statement = connection.createStatement();
+	ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM "
+		+ TABLE);
+	result.next();
+	int count = result.getInt(1);
+	statement.close();
+	return count;
+    }
+
+    /**
+     * Opens H2 connections for URLs starting with PREFIX and records the
+     * batches and transactions of the connections
+     */
+    private static class RecordingDriver implements Driver {
+
+	static final String PREFIX = "jdbc:recording:";
+
+	final List<Integer> batchSizes = new ArrayList<Integer>();
+	int commits, rollbacks;
+
+	public Connection connect(String url, Properties info)
+		throws SQLException {
+	    if (!acceptsURL(url))
+		return null;
+	    final Connection connection = DriverManager.getConnection(
+		    "jdbc:h2:" + url.substring(PREFIX.length()), info);
+	    return (Connection) record(connection, Connection.class);
+	}
+
+	private Object record(final Object target, Class<?> type) {
+	    return Proxy.newProxyInstance(getClass().getClassLoader(),
+		    new Class<?>[] { type }, new InvocationHandler() {
+
+			private int pendingRows;
+
+			public Object invoke(Object proxy, Method method,
+				Object[] args) throws Throwable {
+			    String name = method.getName();
+			    if (name.equals("commit"))
+				commits++;
+			    else if (name.equals("rollback"))
+				rollbacks++;
+			    else if (name.equals("addBatch"))
+				pendingRows++;
+			    else if (name.equals("executeBatch")) {
+				batchSizes.add(pendingRows);
+				pendingRows = 0;
+			    }
+			    Object result;
+			    try {
+				result = method.invoke(target, args);
+			    } catch (InvocationTargetException e) {
+				throw e.getCause();
+			    }
+			    if (name.equals("prepareStatement"))
+				result = record(result, PreparedStatement.class);
+			    return result;
+			}
+		    });
+	}
+
+	public boolean acceptsURL(String url) {
+	    return url.startsWith(PREFIX);
+	}
+
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+	    return new DriverPropertyInfo[0];
+	}
+
+	public int getMajorVersion() {
+	    return 1;
+	}
+
+	public int getMinorVersion() {
+	    return 0;
+	}
+
+	public boolean jdbcCompliant() {
+	    return false;
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+	    throw new SQLFeatureNotSupportedException();
+	}
+
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2006-2014 The MZmine 2 Development Team
+ *
+ * This file is part of MZmine 2.
+ *
+ * MZmine 2 is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * MZmine 2 is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * MZmine 2; if not, write to the Free Software Foundation, Inc., 51 Franklin St,
+ * Fifth Floor, Boston, MA 02110-1301 USA
+ */
+
+package net.sf.mzmine.modules.rawdatamethods.filtering.baselinecorrection;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares AsymmetricLeastSquares with ptw::asysm(), transcribed below with
+ * dense matrices as in R:
+ *
+ * <pre>
+ * asysm &lt;- function(y, lambda = 1e7, p = 0.001, eps = 1e-8, maxit = 25) {
+ *     m &lt;- length(y)
+ *     D &lt;- diff(diag(m), differences = 2)
+ *     w &lt;- rep(1, m)
+ *     for (it in 1:maxit) {
+ *         z &lt;- solve(diag(w) + lambda * t(D) %*% D, w * y)
+ *         w0 &lt;- w
+ *         w &lt;- ifelse(y &gt; z + eps, p, 1 - p)
+ *         if (sum(abs(w - w0)) == 0) break
+ *     }
+ *     z
+ * }
+ * </pre>
+ */
+public class AsymmetricLeastSquaresTest {
+
+    @Test
+    public void testRandomSignals() {
+
+        final Random random = new Random(1);
+        for (int test = 0; test < 40; test++) {
+
+            final int m = 5 + random.nextInt(200);
+            final double lambda = Math.pow(10.0, random.nextInt(6));
+            final double p = test % 2 == 0 ? 0.001 : 0.05;
+            final double[] y = chromatogram(random, m, test % 4 == 1);
+
+            assertBaseline("signal " + test, y, lambda, p);
+        }
+    }
+
+    @Test
+    public void testNegativeSignal() {
+
+        // Intensities below zero (e.g. after another correction) get the
+        // weight of any other point under the baseline.
+        final double[] y = chromatogram(new Random(2), 150, true);
+        for (int i = 0; i < y.length; i++) {
+            y[i] -= 300.0;
+        }
+        assertBaseline("negative signal", y, 1e4, 0.001);
+    }
+
+    @Test
+    public void testLinearSignal() {
+
+        // D z = 0 for a straight line, so asysm() returns the line itself.
+        final double[] y = new double[100];
+        for (int i = 0; i < y.length; i++) {
+            y[i] = 50.0 - 0.25 * i;
+        }
+        final double[] z = new AsymmetricLeastSquares(1e5, 0.001).baseline(y);
+        for (int i = 0; i < y.length; i++) {
+            assertEquals("point " + i, y[i], z[i], 1e-6);
+        }
+    }
+
+    @Test
+    public void testShortSignals() {
+
+        // Less than three points: D is empty and the baseline is the signal.
+        for (int m = 0; m < 3; m++) {
+            final double[] y = new double[m];
+            Arrays.fill(y, 7.0);
+            assertBaseline("length " + m, y, 1e6, 0.001);
+        }
+    }
+
+    /**
+     * Returns a chromatogram made of a slowly varying background, noise and
+     * a few peaks.
+     */
+    private static double[] chromatogram(final Random random, final int m,
+            final boolean negativeNoise) {
+
+        final double[] y = new double[m];
+        final double slope = random.nextDouble() * 2.0 - 1.0;
+        for (int i = 0; i < m; i++) {
+            y[i] = 100.0 + slope * i + 20.0 * Math.sin(i / 30.0);
+            y[i] += negativeNoise ? random.nextGaussian() * 5.0 : random.nextDouble() * 5.0;
+        }
+        for (int peak = random.nextInt(5); peak > 0; peak--) {
+            final int center = random.nextInt(m);
+            final double height = 1000.0 * random.nextDouble();
+            for (int i = Math.max(0, center - 10); i < Math.min(m, center + 10); i++) {
+                y[i] += height * Math.exp(-(i - center) * (i - center) / 8.0);
+            }
+        }
+        return y;
+    }
+
+    private static void assertBaseline(final String message, final double[] y,
+            final double lambda, final double p) {
+
+        final double[] expected = asysm(y, lambda, p);
+        final double[] z = new AsymmetricLeastSquares(lambda, p).baseline(y);
+
+        double scale = 1.0;
+        for (final double value : y) {
+            scale = Math.max(scale, Math.abs(value));
+        }
+        assertEquals(message, expected.length, z.length);
+        for (int i = 0; i < z.length; i++) {
+            assertEquals(message + ", point " + i, expected[i], z[i], scale * 1e-7);
+        }
+    }
+
+    /**
+     * ptw::asysm() with the same eps and maxit defaults.
+     */
+    private static double[] asysm(final double[] y, final double lambda, final double p) {
+
+        final double eps = 1e-8;
+        final int maxit = 25;
+        final int m = y.length;
+
+        // D'D, where D is the (m - 2) x m second order difference matrix.
+        final double[][] dtd = new double[m][m];
+        for (int k = 0; k + 2 < m; k++) {
+            final int[] columns = {k, k + 1, k + 2};
+            final double[] row = {1.0, -2.0, 1.0};
+            for (int a = 0; a < 3; a++) {
+                for (int b = 0; b < 3; b++) {
+                    dtd[columns[a]][columns[b]] += row[a] * row[b];
+                }
+            }
+        }
+
+        double[] w = new double[m];
+        Arrays.fill(w, 1.0);
+        double[] z = new double[m];
+        for (int it = 0; it < maxit; it++) {
+
+            final double[][] a = new double[m][m];
+            final double[] b = new double[m];
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < m; j++) {
+                    a[i][j] = lambda * dtd[i][j];
+                }
+                a[i][i] += w[i];
+                b[i] = w[i] * y[i];
+            }
+            z = solve(a, b);
+
+            final double[] w0 = w;
+            w = new double[m];
+            double change = 0.0;
+            for (int i = 0; i < m; i++) {
+                w[i] = y[i] > z[i] + eps ? p : 1.0 - p;
+                change += Math.abs(w[i] - w0[i]);
+            }
+            if (change == 0.0) {
+                break;
+            }
+        }
+        return z;
+    }
+
+    /**
+     * Solves a x = b by Gaussian elimination with partial pivoting.
+     */
+    private static double[] solve(final double[][] a, final double[] b) {
+
+        final int n = b.length;
+        for (int col = 0; col < n; col++) {
+
+            int pivot = col;
+            for (int row = col + 1; row < n; row++) {
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+                    pivot = row;
+                }
+            }
+            final double[] rowSwap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = rowSwap;
+            final double swap = b[col];
+            b[col] = b[pivot];
+            b[pivot] = swap;
+
+            for (int row = col + 1; row < n; row++) {
+                final double factor = a[row][col] / a[col][col];
+                if (factor != 0.0) {
+                    for (int j = col; j < n; j++) {
+                        a[row][j] -= factor * a[col][j];
+                    }
+                    b[row] -= factor * b[col];
+                }
+            }
+        }
+
+        final double[] x = new double[n];
+        for (int row = n - 1; row >= 0; row--) {
+            double sum = b[row];
+            for (int j = row + 1; j < n; j++) {
+                sum -= a[row][j] * x[j];
+            }
+            x[row] = sum / a[row][row];
+        }
+        return x;
+    }
+}